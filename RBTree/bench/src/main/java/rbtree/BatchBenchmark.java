@@ -0,0 +1,136 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures applying a batch of inserts or deletes to a loaded tree: insertAll/deleteAll against
+ * one insert/delete call per key. Every invocation applies a single batch, and the tree is restored afterwards.
+ * The batch keys are either spread at random over the whole tree, or clustered in a narrow key range
+ * (like a batch of recent, time-ordered ids).
+ *
+ * Example: java -jar target/benchmarks.jar BatchBenchmark -p size=1000000 -p batch=100000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"10000", "100000"})
+    public int batch;
+
+    @Param({"false", "true"})
+    public boolean clustered;
+
+    RBTree tree;
+    int[] present;
+    int[] absent;
+    String[] values;
+    Random rnd;
+
+    @Setup(Level.Trial)
+    public void load() {
+        rnd = new Random(42);
+        present = KeyDistribution.RANDOM.keys(size, rnd);
+        tree = new RBTree();
+        for (int key : present) {
+            tree.insert(key, RBTreeBenchmark.VALUE);
+        }
+        absent = new int[batch];
+        if (clustered) {
+            Arrays.sort(present);
+            int from = rnd.nextInt(size - batch + 1);
+            present = Arrays.copyOfRange(present, from, from + batch);
+            shuffle(present);
+        } else {
+            present = Arrays.copyOf(present, batch);
+        }
+        values = new String[batch];
+        Arrays.fill(values, RBTreeBenchmark.VALUE);
+    }
+
+    /**
+     * Picks a batch of keys which are absent from the tree (all the keys in the tree are even)
+     */
+    @Setup(Level.Invocation)
+    public void pick() {
+        if (clustered) {
+            int start = 2 * rnd.nextInt(Integer.MAX_VALUE / 2 - batch) + 1;
+            for (int i = 0; i < batch; i++) {
+                absent[i] = start + 2 * i;
+            }
+            shuffle(absent);
+        } else {
+            for (int i = 0; i < batch; i++) {
+                absent[i] = 2 * rnd.nextInt(Integer.MAX_VALUE / 2) + 1;
+            }
+        }
+    }
+
+    private void shuffle(int[] keys) {
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        }
+    }
+
+    /**
+     * Undoes the inserts or the deletes of the invocation
+     */
+    @TearDown(Level.Invocation)
+    public void undo() {
+        tree.deleteAll(absent);
+        tree.insertAll(present, values);
+    }
+
+    @Benchmark
+    public int[] insertAll() {
+        return tree.insertAll(absent, values);
+    }
+
+    @Benchmark
+    public int insertEach() {
+        int result = 0;
+        for (int i = 0; i < batch; i++) {
+            result += tree.insert(absent[i], values[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] deleteAll() {
+        return tree.deleteAll(present);
+    }
+
+    @Benchmark
+    public int deleteEach() {
+        int result = 0;
+        for (int key : present) {
+            result += tree.delete(key);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a whole tree from sorted input (e.g. a warm start from a snapshot):
+ * the linear-time sorted build against one insert per key, with TreeMap's own sorted-map constructor as a baseline.
+ * Also measures reopening a MappedRBTree file holding the same keys, which needs no loading at all,
+ * and a checkpoint round trip through RBTree's binary format (writeTo into memory, and readFrom out of it).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkLoadBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    int[] keys;
+    String[] values;
+    SortedMap<Integer, String> sortedMap;
+    Path mappedFile;
+    RBTree tree;
+    byte[] serialized;
+    ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        keys = KeyDistribution.SORTED.keys(size, new Random(42));
+        values = new String[size];
+        sortedMap = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            values[i] = RBTreeBenchmark.VALUE;
+            sortedMap.put(keys[i], values[i]);
+        }
+
+        tree = new RBTree(keys, values);
+        out = new ByteArrayOutputStream();
+        tree.writeTo(out);
+        serialized = out.toByteArray();
+
+        mappedFile = Files.createTempFile("rbtree-bench", ".map");
+        try (MappedRBTree tree = MappedRBTree.open(mappedFile)) {
+            for (int i = 0; i < size; i++) {
+                tree.insert(keys[i], values[i]);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteMappedFile() throws IOException {
+        Files.deleteIfExists(mappedFile);
+    }
+
+    @Benchmark
+    public RBTree sortedArrays() {
+        return new RBTree(keys, values);
+    }
+
+    @Benchmark
+    public RBTree sortedMap() {
+        return new RBTree(sortedMap);
+    }
+
+    @Benchmark
+    public RBTree insertEach() {
+        RBTree tree = new RBTree();
+        for (int i = 0; i < keys.length; i++) {
+            tree.insert(keys[i], values[i]);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public String reopenMapped() throws IOException {
+        try (MappedRBTree tree = MappedRBTree.open(mappedFile)) {
+            return tree.search(keys[keys.length / 2]);
+        }
+    }
+
+    @Benchmark
+    public int writeTo() throws IOException {
+        out.reset();
+        tree.writeTo(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public RBTree readFrom() throws IOException {
+        return RBTree.readFrom(new ByteArrayInputStream(serialized));
+    }
+
+    @Benchmark
+    public TreeMap<Integer, String> treeMapSortedMap() {
+        return new TreeMap<>(sortedMap);
+    }
+}
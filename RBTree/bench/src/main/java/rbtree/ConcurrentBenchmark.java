@@ -0,0 +1,204 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded benchmarks for ConcurrentRBTree and ShardedRBTree,
+ * with java.util.concurrent.ConcurrentSkipListMap as a baseline.
+ *
+ * "search" is read-only; run it once per thread count to see how reads scale with cores:
+ *   for t in 1 2 4 8; do java -jar target/benchmarks.jar ConcurrentBenchmark.search -t $t; done
+ * The "readWrite" group runs one writer, which keeps inserting and deleting keys, against several readers:
+ *   java -jar target/benchmarks.jar ConcurrentBenchmark.readWrite -tg 1,7
+ * The "scanWrite" group runs the same writer against threads which keep scanning ranges of 1000 keys
+ * (ConcurrentRBTree reads the scans a chunk at a time, so the writer never waits for more than one chunk):
+ *   java -jar target/benchmarks.jar ConcurrentBenchmark.scanWrite -tg 1,3 -p impl=ConcurrentRBTree
+ * "insertDelete" has every thread write, to see how writes scale with cores:
+ *   for t in 1 2 4 8; do java -jar target/benchmarks.jar ConcurrentBenchmark.insertDelete -t $t; done
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+    /**
+     * The implementations that can be selected with the "impl" benchmark parameter
+     */
+    public enum Impl {
+        ConcurrentRBTree,
+        ShardedRBTree,
+        ConcurrentSkipListMap
+    }
+
+    /**
+     * The width of the key ranges scanned by the "scanWrite" group (about 1000 keys, with the RANDOM key gaps)
+     */
+    static final int SCAN_WIDTH = 9000;
+
+    /**
+     * A map shared by all the benchmark threads, loaded with "size" even keys
+     */
+    @State(Scope.Benchmark)
+    public static class SharedMap {
+        @Param({"ConcurrentRBTree", "ShardedRBTree", "ConcurrentSkipListMap"})
+        public Impl impl;
+
+        @Param({"1000", "1000000"})
+        public int size;
+
+        ConcurrentRBTree tree;
+        ShardedRBTree sharded;
+        ConcurrentSkipListMap<Integer, String> skipList;
+        int[] keys;
+
+        @Setup(Level.Trial)
+        public void load() {
+            keys = KeyDistribution.RANDOM.keys(size, new Random(42));
+            tree = new ConcurrentRBTree();
+            sharded = new ShardedRBTree();
+            skipList = new ConcurrentSkipListMap<>();
+            for (int key : keys) {
+                insert(key);
+            }
+        }
+
+        String search(int k) {
+            switch (impl) {
+                case ConcurrentRBTree:
+                    return tree.search(k);
+                case ShardedRBTree:
+                    return sharded.search(k);
+                default:
+                    return skipList.get(k);
+            }
+        }
+
+        int scan(int k) {
+            switch (impl) {
+                case ConcurrentRBTree:
+                    return tree.keysInRange(k, k + SCAN_WIDTH).length;
+                case ShardedRBTree:
+                    return sharded.keysInRange(k, k + SCAN_WIDTH).length;
+                default:
+                    return skipList.subMap(k, k + SCAN_WIDTH).keySet().toArray().length;
+            }
+        }
+
+        void insert(int k) {
+            switch (impl) {
+                case ConcurrentRBTree:
+                    tree.insert(k, RBTreeBenchmark.VALUE);
+                    break;
+                case ShardedRBTree:
+                    sharded.insert(k, RBTreeBenchmark.VALUE);
+                    break;
+                default:
+                    skipList.putIfAbsent(k, RBTreeBenchmark.VALUE);
+            }
+        }
+
+        void delete(int k) {
+            switch (impl) {
+                case ConcurrentRBTree:
+                    tree.delete(k);
+                    break;
+                case ShardedRBTree:
+                    sharded.delete(k);
+                    break;
+                default:
+                    skipList.remove(k);
+            }
+        }
+    }
+
+    /**
+     * The per-thread sequence of keys to access
+     */
+    @State(Scope.Thread)
+    public static class Probes {
+        int[] probes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void load(SharedMap map) {
+            probes = KeyDistribution.RANDOM.probes(map.keys, RBTreeBenchmark.PROBES, new Random(Thread.currentThread().getId()));
+            next = 0;
+        }
+
+        int nextKey() {
+            int key = probes[next];
+            next = (next + 1) & (RBTreeBenchmark.PROBES - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public String search(SharedMap map, Probes probes) {
+        return map.search(probes.nextKey());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(7)
+    public String reader(SharedMap map, Probes probes) {
+        return map.search(probes.nextKey());
+    }
+
+    /**
+     * Inserts an odd key (which the readers never look for) and deletes it again, so the map keeps its size
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(SharedMap map, Probes probes) {
+        int key = probes.nextKey() + 1;
+        map.insert(key);
+        map.delete(key);
+    }
+
+    @Benchmark
+    @Group("scanWrite")
+    @GroupThreads(3)
+    public int scanner(SharedMap map, Probes probes) {
+        return map.scan(probes.nextKey());
+    }
+
+    @Benchmark
+    @Group("scanWrite")
+    @GroupThreads(1)
+    public void scanWriter(SharedMap map, Probes probes) {
+        int key = probes.nextKey() + 1;
+        map.insert(key);
+        map.delete(key);
+    }
+
+    /**
+     * Every thread inserts an odd key and deletes it again.
+     * Threads rarely touch the same key, but in ConcurrentRBTree they all contend for the same lock.
+     */
+    @Benchmark
+    public void insertDelete(SharedMap map, Probes probes) {
+        int key = probes.nextKey() + 1;
+        map.insert(key);
+        map.delete(key);
+    }
+}
@@ -0,0 +1,137 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for DurableRBTree, in a temporary directory (set java.io.tmpdir to put it on the disk to measure).
+ *
+ * "write" measures durable write throughput (each op is an insert or a delete of a random key) for every sync policy.
+ * With EVERY_WRITE, concurrent writers share forces, so run it at several thread counts to see group commit at work:
+ *   for t in 1 4 16 64; do java -jar target/benchmarks.jar DurableBenchmark.write -p policy=EVERY_WRITE -t $t; done
+ * "recover" measures opening a directory which holds a snapshot of "size" keys and a log of "logOps" more changes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurableBenchmark {
+
+    static final int KEY_RANGE = 1 << 20;
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"EVERY_WRITE", "PERIODIC", "NEVER"})
+        public DurableRBTree.SyncPolicy policy;
+
+        Path directory;
+        DurableRBTree tree;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("rbtree-wal-bench");
+            tree = DurableRBTree.open(directory, policy, DurableRBTree.DEFAULT_SYNC_INTERVAL_MILLIS,
+                    DurableRBTree.DEFAULT_COMPACTION_BYTES);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            tree.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"1000000"})
+        public int size;
+
+        @Param({"100000", "1000000"})
+        public int logOps;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            directory = Files.createTempDirectory("rbtree-wal-bench");
+            try (DurableRBTree tree = DurableRBTree.open(directory, DurableRBTree.SyncPolicy.NEVER,
+                    DurableRBTree.DEFAULT_SYNC_INTERVAL_MILLIS, Long.MAX_VALUE)) {
+                for (int k = 0; k < size; k++) {
+                    tree.insert(2 * k, RBTreeBenchmark.VALUE);
+                }
+                tree.checkpoint();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < logOps; i++) {
+                    int key = random.nextInt(2 * size);
+                    if (tree.delete(key) < 0) {
+                        tree.insert(key, RBTreeBenchmark.VALUE);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Every open starts a new (empty) log; delete it, so the directory stays the same for the next open
+         */
+        @TearDown(Level.Invocation)
+        public void deleteEmptyLogs() throws IOException {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (file.toString().endsWith(".wal") && Files.size(file) == 0) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    public int write(Writes state) {
+        int key = ThreadLocalRandom.current().nextInt(KEY_RANGE);
+        int result = state.tree.insert(key, RBTreeBenchmark.VALUE);
+        return (result >= 0) ? result : state.tree.delete(key);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int recover(Recovery state) throws IOException {
+        try (DurableRBTree tree = DurableRBTree.open(state.directory, DurableRBTree.SyncPolicy.NEVER,
+                DurableRBTree.DEFAULT_SYNC_INTERVAL_MILLIS, Long.MAX_VALUE)) {
+            return tree.size();
+        }
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package rbtree;
+
+import java.util.Random;
+
+/**
+ * Measures the retained heap per entry of each OrderedIntMap implementation.
+ * This isn't a JMH benchmark, since JMH measures time and allocation rate, not retained memory.
+ *
+ * Run: java -cp target/benchmarks.jar rbtree.Footprint [size] [distribution]
+ */
+public class Footprint {
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        KeyDistribution distribution = args.length > 1 ? KeyDistribution.valueOf(args[1]) : KeyDistribution.RANDOM;
+        int[] keys = distribution.keys(size, new Random(42));
+
+        for (OrderedIntMap.Impl impl : OrderedIntMap.Impl.values()) {
+            long before = usedHeap();
+            OrderedIntMap map = impl.create();
+            for (int key : keys) {
+                map.insert(key, RBTreeBenchmark.VALUE);
+            }
+            long after = usedHeap();
+            System.out.printf("%-16s %,d entries: %.1f bytes/entry%n",
+                    impl, map.size(), (after - before) / (double) map.size());
+        }
+    }
+
+    /**
+     * Returns the used heap after making a best effort to collect all garbage
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
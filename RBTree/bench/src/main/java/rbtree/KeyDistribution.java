@@ -0,0 +1,168 @@
+package rbtree;
+
+import java.util.Random;
+
+/**
+ * The key distributions the benchmarks can be run with.
+ * A distribution decides both the order in which keys are loaded into the map,
+ * and the order in which they are accessed by the measured operations.
+ * All generated keys are even and non-negative, so key + 1 is always known to be absent from the map.
+ */
+public enum KeyDistribution {
+    /**
+     * Dense keys (0, 2, 4, ...) loaded and accessed in ascending order
+     */
+    SEQUENTIAL,
+    /**
+     * Sparse keys with random gaps, loaded and accessed in ascending order (like a reload from a sorted snapshot)
+     */
+    SORTED,
+    /**
+     * Sparse keys loaded in random order and accessed uniformly at random
+     */
+    RANDOM,
+    /**
+     * Sparse keys loaded in random order and accessed with a Zipfian skew (a few hot keys get most accesses)
+     */
+    ZIPFIAN,
+    /**
+     * Sparse keys loaded in random order, where 1% of the keys get 90% of the accesses
+     */
+    HOTSPOT;
+
+    /**
+     * The skew used for the Zipfian distribution (the YCSB default)
+     */
+    private static final double ZIPF_THETA = 0.99;
+
+    /**
+     * The share of the keys which are hot, and the share of the accesses which go to them, for HOTSPOT
+     */
+    private static final double HOT_KEYS = 0.01;
+    private static final double HOT_ACCESSES = 0.9;
+
+    /**
+     * Generates n distinct keys in the order in which they should be loaded into the map
+     * Works at O(n)
+     *
+     * @param n   The number of keys to generate
+     * @param rnd The source of randomness
+     * @return The keys, in load order
+     */
+    int[] keys(int n, Random rnd) {
+        int[] keys = new int[n];
+        if (this == SEQUENTIAL) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = 2 * i;
+            }
+            return keys;
+        }
+
+        int key = 0;
+        for (int i = 0; i < n; i++) {
+            keys[i] = key;
+            key += 2 + 2 * rnd.nextInt(8);
+        }
+        if (this != SORTED) {
+            shuffle(keys, rnd);
+        }
+        return keys;
+    }
+
+    /**
+     * Generates the sequence of keys the measured operations should access
+     * Works at O(n + count)
+     *
+     * @param keys  The keys in the map, as returned by keys()
+     * @param count The length of the access sequence
+     * @param rnd   The source of randomness
+     * @return A sequence of keys, all of which are in the given keys array
+     */
+    int[] probes(int[] keys, int count, Random rnd) {
+        int n = keys.length;
+        int[] probes = new int[count];
+        switch (this) {
+            case SEQUENTIAL:
+            case SORTED:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = keys[i % n];
+                }
+                break;
+            case RANDOM:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = keys[rnd.nextInt(n)];
+                }
+                break;
+            case ZIPFIAN:
+                // keys are already shuffled, so the hot ranks map to random keys
+                Zipf zipf = new Zipf(n, ZIPF_THETA);
+                for (int i = 0; i < count; i++) {
+                    probes[i] = keys[zipf.next(rnd)];
+                }
+                break;
+            case HOTSPOT:
+                // keys are already shuffled, so the hot keys (the first ones) are spread over the key range
+                int hot = Math.max(1, (int) (n * HOT_KEYS));
+                for (int i = 0; i < count; i++) {
+                    probes[i] = keys[rnd.nextInt((rnd.nextDouble() < HOT_ACCESSES) ? hot : n)];
+                }
+                break;
+        }
+        return probes;
+    }
+
+    /**
+     * Fisher-Yates shuffle of an int array
+     *
+     * @param array The array to shuffle in place
+     * @param rnd   The source of randomness
+     */
+    private static void shuffle(int[] array, Random rnd) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Zipfian rank generator over [0, n), as described by Gray et al. and used by YCSB
+     */
+    private static final class Zipf {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        Zipf(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(n, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min((int) (n * Math.pow(eta * u - eta + 1, alpha)), n - 1);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures merging a delta tree of "deltaSize" random keys (spread over the same range) into a main tree of "size" keys, with the join-based
+ * union against inserting the delta's items one by one, and splitting the main tree at its middle key.
+ * union and split take their trees apart, so the trees are rebuilt (from sorted arrays) before every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"100", "10000", "1000000"})
+    public int deltaSize;
+
+    int[] keys;
+    String[] values;
+    int[] deltaKeys;
+    String[] deltaValues;
+    RBTree tree;
+    RBTree delta;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        keys = KeyDistribution.SORTED.keys(size, random);
+        values = values(size);
+        // Spread the delta over the whole key range of the main tree
+        deltaKeys = new int[deltaSize];
+        int step = Math.max(1, keys[size - 1] / deltaSize);
+        for (int i = 0; i < deltaSize; i++) {
+            deltaKeys[i] = i * step + random.nextInt(step);
+        }
+        deltaValues = values(deltaSize);
+    }
+
+    private static String[] values(int size) {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = RBTreeBenchmark.VALUE;
+        }
+        return values;
+    }
+
+    @Setup(Level.Invocation)
+    public void build() {
+        tree = new RBTree(keys, values);
+        delta = new RBTree(deltaKeys, deltaValues);
+    }
+
+    @Benchmark
+    public RBTree union() {
+        tree.union(delta);
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree insertEach() {
+        for (int i = 0; i < deltaKeys.length; i++) {
+            tree.insert(deltaKeys[i], deltaValues[i]);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree split() {
+        return tree.split(keys[size / 2]);
+    }
+}
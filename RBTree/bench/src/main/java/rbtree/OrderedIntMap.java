@@ -0,0 +1,333 @@
+package rbtree;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The subset of the RBTree API exercised by the benchmarks.
+ * Every implementation under test is wrapped in an adapter for this interface, so the same
+ * benchmark code can run against RBTree and against the java.util baseline.
+ * Each JMH fork only ever loads a single implementation, so calls through the interface stay monomorphic.
+ */
+public interface OrderedIntMap {
+
+    int insert(int k, String v);
+
+    int delete(int k);
+
+    String search(int k);
+
+    String min();
+
+    String max();
+
+    int[] keysToArray();
+
+    String[] valuesToArray();
+
+    int[] keysInRange(int lo, int hi);
+
+    int size();
+
+    /**
+     * The implementations that can be selected with the "impl" benchmark parameter
+     */
+    enum Impl {
+        RBTree {
+            @Override
+            OrderedIntMap create() {
+                return new RBTreeMap();
+            }
+        },
+        /**
+         * An RBTree which keeps the sum of the keys of every subtree, to measure the cost of an augmentation
+         */
+        AugmentedRBTree {
+            @Override
+            OrderedIntMap create() {
+                return new RBTreeMap(new RBTree(false,
+                        rbtree.RBTree.Augmentation.of(0L, (k, v) -> (long) k, Long::sum)));
+            }
+        },
+        /**
+         * An RBTree with finger search on, for sequential and clustered access
+         */
+        FingerRBTree {
+            @Override
+            OrderedIntMap create() {
+                RBTree tree = new RBTree();
+                tree.setFingerSearch(true);
+                return new RBTreeMap(tree);
+            }
+        },
+        ArrayRBTree {
+            @Override
+            OrderedIntMap create() {
+                return new ArrayRBTreeMap();
+            }
+        },
+        TopDownRBTree {
+            @Override
+            OrderedIntMap create() {
+                return new TopDownRBTreeMap();
+            }
+        },
+        BPlusTree {
+            @Override
+            OrderedIntMap create() {
+                return new BPlusTreeMap();
+            }
+        },
+        TreeMap {
+            @Override
+            OrderedIntMap create() {
+                return new JavaTreeMap();
+            }
+        };
+
+        /**
+         * Creates a new, empty map of this implementation
+         *
+         * @return An empty map
+         */
+        abstract OrderedIntMap create();
+    }
+
+    /**
+     * Adapter for the RBTree under test
+     */
+    final class RBTreeMap implements OrderedIntMap {
+        private final RBTree tree;
+
+        RBTreeMap() {
+            this(new RBTree());
+        }
+
+        RBTreeMap(RBTree tree) {
+            this.tree = tree;
+        }
+
+        public int insert(int k, String v) {
+            return tree.insert(k, v);
+        }
+
+        public int delete(int k) {
+            return tree.delete(k);
+        }
+
+        public String search(int k) {
+            return tree.search(k);
+        }
+
+        public String min() {
+            return tree.min();
+        }
+
+        public String max() {
+            return tree.max();
+        }
+
+        public int[] keysToArray() {
+            return tree.keysToArray();
+        }
+
+        public String[] valuesToArray() {
+            return tree.valuesToArray();
+        }
+
+        public int[] keysInRange(int lo, int hi) {
+            return tree.keysInRange(lo, hi);
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    /**
+     * Adapter for the struct-of-arrays ArrayRBTree
+     */
+    final class ArrayRBTreeMap implements OrderedIntMap {
+        private final ArrayRBTree tree = new ArrayRBTree();
+
+        public int insert(int k, String v) {
+            return tree.insert(k, v);
+        }
+
+        public int delete(int k) {
+            return tree.delete(k);
+        }
+
+        public String search(int k) {
+            return tree.search(k);
+        }
+
+        public String min() {
+            return tree.min();
+        }
+
+        public String max() {
+            return tree.max();
+        }
+
+        public int[] keysToArray() {
+            return tree.keysToArray();
+        }
+
+        public String[] valuesToArray() {
+            return tree.valuesToArray();
+        }
+
+        public int[] keysInRange(int lo, int hi) {
+            return tree.keysInRange(lo, hi);
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    /**
+     * Adapter for the parent-free, single-pass TopDownRBTree
+     */
+    final class TopDownRBTreeMap implements OrderedIntMap {
+        private final TopDownRBTree tree = new TopDownRBTree();
+
+        public int insert(int k, String v) {
+            return tree.insert(k, v);
+        }
+
+        public int delete(int k) {
+            return tree.delete(k);
+        }
+
+        public String search(int k) {
+            return tree.search(k);
+        }
+
+        public String min() {
+            return tree.min();
+        }
+
+        public String max() {
+            return tree.max();
+        }
+
+        public int[] keysToArray() {
+            return tree.keysToArray();
+        }
+
+        public String[] valuesToArray() {
+            return tree.valuesToArray();
+        }
+
+        public int[] keysInRange(int lo, int hi) {
+            return tree.keysInRange(lo, hi);
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    /**
+     * Adapter for the cache-conscious BPlusTree
+     */
+    final class BPlusTreeMap implements OrderedIntMap {
+        private final BPlusTree tree = new BPlusTree();
+
+        public int insert(int k, String v) {
+            return tree.insert(k, v);
+        }
+
+        public int delete(int k) {
+            return tree.delete(k);
+        }
+
+        public String search(int k) {
+            return tree.search(k);
+        }
+
+        public String min() {
+            return tree.min();
+        }
+
+        public String max() {
+            return tree.max();
+        }
+
+        public int[] keysToArray() {
+            return tree.keysToArray();
+        }
+
+        public String[] valuesToArray() {
+            return tree.valuesToArray();
+        }
+
+        public int[] keysInRange(int lo, int hi) {
+            return tree.keysInRange(lo, hi);
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    /**
+     * Adapter for java.util.TreeMap, used as the baseline.
+     * Return values follow the RBTree conventions (-1 when the key is present / missing).
+     */
+    final class JavaTreeMap implements OrderedIntMap {
+        private final TreeMap<Integer, String> map = new TreeMap<>();
+
+        public int insert(int k, String v) {
+            return map.putIfAbsent(k, v) == null ? 0 : -1;
+        }
+
+        public int delete(int k) {
+            return map.remove(k) == null ? -1 : 0;
+        }
+
+        public String search(int k) {
+            return map.get(k);
+        }
+
+        public String min() {
+            Map.Entry<Integer, String> entry = map.firstEntry();
+            return entry == null ? null : entry.getValue();
+        }
+
+        public String max() {
+            Map.Entry<Integer, String> entry = map.lastEntry();
+            return entry == null ? null : entry.getValue();
+        }
+
+        public int[] keysToArray() {
+            int[] keys = new int[map.size()];
+            int index = 0;
+            for (int key : map.keySet()) {
+                keys[index++] = key;
+            }
+            return keys;
+        }
+
+        public String[] valuesToArray() {
+            return map.values().toArray(new String[0]);
+        }
+
+        public int[] keysInRange(int lo, int hi) {
+            SortedMap<Integer, String> range = map.subMap(lo, hi);
+            int[] keys = new int[range.size()];
+            int index = 0;
+            for (int key : range.keySet()) {
+                keys[index++] = key;
+            }
+            return keys;
+        }
+
+        public int size() {
+            return map.size();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up an int value for an int key: IntIntRBTree against an RBTree holding the values as strings
+ * (which have to be parsed back), and an IntObjectRBTree holding them boxed.
+ *
+ * Example: java -jar target/benchmarks.jar PrimitiveBenchmark -p size=1000000
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitiveBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    IntIntRBTree intInt;
+    IntObjectRBTree<Integer> intObject;
+    RBTree strings;
+    int[] probes;
+    int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        Random rnd = new Random(42);
+        int[] keys = KeyDistribution.RANDOM.keys(size, rnd);
+        intInt = new IntIntRBTree();
+        intObject = new IntObjectRBTree<>();
+        strings = new RBTree();
+        for (int key : keys) {
+            int value = key / 2;
+            intInt.insert(key, value);
+            intObject.insert(key, value);
+            strings.insert(key, Integer.toString(value));
+        }
+        probes = KeyDistribution.RANDOM.probes(keys, RBTreeBenchmark.PROBES, rnd);
+        next = 0;
+    }
+
+    int nextKey() {
+        int key = probes[next];
+        next = (next + 1) & (RBTreeBenchmark.PROBES - 1);
+        return key;
+    }
+
+    @Benchmark
+    public int intInt() {
+        return intInt.search(nextKey(), -1);
+    }
+
+    @Benchmark
+    public int intObject() {
+        Integer value = intObject.search(nextKey());
+        return value == null ? -1 : value;
+    }
+
+    @Benchmark
+    public int stringValues() {
+        String value = strings.search(nextKey());
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,142 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded benchmarks for the basic RBTree operations, with java.util.TreeMap as a baseline.
+ * Every benchmark reports both throughput (ops/sec) and sampled latency percentiles.
+ *
+ * The map is loaded once per trial with "size" keys from the chosen distribution, and then kept at that size:
+ * updates are measured as pairs that undo each other within the invocation (an insert of an absent key and its
+ * delete, or a delete of a present key and its reinsert), since per-invocation fixtures around an operation this
+ * short would cost more than the operation itself. UpdateBenchmark measures longer runs of inserts and deletes.
+ *
+ * Example: java -jar target/benchmarks.jar RBTreeBenchmark.search -p size=1000000 -p impl=RBTree
+ * The larger sizes need a big heap, e.g. -jvmArgsAppend -Xmx16g
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RBTreeBenchmark {
+
+    /**
+     * The value stored for every key. A single shared string keeps value allocation out of the measurements.
+     */
+    static final String VALUE = "value";
+
+    /**
+     * The length of the pre-computed access sequence
+     */
+    static final int PROBES = 1 << 20;
+
+    /**
+     * The width of the key range scanned by the range benchmark
+     */
+    static final int RANGE_WIDTH = 256;
+
+    /**
+     * A map loaded with "size" keys, plus the sequence of keys to access
+     */
+    @State(Scope.Thread)
+    public static class MapState {
+        @Param({"RBTree", "FingerRBTree", "ArrayRBTree", "TopDownRBTree", "BPlusTree", "TreeMap"})
+        public OrderedIntMap.Impl impl;
+
+        @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN", "SORTED"})
+        public KeyDistribution distribution;
+
+        @Param({"1000", "100000", "1000000", "10000000", "50000000"})
+        public int size;
+
+        OrderedIntMap map;
+        int[] probes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void load() {
+            Random rnd = new Random(42);
+            int[] keys = distribution.keys(size, rnd);
+            map = impl.create();
+            for (int key : keys) {
+                map.insert(key, VALUE);
+            }
+            probes = distribution.probes(keys, PROBES, rnd);
+            next = 0;
+        }
+
+        /**
+         * Returns the next key in the access sequence (a key which is present in the map)
+         *
+         * @return A key in the map
+         */
+        int nextKey() {
+            int key = probes[next];
+            next = (next + 1) & (PROBES - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public String search(MapState state) {
+        return state.map.search(state.nextKey());
+    }
+
+    @Benchmark
+    public String searchMiss(MapState state) {
+        return state.map.search(state.nextKey() + 1);
+    }
+
+    @Benchmark
+    public int insertDelete(MapState state) {
+        int key = state.nextKey() + 1;
+        return state.map.insert(key, VALUE) + state.map.delete(key);
+    }
+
+    @Benchmark
+    public int deleteInsert(MapState state) {
+        int key = state.nextKey();
+        return state.map.delete(key) + state.map.insert(key, VALUE);
+    }
+
+    @Benchmark
+    public String min(MapState state) {
+        return state.map.min();
+    }
+
+    @Benchmark
+    public String max(MapState state) {
+        return state.map.max();
+    }
+
+    @Benchmark
+    public int[] keysInRange(MapState state) {
+        int lo = state.nextKey();
+        return state.map.keysInRange(lo, lo + RANGE_WIDTH);
+    }
+
+    @Benchmark
+    public int[] keysToArray(MapState state) {
+        return state.map.keysToArray();
+    }
+
+    @Benchmark
+    public String[] valuesToArray(MapState state) {
+        return state.map.valuesToArray();
+    }
+}
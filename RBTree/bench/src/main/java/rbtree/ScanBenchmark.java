@@ -0,0 +1,82 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures full scans of a tree: keysToArray and valuesToArray against their fork/join versions, and summing the
+ * keys with parallelReduce and with sequential and parallel streams. The parallel versions use the common
+ * ForkJoinPool; set its size with -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    RBTree tree;
+
+    @Setup(Level.Trial)
+    public void load() {
+        int[] keys = KeyDistribution.SORTED.keys(size, new Random(42));
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = RBTreeBenchmark.VALUE;
+        }
+        tree = new RBTree(keys, values);
+    }
+
+    @Benchmark
+    public int[] keysToArray() {
+        return tree.keysToArray();
+    }
+
+    @Benchmark
+    public int[] parallelKeysToArray() {
+        return tree.parallelKeysToArray();
+    }
+
+    @Benchmark
+    public String[] valuesToArray() {
+        return tree.valuesToArray();
+    }
+
+    @Benchmark
+    public String[] parallelValuesToArray() {
+        return tree.parallelValuesToArray();
+    }
+
+    @Benchmark
+    public long parallelReduceSum() {
+        return tree.parallelReduce(0, (k, v) -> k, Long::sum);
+    }
+
+    @Benchmark
+    public long streamSum() {
+        return tree.stream().mapToLong(Map.Entry::getKey).sum();
+    }
+
+    @Benchmark
+    public long parallelStreamSum() {
+        return tree.parallelStream().mapToLong(Map.Entry::getKey).sum();
+    }
+}
@@ -0,0 +1,78 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RBTree.search with skewed lookups, with and without a search cache in front of it (cacheSize=0 is the
+ * plain search). The hit rate is printed at the end of each trial.
+ *   java -jar target/benchmarks.jar SearchCacheBenchmark -p size=1000000
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchCacheBenchmark {
+
+    @Param({"HOTSPOT", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"0", "4096", "16384", "65536"})
+    public int cacheSize;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    RBTree tree;
+    int[] probes;
+    int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        Random rnd = new Random(42);
+        int[] keys = distribution.keys(size, rnd);
+        tree = new RBTree();
+        for (int key : keys) {
+            tree.insert(key, RBTreeBenchmark.VALUE);
+        }
+        tree.setSearchCache(cacheSize);
+        probes = distribution.probes(keys, RBTreeBenchmark.PROBES, rnd);
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        long hits = tree.searchCacheHits();
+        long misses = tree.searchCacheMisses();
+        if (hits + misses > 0) {
+            System.out.printf("%nsearch cache hit rate: %.1f%%%n", 100.0 * hits / (hits + misses));
+        }
+    }
+
+    int nextKey() {
+        int key = probes[next];
+        next = (next + 1) & (RBTreeBenchmark.PROBES - 1);
+        return key;
+    }
+
+    @Benchmark
+    public String search() {
+        return tree.search(nextKey());
+    }
+}
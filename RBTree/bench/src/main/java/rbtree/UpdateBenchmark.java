@@ -0,0 +1,71 @@
+package rbtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures runs of inserts and deletes from an empty map (RBTreeBenchmark measures single updates to a loaded map):
+ * "insert" loads "size" keys into an empty map, and "insertDelete" also deletes them all again, in load order.
+ * Made to compare the bottom-up rebalancing of RBTree with the single-pass TopDownRBTree:
+ *   java -jar target/benchmarks.jar UpdateBenchmark -p impl=RBTree,TopDownRBTree
+ * to measure the cost of keeping an augmentation up to date (impl=RBTree,AugmentedRBTree),
+ * and to measure sorted ingest with finger search (impl=RBTree,FingerRBTree -p distribution=SEQUENTIAL).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+
+    @Param({"RBTree", "FingerRBTree", "TopDownRBTree", "AugmentedRBTree", "BPlusTree", "TreeMap"})
+    public OrderedIntMap.Impl impl;
+
+    @Param({"SEQUENTIAL", "RANDOM"})
+    public KeyDistribution distribution;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    int[] keys;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        keys = distribution.keys(size, new Random(42));
+    }
+
+    @Benchmark
+    public OrderedIntMap insert() {
+        OrderedIntMap map = impl.create();
+        for (int key : keys) {
+            map.insert(key, RBTreeBenchmark.VALUE);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public OrderedIntMap insertDelete() {
+        OrderedIntMap map = impl.create();
+        for (int key : keys) {
+            map.insert(key, RBTreeBenchmark.VALUE);
+        }
+        for (int key : keys) {
+            map.delete(key);
+        }
+        return map;
+    }
+}
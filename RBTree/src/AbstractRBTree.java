@@ -0,0 +1,436 @@
+/**
+ * AbstractRBTree
+ * The red-black core shared by the primitive-specialized trees (IntIntRBTree, IntLongRBTree, IntObjectRBTree
+ * and LongObjectRBTree): linking a new node in and fixing the tree after an insert, unlinking a node and fixing the
+ * tree after a delete, rotations, and keeping track of the size and the minimum and maximum nodes.
+ * None of it ever looks at keys or values, so every specialization stores them unboxed in its own node class,
+ * and only implements the searches (which compare keys) itself. The specializations are generated from the templates
+ * in templates/ by templates/generate.sh.
+ *
+ * Unlike RBTree, the searches of the specializations start from the real root, and never compare against the
+ * rootDummy, so the whole key range can be used.
+ *
+ * @param <N> The node class of the specialization
+ */
+abstract class AbstractRBTree<N extends AbstractRBTree.Node<N>> {
+
+    /**
+     * Represents a possible color for a node in the red black tree.
+     */
+    enum Color {
+        Black,
+        Red,
+    }
+
+    /**
+     * An enum used to represent a child's direction for a node in the tree, for direction-agnostic code
+     */
+    enum Direction {
+        Left,
+        Right,
+    }
+
+    /**
+     * The links and color of a node. Specializations add the key and value fields.
+     *
+     * @param <N> The node class of the specialization
+     */
+    abstract static class Node<N extends Node<N>> {
+        N parent;
+        N left;
+        N right;
+        Color color;
+
+        /**
+         * Copies the key and value of another node into this node
+         *
+         * @param other The node to copy from
+         */
+        abstract void copyEntry(N other);
+    }
+
+    /**
+     * A dummy root, whose left child is the root of the tree. It is never compared against.
+     */
+    final N rootDummy;
+    /**
+     * A dummy value used as a NULL child for all the leaves in the tree
+     */
+    final N nil;
+    /**
+     * The node with the minimum key, or null if the tree is empty
+     */
+    N minNode;
+    /**
+     * The node with the maximum key, or null if the tree is empty
+     */
+    N maxNode;
+    /**
+     * The number of nodes in the tree
+     */
+    int size;
+
+    /**
+     * A constructor for an empty tree
+     * Works at O(1).
+     *
+     * @param rootDummy A new node to use as the rootDummy
+     * @param nil       A new node to use as the nil sentinel
+     */
+    AbstractRBTree(N rootDummy, N nil) {
+        this.rootDummy = rootDummy;
+        this.nil = nil;
+        rootDummy.color = Color.Black;
+        rootDummy.left = nil;
+        rootDummy.right = nil;
+        nil.color = Color.Black;
+        nil.parent = rootDummy;
+    }
+
+    /**
+     * Returns the number of items in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     * Works at O(1)
+     *
+     * @return Says whether the tree is empty or not
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the root of the tree (nil if the tree is empty)
+     */
+    final N root() {
+        return rootDummy.left;
+    }
+
+    /**
+     * Links a new node into the tree as a child of parent, and fixes the tree.
+     * Works at O(logn)
+     * precondition: direction's child of parent is nil, and the key of node belongs there
+     * (for an empty tree, parent == rootDummy and direction == Left)
+     *
+     * @param parent    The parent of the new node
+     * @param node      The new node (with its key and value already set)
+     * @param direction The side of parent to link the node at
+     * @return The number of node-color changes that happened during the insert
+     */
+    final int insertNode(N parent, N node, Direction direction) {
+        node.parent = parent;
+        node.left = nil;
+        node.right = nil;
+        node.color = Color.Red;
+        setChild(parent, direction, node);
+
+        if (size == 0) {
+            minNode = node;
+            maxNode = node;
+        } else if (direction == Direction.Left && parent == minNode) {
+            minNode = node;
+        } else if (direction == Direction.Right && parent == maxNode) {
+            maxNode = node;
+        }
+        size += 1;
+        return insertFixup(node);
+    }
+
+    /**
+     * Fixes the tree to retain it's red-black properties after a node was inserted
+     * Works at O(logn)
+     *
+     * @param node The node from which to start the fix
+     * @return The number of color changes made to nodes in order to maintain the red-black property
+     */
+    private int insertFixup(N node) {
+        int colorSwitchCount = 0;
+
+        while (node.parent.color == Color.Red) {
+            N parent = node.parent;
+            N grandparent = parent.parent;
+            Direction direction = relationToParent(parent);
+            Direction opposite = oppositeDirection(direction);
+
+            N uncle = child(grandparent, opposite);
+            if (uncle.color == Color.Red) {
+                // Case 1: parent and uncle are red. Swap colors between the black grandparent and its red children
+                colorSwitchCount += setColor(parent, Color.Black);
+                colorSwitchCount += setColor(uncle, Color.Black);
+                colorSwitchCount += setColor(grandparent, Color.Red);
+                node = grandparent;
+            } else if (relationToParent(node) == opposite) {
+                // Case 2: node is between parent and grandparent. Rotate parent to get to case 3.
+                node = parent;
+                rotate(node, direction);
+            } else {
+                // Case 3: parent is between node and grandparent. Swap parent and grandparent colors, and rotate.
+                colorSwitchCount += setColor(parent, Color.Black);
+                colorSwitchCount += setColor(grandparent, Color.Red);
+                rotate(grandparent, opposite);
+            }
+        }
+
+        colorSwitchCount += setColor(root(), Color.Black);
+        return colorSwitchCount;
+    }
+
+    /**
+     * Unlinks a node from the tree, and fixes the tree.
+     * A node with two children takes its successor's key and value instead (with copyEntry),
+     * and the successor's node is unlinked.
+     * Works at O(logn)
+     * precondition: node is in the tree
+     *
+     * @param node The node to delete
+     * @return The number of node-color changes that happened during the delete
+     */
+    final int deleteNode(N node) {
+        if (size == 1) {
+            minNode = null;
+            maxNode = null;
+        } else if (node == minNode) {
+            minNode = successor(node);
+        } else if (node == maxNode) {
+            maxNode = predecessor(node);
+        }
+        size -= 1;
+
+        if (node.left != nil && node.right != nil) {
+            N successorNode = successor(node);
+            node.copyEntry(successorNode);
+            if (successorNode == maxNode) {
+                maxNode = node;
+            }
+            node = successorNode;
+        }
+
+        // Note: now node has 0 or 1 child
+        int colorSwitches = 0;
+        if (node.left != nil || node.right != nil) {
+            N child = (node.left != nil) ? node.left : node.right;
+            setChild(node.parent, relationToParent(node), child);
+            if (node.color == Color.Black) {
+                colorSwitches = deleteFixup(child);
+            }
+        } else {
+            // The node stays in the tree during the fixup, and is unlinked afterwards
+            if (node.color == Color.Black) {
+                colorSwitches = deleteFixup(node);
+            }
+            setChild(node.parent, relationToParent(node), nil);
+        }
+        return colorSwitches;
+    }
+
+    /**
+     * Fixes the red-black tree to maintain it's red-black properties after a node was deleted
+     * Works at O(logn)
+     *
+     * @param node The node from which to start the fixup-process
+     * @return The number of node-color changes that happened during the delete
+     */
+    private int deleteFixup(N node) {
+        int colorSwitches = 0;
+
+        while (node != root() && node.color == Color.Black) {
+            Direction direction = relationToParent(node);
+            Direction opposite = oppositeDirection(direction);
+
+            N brother = child(node.parent, opposite);
+            if (brother.color == Color.Red) {
+                // Case 1: brother is red. Switch colors between brother and parent, then rotate parent towards node.
+                colorSwitches += setColor(brother, Color.Black);
+                colorSwitches += setColor(node.parent, Color.Red);
+                rotate(node.parent, direction);
+            } else if (child(brother, direction).color == Color.Black && child(brother, opposite).color == Color.Black) {
+                // Case 2: brother and both nephews are black. Make brother red, and move the problem up.
+                colorSwitches += setColor(brother, Color.Red);
+                node = node.parent;
+            } else if (child(brother, opposite).color == Color.Black) {
+                // Case 3: far nephew is black, near nephew is red. Rotate brother away from node to get to case 4.
+                colorSwitches += setColor(child(brother, direction), Color.Black);
+                colorSwitches += setColor(brother, Color.Red);
+                rotate(brother, opposite);
+            } else {
+                // Case 4: far nephew is red. Recolor, rotate parent towards node, and terminate.
+                colorSwitches += setColor(brother, node.parent.color);
+                colorSwitches += setColor(node.parent, Color.Black);
+                colorSwitches += setColor(child(brother, opposite), Color.Black);
+                rotate(node.parent, direction);
+                node = root();
+            }
+        }
+        colorSwitches += setColor(node, Color.Black);
+
+        return colorSwitches;
+    }
+
+    /**
+     * Rotates the node in the given direction (like done in Cormen to restore the RB properties of a tree)
+     * Works in O(1)
+     *
+     * @param node      The node to rotate
+     * @param direction The direction in which to rotate the node
+     */
+    final void rotate(N node, Direction direction) {
+        Direction opposite = oppositeDirection(direction);
+        N pivot = child(node, opposite);
+        setChild(node.parent, relationToParent(node), pivot);
+        setChild(node, opposite, child(pivot, direction));
+        setChild(pivot, direction, node);
+    }
+
+    /**
+     * Finds the successor to a node in the tree.
+     * Works at O(logn), and at amortized O(1) over a full scan
+     * precondition: node != maxNode
+     *
+     * @param node The node who's successor we want to find
+     * @return The node with the smallest key which is still bigger than the node's key
+     */
+    final N successor(N node) {
+        assert node != maxNode;
+        if (node.right != nil) {
+            node = node.right;
+            while (node.left != nil) {
+                node = node.left;
+            }
+            return node;
+        }
+        while (node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    /**
+     * Finds the predecessor to a node in the tree.
+     * Works at O(logn), and at amortized O(1) over a full scan
+     * precondition: node != minNode
+     *
+     * @param node The node who's predecessor we want to find
+     * @return The node with the biggest key which is still smaller than the node's key
+     */
+    final N predecessor(N node) {
+        assert node != minNode;
+        if (node.left != nil) {
+            node = node.left;
+            while (node.right != nil) {
+                node = node.right;
+            }
+            return node;
+        }
+        while (node == node.parent.left) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    /**
+     * Sets the node color to the new color, and counts whether or not it was a color change
+     *
+     * @param node  The node who's color we are trying to change
+     * @param color The new color
+     * @return 1 if the node's color was actually changed, 0 otherwise
+     */
+    private int setColor(N node, Color color) {
+        if (node.color != color) {
+            node.color = color;
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * All the methods from here down are just to make the code clearer
+     * and are all trivial, therefore there is no need to document them thoroughly
+     */
+
+    final N child(N node, Direction direction) {
+        return (direction == Direction.Left) ? node.left : node.right;
+    }
+
+    /**
+     * The parent of nil is never written, so nil stays the same for all (possibly concurrent) readers.
+     */
+    final void setChild(N node, Direction direction, N child) {
+        if (direction == Direction.Left) {
+            node.left = child;
+        } else {
+            node.right = child;
+        }
+        if (child != nil) {
+            child.parent = node;
+        }
+    }
+
+    final Direction relationToParent(N node) {
+        return (node.parent.left == node) ? Direction.Left : Direction.Right;
+    }
+
+    static Direction oppositeDirection(Direction direction) {
+        return (direction == Direction.Left) ? Direction.Right : Direction.Left;
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    /**
+     * Returns true if the key of a is smaller than the key of b
+     */
+    abstract boolean keyLess(N a, N b);
+
+    void checkTreeInvariants() {
+        assert rootDummy.right == nil : "rootDummy has a right child";
+        assert rootDummy.color == Color.Black : "Invalid color for rootDummy";
+        assert nil.color == Color.Black : "Invalid color for nil";
+        assert nil.left == null && nil.right == null : "Invalid child for nil";
+        assert root() == nil || root().color == Color.Black : "Red root";
+
+        checkSubtreeInvariants(root());
+
+        N node = minNode;
+        for (int i = 0; i < size; i++) {
+            assert node != null && node != nil && node != rootDummy : "Too few nodes";
+            if (i + 1 == size) {
+                assert node == maxNode : "Incorrect maxNode";
+            } else {
+                N next = successor(node);
+                assert keyLess(node, next) : "Keys out of order";
+                node = next;
+            }
+        }
+        assert size > 0 || (minNode == null && maxNode == null) : "minNode or maxNode in an empty tree";
+        N leftmost = root();
+        while (leftmost != nil && leftmost.left != nil) {
+            leftmost = leftmost.left;
+        }
+        assert size == 0 || leftmost == minNode : "Incorrect minNode";
+    }
+
+    // Returns the node black height
+    private int checkSubtreeInvariants(N node) {
+        assert node != null : "Invalid node (null)";
+        if (node == nil) {
+            return 1;
+        }
+        assert !(node.color == Color.Red && node.parent.color == Color.Red) : "Red rule violated";
+        assert node.left == nil || node.left.parent == node : "Invalid parent for left child";
+        assert node.right == nil || node.right.parent == node : "Invalid parent for right child";
+
+        int leftBlackLength = checkSubtreeInvariants(node.left);
+        int rightBlackLength = checkSubtreeInvariants(node.right);
+        assert leftBlackLength == rightBlackLength : "Black rule violated";
+        return leftBlackLength + (node.color == Color.Black ? 1 : 0);
+    }
+}
@@ -0,0 +1,1130 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ArrayRBTree
+ * A Red Black Tree with the same API and behaviour as RBTree, which stores its nodes as
+ * struct-of-arrays instead of as objects: a node is an int index into parallel arrays holding
+ * its key and links (interleaved), its value and its subtree size, and its color is a single bit.
+ * This saves the object header and the reference fields of every RBNode, keeps the nodes
+ * packed together in memory, and leaves the GC with a handful of big arrays instead of a node per item.
+ * Slots of deleted nodes are kept in a free list, and are reused by later inserts.
+ */
+public class ArrayRBTree {
+
+    /**
+     * The index of the sentinel used as a NULL child for all the leaves in the tree
+     */
+    private static final int NIL = 0;
+    /**
+     * The index of the dummy root (just like rootDummy in RBTree). The real root is its left child.
+     */
+    private static final int ROOT_DUMMY = 1;
+    /**
+     * The index of the first slot available for real nodes
+     */
+    private static final int FIRST_NODE = 2;
+    /**
+     * The number of ints each node takes in the nodes array
+     */
+    private static final int STRIDE = 4;
+    /**
+     * The offsets of a node's fields in the nodes array.
+     * LEFT and RIGHT also serve as child directions (with 3 - direction as the opposite direction).
+     * Just like RBTree's Direction, they make the insert and delete code direction-agnostic.
+     */
+    private static final int KEY = 0;
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+    private static final int PARENT = 3;
+    /**
+     * The number of slots allocated by the default constructor
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The key, children and parent of each node, interleaved so that a search touches a single
+     * cache line per level: node n's fields are at STRIDE * n + KEY / LEFT / RIGHT / PARENT
+     */
+    private int[] nodes;
+    /**
+     * The value of each node
+     */
+    private String[] items;
+    /**
+     * The number of nodes in the subtree rooted at each node (0 for the sentinels)
+     */
+    private int[] counts;
+    /**
+     * A bitset with the color of each node: a set bit means red
+     */
+    private long[] redBits;
+
+    /**
+     * The number of nodes in the tree
+     */
+    private int size;
+    /**
+     * The node with the minimum key, or NIL if the tree is empty
+     */
+    private int minNode;
+    /**
+     * The node with the maximum key, or NIL if the tree is empty
+     */
+    private int maxNode;
+    /**
+     * The head of the list of free slots (linked through their left child), or NIL if there are none
+     */
+    private int freeHead;
+    /**
+     * The first slot which was never used
+     */
+    private int nextUnused;
+
+    /**
+     * A default constructor for the ArrayRBTree class
+     * Works at O(1).
+     * precondition: none
+     * postcondition: none
+     */
+    public ArrayRBTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * A constructor that pre-allocates room for the given number of nodes
+     * Works at O(capacity).
+     * precondition: capacity >= 0
+     * postcondition: none
+     *
+     * @param capacity The number of nodes the tree can hold before it has to grow
+     */
+    public ArrayRBTree(int capacity) {
+        int slots = FIRST_NODE + Math.max(capacity, 1);
+        nodes = new int[STRIDE * slots];
+        items = new String[slots];
+        counts = new int[slots];
+        redBits = new long[(slots + 63) >>> 6];
+
+        nodes[STRIDE * ROOT_DUMMY + KEY] = Integer.MAX_VALUE;
+
+        minNode = NIL;
+        maxNode = NIL;
+        freeHead = NIL;
+        nextUnused = FIRST_NODE;
+        size = 0;
+    }
+
+    /**
+     * A constructor for the tree that is initialized with a given map for the keys and values
+     * Works at O(n) where n is the number of key-values pairs in the map, if the map iterates in key order
+     * (e.g. a SortedMap with natural ordering), and at O(nlogn) otherwise.
+     * precondition: map != null
+     * postcondition: none
+     *
+     * @param map A map keys and values to initialize the tree with
+     */
+    public ArrayRBTree(Map<Integer, String> map) {
+        this(map.size());
+        int[] mapKeys = new int[map.size()];
+        String[] mapValues = new String[map.size()];
+        int count = 0;
+        for (Map.Entry<Integer, String> item : map.entrySet()) {
+            mapKeys[count] = item.getKey();
+            mapValues[count] = item.getValue();
+            count++;
+        }
+        insertSortedOrEach(mapKeys, mapValues, count);
+    }
+
+    /**
+     * A constructor for the tree that is initialized with parallel arrays of keys and values
+     * Works at O(n) where n is the number of keys, if the keys are sorted in ascending order,
+     * and at O(nlogn) otherwise.
+     * precondition: keys != null, values != null, keys.length == values.length
+     * postcondition: none
+     *
+     * @param keys   The keys to initialize the tree with
+     * @param values The value for each of the keys
+     */
+    public ArrayRBTree(int[] keys, String[] values) {
+        this(keys.length);
+        assert keys.length == values.length;
+        insertSortedOrEach(keys, values, keys.length);
+    }
+
+    /**
+     * Inserts the first count key-value pairs from the given arrays into the empty tree.
+     * If the keys are sorted, the tree is built directly in O(n), with the nodes laid out in key order,
+     * otherwise the pairs are inserted one by one in O(nlogn).
+     *
+     * @param keys   The keys to insert
+     * @param values The value for each of the keys
+     * @param count  The number of pairs to insert
+     */
+    private void insertSortedOrEach(int[] sortedKeys, String[] values, int count) {
+        assert empty();
+        int sortedCount = count;
+        for (int i = 1; i < count; i++) {
+            if (sortedKeys[i - 1] >= sortedKeys[i]) {
+                sortedCount = -1;
+                break;
+            }
+        }
+        if (sortedCount < 0) {
+            for (int i = 0; i < count; i++) {
+                insert(sortedKeys[i], values[i]);
+            }
+            return;
+        }
+        if (sortedCount > 0 && sortedKeys[sortedCount - 1] == Integer.MAX_VALUE) {
+            sortedCount--;
+        }
+        if (sortedCount == 0) {
+            return;
+        }
+
+        ensureCapacity(sortedCount);
+        for (int i = 0; i < sortedCount; i++) {
+            nodes[STRIDE * (FIRST_NODE + i) + KEY] = sortedKeys[i];
+            items[FIRST_NODE + i] = values[i];
+        }
+        nextUnused = FIRST_NODE + sortedCount;
+        size = sortedCount;
+        // The depth of the deepest (possibly partial) level, which is red
+        int redDepth = 31 - Integer.numberOfLeadingZeros(sortedCount);
+        int root = buildSubtree(0, sortedCount, 0, redDepth);
+        setChild(ROOT_DUMMY, LEFT, root);
+        setBlack(root);
+        minNode = FIRST_NODE;
+        maxNode = FIRST_NODE + sortedCount - 1;
+    }
+
+    /**
+     * Links the nodes in slots [FIRST_NODE + from, FIRST_NODE + to) into a balanced subtree, and returns its root.
+     * Works at O(n) where n is to - from
+     *
+     * @param from     The in-order index of the first node of the subtree
+     * @param to       One past the in-order index of the last node of the subtree
+     * @param depth    The depth of the subtree's root
+     * @param redDepth The depth at which nodes are colored red
+     * @return The root of the new subtree, or NIL if the range is empty
+     */
+    private int buildSubtree(int from, int to, int depth, int redDepth) {
+        if (from == to) {
+            return NIL;
+        }
+        int mid = (from + to) >>> 1;
+        int node = FIRST_NODE + mid;
+        counts[node] = to - from;
+        if (depth == redDepth) {
+            setRed(node);
+        }
+        setChild(node, LEFT, buildSubtree(from, mid, depth + 1, redDepth));
+        setChild(node, RIGHT, buildSubtree(mid + 1, to, depth + 1, redDepth));
+        return node;
+    }
+
+    /**
+     * Inserts all the elements in the tree into the given map
+     * Works at O(n) where n is the number of nodes in the tree
+     * precondition: map != null
+     * postcondition: none
+     *
+     * @param map The map to insert all the tree's elements into
+     */
+    public void toMap(Map<Integer, String> map) {
+        for (Cursor cursor = cursor(); cursor.valid(); cursor.next()) {
+            map.put(cursor.key(), cursor.value());
+        }
+    }
+
+    /**
+     * Returns a representation of the tree as a native java TreeMap
+     * Works at O(n) where n is the number of nodes in the tree
+     * precondition: none
+     * postcondition: none
+     *
+     * @return A TreeMap that holds all the key-value pairs from the tree
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        toMap(map);
+        return map;
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     *
+     * @return Says whether the tree is empty or not
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * precondition: none
+     * postcondition: none
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree
+     * otherwise, returns null
+     * Works in O(logn) where n is the number of elements in the tree
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise
+     */
+    public String search(int k) {
+        int node = searchNode(k);
+        return node == NIL ? null : items[node];
+    }
+
+    /**
+     * Looks up a node using a search key
+     * Works in O(logn) where n is the number of nodes in the tree
+     *
+     * @param k The key by which to look up the node
+     * @return The holding node if it's found, or NIL otherwise
+     */
+    private int searchNode(int k) {
+        int node = getPositionByKey(k);
+        return (node == ROOT_DUMMY || key(node) != k) ? NIL : node;
+    }
+
+    /**
+     * Gets the node under which to insert a node with the specified key value, or returns the node holding the value
+     * Works in O(logn) where n is the number of nodes in the tree
+     *
+     * @param k The key to look by
+     * @return The parent under which to insert the new node, or the current node if the value is already present
+     */
+    private int getPositionByKey(int k) {
+        int[] nodes = this.nodes;
+        int node = ROOT_DUMMY;
+        while (true) {
+            int nodeKey = nodes[STRIDE * node + KEY];
+            if (k == nodeKey) {
+                return node;
+            }
+            int child = nodes[STRIDE * node + (k < nodeKey ? LEFT : RIGHT)];
+            if (child == NIL) {
+                return node;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Inserts an item with key k and value v to the red black tree.
+     * the tree must remain valid (keep its invariants).
+     * returns the number of color switches, or 0 if no color switches were necessary.
+     * returns -1 if an item with key k already exists in the tree.
+     * Works at amortized O(logn)
+     *
+     * @param k The key of the new node to insert into the tree
+     * @param v The new value to insert into the tree
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int insert(int k, String v) {
+        if (k == key(ROOT_DUMMY)) {
+            return -1;
+        }
+        int parent = getPositionByKey(k);
+        if (key(parent) == k) {
+            return -1;
+        }
+
+        int node = allocate(k, v);
+        if (empty()) {
+            minNode = node;
+            maxNode = node;
+        }
+
+        if (k < key(parent)) {
+            setChild(parent, LEFT, node);
+            if (parent == minNode) {
+                minNode = node;
+            }
+        } else {
+            setChild(parent, RIGHT, node);
+            if (parent == maxNode) {
+                maxNode = node;
+            }
+        }
+
+        // Count the new node in the subtree sizes of all its ancestors
+        for (int ancestor = parent; ancestor != ROOT_DUMMY; ancestor = parent(ancestor)) {
+            counts[ancestor] += 1;
+        }
+
+        size += 1;
+        return insertFixup(node);
+    }
+
+    /**
+     * Fixes the tree to retain it's red-black properties after a node was inserted
+     * Works at O(logn)
+     *
+     * @param node The node from which to start the fix
+     * @return The number of color changes made to nodes in order to maintain the red-black property
+     */
+    private int insertFixup(int node) {
+        int colorSwitchCount = 0;
+
+        while (isRed(parent(node))) {
+            int parent = parent(node);
+            int grandparent = parent(parent);
+            int direction = relationToParent(parent);
+            int opposite = 3 - direction;
+
+            int uncle = child(grandparent, opposite);
+            if (isRed(uncle)) {
+                // Case 1: parent and uncle are red.
+                colorSwitchCount += setBlack(parent);
+                colorSwitchCount += setBlack(uncle);
+                colorSwitchCount += setRed(grandparent);
+                node = grandparent;
+            } else if (relationToParent(node) == opposite) {
+                // Case 2: parent is red, uncle is black, and node is between parent and grandparent.
+                node = parent;
+                rotate(node, direction);
+            } else {
+                // Case 3: parent is red, uncle is black, and parent is between node and grandparent.
+                colorSwitchCount += setBlack(parent);
+                colorSwitchCount += setRed(grandparent);
+                rotate(grandparent, opposite);
+            }
+        }
+
+        colorSwitchCount += setBlack(root());
+
+        return colorSwitchCount;
+    }
+
+    /**
+     * Deletes an item with key k from the binary tree, if it is there;
+     * the tree must remain valid (keep its invariants).
+     * returns the number of color switches, or 0 if no color switches were needed.
+     * returns -1 if an item with key k was not found in the tree.
+     * Works at O(logn)
+     *
+     * @param k The key who's node we want to delete
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int delete(int k) {
+        if (k == key(ROOT_DUMMY)) {
+            return -1;
+        }
+        int node = searchNode(k);
+        if (node == NIL) {
+            return -1;
+        }
+
+        if (size == 1) {
+            minNode = NIL;
+            maxNode = NIL;
+        } else if (node == minNode) {
+            minNode = successor(node);
+        } else if (node == maxNode) {
+            maxNode = predecessor(node);
+        }
+
+        size -= 1;
+        return deleteNode(node);
+    }
+
+    /**
+     * Deletes a node from the tree, and puts its slot in the free list
+     * Works at O(logn)
+     *
+     * @param node The node to delete
+     * @return The number of node-color changes that happened during the delete
+     */
+    private int deleteNode(int node) {
+        int colorSwitches = 0;
+
+        if (child(node, LEFT) != NIL && child(node, RIGHT) != NIL) {
+            // Place the successor instead of the node to delete
+            int successorNode = successor(node);
+            nodes[STRIDE * node + KEY] = key(successorNode);
+            items[node] = items[successorNode];
+            if (successorNode == maxNode) {
+                maxNode = node;
+            }
+            node = successorNode;
+        }
+
+        // Note: now node has 0 or 1 child
+
+        for (int ancestor = parent(node); ancestor != ROOT_DUMMY; ancestor = parent(ancestor)) {
+            counts[ancestor] -= 1;
+        }
+
+        int child = child(node, LEFT) != NIL ? child(node, LEFT) : child(node, RIGHT);
+        if (child != NIL) {
+            transplant(node, child);
+            if (!isRed(node)) {
+                colorSwitches = deleteFixup(child);
+            }
+        } else {
+            // The node stays in the tree during the fixup, but is already uncounted
+            counts[node] = 0;
+            if (!isRed(node)) {
+                colorSwitches = deleteFixup(node);
+            }
+            nodes[STRIDE * parent(node) + relationToParent(node)] = NIL;
+        }
+
+        release(node);
+        return colorSwitches;
+    }
+
+    /**
+     * Fixes the red-black tree to maintain it's red-black properties after a node was deleted
+     * Works at O(logn)
+     *
+     * @param node The node from which to start the fixup-process
+     * @return The number of node-color changes that happened during the delete
+     */
+    private int deleteFixup(int node) {
+        int colorSwitches = 0;
+
+        while (node != root() && !isRed(node)) {
+            int parent = parent(node);
+            int direction = relationToParent(node);
+            int opposite = 3 - direction;
+
+            int brother = child(parent, opposite);
+            if (isRed(brother)) {
+                // Case 1: brother is red
+                colorSwitches += setBlack(brother);
+                colorSwitches += setRed(parent);
+                rotate(parent, direction);
+            } else if (!isRed(child(brother, direction)) && !isRed(child(brother, opposite))) {
+                // Case 2: brother is black, and both nephews are black.
+                colorSwitches += setRed(brother);
+                node = parent;
+            } else if (!isRed(child(brother, opposite))) {
+                // Case 3: brother is black, far nephew is black, and near nephew is red.
+                colorSwitches += setBlack(child(brother, direction));
+                colorSwitches += setRed(brother);
+                rotate(brother, opposite);
+            } else {
+                // Case 4: brother is black, far nephew is red.
+                colorSwitches += isRed(parent) ? setRed(brother) : setBlack(brother);
+                colorSwitches += setBlack(parent);
+                colorSwitches += setBlack(child(brother, opposite));
+                rotate(parent, direction);
+                node = root();
+            }
+        }
+        colorSwitches += setBlack(node);
+
+        return colorSwitches;
+    }
+
+    /**
+     * Takes a slot for a new red node, from the free list if possible, and grows the arrays if needed
+     * Works at amortized O(1)
+     *
+     * @param k The key of the new node
+     * @param v The value of the new node
+     * @return The index of the new node
+     */
+    private int allocate(int k, String v) {
+        int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = nodes[STRIDE * node + LEFT];
+        } else {
+            ensureCapacity(nextUnused - FIRST_NODE + 1);
+            node = nextUnused++;
+        }
+        nodes[STRIDE * node + KEY] = k;
+        items[node] = v;
+        nodes[STRIDE * node + LEFT] = NIL;
+        nodes[STRIDE * node + RIGHT] = NIL;
+        counts[node] = 1;
+        setRed(node);
+        return node;
+    }
+
+    /**
+     * Puts the slot of a deleted node in the free list
+     * Works at O(1)
+     *
+     * @param node The deleted node
+     */
+    private void release(int node) {
+        items[node] = null;
+        nodes[STRIDE * node + PARENT] = NIL;
+        nodes[STRIDE * node + LEFT] = freeHead;
+        freeHead = node;
+    }
+
+    /**
+     * Makes sure the arrays have room for the given number of real nodes
+     * Works at O(n) when the arrays grow, and at O(1) otherwise
+     *
+     * @param count The number of real nodes the arrays must be able to hold
+     */
+    private void ensureCapacity(int count) {
+        int slots = FIRST_NODE + count;
+        if (slots <= items.length) {
+            return;
+        }
+        int newLength = Math.max(slots, items.length + (items.length >> 1));
+        nodes = Arrays.copyOf(nodes, STRIDE * newLength);
+        items = Arrays.copyOf(items, newLength);
+        counts = Arrays.copyOf(counts, newLength);
+        redBits = Arrays.copyOf(redBits, (newLength + 63) >>> 6);
+    }
+
+    /**
+     * Rotates the node in the given direction (like done in Cormen to restore the RB properties of a tree)
+     * Works in O(1)
+     *
+     * @param node      The node to rotate
+     * @param direction The direction in which to rotate (LEFT moves the right child up)
+     */
+    private void rotate(int node, int direction) {
+        int opposite = 3 - direction;
+        int pivot = child(node, opposite);
+        transplant(node, pivot);
+        setChild(node, opposite, child(pivot, direction));
+        setChild(pivot, direction, node);
+        counts[pivot] = counts[node];
+        counts[node] = counts[child(node, LEFT)] + counts[child(node, RIGHT)] + 1;
+    }
+
+    /**
+     * Replaces node with the given node in node's parent (as described in Cormen)
+     * Works in O(1)
+     *
+     * @param node        The node to replace
+     * @param replacement The node to put in its place
+     */
+    private void transplant(int node, int replacement) {
+        setChild(parent(node), relationToParent(node), replacement);
+    }
+
+    /**
+     * Sets the child of a node in the given direction.
+     * Unlike RBNode.setChild, the parent of NIL is never written.
+     * Works in O(1)
+     *
+     * @param node      The parent node
+     * @param direction The direction of the child
+     * @param child     The new child
+     */
+    private void setChild(int node, int direction, int child) {
+        nodes[STRIDE * node + direction] = child;
+        if (child != NIL) {
+            nodes[STRIDE * child + PARENT] = node;
+        }
+    }
+
+    private int key(int node) {
+        return nodes[STRIDE * node + KEY];
+    }
+
+    private int parent(int node) {
+        return nodes[STRIDE * node + PARENT];
+    }
+
+    private int child(int node, int direction) {
+        return nodes[STRIDE * node + direction];
+    }
+
+    private int relationToParent(int node) {
+        return nodes[STRIDE * parent(node) + LEFT] == node ? LEFT : RIGHT;
+    }
+
+    private int root() {
+        return nodes[STRIDE * ROOT_DUMMY + LEFT];
+    }
+
+    private boolean isRed(int node) {
+        return (redBits[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Colors the node red, and counts whether it was actually a color change
+     *
+     * @param node The node to color
+     * @return 1 if the node's color was actually changed, 0 otherwise
+     */
+    private int setRed(int node) {
+        if (isRed(node)) {
+            return 0;
+        }
+        redBits[node >>> 6] |= 1L << node;
+        return 1;
+    }
+
+    /**
+     * Colors the node black, and counts whether it was actually a color change
+     *
+     * @param node The node to color
+     * @return 1 if the node's color was actually changed, 0 otherwise
+     */
+    private int setBlack(int node) {
+        if (!isRed(node)) {
+            return 0;
+        }
+        redBits[node >>> 6] &= ~(1L << node);
+        return 1;
+    }
+
+    /**
+     * Finds the successor to a node in the tree.
+     * Works at O(logn) where n is the number of nodes in the tree
+     * precondition: node != maxNode
+     *
+     * @param node The node who's successor we want to find
+     * @return The node with the smallest key value which is still bigger than the current
+     */
+    private int successor(int node) {
+        assert node != maxNode;
+        if (child(node, RIGHT) != NIL) {
+            return subtreeMin(child(node, RIGHT));
+        }
+        while (relationToParent(node) == RIGHT) {
+            node = parent(node);
+        }
+        return parent(node);
+    }
+
+    /**
+     * Finds the predecessor to a node in the tree.
+     * Works at O(logn) where n is the number of nodes in the tree
+     * precondition: node != minNode
+     *
+     * @param node The node who's predecessor we want to find
+     * @return The node with the biggest key value which is still smaller than the current
+     */
+    private int predecessor(int node) {
+        assert node != minNode;
+        if (child(node, LEFT) != NIL) {
+            return subtreeMax(child(node, LEFT));
+        }
+        while (relationToParent(node) == LEFT) {
+            node = parent(node);
+        }
+        return parent(node);
+    }
+
+    private int subtreeMin(int node) {
+        while (node != NIL && child(node, LEFT) != NIL) {
+            node = child(node, LEFT);
+        }
+        return node;
+    }
+
+    private int subtreeMax(int node) {
+        while (node != NIL && child(node, RIGHT) != NIL) {
+            node = child(node, RIGHT);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the minimum key in the tree, or null if the tree is empty
+     */
+    public String min() {
+        return minNode == NIL ? null : items[minNode];
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the maximum key in the tree, or null if the tree is empty
+     */
+    public String max() {
+        return maxNode == NIL ? null : items[maxNode];
+    }
+
+    /**
+     * Returns the largest key in the tree which is smaller or equal to k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The floor key of k, or null if there is none
+     */
+    public Integer floorKey(int k) {
+        return keyOf(floorNode(k));
+    }
+
+    /**
+     * Returns the smallest key in the tree which is bigger or equal to k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The ceiling key of k, or null if there is none
+     */
+    public Integer ceilingKey(int k) {
+        return keyOf(ceilingNode(k));
+    }
+
+    /**
+     * Returns the largest key in the tree which is strictly smaller than k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The lower key of k, or null if there is none
+     */
+    public Integer lowerKey(int k) {
+        return k == Integer.MIN_VALUE ? null : keyOf(floorNode(k - 1));
+    }
+
+    /**
+     * Returns the smallest key in the tree which is strictly bigger than k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The higher key of k, or null if there is none
+     */
+    public Integer higherKey(int k) {
+        return k == Integer.MAX_VALUE ? null : keyOf(ceilingNode(k + 1));
+    }
+
+    private int floorNode(int k) {
+        int position = getPositionByKey(k);
+        if (position == ROOT_DUMMY) {
+            return maxNode;
+        }
+        if (key(position) <= k) {
+            return position;
+        }
+        return (position == minNode) ? NIL : predecessor(position);
+    }
+
+    private int ceilingNode(int k) {
+        int position = getPositionByKey(k);
+        if (position == ROOT_DUMMY) {
+            return NIL;
+        }
+        if (key(position) >= k) {
+            return position;
+        }
+        return (position == maxNode) ? NIL : successor(position);
+    }
+
+    private Integer keyOf(int node) {
+        return node == NIL ? null : key(node);
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the keys for all the nodes in the tree
+     */
+    public int[] keysToArray() {
+        int[] result = new int[size];
+        int node = minNode;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = key(node);
+            node = (node == maxNode) ? NIL : successor(node);
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array which contains all values in the tree,
+     * sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the values for all the nodes in the tree
+     */
+    public String[] valuesToArray() {
+        String[] result = new String[size];
+        int node = minNode;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = items[node];
+            node = (node == maxNode) ? NIL : successor(node);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi)
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the tree such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        int[] result = new int[countInRange(lo, hi)];
+        int node = ceilingNode(lo);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = key(node);
+            node = (node == maxNode) ? NIL : successor(node);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values of all the keys in the range [lo, hi), sorted by their respective keys
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The values of the keys k in the tree such that lo <= k < hi
+     */
+    public String[] valuesInRange(int lo, int hi) {
+        String[] result = new String[countInRange(lo, hi)];
+        int node = ceilingNode(lo);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = items[node];
+            node = (node == maxNode) ? NIL : successor(node);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of the item with the index-th smallest key in the tree (the smallest key has index 0)
+     * Works at O(logn)
+     * precondition: 0 <= index < size()
+     *
+     * @param index The index of the item in key order
+     * @return The value of the index-th item
+     */
+    public String select(int index) {
+        return items[selectNode(index)];
+    }
+
+    /**
+     * Returns the index-th smallest key in the tree (the smallest key has index 0)
+     * Works at O(logn)
+     * precondition: 0 <= index < size()
+     *
+     * @param index The index of the key in key order
+     * @return The index-th key
+     */
+    public int selectKey(int index) {
+        return key(selectNode(index));
+    }
+
+    /**
+     * Returns the number of keys in the tree that are smaller than k.
+     * Works at O(logn)
+     *
+     * @param k The key to rank
+     * @return The number of keys smaller than k
+     */
+    public int rank(int k) {
+        int rank = 0;
+        int node = root();
+        while (node != NIL) {
+            if (k <= key(node)) {
+                node = child(node, LEFT);
+            } else {
+                rank += counts[child(node, LEFT)] + 1;
+                node = child(node, RIGHT);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the number of keys in the tree in the range [lo, hi)
+     * Works at O(logn)
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The number of keys k such that lo <= k < hi, or 0 if lo >= hi
+     */
+    public int countInRange(int lo, int hi) {
+        if (lo >= hi) {
+            return 0;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    private int selectNode(int index) {
+        assert 0 <= index && index < size : "Invalid index " + index;
+        int node = root();
+        while (true) {
+            int leftCount = counts[child(node, LEFT)];
+            if (index < leftCount) {
+                node = child(node, LEFT);
+            } else if (index == leftCount) {
+                return node;
+            } else {
+                index -= leftCount + 1;
+                node = child(node, RIGHT);
+            }
+        }
+    }
+
+    /**
+     * Returns a new cursor, positioned at the item with the smallest key
+     * (or not valid, if the tree is empty)
+     * Works at O(1)
+     *
+     * @return A cursor over the tree
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A bidirectional cursor over the items of the tree, in key order. See RBTree.Cursor.
+     * Inserting or deleting items while a cursor is in use invalidates it.
+     */
+    public class Cursor {
+
+        private int node;
+
+        private Cursor() {
+            node = minNode;
+        }
+
+        public boolean valid() {
+            return node != NIL;
+        }
+
+        public int key() {
+            return ArrayRBTree.this.key(node);
+        }
+
+        public String value() {
+            return items[node];
+        }
+
+        public boolean first() {
+            node = minNode;
+            return valid();
+        }
+
+        public boolean last() {
+            node = maxNode;
+            return valid();
+        }
+
+        public boolean seek(int k) {
+            node = ceilingNode(k);
+            return valid();
+        }
+
+        public boolean next() {
+            node = (node == maxNode) ? NIL : successor(node);
+            return valid();
+        }
+
+        public boolean prev() {
+            node = (node == minNode) ? NIL : predecessor(node);
+            return valid();
+        }
+    }
+
+    /**
+     * All the function from here on down are just for debugging or testing purpose.
+     */
+
+    int minKey() {
+        assert minNode != NIL;
+        return key(minNode);
+    }
+
+    int maxKey() {
+        assert maxNode != NIL;
+        return key(maxNode);
+    }
+
+    int rootKey() {
+        return key(root());
+    }
+
+    /**
+     * Returns the number of slots allocated for nodes, including the free ones
+     */
+    int capacity() {
+        return items.length - FIRST_NODE;
+    }
+
+    void printTree(PrintStream out) {
+        printTree(out, root(), "");
+    }
+
+    private void printTree(PrintStream out, int node, String indent) {
+        if (node == NIL) {
+            return;
+        }
+        printTree(out, child(node, RIGHT), indent + "        ");
+        out.println(indent + (isRed(node) ? String.format("<%d>", key(node)) : "" + key(node)));
+        printTree(out, child(node, LEFT), indent + "        ");
+    }
+
+    void checkTreeInvariants() {
+        try {
+            checkTreeInvariants_();
+        } catch (Throwable throwable) {
+            printTree(System.out);
+            throw throwable;
+        }
+    }
+
+    private void checkTreeInvariants_() {
+        assert child(ROOT_DUMMY, RIGHT) == NIL : "rootDummy has a right child";
+        assert !isRed(ROOT_DUMMY) : "Invalid color for rootDummy";
+        assert !isRed(NIL) : "Invalid color for nil";
+        assert child(NIL, LEFT) == NIL && child(NIL, RIGHT) == NIL : "Invalid child for nil";
+        assert counts[NIL] == 0 : "Invalid count for nil";
+        assert key(ROOT_DUMMY) == Integer.MAX_VALUE : "Invalid key for rootDummy";
+        assert !isRed(root()) : "Red root";
+
+        checkSubtreeInvariants(root());
+
+        assert counts[root()] == size : "Incorrect root count";
+        assert subtreeMin(root()) == minNode : "Incorrect minNode";
+        assert subtreeMax(root()) == maxNode : "Incorrect maxNode";
+
+        int free = 0;
+        for (int node = freeHead; node != NIL; node = nodes[STRIDE * node + LEFT]) {
+            free++;
+        }
+        assert size + free == nextUnused - FIRST_NODE : "Leaked slots";
+    }
+
+    // Returns the node black height
+    private int checkSubtreeInvariants(int node) {
+        if (node == NIL) {
+            return 1;
+        }
+        assert !(isRed(node) && isRed(parent(node))) : "Red rule violated";
+        int left = child(node, LEFT);
+        int right = child(node, RIGHT);
+        if (left != NIL) {
+            assert parent(left) == node : "Invalid parent";
+            assert key(left) < key(node) : "Left child key not lower than node key";
+        }
+        if (right != NIL) {
+            assert parent(right) == node : "Invalid parent";
+            assert key(right) > key(node) : "Right child key not higher then node key";
+        }
+        assert counts[node] == counts[left] + counts[right] + 1 : "Incorrect subtree count";
+
+        int leftBlackLength = checkSubtreeInvariants(left);
+        int rightBlackLength = checkSubtreeInvariants(right);
+        assert leftBlackLength == rightBlackLength : "Black rule violated";
+        return leftBlackLength + (isRed(node) ? 0 : 1);
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class ArrayRBTreeTest {
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    public void compareAndCheck(TreeMap<Integer, String> map, ArrayRBTree tree) {
+        tree.checkTreeInvariants();
+        assertEquals(map, tree.toTreeMap());
+        assertEquals(map.size(), tree.size());
+        assertEquals(map.isEmpty(), tree.empty());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ArrayRBTree tree = new ArrayRBTree();
+        compareAndCheck(new TreeMap<>(), tree);
+        assertEquals(null, tree.search(0));
+        assertEquals(-1, tree.delete(0));
+        assertArrayEquals(new int[0], tree.keysToArray());
+        assertArrayEquals(new String[0], tree.valuesToArray());
+        assertFalse(tree.cursor().valid());
+    }
+
+    @Test
+    public void testInsertAndDeleteMaxInt() throws Exception {
+        ArrayRBTree tree = new ArrayRBTree();
+        assertEquals(-1, tree.insert(Integer.MAX_VALUE, "max"));
+        assertEquals(-1, tree.delete(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testFuzzAgainstRBTree() throws Exception {
+        final int VALUES_RANGE = 3000;
+        TreeMap<Integer, String> map = new TreeMap<>();
+        ArrayRBTree tree = new ArrayRBTree();
+        RBTree reference = new RBTree();
+
+        for (int i = 0; i < 8000; i++) {
+            int k = rand.nextInt(VALUES_RANGE) - VALUES_RANGE / 2;
+            if (rand.nextInt(100) < 55) {
+                int expected = reference.insert(k, "" + k);
+                assertEquals(expected, tree.insert(k, "" + k));
+                map.putIfAbsent(k, "" + k);
+            } else {
+                int expected = reference.delete(k);
+                assertEquals(expected, tree.delete(k));
+                map.remove(k);
+            }
+            if (i % 50 == 0) {
+                compareAndCheck(map, tree);
+            }
+        }
+        compareAndCheck(map, tree);
+
+        int[] keys = tree.keysToArray();
+        assertArrayEquals(reference.keysToArray(), keys);
+        assertArrayEquals(reference.valuesToArray(), tree.valuesToArray());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], tree.selectKey(i));
+            assertEquals(i, tree.rank(keys[i]));
+        }
+        for (int k = -VALUES_RANGE / 2 - 2; k < VALUES_RANGE / 2 + 2; k++) {
+            assertEquals(map.get(k), tree.search(k));
+            assertEquals(map.floorKey(k), tree.floorKey(k));
+            assertEquals(map.ceilingKey(k), tree.ceilingKey(k));
+            assertEquals(map.lowerKey(k), tree.lowerKey(k));
+            assertEquals(map.higherKey(k), tree.higherKey(k));
+            assertArrayEquals(reference.keysInRange(k, k + 40), tree.keysInRange(k, k + 40));
+            assertArrayEquals(reference.valuesInRange(k, k + 40), tree.valuesInRange(k, k + 40));
+        }
+
+        List<Integer> backward = new ArrayList<>();
+        ArrayRBTree.Cursor cursor = tree.cursor();
+        for (boolean valid = cursor.last(); valid; valid = cursor.prev()) {
+            backward.add(cursor.key());
+        }
+        assertEquals(new ArrayList<>(map.descendingKeySet()), backward);
+    }
+
+    @Test
+    public void testSlotsAreReused() throws Exception {
+        ArrayRBTree tree = new ArrayRBTree();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(i, "" + i);
+        }
+        int capacity = tree.capacity();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i += 2) {
+                assertThat(tree.delete(i), not(-1));
+            }
+            for (int i = 0; i < 1000; i += 2) {
+                assertThat(tree.insert(i, "" + i), not(-1));
+            }
+        }
+        tree.checkTreeInvariants();
+        assertEquals(capacity, tree.capacity());
+    }
+
+    @Test
+    public void testSortedBuild() throws Exception {
+        for (int n = 0; n <= 200; n++) {
+            int[] keys = new int[n];
+            String[] values = new String[n];
+            TreeMap<Integer, String> map = new TreeMap<>();
+            for (int i = 0; i < n; i++) {
+                keys[i] = 5 * i - 100;
+                values[i] = "" + keys[i];
+                map.put(keys[i], values[i]);
+            }
+            ArrayRBTree tree = new ArrayRBTree(keys, values);
+            compareAndCheck(map, tree);
+            compareAndCheck(map, new ArrayRBTree(map));
+            if (n > 0) {
+                tree.insert(-1000, "x");
+                map.put(-1000, "x");
+                tree.delete(keys[n / 2]);
+                map.remove(keys[n / 2]);
+                compareAndCheck(map, tree);
+            }
+        }
+        compareAndCheck(new TreeMap<>(Collections.singletonMap(1, "1")),
+                new ArrayRBTree(new int[]{1, 1}, new String[]{"1", "one"}));
+    }
+}
@@ -0,0 +1,611 @@
+import java.util.Arrays;
+
+/**
+ * BPlusTree
+ * An ordered map from int keys to String values with RBTree's core API, built as a B+tree for read-heavy workloads
+ * on big maps.
+ *
+ * A search in RBTree visits about log2(n) nodes, each a separate allocation, so on a map much bigger than the CPU
+ * caches nearly every level is a cache miss. Here a node holds up to nodeSize keys in a sorted int[] block, which
+ * is binary searched in place, so a search visits only log(n)/log(nodeSize) nodes (5 levels for 50M keys with the
+ * default 64), and the keys it compares within a node are in a few adjacent cache lines.
+ * Items are only kept in the leaves, which are linked in key order, so scans walk the leaves' arrays.
+ *
+ * All the nodes except the root are at least half full; inserts split full nodes, and deletes borrow from or
+ * merge with a sibling. Any int can be used as a key.
+ */
+public class BPlusTree {
+
+    /**
+     * The default maximal number of keys in a node: 64 ints are 4 cache lines
+     */
+    static final int DEFAULT_NODE_SIZE = 64;
+
+    /**
+     * A node of the tree: a leaf, or an inner node with count separators and count + 1 children.
+     * The arrays have room for one key more than the node may hold, so an insert can go in before the node is split.
+     */
+    private abstract static class Node {
+        final int[] keys;
+        int count;
+
+        Node(int nodeSize) {
+            keys = new int[nodeSize + 1];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String[] values;
+        /**
+         * The next leaf in key order, or null for the last one
+         */
+        Leaf next;
+
+        Leaf(int nodeSize) {
+            super(nodeSize);
+            values = new String[nodeSize + 1];
+        }
+    }
+
+    /**
+     * An inner node. Child i holds the keys k such that keys[i - 1] <= k < keys[i] (without the bounds that
+     * don't exist).
+     */
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int nodeSize) {
+            super(nodeSize);
+            children = new Node[nodeSize + 2];
+        }
+    }
+
+    private final int nodeSize;
+    /**
+     * The minimal number of keys in a node other than the root
+     */
+    private final int minCount;
+    private Node root;
+    /**
+     * The number of inner levels above the leaves
+     */
+    private int height;
+    /**
+     * The first and last leaves. Merges always keep the left node, so the first leaf never changes.
+     */
+    private final Leaf first;
+    private Leaf last;
+    private int size;
+    /**
+     * Set by the recursive insert: whether the key was inserted, and the separator for a node it split
+     */
+    private boolean inserted;
+    private int splitKey;
+
+    /**
+     * A default constructor for the BPlusTree class, with nodes of DEFAULT_NODE_SIZE keys
+     * Works at O(1).
+     */
+    public BPlusTree() {
+        this(DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * A constructor for an empty tree with a given node size
+     * Works at O(1).
+     * precondition: nodeSize >= 3
+     *
+     * @param nodeSize The maximal number of keys in a node
+     */
+    public BPlusTree(int nodeSize) {
+        assert nodeSize >= 3 : "Invalid node size " + nodeSize;
+        this.nodeSize = nodeSize;
+        this.minCount = nodeSize / 2;
+        first = new Leaf(nodeSize);
+        last = first;
+        root = first;
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     * Works at O(1)
+     *
+     * @return Whether the tree is empty
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of items in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree, otherwise returns null
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return The value of the key, or null
+     */
+    public String search(int k) {
+        Leaf leaf = findLeaf(k);
+        int index = lowerBound(leaf, k);
+        return (index < leaf.count && leaf.keys[index] == k) ? leaf.values[index] : null;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree, splitting the nodes which overflow on the way back up.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: checkTreeInvariants()
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return 0 (the tree has no colors to change), or -1 if the key is already in the tree
+     */
+    public int insert(int k, String v) {
+        Node split = insert(root, k, v);
+        if (!inserted) {
+            return -1;
+        }
+        if (split != null) {
+            // The root was split: grow the tree by a level
+            Inner newRoot = new Inner(nodeSize);
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.count = 1;
+            root = newRoot;
+            height += 1;
+        }
+        size += 1;
+        return 0;
+    }
+
+    /**
+     * Inserts an item into a subtree
+     *
+     * @return The new right sibling of node if it was split (with splitKey set to its separator), or null
+     */
+    private Node insert(Node node, int k, String v) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = lowerBound(leaf, k);
+            if (index < leaf.count && leaf.keys[index] == k) {
+                inserted = false;
+                return null;
+            }
+            inserted = true;
+            System.arraycopy(leaf.keys, index, leaf.keys, index + 1, leaf.count - index);
+            System.arraycopy(leaf.values, index, leaf.values, index + 1, leaf.count - index);
+            leaf.keys[index] = k;
+            leaf.values[index] = v;
+            leaf.count += 1;
+            return (leaf.count > nodeSize) ? splitLeaf(leaf) : null;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, k);
+        Node split = insert(inner.children[index], k, v);
+        if (split == null) {
+            return null;
+        }
+        // Put the new child right after the one that was split, with its separator between them
+        System.arraycopy(inner.keys, index, inner.keys, index + 1, inner.count - index);
+        System.arraycopy(inner.children, index + 1, inner.children, index + 2, inner.count - index);
+        inner.keys[index] = splitKey;
+        inner.children[index + 1] = split;
+        inner.count += 1;
+        return (inner.count > nodeSize) ? splitInner(inner) : null;
+    }
+
+    /**
+     * Moves the upper half of an overflowing leaf to a new leaf, and sets splitKey to the new leaf's first key
+     *
+     * @return The new leaf
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(nodeSize);
+        int half = leaf.count / 2;
+        right.count = leaf.count - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.count);
+        System.arraycopy(leaf.values, half, right.values, 0, right.count);
+        Arrays.fill(leaf.values, half, leaf.count, null);
+        leaf.count = half;
+
+        right.next = leaf.next;
+        leaf.next = right;
+        if (last == leaf) {
+            last = right;
+        }
+        splitKey = right.keys[0];
+        return right;
+    }
+
+    /**
+     * Moves the upper half of an overflowing inner node to a new node, and sets splitKey to the middle separator,
+     * which moves up to the parent
+     *
+     * @return The new node
+     */
+    private Inner splitInner(Inner inner) {
+        Inner right = new Inner(nodeSize);
+        int half = inner.count / 2;
+        splitKey = inner.keys[half];
+        right.count = inner.count - half - 1;
+        System.arraycopy(inner.keys, half + 1, right.keys, 0, right.count);
+        System.arraycopy(inner.children, half + 1, right.children, 0, right.count + 1);
+        Arrays.fill(inner.children, half + 1, inner.count + 1, null);
+        inner.count = half;
+        return right;
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there, fixing the nodes which underflow on the way
+     * back up.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: checkTreeInvariants()
+     *
+     * @param k The key of the item to delete
+     * @return 0 (the tree has no colors to change), or -1 if the key isn't in the tree
+     */
+    public int delete(int k) {
+        if (!delete(root, k)) {
+            return -1;
+        }
+        if (root.count == 0 && root instanceof Inner) {
+            // The root's last two children were merged: shrink the tree by a level
+            root = ((Inner) root).children[0];
+            height -= 1;
+        }
+        size -= 1;
+        return 0;
+    }
+
+    /**
+     * Deletes an item from a subtree. The separators above it may still hold its key, which is fine,
+     * as they only have to bound the keys of their children.
+     *
+     * @return Whether the key was found
+     */
+    private boolean delete(Node node, int k) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = lowerBound(leaf, k);
+            if (index == leaf.count || leaf.keys[index] != k) {
+                return false;
+            }
+            System.arraycopy(leaf.keys, index + 1, leaf.keys, index, leaf.count - index - 1);
+            System.arraycopy(leaf.values, index + 1, leaf.values, index, leaf.count - index - 1);
+            leaf.count -= 1;
+            leaf.values[leaf.count] = null;
+            return true;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, k);
+        Node child = inner.children[index];
+        if (!delete(child, k)) {
+            return false;
+        }
+        if (child.count < minCount) {
+            fixUnderflow(inner, index);
+        }
+        return true;
+    }
+
+    /**
+     * Refills a child which has less than minCount keys, from a sibling which can spare one,
+     * or else by merging it with a sibling
+     *
+     * @param parent The parent of the child
+     * @param index  The index of the child in its parent
+     */
+    private void fixUnderflow(Inner parent, int index) {
+        if (index > 0 && parent.children[index - 1].count > minCount) {
+            borrowFromLeft(parent, index);
+        } else if (index < parent.count && parent.children[index + 1].count > minCount) {
+            borrowFromRight(parent, index);
+        } else if (index > 0) {
+            merge(parent, index - 1);
+        } else {
+            merge(parent, index);
+        }
+    }
+
+    /**
+     * Moves the last key of child index - 1 to the front of child index, through the separator between them
+     */
+    private void borrowFromLeft(Inner parent, int index) {
+        Node node = parent.children[index];
+        Node left = parent.children[index - 1];
+        System.arraycopy(node.keys, 0, node.keys, 1, node.count);
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf leftLeaf = (Leaf) left;
+            System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.count);
+            leaf.keys[0] = leftLeaf.keys[leftLeaf.count - 1];
+            leaf.values[0] = leftLeaf.values[leftLeaf.count - 1];
+            leftLeaf.values[leftLeaf.count - 1] = null;
+            parent.keys[index - 1] = leaf.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner leftInner = (Inner) left;
+            System.arraycopy(inner.children, 0, inner.children, 1, inner.count + 1);
+            inner.keys[0] = parent.keys[index - 1];
+            inner.children[0] = leftInner.children[leftInner.count];
+            leftInner.children[leftInner.count] = null;
+            parent.keys[index - 1] = leftInner.keys[leftInner.count - 1];
+        }
+        node.count += 1;
+        left.count -= 1;
+    }
+
+    /**
+     * Moves the first key of child index + 1 to the end of child index, through the separator between them
+     */
+    private void borrowFromRight(Inner parent, int index) {
+        Node node = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf rightLeaf = (Leaf) right;
+            leaf.keys[leaf.count] = rightLeaf.keys[0];
+            leaf.values[leaf.count] = rightLeaf.values[0];
+            System.arraycopy(rightLeaf.values, 1, rightLeaf.values, 0, rightLeaf.count - 1);
+            rightLeaf.values[rightLeaf.count - 1] = null;
+            System.arraycopy(rightLeaf.keys, 1, rightLeaf.keys, 0, rightLeaf.count - 1);
+            parent.keys[index] = rightLeaf.keys[0];
+        } else {
+            Inner inner = (Inner) node;
+            Inner rightInner = (Inner) right;
+            inner.keys[inner.count] = parent.keys[index];
+            inner.children[inner.count + 1] = rightInner.children[0];
+            parent.keys[index] = rightInner.keys[0];
+            System.arraycopy(rightInner.keys, 1, rightInner.keys, 0, rightInner.count - 1);
+            System.arraycopy(rightInner.children, 1, rightInner.children, 0, rightInner.count);
+            rightInner.children[rightInner.count] = null;
+        }
+        node.count += 1;
+        right.count -= 1;
+    }
+
+    /**
+     * Merges child index + 1 into child index, and removes it and the separator between them from the parent
+     */
+    private void merge(Inner parent, int index) {
+        Node left = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (left instanceof Leaf) {
+            Leaf leftLeaf = (Leaf) left;
+            Leaf rightLeaf = (Leaf) right;
+            System.arraycopy(rightLeaf.keys, 0, leftLeaf.keys, leftLeaf.count, rightLeaf.count);
+            System.arraycopy(rightLeaf.values, 0, leftLeaf.values, leftLeaf.count, rightLeaf.count);
+            leftLeaf.count += rightLeaf.count;
+            leftLeaf.next = rightLeaf.next;
+            if (last == rightLeaf) {
+                last = leftLeaf;
+            }
+        } else {
+            Inner leftInner = (Inner) left;
+            Inner rightInner = (Inner) right;
+            leftInner.keys[leftInner.count] = parent.keys[index];
+            System.arraycopy(rightInner.keys, 0, leftInner.keys, leftInner.count + 1, rightInner.count);
+            System.arraycopy(rightInner.children, 0, leftInner.children, leftInner.count + 1, rightInner.count + 1);
+            leftInner.count += rightInner.count + 1;
+        }
+
+        System.arraycopy(parent.keys, index + 1, parent.keys, index, parent.count - index - 1);
+        System.arraycopy(parent.children, index + 2, parent.children, index + 1, parent.count - index - 1);
+        parent.children[parent.count] = null;
+        parent.count -= 1;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the minimum key
+     */
+    public String min() {
+        return (first.count == 0) ? null : first.values[0];
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the maximum key
+     */
+    public String max() {
+        return (last.count == 0) ? null : last.values[last.count - 1];
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        int index = 0;
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            System.arraycopy(leaf.keys, 0, keys, index, leaf.count);
+            index += leaf.count;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public String[] valuesToArray() {
+        String[] values = new String[size];
+        int index = 0;
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            System.arraycopy(leaf.values, 0, values, index, leaf.count);
+            index += leaf.count;
+        }
+        return values;
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi)
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the tree such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        if (lo >= hi) {
+            return new int[0];
+        }
+        Leaf start = findLeaf(lo);
+        int startIndex = lowerBound(start, lo);
+
+        // Count the keys first, then copy them
+        int count = 0;
+        Leaf leaf = start;
+        int index = startIndex;
+        while (leaf != null) {
+            int end = lowerBound(leaf, hi);
+            count += end - index;
+            if (end < leaf.count) {
+                break;
+            }
+            leaf = leaf.next;
+            index = 0;
+        }
+
+        int[] keys = new int[count];
+        int copied = 0;
+        for (leaf = start, index = startIndex; copied < count; leaf = leaf.next, index = 0) {
+            int length = Math.min(leaf.count - index, count - copied);
+            System.arraycopy(leaf.keys, index, keys, copied, length);
+            copied += length;
+        }
+        return keys;
+    }
+
+    /**
+     * Finds the leaf where key k is, or would be inserted
+     * Works at O(logn)
+     */
+    private Leaf findLeaf(int k) {
+        Node node = root;
+        for (int level = height; level > 0; level--) {
+            Inner inner = (Inner) node;
+            node = inner.children[childIndex(inner, k)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Returns the index of the child of an inner node whose range holds k: the number of separators <= k
+     * Works at O(log(nodeSize))
+     */
+    private static int childIndex(Inner inner, int k) {
+        int lo = 0;
+        int hi = inner.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (inner.keys[mid] <= k) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first key >= k in a node (node.count if there is none)
+     * Works at O(log(nodeSize))
+     */
+    private static int lowerBound(Node node, int k) {
+        int lo = 0;
+        int hi = node.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (node.keys[mid] < k) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    int height() {
+        return height;
+    }
+
+    /**
+     * Checks that the tree is a valid B+tree: keys ordered and within their separators, nodes (other than the root)
+     * at least half full, all the leaves at the same depth and linked in order, and size right. Used for testing.
+     * Works at O(n)
+     */
+    void checkTreeInvariants() {
+        Leaf[] previous = new Leaf[1];
+        int count = checkNode(root, Long.MIN_VALUE, Long.MAX_VALUE, height, previous);
+        assert count == size : "size is " + size + " but the tree has " + count + " items";
+        assert previous[0] == last : "Invalid last leaf";
+        assert last.next == null : "The last leaf has a next leaf";
+    }
+
+    /**
+     * @param lo       The lowest key the subtree may hold
+     * @param hi       One past the highest key the subtree may hold
+     * @param level    The number of inner levels expected under the node
+     * @param previous The last leaf visited (in key order) so far
+     * @return The number of items in the subtree
+     */
+    private int checkNode(Node node, long lo, long hi, int level, Leaf[] previous) {
+        assert node.count <= nodeSize : "Overflowing node";
+        assert node == root || node.count >= minCount : "Underflowing node";
+        for (int i = 0; i < node.count; i++) {
+            assert lo <= node.keys[i] && node.keys[i] < hi : "Key out of its node's range " + node.keys[i];
+            assert i == 0 || node.keys[i - 1] < node.keys[i] : "Keys out of order " + node.keys[i];
+        }
+        if (node instanceof Leaf) {
+            assert level == 0 : "Leaf at the wrong depth";
+            Leaf leaf = (Leaf) node;
+            assert (previous[0] == null) ? leaf == first : previous[0].next == leaf : "Invalid leaf link";
+            previous[0] = leaf;
+            for (int i = leaf.count; i < leaf.values.length; i++) {
+                assert leaf.values[i] == null : "Value left behind a leaf's last item";
+            }
+            return leaf.count;
+        }
+
+        assert level > 0 : "Inner node at the wrong depth";
+        Inner inner = (Inner) node;
+        assert inner.count > 0 : "Inner node without separators";
+        int count = 0;
+        for (int i = 0; i <= inner.count; i++) {
+            long childLo = (i == 0) ? lo : inner.keys[i - 1];
+            long childHi = (i == inner.count) ? hi : inner.keys[i];
+            count += checkNode(inner.children[i], childLo, childHi, level - 1, previous);
+        }
+        for (int i = inner.count + 1; i < inner.children.length; i++) {
+            assert inner.children[i] == null : "Child left behind an inner node's last child";
+        }
+        return count;
+    }
+}
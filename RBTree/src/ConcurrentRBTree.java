@@ -0,0 +1,415 @@
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentRBTree
+ * A thread-safe RBTree for one writer thread (or a few, which are serialized) and many reader threads.
+ * Writers hold a StampedLock's write lock for the duration of a single insert or delete.
+ * Readers read the tree optimistically: the lock's stamp acts as the tree's version, and a read which a write
+ * overlapped (whose stamp no longer validates) is retried. Only a reader that keeps losing to writes falls back to
+ * the read lock, for a single short read, so readers never hold up the writer for long.
+ * Point reads and navigational reads (search, min, max, size, floorKey, ceilingKey, countInRange) are a single
+ * such read. Scans (the arrays, the ranges and toTreeMap) are a sequence of them: each reads the next SCAN_CHUNK
+ * items, from the key after the last one read, so a scan of any length never blocks the writer for more than one
+ * chunk. Each chunk is consistent, but the scan as a whole is only weakly consistent (like the iterators of
+ * ConcurrentSkipListMap): it reports every item that is in the tree throughout the scan, in order and once, and
+ * may or may not report the items inserted or deleted during it.
+ * In all cases readers never see a half-rotated tree.
+ * The underlying RBTree never has a search cache or finger search, as readers would update them.
+ */
+public class ConcurrentRBTree {
+
+    /**
+     * The number of optimistic attempts a read makes before falling back to the read lock
+     */
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+    /**
+     * The number of items a scan reads at a time
+     */
+    static final int SCAN_CHUNK = 256;
+    /**
+     * One past the largest key, as the end of a full scan
+     */
+    private static final long FULL_RANGE_END = Integer.MAX_VALUE + 1L;
+
+    private final RBTree tree;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * A default constructor for the ConcurrentRBTree class
+     * Works at O(1).
+     */
+    public ConcurrentRBTree() {
+        this(new RBTree());
+    }
+
+    /**
+     * A constructor that takes ownership of an existing tree. The tree must not be used directly afterwards.
+     * A search cache (see RBTree.setSearchCache) isn't safe for concurrent readers, so the tree's is removed,
+     * and so is finger search (see RBTree.setFingerSearch), as lookups move the finger.
+     * Works at O(1).
+     * precondition: tree != null
+     *
+     * @param tree The tree to make thread-safe
+     */
+    public ConcurrentRBTree(RBTree tree) {
+        this.tree = tree;
+        tree.setSearchCache(0);
+        tree.setFingerSearch(false);
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree. See RBTree.insert.
+     * Works at O(logn)
+     *
+     * @param k The key of the new node to insert into the tree
+     * @param v The new value to insert into the tree
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int insert(int k, String v) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.insert(k, v);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Deletes an item with key k from the tree, if it is there. See RBTree.delete.
+     * Works at O(logn)
+     *
+     * @param k The key who's node we want to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if an error occurs
+     */
+    public int delete(int k) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.delete(k);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree, otherwise returns null.
+     * Never takes a lock.
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise
+     */
+    public String search(int k) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                String value = tree.optimisticSearch(k);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.search(k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the minimum key in the tree, or null if the tree is empty
+     */
+    public String min() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                String value = tree.min();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.min();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the maximum key in the tree, or null if the tree is empty
+     */
+    public String max() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                String value = tree.max();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.max();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of items in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        // A single int read is atomic; the fence orders it after any write this thread has seen complete
+        long stamp = lock.tryOptimisticRead();
+        int size = tree.size();
+        if (stamp != 0 && lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     *
+     * @return Says whether the tree is empty or not
+     */
+    public boolean empty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree. See RBTree.keysToArray.
+     * The scan is weakly consistent (see the class doc).
+     * Works at O(n)
+     *
+     * @return All the keys for all the nodes in the tree
+     */
+    public int[] keysToArray() {
+        return scan(Integer.MIN_VALUE, FULL_RANGE_END).keys();
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys. See RBTree.valuesToArray.
+     * The scan is weakly consistent (see the class doc).
+     * Works at O(n)
+     *
+     * @return All the values for all the nodes in the tree
+     */
+    public String[] valuesToArray() {
+        return scan(Integer.MIN_VALUE, FULL_RANGE_END).values();
+    }
+
+    /**
+     * Returns a copy of the tree as a native java TreeMap. The scan is weakly consistent (see the class doc).
+     * Works at O(nlogn)
+     *
+     * @return A TreeMap that holds all the key-value pairs from the tree
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        Scan scan = scan(Integer.MIN_VALUE, FULL_RANGE_END);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < scan.size; i++) {
+            map.put(scan.keys[i], scan.values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi). See RBTree.keysInRange.
+     * The scan is weakly consistent (see the class doc).
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the tree such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        return scan(lo, hi).keys();
+    }
+
+    /**
+     * Returns the values of all the keys in the range [lo, hi). See RBTree.valuesInRange.
+     * The scan is weakly consistent (see the class doc).
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The values of the keys k in the tree such that lo <= k < hi
+     */
+    public String[] valuesInRange(int lo, int hi) {
+        return scan(lo, hi).values();
+    }
+
+    /**
+     * Returns the number of keys in the range [lo, hi). See RBTree.countInRange.
+     * Works at O(logn)
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The number of keys k such that lo <= k < hi
+     */
+    public int countInRange(int lo, int hi) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int result = tree.optimisticCountInRange(lo, hi);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.countInRange(lo, hi);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the largest key in the tree which is smaller or equal to k, or null. See RBTree.floorKey.
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The floor key of k, or null if there is none
+     */
+    public Integer floorKey(int k) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Integer result = tree.optimisticFloorKey(k);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.floorKey(k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the smallest key in the tree which is bigger or equal to k, or null. See RBTree.ceilingKey.
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The ceiling key of k, or null if there is none
+     */
+    public Integer ceilingKey(int k) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Integer result = tree.optimisticCeilingKey(k);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.ceilingKey(k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads the items with keys in [lo, hi), a chunk of SCAN_CHUNK items at a time. Each chunk is read like a
+     * point read: optimistically, and under the read lock if that keeps failing.
+     * Works at O(m + (m / SCAN_CHUNK + 1) * logn) where m is the number of items read
+     *
+     * @param lo The lowest key to read
+     * @param hi One past the highest key to read (a long, so that a full scan can read Integer.MAX_VALUE)
+     * @return The items read
+     */
+    private Scan scan(int lo, long hi) {
+        Scan scan = new Scan();
+        int[] keys = new int[SCAN_CHUNK];
+        String[] values = new String[SCAN_CHUNK];
+        long from = lo;
+        while (from < hi) {
+            int read = readChunk((int) from, hi, keys, values);
+            scan.append(keys, values, read);
+            if (read < SCAN_CHUNK) {
+                break;
+            }
+            // Resume after the last key read, wherever the writer has moved the nodes since
+            from = keys[read - 1] + 1L;
+        }
+        return scan;
+    }
+
+    /**
+     * Reads a consistent chunk of the items with keys in [from, hi). See RBTree.optimisticScan.
+     * Works at O(logn + SCAN_CHUNK)
+     *
+     * @return The number of items read into keys and values
+     */
+    private int readChunk(int from, long hi, int[] keys, String[] values) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int read = tree.optimisticScan(from, hi, keys, values);
+                if (read >= 0 && lock.validate(stamp)) {
+                    return read;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            // With no write in progress the walk sees a valid tree, so it can't fail
+            return tree.optimisticScan(from, hi, keys, values);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * The items read by a scan, in growing arrays
+     */
+    private static final class Scan {
+        int[] keys = new int[SCAN_CHUNK];
+        String[] values = new String[SCAN_CHUNK];
+        int size;
+
+        void append(int[] chunkKeys, String[] chunkValues, int count) {
+            if (size + count > keys.length) {
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            System.arraycopy(chunkKeys, 0, keys, size, count);
+            System.arraycopy(chunkValues, 0, values, size, count);
+            size += count;
+        }
+
+        int[] keys() {
+            return Arrays.copyOf(keys, size);
+        }
+
+        String[] values() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
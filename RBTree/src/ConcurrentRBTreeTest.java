@@ -0,0 +1,189 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRBTreeTest {
+
+    static final int STABLE_KEYS = 2000;
+    static final int READERS = 4;
+    static final int WRITES = 200000;
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    @Test
+    public void testSingleThreaded() throws Exception {
+        ConcurrentRBTree tree = new ConcurrentRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        assertTrue(tree.empty());
+        assertNull(tree.min());
+        assertNull(tree.max());
+        for (int i = 0; i < 1000; i++) {
+            int key = rand.nextInt(500);
+            if (rand.nextBoolean()) {
+                assertEquals(map.containsKey(key) ? -1 : 0, Math.min(tree.insert(key, "v" + key), 0));
+                map.putIfAbsent(key, "v" + key);
+            } else {
+                assertEquals(map.containsKey(key) ? 0 : -1, Math.min(tree.delete(key), 0));
+                map.remove(key);
+            }
+            assertEquals(map.get(key), tree.search(key));
+            assertEquals(map.size(), tree.size());
+        }
+        assertEquals(map, tree.toTreeMap());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+        assertEquals(map.subMap(100, 200).size(), tree.countInRange(100, 200));
+        assertArrayEquals(map.subMap(100, 200).values().toArray(new String[0]), tree.valuesInRange(100, 200));
+        assertEquals(map.floorKey(250), tree.floorKey(250));
+        assertEquals(map.ceilingKey(250), tree.ceilingKey(250));
+        assertArrayEquals(map.subMap(100, 200).keySet().stream().mapToInt(Integer::intValue).toArray(),
+                tree.keysInRange(100, 200));
+
+        // Taking over an existing tree removes its search cache and finger
+        RBTree existing = new RBTree();
+        existing.setSearchCache(64);
+        existing.setFingerSearch(true);
+        for (int key : map.keySet()) {
+            existing.insert(key, map.get(key));
+        }
+        ConcurrentRBTree wrapped = new ConcurrentRBTree(existing);
+        assertEquals(map, wrapped.toTreeMap());
+        assertEquals(map.size(), wrapped.size());
+        int first = map.firstKey();
+        existing.search(first);
+        existing.search(first);
+        assertEquals(0, existing.searchCacheHits());
+
+        // Scans that take several chunks, up to the ends of the key range
+        RBTree full = new RBTree(true);
+        TreeMap<Integer, String> fullMap = new TreeMap<>();
+        for (int i = 0; i < 3 * ConcurrentRBTree.SCAN_CHUNK + 1; i++) {
+            int key = (i == 0) ? Integer.MIN_VALUE : (i == 1) ? Integer.MAX_VALUE : rand.nextInt();
+            full.insert(key, "v" + key);
+            fullMap.put(key, "v" + key);
+        }
+        ConcurrentRBTree chunked = new ConcurrentRBTree(full);
+        assertEquals(fullMap, chunked.toTreeMap());
+        assertArrayEquals(fullMap.keySet().stream().mapToInt(Integer::intValue).toArray(), chunked.keysToArray());
+        assertArrayEquals(fullMap.values().toArray(new String[0]), chunked.valuesToArray());
+        assertArrayEquals(fullMap.subMap(-1 << 30, 1 << 30).values().toArray(new String[0]),
+                chunked.valuesInRange(-1 << 30, 1 << 30));
+        assertEquals(0, chunked.keysInRange(5, 5).length);
+    }
+
+    /**
+     * One writer keeps inserting and deleting odd keys, while readers check that they always see
+     * the even keys (which never change), and never see a torn value or an unsorted scan.
+     */
+    @Test
+    public void testReadersWithWriter() throws Exception {
+        ConcurrentRBTree tree = new ConcurrentRBTree();
+        for (int i = 0; i < STABLE_KEYS; i++) {
+            tree.insert(2 * i, "v" + (2 * i));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            Random rnd = new Random(1);
+            try {
+                for (int i = 0; i < WRITES; i++) {
+                    int key = 2 * rnd.nextInt(STABLE_KEYS) + 1;
+                    if (rnd.nextBoolean()) {
+                        tree.insert(key, "v" + key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                done.set(true);
+            }
+        }));
+        for (int r = 0; r < READERS; r++) {
+            int seed = r;
+            threads.add(new Thread(() -> {
+                Random rnd = new Random(seed);
+                try {
+                    while (!done.get()) {
+                        int key = rnd.nextInt(2 * STABLE_KEYS);
+                        String value = tree.search(key);
+                        if (key % 2 == 0) {
+                            assertEquals("v" + key, value);
+                        } else if (value != null) {
+                            assertEquals("v" + key, value);
+                        }
+                        assertEquals("v0", tree.min());
+                        String max = tree.max();
+                        assertTrue(max.equals("v" + (2 * STABLE_KEYS - 2)) || max.equals("v" + (2 * STABLE_KEYS - 1)));
+                        int size = tree.size();
+                        assertTrue(size >= STABLE_KEYS && size <= 2 * STABLE_KEYS);
+
+                        int[] keys = tree.keysInRange(key, key + 64);
+                        int stable = 0;
+                        for (int i = 0; i < keys.length; i++) {
+                            assertTrue(i == 0 || keys[i - 1] < keys[i]);
+                            assertTrue(keys[i] >= key && keys[i] < key + 64);
+                            stable += (keys[i] % 2 == 0) ? 1 : 0;
+                        }
+                        assertEquals((Math.min(key + 64, 2 * STABLE_KEYS) + 1) / 2 - (key + 1) / 2, stable);
+
+                        int evenKey = key - key % 2;
+                        Integer floor = tree.floorKey(key);
+                        assertTrue(floor != null && (floor == key || floor == evenKey));
+                        Integer ceiling = tree.ceilingKey(key);
+                        assertTrue(ceiling == null || ceiling == key || ceiling == evenKey + 2);
+                        int count = tree.countInRange(key, key + 64);
+                        assertTrue(count >= stable && count <= 64);
+
+                        // A full scan takes several chunks, between which the writer moves nodes around
+                        if (key % 64 == 0) {
+                            TreeMap<Integer, String> scanned = tree.toTreeMap();
+                            int even = 0;
+                            for (Map.Entry<Integer, String> entry : scanned.entrySet()) {
+                                assertEquals("v" + entry.getKey(), entry.getValue());
+                                even += (entry.getKey() % 2 == 0) ? 1 : 0;
+                            }
+                            assertEquals(STABLE_KEYS, even);
+                            int[] all = tree.keysToArray();
+                            for (int i = 1; i < all.length; i++) {
+                                assertTrue(all[i - 1] < all[i]);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        int[] keys = tree.keysToArray();
+        assertArrayEquals(tree.toTreeMap().keySet().stream().mapToInt(Integer::intValue).toArray(), keys);
+        assertEquals(tree.toTreeMap().size(), keys.length);
+        for (int i = 0; i < STABLE_KEYS; i++) {
+            assertEquals("v" + (2 * i), tree.search(2 * i));
+        }
+        assertEquals(tree.size(), keys.length);
+    }
+}
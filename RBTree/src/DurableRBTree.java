@@ -0,0 +1,774 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * DurableRBTree
+ * A ConcurrentRBTree whose inserts and deletes survive a crash. Every change is appended to a write-ahead log
+ * in a directory, and the directory also holds the latest snapshot of the whole tree (in RBTree.writeTo's format).
+ * Opening the directory reads the snapshot and replays the logs written after it.
+ *
+ * When the change is on disk depends on the SyncPolicy:
+ * EVERY_WRITE - insert and delete return only after their record was forced to disk. Threads writing at the same
+ *               time share a single force (group commit): whoever forces next forces every record appended so far.
+ * PERIODIC    - records are buffered and forced by a background thread every syncIntervalMillis, so a crash
+ *               loses at most the last interval's writes (plus the buffer's contents).
+ * NEVER       - records are handed to the OS when the buffer fills, and never forced. A crash of the process
+ *               loses only the buffer; a crash of the machine may lose anything since the last checkpoint.
+ *
+ * A change is applied to the tree before its record is forced, so reads are uncommitted: under any policy, a reader
+ * may see a change that a crash then loses (under EVERY_WRITE, only until the writer's insert or delete returns).
+ * If writing the log fails, the change that failed (and any other change in the same batch) stays in the tree
+ * although it isn't in the log, and the tree refuses every change from then on. Reopening the directory gives
+ * the state that the log actually holds.
+ *
+ * Once the logs grow past compactionBytes, a background thread checkpoints the tree: it starts a new log,
+ * writes a new snapshot, and deletes the older snapshot and logs. Writers are blocked only while the tree
+ * is copied into arrays; the snapshot itself is written without any lock.
+ *
+ * Reads never touch the disk, and are as cheap as ConcurrentRBTree's.
+ *
+ * Files: snapshot-<generation>.rbt holds every change logged before log-<generation>.wal. A new directory starts
+ * with an empty snapshot, which records whether the tree takes the full key range.
+ * A log is a sequence of records: payload length (4 bytes), CRC32 of the payload (4 bytes), and the payload:
+ * an op (1 byte), a key (4 bytes), and for inserts the value as (UTF-8 length + 1, 0 for null) and the UTF-8 bytes.
+ * All the numbers are little-endian. A torn record at the end of a log (from a crash in the middle of a write)
+ * is cut off when the log is replayed.
+ */
+public class DurableRBTree implements Closeable {
+
+    /**
+     * When log records are forced to disk, see the class comment
+     */
+    public enum SyncPolicy {EVERY_WRITE, PERIODIC, NEVER}
+
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    static final long DEFAULT_COMPACTION_BYTES = 64L << 20;
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int RECORD_HEADER_BYTES = 8;
+    /**
+     * Buffered records are written to the log (though not forced) once there are this many bytes of them
+     */
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".rbt";
+    private static final String LOG_PREFIX = "log-";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final SyncPolicy policy;
+    private final long compactionBytes;
+    private final ConcurrentRBTree tree;
+    private final boolean fullKeyRange;
+    private final ScheduledExecutorService background;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Held while a change is applied to the tree and appended to the buffer, so the log's order is the tree's order
+     */
+    private final Object appendLock = new Object();
+    /**
+     * Held while the buffer is written to the log and forced. Taken before appendLock, never after it.
+     */
+    private final Object syncLock = new Object();
+
+    // Guarded by appendLock
+    private byte[] buffer = new byte[4096];
+    private int bufferLength;
+    /**
+     * The number of bytes appended to all the logs since the tree was opened (its log sequence number)
+     */
+    private long appended;
+    /**
+     * The number of bytes in the logs that the next checkpoint will make obsolete
+     */
+    private long logBytes;
+    private boolean compacting;
+
+    // Guarded by syncLock (swapped under appendLock too)
+    private FileChannel log;
+    private long generation;
+    private byte[] spareBuffer = new byte[4096];
+
+    /**
+     * The sequence number up to which records are written to the log
+     */
+    private volatile long written;
+    /**
+     * The sequence number up to which records are forced to disk
+     */
+    private volatile long forced;
+    /**
+     * Set once a write to the log fails. The tree refuses changes from then on.
+     */
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * Opens the tree stored in a directory (creating the directory if needed), with the EVERY_WRITE policy
+     * Works at O(n + mlogn) where m is the number of records in the logs
+     * precondition: directory != null
+     *
+     * @param directory The directory that holds the snapshot and the logs
+     * @return The tree
+     * @throws IOException If the directory can't be read, or its files are corrupt
+     */
+    public static DurableRBTree open(Path directory) throws IOException {
+        return open(directory, SyncPolicy.EVERY_WRITE, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_COMPACTION_BYTES);
+    }
+
+    /**
+     * Opens the tree stored in a directory (creating the directory if needed)
+     * Works at O(n + mlogn) where m is the number of records in the logs: the snapshot is read in linear time, and
+     * each record is replayed as an insert or a delete
+     * precondition: directory != null, policy != null, syncIntervalMillis > 0, compactionBytes > 0
+     *
+     * @param directory          The directory that holds the snapshot and the logs
+     * @param policy             When changes are forced to disk
+     * @param syncIntervalMillis How often the PERIODIC policy forces the log
+     * @param compactionBytes    The size the logs grow to before they are compacted into a new snapshot
+     * @return The tree
+     * @throws IOException If the directory can't be read, or its files are corrupt
+     */
+    public static DurableRBTree open(Path directory, SyncPolicy policy, long syncIntervalMillis,
+                                     long compactionBytes) throws IOException {
+        return open(directory, policy, syncIntervalMillis, compactionBytes, false);
+    }
+
+    /**
+     * Opens the tree stored in a directory (creating the directory if needed). A new tree is created with an empty
+     * snapshot, which records whether it takes the full key range; an existing tree keeps the mode it was created
+     * with, whatever fullKeyRange says.
+     * Works at O(n + mlogn) where m is the number of records in the logs
+     * precondition: directory != null, policy != null, syncIntervalMillis > 0, compactionBytes > 0
+     *
+     * @param directory          The directory that holds the snapshot and the logs
+     * @param policy             When changes are forced to disk
+     * @param syncIntervalMillis How often the PERIODIC policy forces the log
+     * @param compactionBytes    The size the logs grow to before they are compacted into a new snapshot
+     * @param fullKeyRange       Whether a new tree accepts Integer.MAX_VALUE as a key (see RBTree(boolean))
+     * @return The tree
+     * @throws IOException If the directory can't be read, or its files are corrupt
+     */
+    public static DurableRBTree open(Path directory, SyncPolicy policy, long syncIntervalMillis,
+                                     long compactionBytes, boolean fullKeyRange) throws IOException {
+        assert syncIntervalMillis > 0 && compactionBytes > 0;
+        Files.createDirectories(directory);
+        // Snapshots that were still being written when the process stopped
+        for (long generation : generations(directory, SNAPSHOT_PREFIX, TEMPORARY_SUFFIX)) {
+            Files.deleteIfExists(file(directory, SNAPSHOT_PREFIX, generation, TEMPORARY_SUFFIX));
+        }
+        List<Long> snapshots = generations(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        List<Long> logs = generations(directory, LOG_PREFIX, LOG_SUFFIX);
+
+        RBTree tree;
+        long snapshotGeneration = 0;
+        if (snapshots.isEmpty()) {
+            tree = new RBTree(fullKeyRange);
+            if (logs.isEmpty()) {
+                // Only a snapshot records the key range, so a new tree starts with one
+                writeSnapshot(directory, snapshotGeneration, fullKeyRange, new int[0], new String[0]);
+            }
+        } else {
+            snapshotGeneration = snapshots.get(snapshots.size() - 1);
+            try (InputStream in = Files.newInputStream(file(directory, SNAPSHOT_PREFIX, snapshotGeneration,
+                    SNAPSHOT_SUFFIX))) {
+                tree = RBTree.readFrom(in);
+            }
+        }
+        long replayed = 0;
+        long generation = snapshotGeneration;
+        for (long logGeneration : logs) {
+            if (logGeneration >= snapshotGeneration) {
+                replayed += replay(file(directory, LOG_PREFIX, logGeneration, LOG_SUFFIX), tree);
+            }
+            generation = Math.max(generation, logGeneration);
+        }
+        return new DurableRBTree(directory, policy, syncIntervalMillis, compactionBytes, tree, generation + 1,
+                replayed);
+    }
+
+    private DurableRBTree(Path directory, SyncPolicy policy, long syncIntervalMillis, long compactionBytes,
+                          RBTree tree, long generation, long logBytes) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        this.compactionBytes = compactionBytes;
+        this.fullKeyRange = tree.isFullKeyRange();
+        this.tree = new ConcurrentRBTree(tree);
+        this.generation = generation;
+        this.logBytes = logBytes;
+        this.log = openLog(generation);
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "DurableRBTree " + directory);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        background = executor;
+        if (policy == SyncPolicy.PERIODIC) {
+            background.scheduleWithFixedDelay(this::backgroundSync, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree, and logs it. See RBTree.insert.
+     * Works at O(logn), plus waiting for the disk under the EVERY_WRITE policy
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return The number of node-color changes that happened during the insert, or -1 if the key is already in the tree
+     * @throws UncheckedIOException If writing to the log failed (now or before). The change may be in the tree
+     *                              without being in the log (see the class comment).
+     */
+    public int insert(int k, String v) {
+        byte[] value = (v == null) ? null : v.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        int result;
+        synchronized (appendLock) {
+            checkOpen();
+            // Applied before the record is forced, so that the log's order is the tree's (see the class comment)
+            result = tree.insert(k, v);
+            if (result < 0) {
+                return result;
+            }
+            sequence = append(OP_INSERT, k, value);
+        }
+        afterAppend(sequence);
+        return result;
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there, and logs it. See RBTree.delete.
+     * Works at O(logn), plus waiting for the disk under the EVERY_WRITE policy
+     *
+     * @param k The key of the item to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if the key isn't in the tree
+     * @throws UncheckedIOException If writing to the log failed (now or before). The change may be in the tree
+     *                              without being in the log (see the class comment).
+     */
+    public int delete(int k) {
+        long sequence;
+        int result;
+        synchronized (appendLock) {
+            checkOpen();
+            result = tree.delete(k);
+            if (result < 0) {
+                return result;
+            }
+            sequence = append(OP_DELETE, k, null);
+        }
+        afterAppend(sequence);
+        return result;
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree, otherwise returns null
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return The value of the key, or null
+     */
+    public String search(int k) {
+        return tree.search(k);
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the minimum key
+     */
+    public String min() {
+        return tree.min();
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the maximum key
+     */
+    public String max() {
+        return tree.max();
+    }
+
+    /**
+     * Returns the number of nodes in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     * Works at O(1)
+     *
+     * @return Whether the tree is empty
+     */
+    public boolean empty() {
+        return tree.empty();
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        return tree.keysToArray();
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public String[] valuesToArray() {
+        return tree.valuesToArray();
+    }
+
+    /**
+     * Returns a TreeMap holding the items of the tree
+     * Works at O(n)
+     *
+     * @return A new TreeMap with the same items as the tree
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        return tree.toTreeMap();
+    }
+
+    /**
+     * Writes every change made so far to the log and forces it to disk, whatever the policy
+     * Works at O(b) where b is the number of buffered bytes
+     *
+     * @throws IOException If writing to the log fails
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (appendLock) {
+            sequence = appended;
+        }
+        syncTo(sequence, true);
+    }
+
+    /**
+     * Writes a snapshot of the tree and deletes the logs it makes obsolete, so the next open doesn't replay them.
+     * This is what the background compaction runs; it can also be called directly, e.g. before a planned shutdown.
+     * Writers wait only while the tree is copied, in O(n); the snapshot is written while they continue.
+     *
+     * @throws IOException If the snapshot can't be written, or the logs can't be rolled
+     */
+    public void checkpoint() throws IOException {
+        long snapshotGeneration;
+        int[] keys;
+        String[] values;
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                checkOpen();
+                // Everything logged so far goes into the old log, which the snapshot makes obsolete
+                writeBuffer(log, true);
+                log.close();
+                generation++;
+                log = openLog(generation);
+                snapshotGeneration = generation;
+                logBytes = 0;
+                keys = tree.keysToArray();
+                values = tree.valuesToArray();
+            }
+        }
+
+        writeSnapshot(directory, snapshotGeneration, fullKeyRange, keys, values);
+
+        for (long old : generations(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (old < snapshotGeneration) {
+                Files.deleteIfExists(file(directory, SNAPSHOT_PREFIX, old, SNAPSHOT_SUFFIX));
+            }
+        }
+        for (long old : generations(directory, LOG_PREFIX, LOG_SUFFIX)) {
+            if (old < snapshotGeneration) {
+                Files.deleteIfExists(file(directory, LOG_PREFIX, old, LOG_SUFFIX));
+            }
+        }
+    }
+
+    /**
+     * Returns whether the tree accepts Integer.MAX_VALUE as a key, which is fixed when the tree is created
+     * Works at O(1)
+     *
+     * @return Whether the tree takes the full key range (see RBTree(boolean))
+     */
+    public boolean isFullKeyRange() {
+        return fullKeyRange;
+    }
+
+    /**
+     * Forces every change to disk, stops the background thread and closes the log. The tree can't be changed
+     * afterwards. A checkpoint that is already running is finished first.
+     *
+     * @throws IOException If writing to the log fails
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    if (failure == null) {
+                        writeBuffer(log, true);
+                    }
+                } finally {
+                    log.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a record into the buffer
+     * Works at O(1) plus the length of the value
+     * precondition: the caller holds appendLock
+     *
+     * @return The sequence number just past the record
+     */
+    private long append(byte op, int k, byte[] value) {
+        int payloadLength = 5 + ((op == OP_INSERT) ? 4 + ((value == null) ? 0 : value.length) : 0);
+        int recordLength = RECORD_HEADER_BYTES + payloadLength;
+        if (bufferLength + recordLength > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(bufferLength + recordLength, 2 * buffer.length));
+        }
+        int payload = bufferLength + RECORD_HEADER_BYTES;
+        buffer[payload] = op;
+        putInt(buffer, payload + 1, k);
+        if (op == OP_INSERT) {
+            putInt(buffer, payload + 5, (value == null) ? 0 : value.length + 1);
+            if (value != null) {
+                System.arraycopy(value, 0, buffer, payload + 9, value.length);
+            }
+        }
+        crc.reset();
+        crc.update(buffer, payload, payloadLength);
+        putInt(buffer, bufferLength, payloadLength);
+        putInt(buffer, bufferLength + 4, (int) crc.getValue());
+        bufferLength += recordLength;
+        appended += recordLength;
+        logBytes += recordLength;
+        if (logBytes >= compactionBytes && !compacting) {
+            compacting = true;
+            try {
+                background.execute(this::backgroundCheckpoint);
+            } catch (RejectedExecutionException e) {
+                // The tree is being closed
+                compacting = false;
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Makes an appended record as durable as the policy requires
+     */
+    private void afterAppend(long sequence) {
+        try {
+            if (policy == SyncPolicy.EVERY_WRITE) {
+                syncTo(sequence, true);
+            } else if (bufferLength >= WRITE_BUFFER_BYTES) {
+                // Racy read, but a missed write-out only delays it to the next append or sync
+                syncTo(sequence, false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the buffer to the log, and forces the log, unless another thread already did so past sequence.
+     * This is the group commit: one thread writes and forces the records of every thread waiting behind it.
+     *
+     * @param sequence The sequence number that must be written
+     * @param force    Whether the log must also be forced to disk
+     * @throws IOException If writing fails
+     */
+    private void syncTo(long sequence, boolean force) throws IOException {
+        if ((force ? forced : written) >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if ((force ? forced : written) >= sequence) {
+                return;
+            }
+            byte[] batch;
+            int batchLength;
+            long batchEnd;
+            synchronized (appendLock) {
+                checkOpen();
+                // Swap the buffers, so writers can keep appending while this batch is written
+                batch = buffer;
+                batchLength = bufferLength;
+                batchEnd = appended;
+                buffer = spareBuffer;
+                bufferLength = 0;
+            }
+            try {
+                write(log, batch, batchLength);
+                if (force) {
+                    log.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            spareBuffer = batch;
+            written = batchEnd;
+            if (force) {
+                forced = batchEnd;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer to a log, and forces it
+     * precondition: the caller holds syncLock and appendLock
+     */
+    private void writeBuffer(FileChannel channel, boolean force) throws IOException {
+        try {
+            write(channel, buffer, bufferLength);
+            bufferLength = 0;
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        written = appended;
+        if (force) {
+            forced = appended;
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] bytes, int length) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(bytes, 0, length);
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private void backgroundSync() {
+        try {
+            sync();
+        } catch (IOException | UncheckedIOException e) {
+            // Recorded in failure, and thrown by the next insert or delete
+        }
+    }
+
+    private void backgroundCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException | UncheckedIOException e) {
+            // The logs are still there, so nothing is lost; the next append will try again
+        } finally {
+            synchronized (appendLock) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * precondition: the caller holds appendLock
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("DurableRBTree is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("An earlier write to the log failed", failure);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, forces it, and renames it into place, so a crash never leaves
+     * a partial snapshot under a snapshot's name
+     * Works at O(n)
+     */
+    private static void writeSnapshot(Path directory, long snapshotGeneration, boolean fullKeyRange, int[] keys,
+                                      String[] values) throws IOException {
+        Path temporary = file(directory, SNAPSHOT_PREFIX, snapshotGeneration, TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            RBTreeFormat.write(fullKeyRange, keys, values, out);
+            channel.force(true);
+        }
+        Files.move(temporary, file(directory, SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(directory);
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        FileChannel channel = FileChannel.open(file(directory, LOG_PREFIX, logGeneration, LOG_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        forceDirectory(directory);
+        return channel;
+    }
+
+    /**
+     * Forces the directory itself, so that created, renamed and deleted files survive a crash.
+     * Not every platform can open a directory; where it can't, this does nothing.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    /**
+     * Applies the records of a log to a tree. A torn or corrupt record ends the log: it and anything after it
+     * are cut off the file.
+     * Works at O(mlogn) where m is the number of records in the log
+     *
+     * @return The number of valid bytes in the log
+     */
+    private static long replay(Path file, RBTree tree) throws IOException {
+        long size = Files.size(file);
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        byte[] header = new byte[RECORD_HEADER_BYTES];
+        byte[] payload = new byte[64];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            while (readFully(in, header, RECORD_HEADER_BYTES)) {
+                int payloadLength = getInt(header, 0);
+                // The length isn't checksummed, so it's only trusted as far as the file actually goes
+                if (payloadLength < 5 || payloadLength > size - valid - RECORD_HEADER_BYTES) {
+                    break;
+                }
+                if (payloadLength > payload.length) {
+                    payload = new byte[payloadLength];
+                }
+                if (!readFully(in, payload, payloadLength)) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, payloadLength);
+                if ((int) crc.getValue() != getInt(header, 4)) {
+                    break;
+                }
+                int k = getInt(payload, 1);
+                if (payload[0] == OP_INSERT && payloadLength >= 9) {
+                    int valueLength = getInt(payload, 5);
+                    if (valueLength < 0 || 9 + Math.max(0, valueLength - 1) != payloadLength) {
+                        break;
+                    }
+                    String v = (valueLength == 0) ? null
+                            : new String(payload, 9, valueLength - 1, StandardCharsets.UTF_8);
+                    tree.insert(k, v);
+                } else if (payload[0] == OP_DELETE && payloadLength == 5) {
+                    tree.delete(k);
+                } else {
+                    break;
+                }
+                valid += RECORD_HEADER_BYTES + payloadLength;
+            }
+        }
+        if (valid < size) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @return Whether length bytes were read, or false if the stream ended first
+     */
+    private static boolean readFully(InputStream in, byte[] bytes, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    /**
+     * @return The generations of the files in the directory with the given name, in ascending order
+     */
+    private static List<Long> generations(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()),
+                            16));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private static Path file(Path directory, String prefix, long generation, String suffix) {
+        return directory.resolve(String.format("%s%016x%s", prefix, generation, suffix));
+    }
+
+    private static void putInt(byte[] bytes, int offset, int v) {
+        bytes[offset] = (byte) v;
+        bytes[offset + 1] = (byte) (v >>> 8);
+        bytes[offset + 2] = (byte) (v >>> 16);
+        bytes[offset + 3] = (byte) (v >>> 24);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
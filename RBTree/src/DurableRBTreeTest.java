@@ -0,0 +1,238 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DurableRBTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Random rand = new Random();
+
+    private static DurableRBTree open(Path directory, DurableRBTree.SyncPolicy policy, long compactionBytes)
+            throws IOException {
+        return DurableRBTree.open(directory, policy, 5, compactionBytes);
+    }
+
+    private void randomOperations(DurableRBTree tree, TreeMap<Integer, String> map, int count) {
+        for (int i = 0; i < count; i++) {
+            int key = rand.nextInt(2000);
+            if (rand.nextInt(3) != 0) {
+                String value = (rand.nextInt(10) == 0) ? null : "v" + i;
+                if (tree.insert(key, value) >= 0) {
+                    assertNull(map.put(key, value));
+                } else {
+                    assertTrue(map.containsKey(key));
+                }
+            } else {
+                assertEquals(map.containsKey(key), tree.delete(key) >= 0);
+                map.remove(key);
+            }
+        }
+    }
+
+    private static List<String> files(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(suffix))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        for (DurableRBTree.SyncPolicy policy : DurableRBTree.SyncPolicy.values()) {
+            Path directory = folder.newFolder().toPath();
+            TreeMap<Integer, String> map = new TreeMap<>();
+            for (int round = 0; round < 3; round++) {
+                try (DurableRBTree tree = open(directory, policy, 1L << 30)) {
+                    assertEquals(map, tree.toTreeMap());
+                    randomOperations(tree, map, 3000);
+                    assertEquals(map, tree.toTreeMap());
+                }
+            }
+            try (DurableRBTree tree = open(directory, policy, 1L << 30)) {
+                assertEquals(map, tree.toTreeMap());
+                assertEquals(map.size(), tree.size());
+            }
+        }
+    }
+
+    @Test
+    public void testCrashWithoutClose() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        // Every write is forced before it returns, so a tree which is never closed loses nothing
+        DurableRBTree crashed = open(directory, DurableRBTree.SyncPolicy.EVERY_WRITE, 1L << 30);
+        randomOperations(crashed, map, 500);
+        try (DurableRBTree tree = open(directory, DurableRBTree.SyncPolicy.EVERY_WRITE, 1L << 30)) {
+            assertEquals(map, tree.toTreeMap());
+        }
+        crashed.close();
+    }
+
+    @Test
+    public void testFullKeyRange() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        try (DurableRBTree tree = DurableRBTree.open(directory, DurableRBTree.SyncPolicy.EVERY_WRITE, 5, 1L << 30,
+                true)) {
+            assertTrue(tree.isFullKeyRange());
+            assertTrue(tree.insert(Integer.MAX_VALUE, "max") >= 0);
+        }
+        // The mode is kept by the directory, even before the first checkpoint
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertTrue(tree.isFullKeyRange());
+            assertEquals("max", tree.search(Integer.MAX_VALUE));
+            tree.checkpoint();
+        }
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals("max", tree.search(Integer.MAX_VALUE));
+        }
+        try (DurableRBTree tree = DurableRBTree.open(folder.newFolder().toPath())) {
+            assertFalse(tree.isFullKeyRange());
+            assertTrue(tree.insert(Integer.MAX_VALUE, "max") < 0);
+        }
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            tree.insert(1, "one");
+            tree.insert(2, "two");
+            tree.insert(3, "three");
+        }
+        Path log = directory.resolve(files(directory, ".wal").get(0));
+        long size = Files.size(log);
+        // Cut the last record in the middle, as a crash during its write would
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals("one", tree.search(1));
+            assertEquals("two", tree.search(2));
+            assertNull(tree.search(3));
+            tree.insert(4, "four");
+        }
+        // Also a record whose bytes were corrupted
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 2] ^= 1;
+        Files.write(log, bytes);
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals("one", tree.search(1));
+            assertNull(tree.search(2));
+            assertEquals("four", tree.search(4));
+            tree.insert(5, "five");
+        }
+        // And a record header whose length is garbage (2GB), which mustn't be allocated
+        bytes = Files.readAllBytes(log);
+        byte[] garbage = Arrays.copyOf(bytes, bytes.length + 16);
+        garbage[bytes.length] = (byte) 0xF0;
+        garbage[bytes.length + 1] = garbage[bytes.length + 2] = (byte) 0xFF;
+        garbage[bytes.length + 3] = 0x7F;
+        Files.write(log, garbage);
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals("five", tree.search(5));
+        }
+        assertEquals(bytes.length, Files.size(log));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        try (DurableRBTree tree = open(directory, DurableRBTree.SyncPolicy.NEVER, 1L << 30)) {
+            randomOperations(tree, map, 2000);
+            tree.checkpoint();
+            assertEquals(1, files(directory, ".rbt").size());
+            assertEquals(1, files(directory, ".wal").size());
+            randomOperations(tree, map, 2000);
+        }
+        try (DurableRBTree tree = open(directory, DurableRBTree.SyncPolicy.NEVER, 1L << 30)) {
+            assertEquals(map, tree.toTreeMap());
+        }
+    }
+
+    @Test
+    public void testBackgroundCompaction() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        try (DurableRBTree tree = open(directory, DurableRBTree.SyncPolicy.PERIODIC, 16 << 10)) {
+            for (int round = 0; round < 20; round++) {
+                randomOperations(tree, map, 1000);
+            }
+        }
+        // The logs were compacted along the way, and only the ones written since the last snapshot are left
+        long logBytes = 0;
+        for (String log : files(directory, ".wal")) {
+            logBytes += Files.size(directory.resolve(log));
+        }
+        assertTrue(logBytes + " bytes of logs left", logBytes < 4 * (16 << 10));
+        assertEquals(1, files(directory, ".rbt").size());
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals(map, tree.toTreeMap());
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        int threads = 4;
+        int perThread = 300;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int k = first; k < first + perThread; k++) {
+                            assertTrue(tree.insert(k, "" + k) >= 0);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        try (DurableRBTree tree = DurableRBTree.open(directory)) {
+            assertEquals(threads * perThread, tree.size());
+            for (int k = 0; k < threads * perThread; k++) {
+                assertEquals("" + k, tree.search(k));
+            }
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        DurableRBTree tree = DurableRBTree.open(folder.newFolder().toPath());
+        tree.insert(1, "one");
+        tree.close();
+        tree.close();
+        assertEquals("one", tree.search(1));
+        try {
+            tree.insert(2, "two");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/**
+ * IntCache
+ * A small bounded cache from int keys to values, for the hot keys of a skewed lookup workload
+ * (see RBTree.setSearchCache).
+ *
+ * The table is open addressed, with the keys in an int[] so that nothing is boxed. A key hashes to a slot, and may
+ * be stored in any of the PROBES slots from there on, so a lookup reads at most PROBES consecutive keys.
+ * When all of a key's slots are taken, one of them is evicted by the CLOCK policy, run over those slots: a lookup
+ * which hits a slot marks it as referenced, and eviction skips (and unmarks) referenced slots, so keys which were
+ * read since the last eviction around them get a second chance. Removed slots are simply emptied; since a lookup
+ * always reads all of the key's slots, no tombstones are needed.
+ *
+ * The cache isn't thread safe: even get() updates the referenced bits and the counters.
+ */
+final class IntCache<V> {
+
+    /**
+     * The number of slots a key may be stored in
+     */
+    static final int PROBES = 8;
+
+    private final int[] keys;
+    /**
+     * The value of each slot, or null if the slot is empty
+     */
+    private final Object[] values;
+    private final boolean[] referenced;
+    private final int mask;
+    /**
+     * The slot (relative to a key's first slot) from which the next eviction starts looking
+     */
+    private int hand;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache
+     * Works at O(capacity)
+     * precondition: capacity > 0
+     *
+     * @param capacity The maximal number of entries, rounded up to a power of two (and to at least PROBES)
+     */
+    IntCache(int capacity) {
+        assert capacity > 0;
+        int slots = Integer.highestOneBit(Math.max(capacity - 1, PROBES - 1)) << 1;
+        keys = new int[slots];
+        values = new Object[slots];
+        referenced = new boolean[slots];
+        mask = slots - 1;
+    }
+
+    /**
+     * Returns the number of slots in the cache
+     * Works at O(1)
+     *
+     * @return The maximal number of entries
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the value cached for k, or null if it isn't cached, and counts the lookup as a hit or a miss
+     * Works at O(PROBES)
+     *
+     * @param k The key to look up
+     * @return The cached value, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(int k) {
+        int slot = slot(k);
+        for (int i = 0; i < PROBES; i++) {
+            if (keys[slot] == k && values[slot] != null) {
+                referenced[slot] = true;
+                hits++;
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches a value for k, replacing the value cached for k (if any), or else an empty slot,
+     * or else the slot CLOCK evicts
+     * Works at O(PROBES)
+     * precondition: value != null
+     *
+     * @param k     The key
+     * @param value The value to cache
+     */
+    void put(int k, V value) {
+        assert value != null;
+        int first = slot(k);
+        int free = -1;
+        int slot = first;
+        for (int i = 0; i < PROBES; i++) {
+            if (values[slot] == null) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (keys[slot] == k) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (free < 0) {
+            free = evict(first);
+        }
+        keys[free] = k;
+        values[free] = value;
+        referenced[free] = false;
+    }
+
+    /**
+     * Removes the value cached for k, if any
+     * Works at O(PROBES)
+     *
+     * @param k The key to remove
+     */
+    void remove(int k) {
+        int slot = slot(k);
+        for (int i = 0; i < PROBES; i++) {
+            if (keys[slot] == k && values[slot] != null) {
+                values[slot] = null;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes all the cached values. The hit and miss counters are kept.
+     * Works at O(capacity)
+     */
+    void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+    }
+
+    /**
+     * Returns the number of lookups which found their key
+     *
+     * @return The number of hits since the cache was created
+     */
+    long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which didn't find their key
+     *
+     * @return The number of misses since the cache was created
+     */
+    long misses() {
+        return misses;
+    }
+
+    /**
+     * Picks the slot to evict out of the full slots [first, first + PROBES), by CLOCK
+     * Works at O(PROBES)
+     *
+     * @param first The first slot of the key being cached
+     * @return The slot to reuse
+     */
+    private int evict(int first) {
+        // Each referenced slot passed over loses its mark, so this stops within two rounds
+        while (true) {
+            int slot = (first + hand) & mask;
+            hand = (hand + 1) & (PROBES - 1);
+            if (!referenced[slot]) {
+                return slot;
+            }
+            referenced[slot] = false;
+        }
+    }
+
+    /**
+     * Returns the first slot of a key. The key is scrambled first, so that runs of nearby keys spread over the table.
+     */
+    private int slot(int k) {
+        int h = k * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntCacheTest {
+
+    @Test
+    public void testCapacity() throws Exception {
+        assertEquals(IntCache.PROBES, new IntCache<String>(1).capacity());
+        assertEquals(64, new IntCache<String>(64).capacity());
+        assertEquals(128, new IntCache<String>(65).capacity());
+    }
+
+    @Test
+    public void testGetPutRemove() throws Exception {
+        IntCache<String> cache = new IntCache<>(1024);
+        for (int k = -100; k < 100; k++) {
+            assertNull(cache.get(k));
+            cache.put(k, "v" + k);
+        }
+        for (int k = -100; k < 100; k++) {
+            assertEquals("v" + k, cache.get(k));
+        }
+        cache.put(5, "new");
+        assertEquals("new", cache.get(5));
+        cache.remove(5);
+        assertNull(cache.get(5));
+        cache.remove(5);
+        assertEquals(201, cache.hits());
+        assertEquals(201, cache.misses());
+        cache.clear();
+        for (int k = -100; k < 100; k++) {
+            assertNull(cache.get(k));
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        IntCache<String> cache = new IntCache<>(256);
+        Random rand = new Random();
+        Map<Integer, String> values = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int k = rand.nextInt(10000);
+            String v = "v" + rand.nextInt(100);
+            values.put(k, v);
+            cache.put(k, v);
+            // A cached key always has its latest value
+            int probe = rand.nextInt(10000);
+            String cached = cache.get(probe);
+            assertTrue(cached == null || cached.equals(values.get(probe)));
+        }
+        int cached = 0;
+        for (int k = 0; k < 10000; k++) {
+            if (cache.get(k) != null) {
+                cached++;
+            }
+        }
+        assertTrue(cached <= cache.capacity());
+    }
+
+    @Test
+    public void testClockKeepsHotKeys() throws Exception {
+        IntCache<String> cache = new IntCache<>(1024);
+        int hotHits = 0;
+        for (int i = 0; i < 100000; i++) {
+            // Read-through: a missed key is cached again. The hot keys are read between every two cold keys,
+            // so CLOCK gives them second chances while the cold keys push each other out.
+            int hot = i & 63;
+            if (cache.get(hot) != null) {
+                hotHits++;
+            } else {
+                cache.put(hot, "hot");
+            }
+            cache.put(1000 + i, "cold");
+        }
+        assertTrue("only " + hotHits + " hot hits", hotHits > 90000);
+    }
+}
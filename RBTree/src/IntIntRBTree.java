@@ -0,0 +1,219 @@
+import java.util.NoSuchElementException;
+
+/**
+ * IntIntRBTree
+ * A red-black tree mapping int keys to int values, stored unboxed in the nodes.
+ * Any int can be used as a key. The red-black core is shared with the other specializations, see AbstractRBTree.
+ *
+ * Generated by templates/generate.sh from templates/PrimitiveValueRBTree.java.template, like the other trees with
+ * primitive values: edit the template and regenerate, not this file.
+ */
+public class IntIntRBTree extends AbstractRBTree<IntIntRBTree.IntIntNode> {
+
+    /**
+     * A node of the tree, with an unboxed key and value
+     */
+    static final class IntIntNode extends AbstractRBTree.Node<IntIntNode> {
+        int key;
+        int value;
+
+        IntIntNode(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        void copyEntry(IntIntNode other) {
+            key = other.key;
+            value = other.value;
+        }
+    }
+
+    /**
+     * A default constructor for the IntIntRBTree class
+     * Works at O(1).
+     */
+    public IntIntRBTree() {
+        super(new IntIntNode(0, 0), new IntIntNode(0, 0));
+    }
+
+    /**
+     * Returns true if and only if the tree holds the key k
+     * Works in O(logn)
+     *
+     * @param k The key to look up
+     * @return Whether the key is in the tree
+     */
+    public boolean contains(int k) {
+        return searchNode(k) != nil;
+    }
+
+    /**
+     * Returns the value of the item with key k if it exists in the tree, otherwise returns notFound
+     * Works in O(logn)
+     *
+     * @param k        The key by which to look up the value
+     * @param notFound The value to return if the key isn't in the tree
+     * @return The value of the key, or notFound
+     */
+    public int search(int k, int notFound) {
+        IntIntNode node = searchNode(k);
+        return (node != nil) ? node.value : notFound;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree.
+     * Works at O(logn)
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return The number of node-color changes that happened during the insert, or -1 if the key is already in the tree
+     */
+    public int insert(int k, int v) {
+        IntIntNode parent = rootDummy;
+        Direction direction = Direction.Left;
+        IntIntNode node = root();
+        while (node != nil) {
+            if (k == node.key) {
+                return -1;
+            }
+            parent = node;
+            direction = (k < node.key) ? Direction.Left : Direction.Right;
+            node = child(node, direction);
+        }
+        return insertNode(parent, new IntIntNode(k, v), direction);
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there.
+     * Works at O(logn)
+     *
+     * @param k The key of the item to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if the key isn't in the tree
+     */
+    public int delete(int k) {
+        IntIntNode node = searchNode(k);
+        if (node == nil) {
+            return -1;
+        }
+        return deleteNode(node);
+    }
+
+    /**
+     * Returns the smallest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The minimum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int minKey() {
+        return first().key;
+    }
+
+    /**
+     * Returns the largest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The maximum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int maxKey() {
+        return last().key;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The value of the minimum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int min() {
+        return first().value;
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The value of the maximum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int max() {
+        return last().value;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        IntIntNode node = minNode;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = node.key;
+            node = (i + 1 < keys.length) ? successor(node) : null;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public int[] valuesToArray() {
+        int[] values = new int[size];
+        IntIntNode node = minNode;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = node.value;
+            node = (i + 1 < values.length) ? successor(node) : null;
+        }
+        return values;
+    }
+
+    /**
+     * Searches for the node with key k, starting from the root
+     * Works in O(logn)
+     *
+     * @param k The key to look by
+     * @return The node with key k, or nil if there isn't one
+     */
+    private IntIntNode searchNode(int k) {
+        IntIntNode node = root();
+        while (node != nil && k != node.key) {
+            node = (k < node.key) ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private IntIntNode first() {
+        if (minNode == null) {
+            throw new NoSuchElementException();
+        }
+        return minNode;
+    }
+
+    private IntIntNode last() {
+        if (maxNode == null) {
+            throw new NoSuchElementException();
+        }
+        return maxNode;
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    @Override
+    boolean keyLess(IntIntNode a, IntIntNode b) {
+        return a.key < b.key;
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.NoSuchElementException;
+
+/**
+ * IntObjectRBTree
+ * A red-black tree mapping int keys to object values, with the keys stored unboxed in the nodes.
+ * Any int can be used as a key. The red-black core is shared with the other specializations, see AbstractRBTree.
+ *
+ * Generated by templates/generate.sh from templates/ObjectValueRBTree.java.template, like the other trees with
+ * object values: edit the template and regenerate, not this file.
+ *
+ * @param <V> The type of the values
+ */
+public class IntObjectRBTree<V> extends AbstractRBTree<IntObjectRBTree.IntObjectNode<V>> {
+
+    /**
+     * A node of the tree, with an unboxed key and value
+     */
+    static final class IntObjectNode<V> extends AbstractRBTree.Node<IntObjectNode<V>> {
+        int key;
+        V value;
+
+        IntObjectNode(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        void copyEntry(IntObjectNode<V> other) {
+            key = other.key;
+            value = other.value;
+        }
+    }
+
+    /**
+     * A default constructor for the IntObjectRBTree class
+     * Works at O(1).
+     */
+    public IntObjectRBTree() {
+        super(new IntObjectNode<>(0, null), new IntObjectNode<>(0, null));
+    }
+
+    /**
+     * Returns true if and only if the tree holds the key k
+     * Works in O(logn)
+     *
+     * @param k The key to look up
+     * @return Whether the key is in the tree
+     */
+    public boolean contains(int k) {
+        return searchNode(k) != nil;
+    }
+
+    /**
+     * Returns the value of the item with key k if it exists in the tree, otherwise returns null
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return The value of the key, or null if the key isn't in the tree
+     */
+    public V search(int k) {
+        IntObjectNode<V> node = searchNode(k);
+        return (node != nil) ? node.value : null;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree.
+     * Works at O(logn)
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return The number of node-color changes that happened during the insert, or -1 if the key is already in the tree
+     */
+    public int insert(int k, V v) {
+        IntObjectNode<V> parent = rootDummy;
+        Direction direction = Direction.Left;
+        IntObjectNode<V> node = root();
+        while (node != nil) {
+            if (k == node.key) {
+                return -1;
+            }
+            parent = node;
+            direction = (k < node.key) ? Direction.Left : Direction.Right;
+            node = child(node, direction);
+        }
+        return insertNode(parent, new IntObjectNode<>(k, v), direction);
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there.
+     * Works at O(logn)
+     *
+     * @param k The key of the item to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if the key isn't in the tree
+     */
+    public int delete(int k) {
+        IntObjectNode<V> node = searchNode(k);
+        if (node == nil) {
+            return -1;
+        }
+        return deleteNode(node);
+    }
+
+    /**
+     * Returns the smallest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The minimum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int minKey() {
+        return first().key;
+    }
+
+    /**
+     * Returns the largest key in the tree
+     * Works at O(1)
+     * precondition: !empty()
+     *
+     * @return The maximum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int maxKey() {
+        return last().key;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the minimum key, or null if the tree is empty
+     */
+    public V min() {
+        return empty() ? null : minNode.value;
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value of the maximum key, or null if the tree is empty
+     */
+    public V max() {
+        return empty() ? null : maxNode.value;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        IntObjectNode<V> node = minNode;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = node.key;
+            node = (i + 1 < keys.length) ? successor(node) : null;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public Object[] valuesToArray() {
+        Object[] values = new Object[size];
+        IntObjectNode<V> node = minNode;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = node.value;
+            node = (i + 1 < values.length) ? successor(node) : null;
+        }
+        return values;
+    }
+
+    /**
+     * Searches for the node with key k, starting from the root
+     * Works in O(logn)
+     *
+     * @param k The key to look by
+     * @return The node with key k, or nil if there isn't one
+     */
+    private IntObjectNode<V> searchNode(int k) {
+        IntObjectNode<V> node = root();
+        while (node != nil && k != node.key) {
+            node = (k < node.key) ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private IntObjectNode<V> first() {
+        if (minNode == null) {
+            throw new NoSuchElementException();
+        }
+        return minNode;
+    }
+
+    private IntObjectNode<V> last() {
+        if (maxNode == null) {
+            throw new NoSuchElementException();
+        }
+        return maxNode;
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    @Override
+    boolean keyLess(IntObjectNode<V> a, IntObjectNode<V> b) {
+        return a.key < b.key;
+    }
+}
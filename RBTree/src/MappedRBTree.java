@@ -0,0 +1,780 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * MappedRBTree
+ * A Red Black Tree (with the same insert/delete/search behaviour as RBTree) that lives entirely in a
+ * memory-mapped file instead of on the Java heap.
+ * The file holds a small header, the node records (key, links and a pointer to the value) and the values,
+ * which are UTF-8 strings appended to the same file. Nodes and values are allocated from a single
+ * append-only region; slots of deleted nodes are reused, but the bytes of deleted values are not.
+ * Opening an existing file only reads its header, so a tree of any size is usable right away, without
+ * rebuilding it. Changes reach the file through the OS page cache, and are made durable with flush().
+ * The header has a dirty flag, which is set on disk before the first change after opening or flushing the tree,
+ * and cleared by flush() and close(). A file whose last changes may not all have reached the disk (because the
+ * process or the machine stopped before flushing it) is refused by open(), rather than served as a corrupt tree.
+ * The file is mapped in fixed-size chunks, each mapped on first access, so it can grow beyond 2GB.
+ */
+public class MappedRBTree implements Closeable {
+
+    /**
+     * Identifies the file format, and its version
+     */
+    private static final long MAGIC = 0x5242547265654D31L; // "RBTreeM1"
+    private static final int VERSION = 1;
+
+    /**
+     * The default size of a mapped chunk, as a power of 2 (64MB)
+     */
+    static final int DEFAULT_CHUNK_BITS = 26;
+
+    /**
+     * Header layout: all the tree's members are kept in the file, so reopening it needs nothing else
+     */
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_CHUNK_BITS = 12;
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_END = 24;
+    private static final int HEADER_MIN = 32;
+    private static final int HEADER_MAX = 40;
+    private static final int HEADER_FREE = 48;
+    private static final int HEADER_DIRTY = 56;
+    private static final int HEADER_BYTES = 64;
+
+    /**
+     * Node record layout. The color is kept in the lowest bit of the parent pointer, which is always
+     * free since records are 8-byte aligned. LEFT and RIGHT also serve as child directions
+     * (with 24 - direction as the opposite direction), like RBTree's Direction.
+     */
+    private static final int KEY = 0;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 16;
+    private static final int PARENT = 24;
+    private static final int VALUE = 32;
+    private static final int NODE_BYTES = 40;
+    private static final long RED = 1;
+
+    /**
+     * The sentinel used as a NULL child for all the leaves in the tree, and the dummy root,
+     * stored right after the header. The real root is the left child of ROOT_DUMMY.
+     */
+    private static final long NIL = HEADER_BYTES;
+    private static final long ROOT_DUMMY = HEADER_BYTES + NODE_BYTES;
+    private static final long FIRST_FREE_BYTE = ROOT_DUMMY + NODE_BYTES;
+
+    /**
+     * Marks a null value in the VALUE field of a node
+     */
+    private static final long NULL_VALUE = 0;
+
+    private final FileChannel channel;
+    private final int chunkBits;
+    private final long chunkMask;
+    /**
+     * The mapped chunks of the file, by index. Chunks are mapped on first access.
+     */
+    private MappedByteBuffer[] chunks;
+    /**
+     * Whether the tree was changed since it was opened or last flushed, and its header's dirty flag is set
+     */
+    private boolean dirty;
+
+    /**
+     * Opens the tree stored in the given file, or creates an empty tree if the file doesn't exist or is empty
+     * Works at O(1).
+     * precondition: file != null
+     *
+     * @param file The file that holds the tree
+     * @return The tree
+     * @throws IOException If the file can't be opened, isn't a tree file, or wasn't flushed after its last change
+     */
+    public static MappedRBTree open(Path file) throws IOException {
+        return open(file, DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Opens or creates a tree, with the given chunk size for a new file. Used by the tests to cross chunk
+     * boundaries with small trees. An existing file keeps the chunk size it was created with.
+     */
+    static MappedRBTree open(Path file, int chunkBits) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                return new MappedRBTree(channel, chunkBits, true);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getLong(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("Not a MappedRBTree file: " + file);
+            }
+            if (header.getInt(HEADER_DIRTY) != 0) {
+                throw new IOException("MappedRBTree file wasn't flushed after its last change, and may be corrupt: "
+                        + file);
+            }
+            return new MappedRBTree(channel, header.getInt(HEADER_CHUNK_BITS), false);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A constructor for a tree over an open file
+     * Works at O(1).
+     *
+     * @param channel   The open file
+     * @param chunkBits The size of a mapped chunk, as a power of 2
+     * @param create    Whether to initialize a new, empty tree in the file
+     */
+    private MappedRBTree(FileChannel channel, int chunkBits, boolean create) {
+        this.channel = channel;
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+        this.chunks = new MappedByteBuffer[4];
+
+        if (create) {
+            putLong(HEADER_MAGIC, MAGIC);
+            putInt(HEADER_VERSION, VERSION);
+            putInt(HEADER_CHUNK_BITS, chunkBits);
+            putInt(HEADER_SIZE, 0);
+            putLong(HEADER_END, FIRST_FREE_BYTE);
+            putLong(HEADER_MIN, NIL);
+            putLong(HEADER_MAX, NIL);
+            putLong(HEADER_FREE, NIL);
+
+            putInt(ROOT_DUMMY + KEY, Integer.MAX_VALUE);
+            putLong(ROOT_DUMMY + LEFT, NIL);
+            putLong(ROOT_DUMMY + RIGHT, NIL);
+            putLong(ROOT_DUMMY + PARENT, NIL);
+            putLong(NIL + LEFT, NIL);
+            putLong(NIL + RIGHT, NIL);
+            putLong(NIL + PARENT, NIL);
+            chunk(0).force();
+        }
+    }
+
+    /**
+     * Writes all the changes made to the tree to the file on disk, and then clears the file's dirty flag
+     * Works at O(m) where m is the number of mapped chunks
+     */
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+        putInt(HEADER_DIRTY, 0);
+        chunk(0).force();
+        dirty = false;
+    }
+
+    /**
+     * Sets the file's dirty flag on disk before the first change since the tree was opened or flushed,
+     * so that a crash in the middle of the changes that follow leaves a file that open() refuses
+     * Works at O(1)
+     */
+    private void markDirty() {
+        if (!dirty) {
+            putInt(HEADER_DIRTY, 1);
+            chunk(0).force();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Flushes the tree and closes its file. The tree can't be used afterwards.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        chunks = null;
+        channel.close();
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     *
+     * @return Says whether the tree is empty or not
+     */
+    public boolean empty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return getInt(HEADER_SIZE);
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree
+     * otherwise, returns null
+     * Works in O(logn) where n is the number of elements in the tree
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise
+     */
+    public String search(int k) {
+        long node = getPositionByKey(k);
+        return (node == ROOT_DUMMY || key(node) != k) ? null : value(node);
+    }
+
+    private long getPositionByKey(int k) {
+        long node = ROOT_DUMMY;
+        while (true) {
+            int nodeKey = key(node);
+            if (k == nodeKey) {
+                return node;
+            }
+            long child = getLong(node + (k < nodeKey ? LEFT : RIGHT));
+            if (child == NIL) {
+                return node;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Inserts an item with key k and value v to the red black tree.
+     * the tree must remain valid (keep its invariants).
+     * returns the number of color switches, or 0 if no color switches were necessary.
+     * returns -1 if an item with key k already exists in the tree.
+     * Works at O(logn)
+     *
+     * @param k The key of the new node to insert into the tree
+     * @param v The new value to insert into the tree
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int insert(int k, String v) {
+        if (k == key(ROOT_DUMMY)) {
+            return -1;
+        }
+        long parent = getPositionByKey(k);
+        if (key(parent) == k) {
+            return -1;
+        }
+
+        markDirty();
+        long node = allocateNode(k, v);
+        if (empty()) {
+            putLong(HEADER_MIN, node);
+            putLong(HEADER_MAX, node);
+        }
+
+        if (k < key(parent)) {
+            setChild(parent, LEFT, node);
+            if (parent == minNode()) {
+                putLong(HEADER_MIN, node);
+            }
+        } else {
+            setChild(parent, RIGHT, node);
+            if (parent == maxNode()) {
+                putLong(HEADER_MAX, node);
+            }
+        }
+
+        putInt(HEADER_SIZE, size() + 1);
+        return insertFixup(node);
+    }
+
+    private int insertFixup(long node) {
+        int colorSwitchCount = 0;
+
+        while (isRed(parent(node))) {
+            long parent = parent(node);
+            long grandparent = parent(parent);
+            int direction = relationToParent(parent);
+            int opposite = LEFT + RIGHT - direction;
+
+            long uncle = child(grandparent, opposite);
+            if (isRed(uncle)) {
+                // Case 1: parent and uncle are red.
+                colorSwitchCount += setColor(parent, false);
+                colorSwitchCount += setColor(uncle, false);
+                colorSwitchCount += setColor(grandparent, true);
+                node = grandparent;
+            } else if (relationToParent(node) == opposite) {
+                // Case 2: parent is red, uncle is black, and node is between parent and grandparent.
+                node = parent;
+                rotate(node, direction);
+            } else {
+                // Case 3: parent is red, uncle is black, and parent is between node and grandparent.
+                colorSwitchCount += setColor(parent, false);
+                colorSwitchCount += setColor(grandparent, true);
+                rotate(grandparent, opposite);
+            }
+        }
+
+        colorSwitchCount += setColor(root(), false);
+
+        return colorSwitchCount;
+    }
+
+    /**
+     * Deletes an item with key k from the binary tree, if it is there;
+     * the tree must remain valid (keep its invariants).
+     * returns the number of color switches, or 0 if no color switches were needed.
+     * returns -1 if an item with key k was not found in the tree.
+     * Works at O(logn)
+     *
+     * @param k The key who's node we want to delete
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int delete(int k) {
+        if (k == key(ROOT_DUMMY)) {
+            return -1;
+        }
+        long node = getPositionByKey(k);
+        if (node == ROOT_DUMMY || key(node) != k) {
+            return -1;
+        }
+
+        markDirty();
+        if (size() == 1) {
+            putLong(HEADER_MIN, NIL);
+            putLong(HEADER_MAX, NIL);
+        } else if (node == minNode()) {
+            putLong(HEADER_MIN, successor(node));
+        } else if (node == maxNode()) {
+            putLong(HEADER_MAX, predecessor(node));
+        }
+
+        putInt(HEADER_SIZE, size() - 1);
+        return deleteNode(node);
+    }
+
+    private int deleteNode(long node) {
+        int colorSwitches = 0;
+
+        if (child(node, LEFT) != NIL && child(node, RIGHT) != NIL) {
+            // Place the successor instead of the node to delete
+            long successorNode = successor(node);
+            putInt(node + KEY, key(successorNode));
+            putLong(node + VALUE, getLong(successorNode + VALUE));
+            if (successorNode == maxNode()) {
+                putLong(HEADER_MAX, node);
+            }
+            node = successorNode;
+        }
+
+        long child = child(node, LEFT) != NIL ? child(node, LEFT) : child(node, RIGHT);
+        if (child != NIL) {
+            transplant(node, child);
+            if (!isRed(node)) {
+                colorSwitches = deleteFixup(child);
+            }
+        } else {
+            if (!isRed(node)) {
+                colorSwitches = deleteFixup(node);
+            }
+            putLong(parent(node) + relationToParent(node), NIL);
+        }
+
+        // Put the node's slot in the free list, linked through its left child
+        putLong(node + LEFT, getLong(HEADER_FREE));
+        putLong(HEADER_FREE, node);
+        return colorSwitches;
+    }
+
+    private int deleteFixup(long node) {
+        int colorSwitches = 0;
+
+        while (node != root() && !isRed(node)) {
+            long parent = parent(node);
+            int direction = relationToParent(node);
+            int opposite = LEFT + RIGHT - direction;
+
+            long brother = child(parent, opposite);
+            if (isRed(brother)) {
+                // Case 1: brother is red
+                colorSwitches += setColor(brother, false);
+                colorSwitches += setColor(parent, true);
+                rotate(parent, direction);
+            } else if (!isRed(child(brother, direction)) && !isRed(child(brother, opposite))) {
+                // Case 2: brother is black, and both nephews are black.
+                colorSwitches += setColor(brother, true);
+                node = parent;
+            } else if (!isRed(child(brother, opposite))) {
+                // Case 3: brother is black, far nephew is black, and near nephew is red.
+                colorSwitches += setColor(child(brother, direction), false);
+                colorSwitches += setColor(brother, true);
+                rotate(brother, opposite);
+            } else {
+                // Case 4: brother is black, far nephew is red.
+                colorSwitches += setColor(brother, isRed(parent));
+                colorSwitches += setColor(parent, false);
+                colorSwitches += setColor(child(brother, opposite), false);
+                rotate(parent, direction);
+                node = root();
+            }
+        }
+        colorSwitches += setColor(node, false);
+
+        return colorSwitches;
+    }
+
+    /**
+     * Takes a record for a new red node, from the free list if possible, and appends its value to the file
+     * Works at O(1)
+     */
+    private long allocateNode(int k, String v) {
+        long valueOffset = appendValue(v);
+        long node = getLong(HEADER_FREE);
+        if (node != NIL) {
+            putLong(HEADER_FREE, getLong(node + LEFT));
+        } else {
+            node = allocate(NODE_BYTES);
+        }
+        putInt(node + KEY, k);
+        putLong(node + LEFT, NIL);
+        putLong(node + RIGHT, NIL);
+        putLong(node + PARENT, RED);
+        putLong(node + VALUE, valueOffset);
+        return node;
+    }
+
+    /**
+     * Appends a value record (its UTF-8 length followed by its bytes) to the file
+     *
+     * @param v The value to append
+     * @return The offset of the value record, or NULL_VALUE if v is null
+     */
+    private long appendValue(String v) {
+        if (v == null) {
+            return NULL_VALUE;
+        }
+        byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+        if (4 + bytes.length > chunkMask + 1) {
+            throw new IllegalArgumentException("Value too long: " + bytes.length + " bytes");
+        }
+        long offset = allocate(4 + bytes.length);
+        putInt(offset, bytes.length);
+        ByteBuffer target = chunk(offset).duplicate();
+        target.position(chunkOffset(offset + 4));
+        target.put(bytes);
+        return offset;
+    }
+
+    /**
+     * Reads the value of a node from its value record
+     */
+    private String value(long node) {
+        long offset = getLong(node + VALUE);
+        if (offset == NULL_VALUE) {
+            return null;
+        }
+        byte[] bytes = new byte[getInt(offset)];
+        ByteBuffer source = chunk(offset).duplicate();
+        source.position(chunkOffset(offset + 4));
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Allocates bytes at the end of the file. Records are 8-byte aligned, and never cross a chunk boundary.
+     * Works at O(1)
+     *
+     * @param bytes The size of the record
+     * @return The offset of the new record
+     */
+    private long allocate(int bytes) {
+        long offset = getLong(HEADER_END);
+        long end = offset + ((bytes + 7) & ~7);
+        if ((offset >>> chunkBits) != ((end - 1) >>> chunkBits)) {
+            offset = ((end - 1) >>> chunkBits) << chunkBits;
+            end = offset + ((bytes + 7) & ~7);
+        }
+        putLong(HEADER_END, end);
+        return offset;
+    }
+
+    private void rotate(long node, int direction) {
+        int opposite = LEFT + RIGHT - direction;
+        long pivot = child(node, opposite);
+        transplant(node, pivot);
+        setChild(node, opposite, child(pivot, direction));
+        setChild(pivot, direction, node);
+    }
+
+    private void transplant(long node, long replacement) {
+        setChild(parent(node), relationToParent(node), replacement);
+    }
+
+    private void setChild(long node, int direction, long child) {
+        putLong(node + direction, child);
+        if (child != NIL) {
+            long parentField = getLong(child + PARENT);
+            putLong(child + PARENT, node | (parentField & RED));
+        }
+    }
+
+    private long successor(long node) {
+        if (child(node, RIGHT) != NIL) {
+            return subtreeMin(child(node, RIGHT));
+        }
+        while (relationToParent(node) == RIGHT) {
+            node = parent(node);
+        }
+        return parent(node);
+    }
+
+    private long predecessor(long node) {
+        if (child(node, LEFT) != NIL) {
+            return subtreeMax(child(node, LEFT));
+        }
+        while (relationToParent(node) == LEFT) {
+            node = parent(node);
+        }
+        return parent(node);
+    }
+
+    private long subtreeMin(long node) {
+        while (node != NIL && child(node, LEFT) != NIL) {
+            node = child(node, LEFT);
+        }
+        return node;
+    }
+
+    private long subtreeMax(long node) {
+        while (node != NIL && child(node, RIGHT) != NIL) {
+            node = child(node, RIGHT);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the minimum key in the tree, or null if the tree is empty
+     */
+    public String min() {
+        return empty() ? null : value(minNode());
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the maximum key in the tree, or null if the tree is empty
+     */
+    public String max() {
+        return empty() ? null : value(maxNode());
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the keys for all the nodes in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size()];
+        long node = minNode();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(node);
+            node = (i == keys.length - 1) ? NIL : successor(node);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns an array which contains all values in the tree,
+     * sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the values for all the nodes in the tree
+     */
+    public String[] valuesToArray() {
+        String[] items = new String[size()];
+        long node = minNode();
+        for (int i = 0; i < items.length; i++) {
+            items[i] = value(node);
+            node = (i == items.length - 1) ? NIL : successor(node);
+        }
+        return items;
+    }
+
+    /**
+     * Returns a representation of the tree as a native java TreeMap
+     * Works at O(n) where n is the number of nodes in the tree
+     *
+     * @return A TreeMap that holds all the key-value pairs from the tree
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        toMap(map);
+        return map;
+    }
+
+    /**
+     * Inserts all the elements in the tree into the given map
+     * Works at O(n) where n is the number of nodes in the tree
+     *
+     * @param map The map to insert all the tree's elements into
+     */
+    public void toMap(Map<Integer, String> map) {
+        int[] keys = keysToArray();
+        String[] items = valuesToArray();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], items[i]);
+        }
+    }
+
+    /**
+     * All the methods from here down are trivial accessors for the node records and the file,
+     * therefore there is no need to document them thoroughly
+     */
+
+    private long root() {
+        return getLong(ROOT_DUMMY + LEFT);
+    }
+
+    private long minNode() {
+        return getLong(HEADER_MIN);
+    }
+
+    private long maxNode() {
+        return getLong(HEADER_MAX);
+    }
+
+    private int key(long node) {
+        return getInt(node + KEY);
+    }
+
+    private long child(long node, int direction) {
+        return getLong(node + direction);
+    }
+
+    private long parent(long node) {
+        return getLong(node + PARENT) & ~RED;
+    }
+
+    private int relationToParent(long node) {
+        return child(parent(node), LEFT) == node ? LEFT : RIGHT;
+    }
+
+    private boolean isRed(long node) {
+        return (getLong(node + PARENT) & RED) != 0;
+    }
+
+    /**
+     * Sets the color of a node, and counts whether it was actually a color change
+     *
+     * @return 1 if the node's color was actually changed, 0 otherwise
+     */
+    private int setColor(long node, boolean red) {
+        long parentField = getLong(node + PARENT);
+        if (((parentField & RED) != 0) == red) {
+            return 0;
+        }
+        putLong(node + PARENT, parentField ^ RED);
+        return 1;
+    }
+
+    private int getInt(long offset) {
+        return chunk(offset).getInt(chunkOffset(offset));
+    }
+
+    private long getLong(long offset) {
+        return chunk(offset).getLong(chunkOffset(offset));
+    }
+
+    private void putInt(long offset, int value) {
+        chunk(offset).putInt(chunkOffset(offset), value);
+    }
+
+    private void putLong(long offset, long value) {
+        chunk(offset).putLong(chunkOffset(offset), value);
+    }
+
+    private int chunkOffset(long offset) {
+        return (int) (offset & chunkMask);
+    }
+
+    /**
+     * Returns the mapped chunk that holds the given file offset, mapping it (and growing the file) if needed
+     */
+    private MappedByteBuffer chunk(long offset) {
+        int index = (int) (offset >>> chunkBits);
+        if (index < chunks.length) {
+            MappedByteBuffer chunk = chunks[index];
+            if (chunk != null) {
+                return chunk;
+            }
+        } else {
+            chunks = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length * 2));
+        }
+        try {
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) index << chunkBits, chunkMask + 1);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunks[index] = chunk;
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * All the function from here on down are just for debugging or testing purpose.
+     */
+
+    void checkTreeInvariants() {
+        assert child(ROOT_DUMMY, RIGHT) == NIL : "rootDummy has a right child";
+        assert !isRed(ROOT_DUMMY) : "Invalid color for rootDummy";
+        assert !isRed(NIL) : "Invalid color for nil";
+        assert !isRed(root()) : "Red root";
+        int[] count = new int[1];
+        checkSubtreeInvariants(root(), count);
+        assert count[0] == size() : "Incorrect size";
+        assert subtreeMin(root()) == (empty() ? NIL : minNode()) : "Incorrect minNode";
+        assert subtreeMax(root()) == (empty() ? NIL : maxNode()) : "Incorrect maxNode";
+    }
+
+    // Returns the node black height
+    private int checkSubtreeInvariants(long node, int[] count) {
+        if (node == NIL) {
+            return 1;
+        }
+        count[0]++;
+        assert !(isRed(node) && isRed(parent(node))) : "Red rule violated";
+        long left = child(node, LEFT);
+        long right = child(node, RIGHT);
+        if (left != NIL) {
+            assert parent(left) == node : "Invalid parent";
+            assert key(left) < key(node) : "Left child key not lower than node key";
+        }
+        if (right != NIL) {
+            assert parent(right) == node : "Invalid parent";
+            assert key(right) > key(node) : "Right child key not higher then node key";
+        }
+        int leftBlackLength = checkSubtreeInvariants(left, count);
+        int rightBlackLength = checkSubtreeInvariants(right, count);
+        assert leftBlackLength == rightBlackLength : "Black rule violated";
+        return leftBlackLength + (isRed(node) ? 0 : 1);
+    }
+}
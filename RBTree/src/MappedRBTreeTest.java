@@ -0,0 +1,122 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedRBTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Random rand = new Random();
+
+    public void compareAndCheck(TreeMap<Integer, String> map, MappedRBTree tree) {
+        tree.checkTreeInvariants();
+        assertEquals(map, tree.toTreeMap());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        try (MappedRBTree tree = MappedRBTree.open(folder.newFile().toPath())) {
+            compareAndCheck(new TreeMap<>(), tree);
+            assertTrue(tree.empty());
+            assertEquals(null, tree.search(1));
+            assertEquals(-1, tree.delete(1));
+            assertEquals(-1, tree.insert(Integer.MAX_VALUE, "max"));
+        }
+    }
+
+    @Test
+    public void testFuzzAcrossChunksAndReopen() throws Exception {
+        Path file = folder.newFile().toPath();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        RBTree reference = new RBTree();
+
+        // 4KB chunks, so records and values cross many chunk boundaries
+        MappedRBTree tree = MappedRBTree.open(file, 12);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3000; i++) {
+                int k = rand.nextInt(2000);
+                if (rand.nextInt(100) < 60) {
+                    String v = (k % 7 == 0) ? null : "value-" + k + "-" + round;
+                    assertEquals(reference.insert(k, v), tree.insert(k, v));
+                    map.putIfAbsent(k, v);
+                } else {
+                    assertEquals(reference.delete(k), tree.delete(k));
+                    map.remove(k);
+                }
+            }
+            compareAndCheck(map, tree);
+
+            tree.close();
+            tree = MappedRBTree.open(file);
+            compareAndCheck(map, tree);
+            assertEquals(map.size(), tree.size());
+        }
+        assertArrayEquals(reference.keysToArray(), tree.keysToArray());
+        assertArrayEquals(reference.valuesToArray(), tree.valuesToArray());
+        tree.close();
+    }
+
+    @Test
+    public void testUnicodeValues() throws Exception {
+        Path file = folder.newFile().toPath();
+        try (MappedRBTree tree = MappedRBTree.open(file)) {
+            tree.insert(1, "\u05e9\u05dc\u05d5\u05dd");
+            tree.insert(2, "");
+        }
+        try (MappedRBTree tree = MappedRBTree.open(file)) {
+            assertEquals("\u05e9\u05dc\u05d5\u05dd", tree.search(1));
+            assertEquals("", tree.search(2));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "not a tree".getBytes());
+        MappedRBTree.open(file);
+    }
+
+    @Test
+    public void testRejectsUnflushedFile() throws Exception {
+        Path file = folder.newFile().toPath();
+        MappedRBTree tree = MappedRBTree.open(file);
+        tree.insert(1, "one");
+        tree.flush();
+        // The second mapping shares the page cache with the first, so it sees the file as a crash would leave it
+        MappedRBTree.open(file).close();
+
+        assertEquals(-1, tree.delete(2));
+        MappedRBTree.open(file).close();
+
+        tree.insert(2, "two");
+        try {
+            MappedRBTree.open(file);
+            fail("Opened a file with unflushed changes");
+        } catch (IOException expected) {
+        }
+        tree.flush();
+        MappedRBTree.open(file).close();
+
+        tree.delete(1);
+        try {
+            MappedRBTree.open(file);
+            fail("Opened a file with unflushed changes");
+        } catch (IOException expected) {
+        }
+        tree.close();
+        try (MappedRBTree reopened = MappedRBTree.open(file)) {
+            assertEquals(1, reopened.size());
+            assertEquals("two", reopened.search(2));
+        }
+    }
+}
@@ -0,0 +1,734 @@
+import java.util.TreeMap;
+
+/**
+ * PersistentRBTree
+ * A red-black tree whose nodes are never modified once they are built. An insert or a delete copies only the
+ * O(logn) nodes on the path it touches (and the few nodes its rotations and color flips touch) and builds a new
+ * version of the tree on top of the unchanged subtrees of the previous one. Every version is therefore an
+ * independent, immutable tree, and snapshot() is O(1): it just returns the current version.
+ *
+ * A Snapshot can be read by any number of threads without locks, while writes to the tree continue. Versions
+ * which nobody holds are collected by the GC like any other garbage; there is nothing to free or close.
+ *
+ * Writes are serialized on the tree. Reads of the tree itself read the latest version.
+ *
+ * Without parent pointers (a shared node can't point to its parents in every version) the fixup is done
+ * recursively on the way back up the path, so the tree is kept left-leaning (a red node is always a left child),
+ * which keeps the number of rebalancing cases small. Any int can be used as a key.
+ */
+public class PersistentRBTree {
+
+    /**
+     * An immutable node. Subtrees are shared between versions, so none of the fields may ever change.
+     */
+    static final class Node {
+        final int key;
+        final String item;
+        final boolean red;
+        final Node left;
+        final Node right;
+        /**
+         * The number of nodes in the subtree rooted at this node
+         */
+        final int count;
+
+        Node(int key, String item, boolean red, Node left, Node right) {
+            this.key = key;
+            this.item = item;
+            this.red = red;
+            this.left = left;
+            this.right = right;
+            this.count = count(left) + count(right) + 1;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(null);
+
+    /**
+     * The latest version of the tree
+     */
+    private volatile Snapshot current = EMPTY;
+
+    /**
+     * A default constructor for the PersistentRBTree class
+     * Works at O(1).
+     */
+    public PersistentRBTree() {
+    }
+
+    /**
+     * Returns the current version of the tree. Later writes to the tree don't change it.
+     * Works at O(1)
+     * precondition: none
+     * postcondition: none
+     *
+     * @return An immutable snapshot of the tree
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree, if the key isn't already there.
+     * Works at O(logn), and copies O(logn) nodes
+     * precondition: none
+     * postcondition: search(k) != null if v != null
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return Whether the item was inserted (false if the key was already in the tree)
+     */
+    public synchronized boolean insert(int k, String v) {
+        Snapshot version = current.insert(k, v);
+        if (version == current) {
+            return false;
+        }
+        current = version;
+        return true;
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there.
+     * Works at O(logn), and copies O(logn) nodes
+     * precondition: none
+     * postcondition: search(k) == null
+     *
+     * @param k The key of the item to delete
+     * @return Whether the item was deleted (false if the key wasn't in the tree)
+     */
+    public synchronized boolean delete(int k) {
+        Snapshot version = current.delete(k);
+        if (version == current) {
+            return false;
+        }
+        current = version;
+        return true;
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     * Works at O(1)
+     *
+     * @return Whether the tree is empty
+     */
+    public boolean empty() {
+        return current.empty();
+    }
+
+    /**
+     * Returns the number of nodes in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree, otherwise returns null
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return The value of the key, or null
+     */
+    public String search(int k) {
+        return current.search(k);
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(logn)
+     *
+     * @return The value of the minimum key
+     */
+    public String min() {
+        return current.min();
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(logn)
+     *
+     * @return The value of the maximum key
+     */
+    public String max() {
+        return current.max();
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        return current.keysToArray();
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public String[] valuesToArray() {
+        return current.valuesToArray();
+    }
+
+    /**
+     * Returns a TreeMap holding the items of the tree
+     * Works at O(n)
+     *
+     * @return A new TreeMap with the same items as the tree
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        return current.toTreeMap();
+    }
+
+    /**
+     * Snapshot
+     * One immutable version of a PersistentRBTree. All the methods are safe to call from any thread, without locks.
+     */
+    public static final class Snapshot {
+        private final Node root;
+
+        private Snapshot(Node root) {
+            this.root = root;
+        }
+
+        /**
+         * Returns a version with the item added, or this version if the key is already in it
+         * Works at O(logn)
+         */
+        private Snapshot insert(int k, String v) {
+            Node newRoot = PersistentRBTree.insert(root, k, v);
+            if (newRoot == root) {
+                return this;
+            }
+            return new Snapshot(newRoot.red ? withColor(newRoot, false) : newRoot);
+        }
+
+        /**
+         * Returns a version without the item with key k, or this version if the key isn't in it
+         * Works at O(logn)
+         */
+        private Snapshot delete(int k) {
+            if (searchNode(root, k) == null) {
+                return this;
+            }
+            // The root is made red so that the node removed at the bottom is always red
+            Node top = (!isRed(root.left) && !isRed(root.right)) ? withColor(root, true) : root;
+            Node newRoot = PersistentRBTree.delete(top, k);
+            if (newRoot == null) {
+                return EMPTY;
+            }
+            return new Snapshot(newRoot.red ? withColor(newRoot, false) : newRoot);
+        }
+
+        /**
+         * Returns true if and only if the snapshot is empty
+         * Works at O(1)
+         *
+         * @return Whether the snapshot is empty
+         */
+        public boolean empty() {
+            return root == null;
+        }
+
+        /**
+         * Returns the number of nodes in the snapshot
+         * Works at O(1)
+         *
+         * @return The number of elements in the snapshot
+         */
+        public int size() {
+            return count(root);
+        }
+
+        /**
+         * Returns the value of an item with key k if it exists in the snapshot, otherwise returns null
+         * Works in O(logn)
+         *
+         * @param k The key by which to look up the value
+         * @return The value of the key, or null
+         */
+        public String search(int k) {
+            Node node = searchNode(root, k);
+            return (node == null) ? null : node.item;
+        }
+
+        /**
+         * Returns the value of the item with the smallest key in the snapshot, or null if it is empty
+         * Works at O(logn)
+         *
+         * @return The value of the minimum key
+         */
+        public String min() {
+            return (root == null) ? null : minNode(root).item;
+        }
+
+        /**
+         * Returns the value of the item with the largest key in the snapshot, or null if it is empty
+         * Works at O(logn)
+         *
+         * @return The value of the maximum key
+         */
+        public String max() {
+            if (root == null) {
+                return null;
+            }
+            Node node = root;
+            while (node.right != null) {
+                node = node.right;
+            }
+            return node.item;
+        }
+
+        /**
+         * Returns the greatest key in the snapshot less than or equal to k, or null if there is none
+         * Works at O(logn)
+         *
+         * @param k The key to look up
+         * @return The floor key of k
+         */
+        public Integer floorKey(int k) {
+            Integer floor = null;
+            for (Node node = root; node != null; ) {
+                if (node.key == k) {
+                    return k;
+                }
+                if (node.key < k) {
+                    floor = node.key;
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+            return floor;
+        }
+
+        /**
+         * Returns the least key in the snapshot greater than or equal to k, or null if there is none
+         * Works at O(logn)
+         *
+         * @param k The key to look up
+         * @return The ceiling key of k
+         */
+        public Integer ceilingKey(int k) {
+            Integer ceiling = null;
+            for (Node node = root; node != null; ) {
+                if (node.key == k) {
+                    return k;
+                }
+                if (node.key > k) {
+                    ceiling = node.key;
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            return ceiling;
+        }
+
+        /**
+         * Returns the key with the given index in key order (the smallest key has index 0)
+         * Works at O(logn)
+         * precondition: 0 <= index < size()
+         *
+         * @param index The index of the key
+         * @return The index-th smallest key
+         */
+        public int selectKey(int index) {
+            assert 0 <= index && index < size();
+            Node node = root;
+            while (index != count(node.left)) {
+                if (index < count(node.left)) {
+                    node = node.left;
+                } else {
+                    index -= count(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return node.key;
+        }
+
+        /**
+         * Returns the number of keys in the snapshot which are smaller than k
+         * Works at O(logn)
+         *
+         * @param k The key to rank
+         * @return The number of keys smaller than k
+         */
+        public int rank(int k) {
+            int rank = 0;
+            for (Node node = root; node != null; ) {
+                if (k <= node.key) {
+                    node = node.left;
+                } else {
+                    rank += count(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return rank;
+        }
+
+        /**
+         * Returns the number of keys in the snapshot in the range [lo, hi)
+         * Works at O(logn)
+         *
+         * @param lo The lowest key in the range
+         * @param hi One past the highest key in the range
+         * @return The number of keys k such that lo <= k < hi
+         */
+        public int countInRange(int lo, int hi) {
+            return (lo >= hi) ? 0 : rank(hi) - rank(lo);
+        }
+
+        /**
+         * Returns a sorted array of all the keys in the snapshot in the range [lo, hi)
+         * Works at O(logn + m) where m is the number of keys in the range
+         *
+         * @param lo The lowest key in the range
+         * @param hi One past the highest key in the range
+         * @return The keys k in the snapshot such that lo <= k < hi
+         */
+        public int[] keysInRange(int lo, int hi) {
+            int[] keys = new int[countInRange(lo, hi)];
+            if (keys.length > 0) {
+                fillRange(root, keys, null, 0, lo, hi - 1);
+            }
+            return keys;
+        }
+
+        /**
+         * Returns the values of all the keys in the snapshot in the range [lo, hi), sorted by their keys
+         * Works at O(logn + m) where m is the number of keys in the range
+         *
+         * @param lo The lowest key in the range
+         * @param hi One past the highest key in the range
+         * @return The values of the keys k in the snapshot such that lo <= k < hi
+         */
+        public String[] valuesInRange(int lo, int hi) {
+            String[] values = new String[countInRange(lo, hi)];
+            if (values.length > 0) {
+                fillRange(root, null, values, 0, lo, hi - 1);
+            }
+            return values;
+        }
+
+        /**
+         * Returns a sorted array which contains all keys in the snapshot, or an empty array if it is empty
+         * Works at O(n)
+         *
+         * @return All the keys in the snapshot
+         */
+        public int[] keysToArray() {
+            int[] keys = new int[size()];
+            fillKeys(root, keys, 0);
+            return keys;
+        }
+
+        /**
+         * Returns all the values in the snapshot, sorted by their keys, or an empty array if it is empty
+         * Works at O(n)
+         *
+         * @return All the values in the snapshot
+         */
+        public String[] valuesToArray() {
+            String[] values = new String[size()];
+            fillValues(root, values, 0);
+            return values;
+        }
+
+        /**
+         * Returns a TreeMap holding the items of the snapshot
+         * Works at O(n)
+         *
+         * @return A new TreeMap with the same items as the snapshot
+         */
+        public TreeMap<Integer, String> toTreeMap() {
+            TreeMap<Integer, String> map = new TreeMap<>();
+            int[] keys = keysToArray();
+            String[] values = valuesToArray();
+            for (int i = 0; i < keys.length; i++) {
+                map.put(keys[i], values[i]);
+            }
+            return map;
+        }
+
+        /**
+         * Checks that the snapshot is a valid left-leaning red-black tree. Used for testing.
+         * Works at O(n)
+         */
+        void checkTreeInvariants() {
+            assert !isRed(root) : "root is red";
+            checkSubtree(root, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        /**
+         * @return The root node, for tests that check which nodes versions share
+         */
+        Node root() {
+            return root;
+        }
+    }
+
+    /*
+     * The persistent insert and delete. Every function takes a subtree and returns the root of the new version of it,
+     * copying a node whenever one of its fields would change; untouched subtrees are returned as they are.
+     */
+
+    /**
+     * Inserts an item into a subtree
+     * Works at O(logn)
+     *
+     * @return The new subtree, or node itself if the key is already in it
+     */
+    private static Node insert(Node node, int k, String v) {
+        if (node == null) {
+            return new Node(k, v, true, null, null);
+        }
+        if (k < node.key) {
+            Node left = insert(node.left, k, v);
+            if (left == node.left) {
+                return node;
+            }
+            node = new Node(node.key, node.item, node.red, left, node.right);
+        } else if (k > node.key) {
+            Node right = insert(node.right, k, v);
+            if (right == node.right) {
+                return node;
+            }
+            node = new Node(node.key, node.item, node.red, node.left, right);
+        } else {
+            return node;
+        }
+        return fixup(node);
+    }
+
+    /**
+     * Deletes the item with key k from a subtree, which must hold it.
+     * On the way down a red node is pushed ahead of the search, so the node finally removed is red.
+     * precondition: node or node.left is red
+     * Works at O(logn)
+     *
+     * @return The new subtree
+     */
+    private static Node delete(Node node, int k) {
+        if (k < node.key) {
+            if (!isRed(node.left) && !isRed(node.left.left)) {
+                node = moveRedLeft(node);
+            }
+            node = withChildren(node, delete(node.left, k), node.right);
+        } else {
+            if (isRed(node.left)) {
+                node = rotateRight(node);
+            }
+            if (k == node.key && node.right == null) {
+                return null;
+            }
+            if (!isRed(node.right) && !isRed(node.right.left)) {
+                node = moveRedRight(node);
+            }
+            if (k == node.key) {
+                Node successor = minNode(node.right);
+                node = new Node(successor.key, successor.item, node.red, node.left, deleteMin(node.right));
+            } else {
+                node = withChildren(node, node.left, delete(node.right, k));
+            }
+        }
+        return fixup(node);
+    }
+
+    /**
+     * Deletes the smallest item from a subtree
+     * precondition: node or node.left is red
+     * Works at O(logn)
+     *
+     * @return The new subtree
+     */
+    private static Node deleteMin(Node node) {
+        if (node.left == null) {
+            return null;
+        }
+        if (!isRed(node.left) && !isRed(node.left.left)) {
+            node = moveRedLeft(node);
+        }
+        return fixup(withChildren(node, deleteMin(node.left), node.right));
+    }
+
+    /**
+     * Restores the left-leaning red-black invariants at a node whose subtrees are valid, on the way back up
+     * Works at O(1)
+     */
+    private static Node fixup(Node node) {
+        if (isRed(node.right) && !isRed(node.left)) {
+            node = rotateLeft(node);
+        }
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+        if (isRed(node.left) && isRed(node.right)) {
+            node = flipColors(node);
+        }
+        return node;
+    }
+
+    /**
+     * Makes node.left or one of its children red, by borrowing from the right sibling if it can
+     * Works at O(1)
+     */
+    private static Node moveRedLeft(Node node) {
+        node = flipColors(node);
+        if (isRed(node.right.left)) {
+            node = withChildren(node, node.left, rotateRight(node.right));
+            node = flipColors(rotateLeft(node));
+        }
+        return node;
+    }
+
+    /**
+     * Makes node.right or one of its children red, by borrowing from the left sibling if it can
+     * Works at O(1)
+     */
+    private static Node moveRedRight(Node node) {
+        node = flipColors(node);
+        if (isRed(node.left.left)) {
+            node = flipColors(rotateRight(node));
+        }
+        return node;
+    }
+
+    /**
+     * Rotates a subtree to the left. The new root takes the old root's color and the old root becomes red.
+     * Works at O(1)
+     */
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        Node left = new Node(node.key, node.item, true, node.left, right.left);
+        return new Node(right.key, right.item, node.red, left, right.right);
+    }
+
+    /**
+     * Rotates a subtree to the right. The new root takes the old root's color and the old root becomes red.
+     * Works at O(1)
+     */
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        Node right = new Node(node.key, node.item, true, left.right, node.right);
+        return new Node(left.key, left.item, node.red, left.left, right);
+    }
+
+    /**
+     * Flips the colors of a node and of both of its children
+     * Works at O(1)
+     */
+    private static Node flipColors(Node node) {
+        return new Node(node.key, node.item, !node.red,
+                withColor(node.left, !node.left.red), withColor(node.right, !node.right.red));
+    }
+
+    private static Node withColor(Node node, boolean red) {
+        return new Node(node.key, node.item, red, node.left, node.right);
+    }
+
+    private static Node withChildren(Node node, Node left, Node right) {
+        return new Node(node.key, node.item, node.red, left, right);
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.red;
+    }
+
+    private static int count(Node node) {
+        return (node == null) ? 0 : node.count;
+    }
+
+    private static Node searchNode(Node node, int k) {
+        while (node != null && node.key != k) {
+            node = (k < node.key) ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private static Node minNode(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static int fillKeys(Node node, int[] keys, int index) {
+        for (; node != null; node = node.right) {
+            index = fillKeys(node.left, keys, index);
+            keys[index++] = node.key;
+        }
+        return index;
+    }
+
+    /**
+     * Fills keys and/or values (either may be null), from index on, with the items of a subtree whose keys are in
+     * [lo, hi], in order, visiting only the nodes on the range's boundaries and in it
+     *
+     * @return The index after the last item filled in
+     */
+    private static int fillRange(Node node, int[] keys, String[] values, int index, int lo, int hi) {
+        while (node != null) {
+            if (node.key < lo) {
+                node = node.right;
+            } else if (node.key > hi) {
+                node = node.left;
+            } else {
+                index = fillRange(node.left, keys, values, index, lo, hi);
+                if (keys != null) {
+                    keys[index] = node.key;
+                }
+                if (values != null) {
+                    values[index] = node.item;
+                }
+                index++;
+                node = node.right;
+            }
+        }
+        return index;
+    }
+
+    private static int fillValues(Node node, String[] values, int index) {
+        for (; node != null; node = node.right) {
+            index = fillValues(node.left, values, index);
+            values[index++] = node.item;
+        }
+        return index;
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    /**
+     * Checks the invariants of the latest version. Used for testing.
+     */
+    void checkTreeInvariants() {
+        current.checkTreeInvariants();
+    }
+
+    /**
+     * Checks the order, colors and counts of a subtree whose keys must be in [lo, hi]
+     *
+     * @return The black height of the subtree
+     */
+    private static int checkSubtree(Node node, long lo, long hi) {
+        if (node == null) {
+            return 1;
+        }
+        assert lo <= node.key && node.key <= hi : "key out of order " + node.key;
+        assert !isRed(node.right) : "red right child under " + node.key;
+        assert !(node.red && isRed(node.left)) : "two reds in a row at " + node.key;
+        assert node.count == count(node.left) + count(node.right) + 1 : "wrong count at " + node.key;
+        int leftHeight = checkSubtree(node.left, lo, node.key - 1L);
+        int rightHeight = checkSubtree(node.right, node.key + 1L, hi);
+        assert leftHeight == rightHeight : "unequal black heights under " + node.key;
+        return leftHeight + (node.red ? 0 : 1);
+    }
+}
@@ -0,0 +1,223 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PersistentRBTreeTest {
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    public void compareAndCheck(TreeMap<Integer, String> map, PersistentRBTree.Snapshot snapshot) {
+        snapshot.checkTreeInvariants();
+        assertEquals(map.size(), snapshot.size());
+        assertEquals(map.isEmpty(), snapshot.empty());
+        int[] keys = new int[map.size()];
+        int index = 0;
+        for (int key : map.keySet()) {
+            keys[index++] = key;
+        }
+        assertArrayEquals(keys, snapshot.keysToArray());
+        assertArrayEquals(map.values().toArray(new String[0]), snapshot.valuesToArray());
+        assertEquals(map, snapshot.toTreeMap());
+        if (map.isEmpty()) {
+            assertNull(snapshot.min());
+            assertNull(snapshot.max());
+        } else {
+            assertEquals(map.firstEntry().getValue(), snapshot.min());
+            assertEquals(map.lastEntry().getValue(), snapshot.max());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        compareAndCheck(new TreeMap<>(), tree.snapshot());
+        assertTrue(tree.empty());
+        assertNull(tree.search(0));
+        assertFalse(tree.delete(0));
+        assertNull(tree.snapshot().floorKey(0));
+        assertEquals(0, tree.snapshot().rank(0));
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = rand.nextInt(2000) - 1000;
+            if (rand.nextBoolean()) {
+                assertEquals(!map.containsKey(key), tree.insert(key, "v" + key));
+                map.putIfAbsent(key, "v" + key);
+            } else {
+                assertEquals(map.containsKey(key), tree.delete(key));
+                map.remove(key);
+            }
+            assertEquals(map.get(key), tree.search(key));
+            if (i % 500 == 0) {
+                compareAndCheck(map, tree.snapshot());
+            }
+        }
+        compareAndCheck(map, tree.snapshot());
+        for (int key : new ArrayList<>(map.keySet())) {
+            assertTrue(tree.delete(key));
+            map.remove(key);
+            tree.checkTreeInvariants();
+        }
+        compareAndCheck(map, tree.snapshot());
+    }
+
+    @Test
+    public void testFullKeyRange() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int key : new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, 1}) {
+            assertTrue(tree.insert(key, "v" + key));
+            map.put(key, "v" + key);
+            assertFalse(tree.insert(key, "other"));
+        }
+        compareAndCheck(map, tree.snapshot());
+        assertTrue(tree.delete(Integer.MAX_VALUE));
+        map.remove(Integer.MAX_VALUE);
+        compareAndCheck(map, tree.snapshot());
+    }
+
+    @Test
+    public void testNavigation() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            int key = rand.nextInt(2000);
+            tree.insert(key, "v" + key);
+            map.put(key, "v" + key);
+        }
+        PersistentRBTree.Snapshot snapshot = tree.snapshot();
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals((int) keys.get(i), snapshot.selectKey(i));
+            assertEquals(i, snapshot.rank(keys.get(i)));
+        }
+        for (int k = -10; k < 2010; k++) {
+            assertEquals(map.floorKey(k), snapshot.floorKey(k));
+            assertEquals(map.ceilingKey(k), snapshot.ceilingKey(k));
+        }
+        for (int i = 0; i < 200; i++) {
+            int lo = rand.nextInt(2200) - 100;
+            int hi = lo + rand.nextInt(300) - 20;
+            SortedMap<Integer, String> range = (lo < hi) ? map.subMap(lo, hi) : new TreeMap<>();
+            assertEquals(range.size(), snapshot.countInRange(lo, hi));
+            assertArrayEquals(range.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                    snapshot.keysInRange(lo, hi));
+            assertArrayEquals(range.values().toArray(new String[0]), snapshot.valuesInRange(lo, hi));
+        }
+    }
+
+    @Test
+    public void testSnapshotsAreUnchangedByLaterWrites() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        List<PersistentRBTree.Snapshot> snapshots = new ArrayList<>();
+        List<TreeMap<Integer, String>> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int key = rand.nextInt(1000);
+            if (rand.nextInt(3) != 0) {
+                tree.insert(key, "v" + i);
+                map.putIfAbsent(key, "v" + i);
+            } else {
+                tree.delete(key);
+                map.remove(key);
+            }
+            if (i % 250 == 0) {
+                snapshots.add(tree.snapshot());
+                expected.add(new TreeMap<>(map));
+            }
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            compareAndCheck(expected.get(i), snapshots.get(i));
+        }
+    }
+
+    @Test
+    public void testPathCopying() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        for (int i = 0; i < 1 << 16; i++) {
+            tree.insert(i, "");
+        }
+        PersistentRBTree.Snapshot before = tree.snapshot();
+        assertSame(before, tree.snapshot());
+        assertFalse(tree.insert(5, ""));
+        assertSame(before, tree.snapshot());
+
+        tree.insert(-1, "");
+        PersistentRBTree.Snapshot after = tree.snapshot();
+        // Only the nodes of the new version which aren't shared with the old one were copied
+        Set<PersistentRBTree.Node> old = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(before.root(), old);
+        Set<PersistentRBTree.Node> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectNew(after.root(), old, copied);
+        assertTrue(copied.size() + " nodes copied", copied.size() <= 3 * 34);
+
+        tree.delete(1000);
+        copied.clear();
+        collect(after.root(), old);
+        collectNew(tree.snapshot().root(), old, copied);
+        assertTrue(copied.size() + " nodes copied", copied.size() <= 3 * 34);
+    }
+
+    private static void collect(PersistentRBTree.Node node, Set<PersistentRBTree.Node> nodes) {
+        if (node != null && nodes.add(node)) {
+            collect(node.left, nodes);
+            collect(node.right, nodes);
+        }
+    }
+
+    private static void collectNew(PersistentRBTree.Node node, Set<PersistentRBTree.Node> old,
+                                   Set<PersistentRBTree.Node> copied) {
+        if (node != null && !old.contains(node) && copied.add(node)) {
+            collectNew(node.left, old, copied);
+            collectNew(node.right, old, copied);
+        }
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        PersistentRBTree tree = new PersistentRBTree();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(2 * i, "");
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (int round = 0; round < 200; round++) {
+                    PersistentRBTree.Snapshot snapshot = tree.snapshot();
+                    int[] keys = snapshot.keysToArray();
+                    // The writer always inserts and then deletes an odd key, so every version holds the even keys
+                    assertTrue(keys.length == 1000 || keys.length == 1001);
+                    assertArrayEquals(keys, snapshot.keysToArray());
+                    for (int i = 0; i < 1000; i++) {
+                        assertNotNull(snapshot.search(2 * i));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 0; reader.isAlive(); i = (i + 1) % 1000) {
+            tree.insert(2 * i + 1, "");
+            tree.delete(2 * i + 1);
+        }
+        reader.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(1000, tree.size());
+    }
+}
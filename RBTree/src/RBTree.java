@@ -6,11 +6,34 @@
  *
  */
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
 import java.util.TreeMap;
-import java.util.function.BiConsumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * RBTree
@@ -19,13 +42,6 @@ import java.util.function.Consumer;
  */
 public class RBTree {
 
-    /**
-     * A consumer for RBNodes that does nothing. Is used with inside the different version
-     * of the walk function
-     */
-    static Consumer<RBNode> dummyConsumer = (a) -> {
-    };
-
     /**
      * Represents a possible color for a node in the red black tree.
      */
@@ -45,9 +61,37 @@ public class RBTree {
     }
 
     /**
-     * A dummy root used (just like the dummy sentinel in Cormen)
+     * An upper bound for the height of a red-black tree with up to Integer.MAX_VALUE nodes (2 * log(n + 1))
+     */
+    static final int MAX_HEIGHT = 64;
+
+    /**
+     * A dummy root used (just like the dummy sentinel in Cormen).
+     * Searches start from the real root (its left child), and never compare against its key.
      */
     private RBNode rootDummy;
+    /**
+     * Whether Integer.MAX_VALUE can be used as a key. See RBTree(boolean).
+     */
+    private final boolean fullKeyRange;
+    /**
+     * Internal counters, only updated if RBTreeMetrics.ENABLED. Otherwise they're only created if metrics() is called.
+     */
+    private RBTreeMetrics metrics = RBTreeMetrics.ENABLED ? new RBTreeMetrics() : null;
+    /**
+     * The monoid whose value for each subtree is kept in the subtree's root, or null
+     * (see RBTree(boolean, Augmentation))
+     */
+    private final Augmentation<Object> augmentation;
+    /**
+     * The nodes of recently searched keys, or null if the tree has no search cache (see setSearchCache)
+     */
+    private IntCache<RBNode> searchCache;
+    /**
+     * The node the last lookup ended at, from which the next one starts (or the rootDummy),
+     * or null if finger search is off (see setFingerSearch)
+     */
+    private RBNode finger;
     /**
      * A member that holds the number of nodes in the tree
      */
@@ -61,24 +105,71 @@ public class RBTree {
      */
     private RBNode maxNode;
     /**
-     * A dummy value used as a NULL child for all the leaves in the tree
+     * A dummy value used as a NULL child for all the leaves in the tree.
+     * It is shared by all trees (and its parent is never set), so that join and split can move subtrees between trees
      */
-    private RBNode nil;
+    private static final RBNode nil = new RBNode(null, null, null, Color.Black, 0, null);
+
+    static {
+        // Sentinels aren't counted in subtree sizes
+        nil.count = 0;
+    }
+
+    /**
+     * The black height of the subtree returned by the last joinNodes (or set operation helper) call
+     */
+    private int joinedHeight;
 
 
     /**
-     * A default constructor for the RBTree class
+     * A default constructor for the RBTree class.
+     * The tree rejects Integer.MAX_VALUE as a key, for compatibility with the original tree,
+     * whose rootDummy used that key; see RBTree(boolean) for a tree that takes any int key.
      * Works at O(1).
      * precondition: none
      * postcondition: none
      */
     public RBTree() {
+        this(false);
+    }
+
+    /**
+     * A constructor for an empty tree which, if fullKeyRange is set, accepts the full signed int range as keys
+     * (including Integer.MAX_VALUE), and otherwise rejects Integer.MAX_VALUE like RBTree() does.
+     * Works at O(1).
+     * precondition: none
+     * postcondition: none
+     *
+     * @param fullKeyRange Whether to accept Integer.MAX_VALUE as a key
+     */
+    public RBTree(boolean fullKeyRange) {
+        this(fullKeyRange, null);
+    }
+
+    /**
+     * A constructor for an empty tree (see RBTree(boolean)) which keeps the value of a monoid over the items
+     * of every subtree in the subtree's root, so that aggregate(lo, hi) works at O(logn).
+     * The values are recomputed along the path of every insert and delete, and for the nodes of every rotation,
+     * so each update calls the augmentation's functions O(logn) more times. With values that have to be boxed
+     * (like a Long sum) these calls allocate, which makes updates several times slower than without an augmentation.
+     * Works at O(1).
+     * precondition: none
+     * postcondition: none
+     *
+     * @param fullKeyRange Whether to accept Integer.MAX_VALUE as a key
+     * @param augmentation The monoid to keep, or null for none
+     */
+    @SuppressWarnings("unchecked")
+    public RBTree(boolean fullKeyRange, Augmentation<?> augmentation) {
+        this.fullKeyRange = fullKeyRange;
+        this.augmentation = (Augmentation<Object>) augmentation;
+
         // Create dummy node
         rootDummy = new RBNode(null, null, null, Color.Black, Integer.MAX_VALUE, null);
 
-        nil = new RBNode(rootDummy, null, null, Color.Black, 0, null);
         rootDummy.left = nil;
         rootDummy.right = nil;
+        rootDummy.count = 0;
 
         minNode = null;
         maxNode = null;
@@ -88,7 +179,8 @@ public class RBTree {
 
     /**
      * A constructor for the tree that is initialized with a list of key-value pairs
-     * * Works at O(n) where n is the number of key-values pairs in the iterable.
+     * Works at O(n) where n is the number of key-values pairs in the iterable, if the items are sorted by key,
+     * and at O(nlogn) otherwise.
      * precondition: items != null
      * postcondition: none
      *
@@ -101,7 +193,8 @@ public class RBTree {
 
     /**
      * A constructor for the tree that is initialized with a given map for the keys and values
-     * * Works at O(n) where n is the number of key-values pairs in the map.
+     * Works at O(n) where n is the number of key-values pairs in the map, if the map iterates in key order
+     * (e.g. a SortedMap with natural ordering), and at O(nlogn) otherwise.
      * precondition: map != null
      * postcondition: none
      *
@@ -112,9 +205,106 @@ public class RBTree {
         insertItems(map);
     }
 
+    /**
+     * A constructor for the tree that is initialized with parallel arrays of keys and values
+     * Works at O(n) where n is the number of keys, if the keys are sorted in ascending order,
+     * and at O(nlogn) otherwise.
+     * precondition: keys != null, values != null, keys.length == values.length
+     * postcondition: none
+     *
+     * @param keys   The keys to initialize the tree with
+     * @param values The value for each of the keys
+     */
+    public RBTree(int[] keys, String[] values) {
+        this();
+        assert keys.length == values.length;
+        insertSortedOrEach(keys, values, keys.length);
+    }
+
+    /**
+     * Writes the tree to a stream in a compact binary format (see RBTreeFormat): delta-encoded keys in key order,
+     * length-prefixed UTF-8 values and a checksum. The tree can be rebuilt with readFrom.
+     * Works at O(n)
+     * precondition: out != null
+     * postcondition: none
+     *
+     * @param out The stream to write to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        RBTreeFormat.write(this, out);
+    }
+
+    /**
+     * Writes the tree to a channel, see writeTo(OutputStream)
+     * Works at O(n)
+     * precondition: channel != null
+     * postcondition: none
+     *
+     * @param channel The channel to write to. It isn't closed.
+     * @throws IOException If writing to the channel fails
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        RBTreeFormat.write(this, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Reads a tree written by writeTo, building it directly from the sorted items
+     * Works at O(n)
+     * precondition: in != null
+     * postcondition: checkTreeInvariants()
+     *
+     * @param in The stream to read from. It isn't closed, and may be read past the end of the tree.
+     * @return The tree
+     * @throws IOException If reading fails, or the stream doesn't hold a valid tree
+     */
+    public static RBTree readFrom(InputStream in) throws IOException {
+        return RBTreeFormat.read(in);
+    }
+
+    /**
+     * Reads a tree written by writeTo from a channel, see readFrom(InputStream)
+     * Works at O(n)
+     * precondition: channel != null
+     * postcondition: checkTreeInvariants()
+     *
+     * @param channel The channel to read from. It isn't closed, and may be read past the end of the tree.
+     * @return The tree
+     * @throws IOException If reading fails, or the channel doesn't hold a valid tree
+     */
+    public static RBTree readFrom(ReadableByteChannel channel) throws IOException {
+        return RBTreeFormat.read(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Builds a tree out of strictly ascending keys, for RBTreeFormat
+     * Works at O(n)
+     * precondition: keys[0..count) are strictly ascending and valid keys for the tree
+     *
+     * @param fullKeyRange Whether the tree accepts Integer.MAX_VALUE as a key
+     * @param keys         The sorted keys
+     * @param values       The value for each of the keys
+     * @param count        The number of keys
+     * @return The new tree
+     */
+    static RBTree fromSorted(boolean fullKeyRange, int[] keys, String[] values, int count) {
+        RBTree tree = new RBTree(fullKeyRange);
+        assert tree.sortedLength(keys, count) == count;
+        tree.buildSorted(keys, values, count);
+        return tree;
+    }
+
+    /**
+     * @return Whether the tree accepts Integer.MAX_VALUE as a key, see RBTree(boolean)
+     */
+    boolean isFullKeyRange() {
+        return fullKeyRange;
+    }
+
     /**
      * Inserts all the items in the map into the tree
-     * * Works at O(n) where n is the number of key-values pairs in the map.
+     * Works at O(n) where n is the number of key-values pairs in the map, if the tree is empty and the map
+     * iterates in key order, and at O(nlogn) otherwise.
      * precondition: map != null
      * postcondition: none
      *
@@ -126,16 +316,143 @@ public class RBTree {
 
     /**
      * Inserts all the items in the list into the tree.
-     * Works at O(n) where n is the number of key-values pairs in the iterable.
+     * If the tree is empty and the items are sorted by key, the tree is built directly in O(n)
+     * where n is the number of key-values pairs in the iterable, otherwise works at O(nlogn).
      * precondition: map != null
      * postcondition: none
      *
      * @param items The items to insert into the tree
      */
     public void insertItems(Iterable<Map.Entry<Integer, String>> items) {
+        if (!empty()) {
+            for (Map.Entry<Integer, String> item : items) {
+                insert(item.getKey(), item.getValue());
+            }
+            return;
+        }
+
+        // Buffer the items, so we can check whether they are sorted before building the tree from them
+        int capacity = (items instanceof Collection) ? ((Collection<?>) items).size() : 16;
+        int[] keys = new int[capacity];
+        String[] values = new String[capacity];
+        int count = 0;
         for (Map.Entry<Integer, String> item : items) {
-            insert(item.getKey(), item.getValue());
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(16, count * 2));
+                values = Arrays.copyOf(values, keys.length);
+            }
+            keys[count] = item.getKey();
+            values[count] = item.getValue();
+            count++;
+        }
+        insertSortedOrEach(keys, values, count);
+    }
+
+    /**
+     * Inserts the first count key-value pairs from the given arrays into the tree.
+     * If the tree is empty and the keys are sorted, the tree is built directly in O(n),
+     * otherwise the pairs are inserted one by one in O(nlogn).
+     * precondition: count <= keys.length, count <= values.length
+     *
+     * @param keys   The keys to insert
+     * @param values The value for each of the keys
+     * @param count  The number of pairs to insert
+     */
+    private void insertSortedOrEach(int[] keys, String[] values, int count) {
+        if (empty()) {
+            int sortedCount = sortedLength(keys, count);
+            if (sortedCount >= 0) {
+                buildSorted(keys, values, sortedCount);
+                return;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            insert(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * Checks whether the first count keys are strictly ascending, and so can be built into a tree directly.
+     * Works at O(n)
+     *
+     * @param keys  The keys to check
+     * @param count The number of keys to check
+     * @return The number of keys that should be put in the tree (a trailing Integer.MAX_VALUE is left out
+     * unless the tree takes the full key range, just like insert would reject it),
+     * or -1 if the keys are not strictly ascending
+     */
+    private int sortedLength(int[] keys, int count) {
+        for (int i = 1; i < count; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                return -1;
+            }
+        }
+        if (count > 0 && !isValidKey(keys[count - 1])) {
+            return count - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Builds the tree out of strictly ascending keys, replacing the (empty) tree.
+     * The tree is perfectly balanced: all the levels are full except maybe the deepest one,
+     * whose nodes are colored red, while all the other nodes are black.
+     * Works at O(n) where n is the number of keys.
+     * precondition: empty(), keys[0..count) are strictly ascending
+     * postcondition: checkTreeInvariants()
+     *
+     * @param keys   The sorted keys
+     * @param values The value for each of the keys
+     * @param count  The number of keys to build the tree from
+     */
+    private void buildSorted(int[] keys, String[] values, int count) {
+        assert empty();
+        if (count == 0) {
+            return;
+        }
+        // The depth of the deepest (possibly partial) level, which is floor(log2(count))
+        int redDepth = 31 - Integer.numberOfLeadingZeros(count);
+        size = count;
+        RBNode root = buildSubtree(keys, values, 0, count, 0, redDepth);
+        rootDummy.setLeft(root);
+        root.color = Color.Black;
+    }
+
+    /**
+     * Recursively builds a balanced subtree out of keys[from..to), and returns its root.
+     * Also sets minNode and maxNode when their nodes are created.
+     * Works at O(n) where n is to - from
+     * precondition: size is already set to the number of keys in the whole tree
+     *
+     * @param keys     The sorted keys
+     * @param values   The value for each of the keys
+     * @param from     The index of the first key of the subtree
+     * @param to       One past the index of the last key of the subtree
+     * @param depth    The depth of the subtree's root
+     * @param redDepth The depth at which nodes are colored red
+     * @return The root of the new subtree, or nil if the range is empty
+     */
+    private RBNode buildSubtree(int[] keys, String[] values, int from, int to, int depth, int redDepth) {
+        if (from == to) {
+            return nil;
+        }
+        int mid = (from + to) >>> 1;
+        Color color = (depth == redDepth) ? Color.Red : Color.Black;
+        RBNode node = new RBNode(null, nil, nil, color, keys[mid], values[mid]);
+        node.count = to - from;
+        if (mid == 0) {
+            minNode = node;
+        }
+        if (mid == size - 1) {
+            maxNode = node;
         }
+
+        RBNode left = buildSubtree(keys, values, from, mid, depth + 1, redDepth);
+        RBNode right = buildSubtree(keys, values, mid + 1, to, depth + 1, redDepth);
+        node.setLeft(left);
+        node.setRight(right);
+        updateAggregate(node);
+        return node;
     }
 
     /**
@@ -147,7 +464,9 @@ public class RBTree {
      * @param map The map to insert all the tree's elements into
      */
     public void toMap(Map<Integer, String> map) {
-        walkPreOrder(root(), (node) -> map.put(node.key, node.item));
+        for (Cursor cursor = cursor(); cursor.valid(); cursor.next()) {
+            map.put(cursor.key(), cursor.value());
+        }
     }
 
     /**
@@ -182,11 +501,73 @@ public class RBTree {
      * @return A string if the matching key is found, or null otherwise
      */
     public String search(int k) {
+        if (searchCache != null) {
+            return searchCached(k);
+        }
         RBNode node = searchNode(k);
         return node == null ? null : node.item;
 
     }
 
+    /**
+     * search, through the search cache: a hit skips the descent from the root. Nodes keep their items until they
+     * are deleted (and deleting a node drops it from the cache), so a cached node always holds the key's current
+     * value, and updates to the value need no invalidation.
+     * Works in O(1) for a hit, and O(logn) for a miss
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise
+     */
+    private String searchCached(int k) {
+        RBNode node = searchCache.get(k);
+        if (node == null) {
+            node = searchNode(k);
+            if (node == null) {
+                return null;
+            }
+            searchCache.put(k, node);
+        }
+        return node.item;
+    }
+
+    /**
+     * Puts a bounded cache of recently searched keys in front of search, for skewed lookups where a few hot keys
+     * get most of the searches: a hit returns the value without descending from the root. The cache maps keys to
+     * their nodes (open addressed, without boxing), and evicts with the CLOCK policy (see IntCache).
+     * Keys which aren't in the tree aren't cached, so searches for them pay for both the cache and the descent.
+     * Deleting an item drops it from the cache, and join, split and the set operations clear it.
+     * Searching a tree which has a cache updates the cache, so such a tree must not be searched by several
+     * threads at once (unlike the tree without it).
+     * Works at O(capacity)
+     * precondition: capacity >= 0
+     *
+     * @param capacity The number of keys to cache (rounded up to a power of two), or 0 to remove the cache
+     */
+    public void setSearchCache(int capacity) {
+        assert capacity >= 0;
+        searchCache = (capacity == 0) ? null : new IntCache<>(capacity);
+    }
+
+    /**
+     * Returns the number of searches which found their key in the search cache
+     * Works at O(1)
+     *
+     * @return The number of hits since the cache was set, or 0 if there is no cache
+     */
+    public long searchCacheHits() {
+        return (searchCache == null) ? 0 : searchCache.hits();
+    }
+
+    /**
+     * Returns the number of searches which didn't find their key in the search cache (and descended from the root)
+     * Works at O(1)
+     *
+     * @return The number of misses since the cache was set, or 0 if there is no cache
+     */
+    public long searchCacheMisses() {
+        return (searchCache == null) ? 0 : searchCache.misses();
+    }
+
     /**
      * Looks up a RBNode using a search key
      * Works in O(logn) where n is the number of nodes in the tree
@@ -196,41 +577,302 @@ public class RBTree {
      */
     private RBNode searchNode(int k) {
         RBNode node = getPositionByKey(k);
-        return node.key != k ? null : node;
+        return (node == rootDummy || node.key != k) ? null : node;
+    }
+
+    /**
+     * Returns true if k can be a key in this tree
+     *
+     * @param k The key to check
+     * @return False if k is Integer.MAX_VALUE and the tree doesn't take the full key range, true otherwise
+     */
+    private boolean isValidKey(int k) {
+        return fullKeyRange || k != Integer.MAX_VALUE;
+    }
+
+    /**
+     * A version of search for optimistic readers (see ConcurrentRBTree), which may run while another thread
+     * modifies the tree. Such a reader may see the tree in any intermediate state, so the walk is bounded by
+     * the maximal height of a red-black tree, and stops on null links instead of throwing.
+     * The result is only meaningful if no modification overlapped the call; the caller must validate that.
+     * Works in O(logn) where n is the number of elements in the tree
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise (or garbage if the tree was modified)
+     */
+    String optimisticSearch(int k) {
+        RBNode node = rootDummy.left;
+        for (int depth = 0; node != null && node != nil && depth < MAX_HEIGHT; depth++) {
+            int nodeKey = node.key;
+            if (k == nodeKey) {
+                return node.item;
+            }
+            node = (k < nodeKey) ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * A version of floorKey for optimistic readers, bounded like optimisticSearch
+     * Works in O(logn)
+     *
+     * @param k The key to look by
+     * @return The floor key of k, or null if there is none (or garbage if the tree was modified)
+     */
+    Integer optimisticFloorKey(int k) {
+        Integer floor = null;
+        RBNode node = rootDummy.left;
+        for (int depth = 0; node != null && node != nil && depth < MAX_HEIGHT; depth++) {
+            int nodeKey = node.key;
+            if (k == nodeKey) {
+                return k;
+            }
+            if (nodeKey < k) {
+                floor = nodeKey;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * A version of ceilingKey for optimistic readers, bounded like optimisticSearch
+     * Works in O(logn)
+     *
+     * @param k The key to look by
+     * @return The ceiling key of k, or null if there is none (or garbage if the tree was modified)
+     */
+    Integer optimisticCeilingKey(int k) {
+        Integer ceiling = null;
+        RBNode node = rootDummy.left;
+        for (int depth = 0; node != null && node != nil && depth < MAX_HEIGHT; depth++) {
+            int nodeKey = node.key;
+            if (k == nodeKey) {
+                return k;
+            }
+            if (nodeKey > k) {
+                ceiling = nodeKey;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return ceiling;
+    }
+
+    /**
+     * A version of countInRange for optimistic readers, bounded like optimisticSearch
+     * Works in O(logn)
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The number of keys k such that lo <= k < hi (or garbage if the tree was modified)
+     */
+    int optimisticCountInRange(int lo, int hi) {
+        return (lo >= hi) ? 0 : optimisticRank(hi) - optimisticRank(lo);
+    }
+
+    /**
+     * A version of rank for optimistic readers, bounded like optimisticSearch
+     */
+    private int optimisticRank(int k) {
+        int rank = 0;
+        RBNode node = rootDummy.left;
+        for (int depth = 0; node != null && node != nil && depth < MAX_HEIGHT; depth++) {
+            RBNode left = node.left;
+            if (left == null) {
+                // A node deleted under the reader
+                break;
+            }
+            if (k <= node.key) {
+                node = left;
+            } else {
+                rank += left.count + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * A version of keysInRange and valuesInRange for optimistic readers, which reads a chunk of a range: fills keys
+     * and values with the first items whose keys are in [from, hi), up to the arrays' length. The walk keeps its own
+     * stack of the ancestors still to visit instead of following parent links, and like optimisticSearch it's
+     * bounded by the maximal height, and stops on null links.
+     * Works in O(logn + m) where m is the length of the arrays
+     * precondition: keys.length == values.length
+     *
+     * @param from   The lowest key to read
+     * @param hi     One past the highest key to read (a long, so that Integer.MAX_VALUE can be read)
+     * @param keys   The array to fill with the keys
+     * @param values The array to fill with the values
+     * @return The number of items read (or garbage, or -1, if the tree was modified)
+     */
+    int optimisticScan(int from, long hi, int[] keys, String[] values) {
+        assert keys.length == values.length;
+        // The ancestors at which the walk went left, which come after everything below them, deepest on top
+        RBNode[] stack = new RBNode[MAX_HEIGHT];
+        int top = 0;
+        RBNode node = rootDummy.left;
+        for (int depth = 0; node != null && node != nil && depth < MAX_HEIGHT; depth++) {
+            if (node.key >= from) {
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        int count = 0;
+        while (count < keys.length && top > 0) {
+            node = stack[--top];
+            int key = node.key;
+            if (key >= hi) {
+                break;
+            }
+            keys[count] = key;
+            values[count] = node.item;
+            count++;
+            for (node = node.right; node != null && node != nil; node = node.left) {
+                if (top == MAX_HEIGHT) {
+                    // Deeper than any valid tree: the walk went around a cycle that a rotation made
+                    return -1;
+                }
+                stack[top++] = node;
+            }
+        }
+        return count;
     }
 
     /**
      * Gets the node under which to insert a node with the specified key value, or returns the node holding the value
-     * Works in O(logn) where n is the number of nodes in the tree
+     * Works in O(logn) where n is the number of nodes in the tree, or O(logd) with finger search (see setFingerSearch)
      *
      * @param k The key to look by
-     * @return The parent under which to insert the new node, or the current node if the value is already present
+     * @return The parent under which to insert the new node, or the current node if the value is already present.
+     * Returns the rootDummy if (and only if) the tree is empty.
      */
     private RBNode getPositionByKey(int k) {
-        RBNode node = rootDummy;
+        if (finger != null) {
+            finger = getPositionNear(finger, k);
+            return finger;
+        }
+        RBNode root = rootDummy.left;
+        if (root == nil) {
+            if (RBTreeMetrics.ENABLED) {
+                metrics.recordDescent(0);
+            }
+            return rootDummy;
+        }
+        return getPositionBelow(root, k);
+    }
+
+    /**
+     * Like getPositionByKey, but starts from a finger (any node in the tree) instead of from the root: climbs up from
+     * the finger only until its subtree must hold the key, and searches down from there. Keys at or beyond either end
+     * of the tree are found at minNode or maxNode right away, so appending ascending keys never climbs.
+     * Used by finger search, by cursors, and by insertAll and deleteAll, which keep a finger of their own.
+     * Works in O(logd) where d is the number of keys between the finger and k, as long as the climb stays below the
+     * lowest common ancestor of the two; neighbors on both sides of a high node (e.g. the root) may cost O(logn).
+     * A run of ascending (or descending) keys costs amortized O(1) per key to climb, like walking with successor.
+     * precondition: finger is a node in the tree, or the rootDummy
+     *
+     * @param finger The node to start from
+     * @param k      The key to look by
+     * @return The parent under which to insert the new node, or the current node if the value is already present.
+     * Returns the rootDummy if (and only if) the tree is empty.
+     */
+    private RBNode getPositionNear(RBNode finger, int k) {
+        RBNode root = rootDummy.left;
+        if (root == nil) {
+            return rootDummy;
+        }
+        if (k >= maxNode.key) {
+            // The max has no right child, so it's also the parent for a bigger key
+            return maxNode;
+        }
+        if (k <= minNode.key) {
+            return minNode;
+        }
+        if (finger == rootDummy) {
+            return getPositionBelow(root, k);
+        }
+        RBNode node = finger;
+        boolean ascending = k > node.key;
+        // A left child's subtree holds only keys below its parent's key, and a right child's only keys above it.
+        // The finger is in the subtree, so once k is on the finger's side of the parent, so is the whole range
+        // between them.
+        while (node.key != k && node.parent != rootDummy) {
+            RBNode parent = node.parent;
+            if (ascending ? (parent.left == node && k < parent.key) : (parent.right == node && k > parent.key)) {
+                break;
+            }
+            node = parent;
+        }
+        return getPositionBelow(node, k);
+    }
+
+    /**
+     * Turns finger search on or off. With finger search, the tree keeps a finger at the node the last lookup ended
+     * at, and search, insert, delete and the other single-key operations start from there instead of from the root
+     * (see getPositionNear): they climb up from the finger only as far as they have to, and search down from there.
+     * When consecutive keys are close to each other (sequential or clustered access, time-ordered keys), each
+     * lookup costs O(logd) where d is the distance between the keys, and sorted runs (ingesting keys in order,
+     * or searching them in order) cost amortized O(1) per lookup. For scattered keys it costs up to twice as much
+     * as a search from the root, which is why it is off by default.
+     * Lookups move the finger, so a tree with finger search must not be searched by several threads at once.
+     * Searches that start from the finger aren't counted in the metrics' depth histogram.
+     * Works at O(1)
+     *
+     * @param enabled Whether to search from the finger
+     */
+    public void setFingerSearch(boolean enabled) {
+        finger = enabled ? rootDummy : null;
+    }
+
+    /**
+     * Searches for the position of the key in the subtree of the given node.
+     * A search from the root is counted in the metrics' depth histogram.
+     * Works in O(logn) where n is the number of nodes in the subtree
+     * precondition: node != nil, node != rootDummy, k belongs in the subtree of node
+     *
+     * @param node The root of the subtree to search
+     * @param k    The key to look by
+     * @return The parent under which to insert the new node, or the current node if the value is already present
+     */
+    private RBNode getPositionBelow(RBNode node, int k) {
+        boolean fromRoot = RBTreeMetrics.ENABLED && node == rootDummy.left;
+        // The depth of node in the tree, if the search started at the root
+        int depth = 1;
         while (true) {
             assert node != nil;
             assert node != null;
 
             if (k == node.key) {
-                return node;
+                break;
             }
 
             if (k < node.key) {
                 if (node.hasLeftChild()) {
                     node = node.left;
                 } else {
-                    return node;
+                    break;
                 }
             } else {
                 assert k > node.key;
                 if (node.hasRightChild()) {
                     node = node.right;
                 } else {
-                    return node;
+                    break;
                 }
             }
+            depth++;
         }
+        if (fromRoot) {
+            metrics.recordDescent(depth);
+        }
+        return node;
     }
 
     /**
@@ -245,22 +887,33 @@ public class RBTree {
      * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
      */
     public int insert(int k, String v) {
-        if (k == rootDummy.key) {
+        if (!isValidKey(k)) {
             return -1;
         }
         RBNode parent = getPositionByKey(k);
-        if (parent.key == k) {
+        if (holdsKey(parent, k)) {
             return -1;
         }
+        return insertNode(new RBNode(parent, nil, nil, Color.Red, k, v));
+    }
 
-        RBNode node = new RBNode(parent, nil, nil, Color.Red, k, v);
+    /**
+     * Links a new node as a child of its parent, and fixes the tree.
+     * Works at O(logn)
+     * precondition: node.parent is the position returned by getPositionByKey(node.key), which doesn't hold the key
+     *
+     * @param node The new, red node
+     * @return The number of node-color changes that happened during the insert
+     */
+    private int insertNode(RBNode node) {
+        RBNode parent = node.parent;
 
         if (empty()) {
             minNode = node;
             maxNode = node;
         }
 
-        if (node.key < parent.key) {
+        if (parent == rootDummy || node.key < parent.key) {
             parent.left = node;
             if (parent == minNode) {
                 minNode = node;
@@ -273,6 +926,12 @@ public class RBTree {
             }
         }
 
+        // Count the new node in the subtree sizes of all its ancestors
+        for (RBNode ancestor = parent; ancestor != rootDummy; ancestor = ancestor.parent) {
+            ancestor.count += 1;
+        }
+        updateAggregates(node);
+
         size += 1;
         return insertFixup(node);
     }
@@ -285,9 +944,29 @@ public class RBTree {
      * @return The number of color changes made to nodes in order to maintain the red-black property
      */
     private int insertFixup(RBNode node) {
+        int colorSwitchCount = fixRedRule(node);
+
+        // Set root to black if needed
+        colorSwitchCount += setColor(root(), Color.Black);
+
+        return colorSwitchCount;
+    }
+
+    /**
+     * Fixes a red-rule violation between a red node and its parent, by recoloring and rotating up the tree,
+     * but without coloring the root black (which the caller does)
+     * Works at O(logn)
+     *
+     * @param node The red node from which to start the fix
+     * @return The number of color changes made to nodes
+     */
+    private int fixRedRule(RBNode node) {
         int colorSwitchCount = 0;
 
         while (node.parent.color == Color.Red) {
+            if (RBTreeMetrics.ENABLED) {
+                metrics.insertFixupIterations++;
+            }
             Direction direction = node.parent.relationToParent();
             Direction opposite = oppositeDirection(direction);
 
@@ -306,21 +985,18 @@ public class RBTree {
                 // Move to parent and rotate left.
                 // This doesn't improve our situation regarding the red-rule, but it brings us to Case 3.
                 node = node.parent;
-                node.rotate(direction);
+                rotate(node, direction);
             } else {
                 // Case 3: parent is red, uncle is black, and parent is between node and grandparent.
                 // Swap parent and grandparent colors, (fixing the red rule, but violate the black-rule)
                 colorSwitchCount += setColor(node.parent, Color.Black);
                 colorSwitchCount += setColor(node.parent.parent, Color.Red);
                 // Rotate grandparent to fix the black-rule.
-                node.parent.parent.rotate(opposite);
+                rotate(node.parent.parent, opposite);
                 // Note the red-rule and black-rule are now ok, and the loop will terminate.
             }
         }
 
-        // Set root to black if needed
-        colorSwitchCount += setColor(root(), Color.Black);
-
         return colorSwitchCount;
     }
 
@@ -335,14 +1011,54 @@ public class RBTree {
      * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
      */
     public int delete(int k) {
-        if (k == rootDummy.key) {
-            return -1;
-        }
         RBNode node = searchNode(k);
         if (node == null) {
             return -1;
         }
+        return deleteFound(node);
+    }
+
+    /**
+     * Returns a handle to the item with key k, or null if the key isn't in the tree.
+     * The handle stays valid, and keeps pointing to the same item, until that item is deleted; inserting and
+     * deleting other items (one at a time or in batches) doesn't move it. join, split and the set operations
+     * move whole subtrees between trees, so after them a handle belongs to the tree its item ended up in; the items
+     * the set operations drop count as deleted.
+     * Works in O(logn)
+     *
+     * @param k The key to look up
+     * @return A handle to the item, or null if it isn't found
+     */
+    public Handle findEntry(int k) {
+        return searchNode(k);
+    }
+
+    /**
+     * Deletes the item a handle points to, without searching for its key.
+     * Works at O(logn) (amortized O(1) rebalancing, plus keeping minNode and maxNode up to date)
+     * precondition: none
+     * postcondition: checkTreeInvariants(), !handle.valid()
+     *
+     * @param handle A handle returned by findEntry (of any tree)
+     * @return The number of node-color changes that happened during the delete,
+     * or -1 if the handle's item was already deleted, or is in another tree
+     */
+    public int deleteEntry(Handle handle) {
+        RBNode node = (RBNode) handle;
+        if (node.topmost() != rootDummy) {
+            return -1;
+        }
+        return deleteFound(node);
+    }
 
+    /**
+     * Deletes a node found in the tree, keeping minNode, maxNode and size up to date
+     * Works at O(logn)
+     *
+     * @param node The node to delete
+     * @return The number of node-color changes that happened during the delete
+     */
+    private int deleteFound(RBNode node) {
         if (size == 1) {
             minNode = null;
             maxNode = null;
@@ -356,6 +1072,406 @@ public class RBTree {
         return deleteNode(node);
     }
 
+    /**
+     * Sets the value of the item with key k, inserting the item if the key isn't in the tree.
+     * Unlike a delete followed by an insert, this descends the tree once, and an existing item's value is
+     * replaced in place, without any rebalancing.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: search(k) == v
+     *
+     * @param k The key of the item
+     * @param v The new value of the item
+     * @return The previous value of the item, or null if the key wasn't in the tree
+     * @throws IllegalArgumentException If k isn't a valid key for the tree (see RBTree(boolean))
+     */
+    public String put(int k, String v) {
+        RBNode position = getPositionForUpdate(k);
+        if (holdsKey(position, k)) {
+            String previous = position.item;
+            setItem(position, v);
+            return previous;
+        }
+        insertNode(new RBNode(position, nil, nil, Color.Red, k, v));
+        return null;
+    }
+
+    /**
+     * Inserts an item with key k and value v, if the key isn't in the tree
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: none
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return The value already in the tree for k (leaving it unchanged), or null if the item was inserted
+     * @throws IllegalArgumentException If k isn't a valid key for the tree (see RBTree(boolean))
+     */
+    public String putIfAbsent(int k, String v) {
+        RBNode position = getPositionForUpdate(k);
+        if (holdsKey(position, k)) {
+            return position.item;
+        }
+        insertNode(new RBNode(position, nil, nil, Color.Red, k, v));
+        return null;
+    }
+
+    /**
+     * Replaces the value of the item with key k in place, if the key is in the tree
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: none
+     *
+     * @param k The key of the item
+     * @param v The new value of the item
+     * @return The previous value of the item, or null if the key isn't in the tree (and nothing was changed)
+     */
+    public String replace(int k, String v) {
+        RBNode node = searchNode(k);
+        if (node == null) {
+            return null;
+        }
+        String previous = node.item;
+        setItem(node, v);
+        return previous;
+    }
+
+    /**
+     * Replaces the value of the item with key k in place, if the key is in the tree with the value expected
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: none
+     *
+     * @param k        The key of the item
+     * @param expected The value the item must have (compared with equals)
+     * @param v        The new value of the item
+     * @return Whether the value was replaced
+     */
+    public boolean replace(int k, String expected, String v) {
+        RBNode node = searchNode(k);
+        if (node == null || !Objects.equals(node.item, expected)) {
+            return false;
+        }
+        setItem(node, v);
+        return true;
+    }
+
+    /**
+     * Computes a new value for key k from its current value (or null if the key isn't in the tree),
+     * in a single descent. If the new value is null the item is deleted (if it was there); otherwise an existing
+     * item's value is replaced in place, and a missing item is inserted.
+     * remapping must not modify the tree.
+     * Works at O(logn), plus the remapping function
+     * precondition: none
+     * postcondition: search(k) == the value returned
+     *
+     * @param k         The key of the item
+     * @param remapping Computes the new value out of the key and the current value
+     * @return The new value, or null if there is no item with key k anymore
+     * @throws IllegalArgumentException If k isn't a valid key for the tree (see RBTree(boolean))
+     */
+    public String compute(int k, ItemFunction<String> remapping) {
+        RBNode position = getPositionForUpdate(k);
+        boolean found = holdsKey(position, k);
+        String value = remapping.apply(k, found ? position.item : null);
+        if (found) {
+            if (value == null) {
+                deleteFound(position);
+            } else {
+                setItem(position, value);
+            }
+        } else if (value != null) {
+            insertNode(new RBNode(position, nil, nil, Color.Red, k, value));
+        }
+        return value;
+    }
+
+    /**
+     * Inserts an item with key k and value v if the key isn't in the tree, and otherwise combines its current
+     * value with v, in a single descent. If the combined value is null the item is deleted, and otherwise it
+     * replaces the current value in place. remapping must not modify the tree.
+     * Works at O(logn), plus the remapping function
+     * precondition: v != null
+     * postcondition: search(k) == the value returned
+     *
+     * @param k         The key of the item
+     * @param v         The value to insert, or to combine with the current value
+     * @param remapping Combines the current value (first) with v
+     * @return The new value, or null if the item was deleted
+     * @throws IllegalArgumentException If k isn't a valid key for the tree (see RBTree(boolean))
+     */
+    public String merge(int k, String v, BinaryOperator<String> remapping) {
+        assert v != null : "The value to merge is null";
+        RBNode position = getPositionForUpdate(k);
+        if (!holdsKey(position, k)) {
+            insertNode(new RBNode(position, nil, nil, Color.Red, k, v));
+            return v;
+        }
+        String value = remapping.apply(position.item, v);
+        if (value == null) {
+            deleteFound(position);
+        } else {
+            setItem(position, value);
+        }
+        return value;
+    }
+
+    /**
+     * Finds the position of a key like getPositionByKey, for an operation which may insert it
+     * Works at O(logn)
+     *
+     * @param k The key to look for
+     * @return The node with key k, or the parent for a new node with key k
+     * @throws IllegalArgumentException If k isn't a valid key for the tree
+     */
+    private RBNode getPositionForUpdate(int k) {
+        if (!isValidKey(k)) {
+            throw new IllegalArgumentException("Invalid key " + k);
+        }
+        return getPositionByKey(k);
+    }
+
+    /**
+     * Returns true if a position returned by getPositionByKey(k) is the node with key k
+     * Works at O(1)
+     */
+    private boolean holdsKey(RBNode position, int k) {
+        return position != rootDummy && position.key == k;
+    }
+
+    /**
+     * Replaces the value of a node in the tree (no rebalancing is needed, only the aggregates change)
+     * Works at O(1), or O(logn) if the tree has an augmentation
+     */
+    private void setItem(RBNode node, String v) {
+        node.item = v;
+        updateAggregates(node);
+    }
+
+    /**
+     * Inserts a batch of items into the tree, like calling insert(keys[i], values[i]) for i = 0, 1, 2...
+     * The batch is sorted first. If it is at least as large as the tree, the tree is rebuilt from the merge of its
+     * items with the batch in O(n + m). Otherwise the keys are inserted in ascending order, each one searched
+     * from the node of the previous one instead of from the root.
+     * Works at O(mlogm + mlog(n/m + 1)) where m is the size of the batch, or O(n + mlogm) if the tree is rebuilt
+     * precondition: keys.length == values.length
+     * postcondition: checkTreeInvariants()
+     *
+     * @param keys   The keys to insert
+     * @param values The value for each of the keys
+     * @return For each key, the number of color switches its insert made, or -1 if the key was already
+     * in the tree (or earlier in the batch). Keys inserted by rebuilding the tree report 0 color switches.
+     */
+    public int[] insertAll(int[] keys, String[] values) {
+        assert keys.length == values.length;
+        long[] order = sortedOrder(keys);
+        int[] results = new int[keys.length];
+        if (keys.length >= size) {
+            mergeInsert(order, values, results);
+            return results;
+        }
+
+        RBNode finger = rootDummy;
+        for (long entry : order) {
+            int k = (int) (entry >> 32);
+            int index = (int) entry;
+            if (!isValidKey(k)) {
+                results[index] = -1;
+                continue;
+            }
+            RBNode parent = getPositionNear(finger, k);
+            if (parent != rootDummy && parent.key == k) {
+                results[index] = -1;
+                finger = parent;
+                continue;
+            }
+            RBNode node = new RBNode(parent, nil, nil, Color.Red, k, values[index]);
+            results[index] = insertNode(node);
+            // Fixups only move nodes around, so the new node stays a valid finger
+            finger = node;
+        }
+        return results;
+    }
+
+    /**
+     * Deletes a batch of keys from the tree, like calling delete(keys[i]) for i = 0, 1, 2...
+     * The batch is sorted first. If it is at least as large as the tree, the tree is rebuilt from the items that
+     * are left in O(n + m). Otherwise the keys are deleted in ascending order, each one searched from the predecessor
+     * of the previous one instead of from the root.
+     * Works at O(mlogm + mlog(n/m + 1)) where m is the size of the batch, or O(n + mlogm) if the tree is rebuilt
+     * precondition: keys != null
+     * postcondition: checkTreeInvariants()
+     *
+     * @param keys The keys to delete
+     * @return For each key, the number of color switches its delete made, or -1 if the key wasn't in the tree
+     * (or was earlier in the batch). Keys deleted by rebuilding the tree report 0 color switches.
+     */
+    public int[] deleteAll(int[] keys) {
+        long[] order = sortedOrder(keys);
+        int[] results = new int[keys.length];
+        if (keys.length >= size) {
+            mergeDelete(order, results);
+            return results;
+        }
+
+        RBNode finger = rootDummy;
+        for (long entry : order) {
+            int k = (int) (entry >> 32);
+            int index = (int) entry;
+            RBNode node = getPositionNear(finger, k);
+            if (node == rootDummy || node.key != k) {
+                results[index] = -1;
+                continue;
+            }
+            // Deleting a node doesn't move any other item to another node,
+            // so the predecessor is a valid finger for the next key
+            finger = (node == minNode) ? rootDummy : predecessor(node);
+            results[index] = deleteFound(node);
+        }
+        return results;
+    }
+
+    /**
+     * Sorts the keys of a batch, keeping track of their original positions
+     * Works at O(mlogm) where m is the number of keys
+     *
+     * @param keys The keys to sort
+     * @return For each key in ascending order (and in the original order for equal keys),
+     * the key in the high 32 bits and its index in the low 32 bits
+     */
+    private static long[] sortedOrder(int[] keys) {
+        long[] order = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    /**
+     * Rebuilds the tree out of the merge of its items with a sorted batch of new items
+     * Works at O(n + m)
+     *
+     * @param order   The sorted batch, as returned by sortedOrder
+     * @param values  The values of the batch, by original index
+     * @param results The result for each item of the batch, by original index
+     */
+    private void mergeInsert(long[] order, String[] values, int[] results) {
+        RBNode[] oldNodes = nodesToArray();
+        RBNode[] merged = new RBNode[oldNodes.length + order.length];
+        int count = 0;
+        int old = 0;
+        for (long entry : order) {
+            int k = (int) (entry >> 32);
+            int index = (int) entry;
+            while (old < oldNodes.length && oldNodes[old].key < k) {
+                merged[count++] = oldNodes[old++];
+            }
+            boolean present = (old < oldNodes.length && oldNodes[old].key == k)
+                    || (count > 0 && merged[count - 1].key == k);
+            if (present || !isValidKey(k)) {
+                results[index] = -1;
+            } else {
+                merged[count++] = new RBNode(null, nil, nil, Color.Black, k, values[index]);
+            }
+        }
+        while (old < oldNodes.length) {
+            merged[count++] = oldNodes[old++];
+        }
+        rebuild(merged, count);
+    }
+
+    /**
+     * Rebuilds the tree out of its items, minus the keys in a sorted batch
+     * Works at O(n + m)
+     *
+     * @param order   The sorted batch, as returned by sortedOrder
+     * @param results The result for each key of the batch, by original index
+     */
+    private void mergeDelete(long[] order, int[] results) {
+        RBNode[] nodes = nodesToArray();
+        int count = 0;
+        int old = 0;
+        for (long entry : order) {
+            int k = (int) (entry >> 32);
+            int index = (int) entry;
+            while (old < nodes.length && nodes[old].key < k) {
+                nodes[count++] = nodes[old++];
+            }
+            if (old < nodes.length && nodes[old].key == k) {
+                markDeleted(nodes[old++]);
+            } else {
+                results[index] = -1;
+            }
+        }
+        while (old < nodes.length) {
+            nodes[count++] = nodes[old++];
+        }
+        rebuild(nodes, count);
+    }
+
+    /**
+     * Returns all the nodes of the tree in key order
+     * Works at O(n)
+     */
+    private RBNode[] nodesToArray() {
+        RBNode[] nodes = new RBNode[size];
+        RBNode node = minNode;
+        for (int i = 0; i < size; i++) {
+            nodes[i] = node;
+            if (node != maxNode) {
+                node = successor(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Relinks the tree out of the given nodes, which are reused as they are (so they keep their items), into the
+     * same shape buildSorted builds
+     * Works at O(count)
+     * precondition: the keys of nodes[0..count) are strictly ascending, and are all valid keys for the tree
+     *
+     * @param nodes The nodes, sorted by key
+     * @param count The number of nodes to build the tree from
+     */
+    private void rebuild(RBNode[] nodes, int count) {
+        if (finger != null) {
+            finger = rootDummy;
+        }
+        rootDummy.left = nil;
+        size = count;
+        minNode = null;
+        maxNode = null;
+        if (count == 0) {
+            return;
+        }
+        int redDepth = 31 - Integer.numberOfLeadingZeros(count);
+        RBNode root = relinkSubtree(nodes, 0, count, 0, redDepth);
+        rootDummy.setLeft(root);
+        root.color = Color.Black;
+        minNode = nodes[0];
+        maxNode = nodes[count - 1];
+    }
+
+    /**
+     * Recursively links nodes[from..to) into a balanced subtree, like buildSubtree, and returns its root
+     * Works at O(n) where n is to - from
+     */
+    private RBNode relinkSubtree(RBNode[] nodes, int from, int to, int depth, int redDepth) {
+        if (from == to) {
+            return nil;
+        }
+        int mid = (from + to) >>> 1;
+        RBNode node = nodes[mid];
+        node.color = (depth == redDepth) ? Color.Red : Color.Black;
+        node.count = to - from;
+        node.setLeft(relinkSubtree(nodes, from, mid, depth + 1, redDepth));
+        node.setRight(relinkSubtree(nodes, mid + 1, to, depth + 1, redDepth));
+        updateAggregate(node);
+        return node;
+    }
+
     /**
      * Deletes a node from the RBTree
      * * Works at O(logn)
@@ -368,30 +1484,33 @@ public class RBTree {
 
         // If has both children
         if (node.childrenCount() == 2) {
-            // Place the successor instead of the node to delete
-            RBNode successorNode = successor(node);
-            node.key = successorNode.key;
-            node.item = successorNode.item;
-            // Fix maxNode if necessary
-            if (successorNode == maxNode) {
-                maxNode = node;
-            }
-            // Set the node to delete to be the successor node
-            node = successorNode;
+            // Move the successor node into the node's position (instead of copying its key and item over),
+            // so that every other node keeps its item
+            swapWithSuccessor(node, successor(node));
         }
 
         // Note: now node has 0 or 1 child
 
+        // Uncount the node from the subtree sizes of all its ancestors
+        for (RBNode ancestor = node.parent; ancestor != rootDummy; ancestor = ancestor.parent) {
+            ancestor.count -= 1;
+        }
+
         if (node.hasChildren()) {
             RBNode child = node.hasLeftChild() ? node.left : node.right;
             // Remove node by transplanting it's child over it
             node.transplant(child);
+            updateAggregates(node.parent);
 
             // Fix black-rule if needed
             if (node.color == Color.Black) {
                 color_switches = deleteFixup(child);
             }
         } else { // No children
+            // The node stays in the tree during the fixup, but is already uncounted,
+            // so rotations around it must see it as an empty subtree
+            node.count = 0;
+            updateAggregates(node.parent);
             // Fix black-rule if needed
             if (node.color == Color.Black) {
                 color_switches = deleteFixup(node);
@@ -400,10 +1519,66 @@ public class RBTree {
             // Remove node
             node.parent.setChild(node.relationToParent(), nil);
         }
+        markDeleted(node);
 
         return color_switches;
     }
 
+    /**
+     * Swaps the positions of a node with two children and its successor in the tree, along with their colors and
+     * subtree counts, like CLRS's RB-DELETE relinks the successor into the deleted node's position.
+     * Afterwards the node has no left child, and the keys are in order everywhere except at the node.
+     * Works at O(1)
+     *
+     * @param node      A node with two children
+     * @param successor The node's successor
+     */
+    private void swapWithSuccessor(RBNode node, RBNode successor) {
+        RBNode left = node.left;
+        RBNode right = node.right;
+        RBNode successorParent = successor.parent;
+        RBNode successorRight = successor.right;
+        Color color = node.color;
+        node.color = successor.color;
+        successor.color = color;
+        int count = node.count;
+        node.count = successor.count;
+        successor.count = count;
+
+        node.parent.setChild(node.relationToParent(), successor);
+        successor.setLeft(left);
+        if (successorParent == node) {
+            // The successor is the node's right child
+            successor.setRight(node);
+        } else {
+            // The successor is the leftmost node of the node's right subtree
+            successor.setRight(right);
+            successorParent.setLeft(node);
+        }
+        node.setLeft(nil);
+        node.setRight(successorRight);
+    }
+
+    /**
+     * Marks a node which was taken out of the tree as deleted (see Handle.valid), drops its links,
+     * drops it from the search cache, and moves the finger off it
+     * Works at O(1)
+     *
+     * @param node The deleted node
+     */
+    private void markDeleted(RBNode node) {
+        if (searchCache != null) {
+            searchCache.remove(node.key);
+        }
+        if (node == finger) {
+            // The node's last parent is still in the tree, and near the key
+            finger = node.parent;
+        }
+        node.parent = null;
+        node.left = null;
+        node.right = null;
+    }
+
     /**
      * Fixes the red-black tree to maintain it's red-black properties after a node was deleted
      * Works at O(logn)
@@ -415,6 +1590,9 @@ public class RBTree {
         int color_switches = 0;
 
         while (node != root() && node.color == Color.Black) {
+            if (RBTreeMetrics.ENABLED) {
+                metrics.deleteFixupIterations++;
+            }
             Direction direction = node.relationToParent();
             Direction opposite = oppositeDirection(direction);
 
@@ -424,7 +1602,7 @@ public class RBTree {
                 // Switch colors between brother and parent, then rotate parent towards node.
                 color_switches += setColor(brother, Color.Black);
                 color_switches += setColor(node.parent, Color.Red);
-                node.parent.rotate(direction);
+                rotate(node.parent, direction);
                 assert node.getBrother().color == Color.Black;
                 // Note: now node's brother is surely black, and we will get to case 2/3/4.
             } else if (node.getNephewNear().color == Color.Black && node.getNephewFar().color == Color.Black) {
@@ -441,7 +1619,7 @@ public class RBTree {
                 // This keeps the invariants of node's brother subtree.
                 color_switches += setColor(node.getNephewNear(), Color.Black);
                 color_switches += setColor(brother, Color.Red);
-                brother.rotate(opposite);
+                rotate(brother, opposite);
                 // Now node's brother is red, which bring us to case 4.
             } else {
                 // Case 4: brother is black, far nephew is red.
@@ -450,7 +1628,7 @@ public class RBTree {
                 color_switches += setColor(brother, node.parent.color);
                 color_switches += setColor(node.parent, Color.Black);
                 color_switches += setColor(node.getNephewFar(), Color.Black);
-                node.parent.rotate(direction);
+                rotate(node.parent, direction);
                 // Set node to root, to terminate the loop, and possibly update root's color afterwards.
                 node = root();
             }
@@ -462,6 +1640,25 @@ public class RBTree {
         return color_switches;
     }
 
+    /**
+     * Rotates a node in the given direction, counting the rotation in the metrics
+     * Works in O(1)
+     *
+     * @param node      The node to rotate
+     * @param direction The direction in which to rotate the nodes
+     */
+    private void rotate(RBNode node, Direction direction) {
+        if (RBTreeMetrics.ENABLED) {
+            metrics.rotations++;
+        }
+        node.rotate(direction);
+        if (augmentation != null) {
+            // node moved down, under its old child
+            updateAggregate(node);
+            updateAggregate(node.parent);
+        }
+    }
+
     /**
      * Sets the node color to the new color, and counts weather or not it was a color change or not.
      * The function is used to count color changes which actually change color, as opposed to "might" change the color
@@ -518,190 +1715,1511 @@ public class RBTree {
     }
 
     /**
-     * Finds the smallest value in the current subtree
-     * Works at O(logn) where n is the number of nodes in the sub-tree
-     * precondition: node != null
+     * Finds the smallest value in the current subtree
+     * Works at O(logn) where n is the number of nodes in the sub-tree
+     * precondition: node != null
+     *
+     * @param node The head of the sub-tree on which to look for the minimum key
+     * @return The node with the smallest key in the subtree. if node == nil, null is returned.
+     */
+    private RBNode subtreeMin(RBNode node) {
+        if (node == nil) {
+            return null;
+        }
+        while (node.hasLeftChild()) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the biggest value in the current subtree
+     * Works at O(logn) where n is the number of nodes in the sub-tree
+     * precondition: node != null
+     *
+     * @param node The head of the sub-tree on which to look for the maximum key
+     * @return The node with the biggest key in the subtree. if node == nil, null is returned.
+     */
+    private RBNode subtreeMax(RBNode node) {
+        if (node == nil) {
+            return null;
+        }
+        while (node.hasRightChild()) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the actual root of the tree (not the dummy root)
+     * Works at O(1)
+     *
+     * @return The real root node of the tree
+     */
+    private RBNode root() {
+        return rootDummy.left;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the minimum key in the tree, or null if the tree is empty
+     */
+    public String min() {
+        RBNode node = minNode;
+        return node == null ? null : node.item;
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree,
+     * or null if the tree is empty
+     * Works at O(1)
+     *
+     * @return The value for the node with the maximum key in the tree, or null if the tree is empty
+     */
+    public String max() {
+        RBNode node = maxNode;
+        return node == null ? null : node.item;
+    }
+
+    /**
+     * Returns the largest key in the tree which is smaller or equal to k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The floor key of k, or null if there is none
+     */
+    public Integer floorKey(int k) {
+        return keyOf(floorNode(k));
+    }
+
+    /**
+     * Returns the smallest key in the tree which is bigger or equal to k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The ceiling key of k, or null if there is none
+     */
+    public Integer ceilingKey(int k) {
+        return keyOf(ceilingNode(k));
+    }
+
+    /**
+     * Returns the largest key in the tree which is strictly smaller than k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The lower key of k, or null if there is none
+     */
+    public Integer lowerKey(int k) {
+        return k == Integer.MIN_VALUE ? null : keyOf(floorNode(k - 1));
+    }
+
+    /**
+     * Returns the smallest key in the tree which is strictly bigger than k, or null if there is no such key
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The higher key of k, or null if there is none
+     */
+    public Integer higherKey(int k) {
+        return k == Integer.MAX_VALUE ? null : keyOf(ceilingNode(k + 1));
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi)
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the tree such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        int[] keys = new int[countInRange(lo, hi)];
+        Cursor cursor = cursor();
+        cursor.seek(lo);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = cursor.key();
+            cursor.next();
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the values of all the keys in the range [lo, hi), sorted by their respective keys
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The values of the keys k in the tree such that lo <= k < hi
+     */
+    public String[] valuesInRange(int lo, int hi) {
+        String[] items = new String[countInRange(lo, hi)];
+        Cursor cursor = cursor();
+        cursor.seek(lo);
+        for (int i = 0; i < items.length; i++) {
+            items[i] = cursor.value();
+            cursor.next();
+        }
+        return items;
+    }
+
+    /**
+     * Returns a read-only view of the items with keys in the range [lo, hi) (empty if hi <= lo).
+     * The view isn't a copy: it reads through to the tree, and reflects later changes to it.
+     * Works at O(1)
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return A sorted map view of the range
+     */
+    public SortedMap<Integer, String> subMap(int lo, int hi) {
+        return new RangeView(lo, Math.max(lo, hi));
+    }
+
+    /**
+     * Returns a read-only view of the items with keys smaller than hi.
+     * The view isn't a copy: it reads through to the tree, and reflects later changes to it.
+     * Works at O(1)
+     *
+     * @param hi One past the highest key in the range
+     * @return A sorted map view of the range
+     */
+    public SortedMap<Integer, String> headMap(int hi) {
+        return new RangeView(Integer.MIN_VALUE, hi);
+    }
+
+    /**
+     * Returns a read-only view of the items with keys bigger or equal to lo.
+     * The view isn't a copy: it reads through to the tree, and reflects later changes to it.
+     * Works at O(1)
+     *
+     * @param lo The lowest key in the range
+     * @return A sorted map view of the range
+     */
+    public SortedMap<Integer, String> tailMap(int lo) {
+        return new RangeView(lo, Integer.MAX_VALUE + 1L);
+    }
+
+    /**
+     * Finds the node with the largest key which is smaller or equal to k
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The floor node, or null if there is none
+     */
+    private RBNode floorNode(int k) {
+        RBNode position = getPositionByKey(k);
+        if (position == rootDummy) {
+            // The tree is empty
+            return null;
+        }
+        if (position.key <= k) {
+            return position;
+        }
+        // The insertion parent for k is either its predecessor or its successor
+        return (position == minNode) ? null : predecessor(position);
+    }
+
+    /**
+     * Finds the node with the smallest key which is bigger or equal to k
+     * Works at O(logn)
+     *
+     * @param k The key to look by
+     * @return The ceiling node, or null if there is none
+     */
+    private RBNode ceilingNode(int k) {
+        return ceilingAt(getPositionByKey(k), k);
+    }
+
+    /**
+     * Finds the node with the smallest key which is bigger or equal to k, given the position of k
+     * Works at O(logn), and O(1) if the position holds k
+     *
+     * @param position The position of k, as returned by getPositionByKey(k)
+     * @param k        The key to look by
+     * @return The ceiling node, or null if there is none
+     */
+    private RBNode ceilingAt(RBNode position, int k) {
+        if (position == rootDummy) {
+            // The tree is empty
+            return null;
+        }
+        if (position.key >= k) {
+            return position;
+        }
+        // The insertion parent for k is either its predecessor or its successor
+        return (position == maxNode) ? null : successor(position);
+    }
+
+    /**
+     * Returns the key of the given node, or null for a null node
+     *
+     * @param node The node whose key to return
+     * @return The node's key, or null
+     */
+    private Integer keyOf(RBNode node) {
+        return node == null ? null : node.key;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the keys for all the nodes in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        Cursor cursor = cursor();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = cursor.key();
+            cursor.next();
+        }
+        return keys;
+    }
+
+    /**
+     * Returns an array which contains all values in the tree,
+     * sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     *
+     * @return All the values for all the nodes in the tree
+     */
+    public String[] valuesToArray() {
+        String[] items = new String[size];
+        Cursor cursor = cursor();
+        for (int i = 0; i < items.length; i++) {
+            items[i] = cursor.value();
+            cursor.next();
+        }
+        return items;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, filled in parallel (in the common ForkJoinPool):
+     * each subtree is written straight to its offset in the array, which the subtree counts give.
+     * The tree must not be modified during the call.
+     * Works at O(n) total work, and O(n/p + logn) time with p threads
+     *
+     * @return All the keys in the tree, like keysToArray()
+     */
+    public int[] parallelKeysToArray() {
+        int[] keys = new int[size];
+        ForkJoinPool.commonPool().invoke(new FillTask(root(), 0, keys, null));
+        return keys;
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, filled in parallel like parallelKeysToArray().
+     * The tree must not be modified during the call.
+     * Works at O(n) total work, and O(n/p + logn) time with p threads
+     *
+     * @return All the values in the tree, like valuesToArray()
+     */
+    public String[] parallelValuesToArray() {
+        String[] values = new String[size];
+        ForkJoinPool.commonPool().invoke(new FillTask(root(), 0, null, values));
+        return values;
+    }
+
+    /**
+     * Maps every item of the tree to a long and reduces the results, in parallel (in the common ForkJoinPool).
+     * For example, the sum of the keys is parallelReduce(0, (k, v) -> k, Long::sum), and the number of items
+     * with a null value is parallelReduce(0, (k, v) -> (v == null) ? 1 : 0, Long::sum).
+     * Like Stream.reduce, identity must be an identity for reducer, and reducer must be associative;
+     * the results are reduced in key order. The tree must not be modified during the call.
+     * Works at O(n) total work, and O(n/p + logn) time with p threads
+     *
+     * @param identity The result for an empty tree
+     * @param mapper   Maps an item to a long
+     * @param reducer  Combines two results
+     * @return The reduced result
+     */
+    public long parallelReduce(long identity, ItemToLongFunction mapper, LongBinaryOperator reducer) {
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(root(), identity, mapper, reducer));
+    }
+
+    /**
+     * A handle to an item of the tree (see findEntry). Every item is kept in the same node from its insertion
+     * until it is deleted, so the handle is the node itself, and reading through it works at O(1).
+     */
+    public abstract static class Handle {
+
+        /**
+         * Handles are only made by the tree
+         */
+        Handle() {
+        }
+
+        /**
+         * Returns the key of the item
+         *
+         * @return The item's key
+         */
+        public abstract int key();
+
+        /**
+         * Returns the value of the item, which changes if the item is updated (e.g. by put)
+         *
+         * @return The item's current value
+         */
+        public abstract String value();
+
+        /**
+         * Returns true if and only if the item hasn't been deleted (or dropped by a set operation)
+         * Works at O(logn)
+         *
+         * @return Whether the item is still in the tree
+         */
+        public abstract boolean valid();
+    }
+
+    /**
+     * Maps an item of the tree (a key and its value) to a value. See Augmentation.of.
+     */
+    public interface ItemFunction<A> {
+        A apply(int key, String value);
+    }
+
+    /**
+     * Maps an item of the tree (a key and its value) to a long. See parallelReduce.
+     */
+    public interface ItemToLongFunction {
+        long applyAsLong(int key, String value);
+    }
+
+    /**
+     * Returns a Spliterator over the items of the tree, in key order. It splits at subtree boundaries, so a split
+     * works at O(1) and both halves know their exact sizes (SIZED and SUBSIZED).
+     * The tree must not be modified while the spliterator is in use.
+     * Works at O(1)
+     *
+     * @return A spliterator over the items of the tree
+     */
+    public Spliterator<Map.Entry<Integer, String>> spliterator() {
+        return new ItemSpliterator(null, root());
+    }
+
+    /**
+     * Returns a sequential stream of the items of the tree, in key order
+     * Works at O(1)
+     *
+     * @return A stream over the items of the tree
+     */
+    public Stream<Map.Entry<Integer, String>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the items of the tree, which splits the work at subtree boundaries.
+     * Works at O(1)
+     *
+     * @return A parallel stream over the items of the tree
+     */
+    public Stream<Map.Entry<Integer, String>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Returns a new cursor, positioned at the item with the smallest key
+     * (or not valid, if the tree is empty)
+     * Works at O(1)
+     *
+     * @return A cursor over the tree
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A bidirectional cursor over the items of the tree, in key order.
+     * The cursor moves using the parent pointers of the nodes (like successor and predecessor),
+     * so it needs no stack, and moving it doesn't allocate.
+     * A full scan with next() works at O(n), and each step at amortized O(1).
+     * Every item stays in its node until it is deleted, so inserting and deleting other items doesn't move the
+     * cursor. Deleting the item the cursor points to (or moving it to another tree, with join, split or the set
+     * operations) invalidates the cursor; it must be re-positioned with first(), last() or seek() before it's
+     * used again.
+     */
+    public class Cursor {
+
+        /**
+         * The node the cursor points to, or null if the cursor moved past either end of the tree
+         */
+        private RBNode node;
+
+        /**
+         * Creates a cursor positioned at the item with the smallest key
+         */
+        private Cursor() {
+            node = minNode;
+        }
+
+        /**
+         * Returns true if and only if the cursor points to an item
+         *
+         * @return Whether the cursor points to an item
+         */
+        public boolean valid() {
+            return node != null;
+        }
+
+        /**
+         * Returns the key of the current item
+         * precondition: valid()
+         *
+         * @return The current key
+         */
+        public int key() {
+            return node.key;
+        }
+
+        /**
+         * Returns the value of the current item
+         * precondition: valid()
+         *
+         * @return The current value
+         */
+        public String value() {
+            return node.item;
+        }
+
+        /**
+         * Returns a handle to the current item (see findEntry)
+         * precondition: valid()
+         *
+         * @return A handle to the current item
+         */
+        public Handle entry() {
+            return node;
+        }
+
+        /**
+         * Moves the cursor to the item with the smallest key
+         * Works at O(1)
+         *
+         * @return Whether the cursor is valid (the tree isn't empty)
+         */
+        public boolean first() {
+            node = minNode;
+            return valid();
+        }
+
+        /**
+         * Moves the cursor to the item with the largest key
+         * Works at O(1)
+         *
+         * @return Whether the cursor is valid (the tree isn't empty)
+         */
+        public boolean last() {
+            node = maxNode;
+            return valid();
+        }
+
+        /**
+         * Moves the cursor to the item with the smallest key which is bigger or equal to k.
+         * The search starts from the cursor's current item, like a finger search (see setFingerSearch),
+         * so skipping ahead over a few items works at O(logd) where d is the number of items skipped.
+         * Works at O(logn)
+         *
+         * @param k The key to look for
+         * @return Whether such an item exists; if not, the cursor is no longer valid
+         */
+        public boolean seek(int k) {
+            if (node != null && node.valid()) {
+                node = ceilingAt(getPositionNear(node, k), k);
+            } else {
+                node = ceilingNode(k);
+            }
+            return valid();
+        }
+
+        /**
+         * Moves the cursor to the next item in key order
+         * Works at amortized O(1)
+         * precondition: valid()
+         *
+         * @return Whether the cursor is still valid (there was a next item)
+         */
+        public boolean next() {
+            node = (node == maxNode) ? null : successor(node);
+            return valid();
+        }
+
+        /**
+         * Moves the cursor to the previous item in key order
+         * Works at amortized O(1)
+         * precondition: valid()
+         *
+         * @return Whether the cursor is still valid (there was a previous item)
+         */
+        public boolean prev() {
+            node = (node == minNode) ? null : predecessor(node);
+            return valid();
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * precondition: none
+     * postcondition: none
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tree's internal counters: rotations, fixup iterations and search depths.
+     * They are only updated when the JVM runs with -Drbtree.metrics=true; otherwise they stay 0 and cost nothing.
+     * precondition: none
+     * postcondition: none
+     *
+     * @return The metrics of this tree
+     */
+    public RBTreeMetrics metrics() {
+        if (metrics == null) {
+            metrics = new RBTreeMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the value of the item with the index-th smallest key in the tree (the smallest key has index 0)
+     * Works at O(logn)
+     * precondition: 0 <= index < size()
+     * postcondition: none
+     *
+     * @param index The index of the item in key order
+     * @return The value of the index-th item
+     */
+    public String select(int index) {
+        return selectNode(index).item;
+    }
+
+    /**
+     * Returns the index-th smallest key in the tree (the smallest key has index 0)
+     * Works at O(logn)
+     * precondition: 0 <= index < size()
+     * postcondition: none
+     *
+     * @param index The index of the key in key order
+     * @return The index-th key
+     */
+    public int selectKey(int index) {
+        return selectNode(index).key;
+    }
+
+    /**
+     * Returns the number of keys in the tree that are smaller than k.
+     * If k is in the tree, this is its index in key order, so selectKey(rank(k)) == k.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: none
+     *
+     * @param k The key to rank
+     * @return The number of keys smaller than k
+     */
+    public int rank(int k) {
+        int rank = 0;
+        RBNode node = root();
+        while (node != nil) {
+            if (k <= node.key) {
+                node = node.left;
+            } else {
+                rank += node.left.count + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the number of keys in the tree in the range [lo, hi)
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: none
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The number of keys k such that lo <= k < hi, or 0 if lo >= hi
+     */
+    public int countInRange(int lo, int hi) {
+        if (lo >= hi) {
+            return 0;
+        }
+        return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Returns the augmentation's value for the items with keys in the range [lo, hi), combined in key order.
+     * It combines the values kept in the O(logn) subtrees hanging off the paths to lo and hi,
+     * without visiting the items in between.
+     * Works at O(logn)
+     * precondition: the tree was created with an augmentation whose values are of type A
+     * postcondition: none
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The value for the items k in the tree such that lo <= k < hi (the identity if there are none)
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(int lo, int hi) {
+        assert augmentation != null : "The tree has no augmentation";
+        if (lo >= hi) {
+            return (A) augmentation.identity();
+        }
+        // Find the highest node in the range, where the paths to lo and hi part
+        RBNode node = root();
+        while (node != nil && (node.key < lo || node.key >= hi)) {
+            node = (node.key < lo) ? node.right : node.left;
+        }
+        if (node == nil) {
+            return (A) augmentation.identity();
+        }
+
+        // On the way to lo, each node in the range comes before everything collected so far, and so does
+        // its right subtree
+        Object lower = augmentation.identity();
+        for (RBNode child = node.left; child != nil; ) {
+            if (child.key >= lo) {
+                Object right = augmentation.combine(itemAggregate(child), aggregateOf(child.right));
+                lower = augmentation.combine(right, lower);
+                child = child.left;
+            } else {
+                child = child.right;
+            }
+        }
+        // And on the way to hi, each one comes after them, with its left subtree
+        Object upper = augmentation.identity();
+        for (RBNode child = node.right; child != nil; ) {
+            if (child.key < hi) {
+                Object left = augmentation.combine(aggregateOf(child.left), itemAggregate(child));
+                upper = augmentation.combine(upper, left);
+                child = child.right;
+            } else {
+                child = child.left;
+            }
+        }
+        return (A) augmentation.combine(augmentation.combine(lower, itemAggregate(node)), upper);
+    }
+
+    /**
+     * Returns the augmentation's value for all the items in the tree
+     * Works at O(1)
+     * precondition: the tree was created with an augmentation whose values are of type A
+     * postcondition: none
+     *
+     * @return The value for all the items (the identity if the tree is empty)
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate() {
+        assert augmentation != null : "The tree has no augmentation";
+        return (A) aggregateOf(root());
+    }
+
+    /**
+     * A monoid over the items of a tree, whose value for every subtree the tree keeps up to date
+     * (see RBTree(boolean, Augmentation)). For example, the sum of the keys is
+     * Augmentation.of(0L, (k, v) -> (long) k, Long::sum), and the longest value is
+     * Augmentation.of(0, (k, v) -> v.length(), Math::max).
+     * combine must be associative, with identity() as its identity; it needn't be commutative,
+     * since values are always combined in key order. Its functions must not modify the tree.
+     *
+     * @param <A> The type of the values
+     */
+    public interface Augmentation<A> {
+        A identity();
+
+        A lift(int key, String value);
+
+        A combine(A left, A right);
+
+        static <A> Augmentation<A> of(A identity, ItemFunction<A> lift, BinaryOperator<A> combine) {
+            return new Augmentation<A>() {
+                @Override
+                public A identity() {
+                    return identity;
+                }
+
+                @Override
+                public A lift(int key, String value) {
+                    return lift.apply(key, value);
+                }
+
+                @Override
+                public A combine(A left, A right) {
+                    return combine.apply(left, right);
+                }
+            };
+        }
+    }
+
+    /**
+     * Recomputes the aggregate of a node, whose children's aggregates are up to date, if the tree has an augmentation
+     * Works at O(1)
+     *
+     * @param node The node to update
+     */
+    private void updateAggregate(RBNode node) {
+        if (augmentation != null) {
+            node.aggregate = computeAggregate(node);
+        }
+    }
+
+    /**
+     * Recomputes the aggregates of a node and all its ancestors, if the tree has an augmentation
+     * Works at O(logn)
+     *
+     * @param node The lowest node to update
+     */
+    private void updateAggregates(RBNode node) {
+        if (augmentation != null) {
+            for (; node != rootDummy; node = node.parent) {
+                node.aggregate = computeAggregate(node);
+            }
+        }
+    }
+
+    private Object computeAggregate(RBNode node) {
+        // Skip combining with the identity for empty children, which saves most of the calls near the leaves
+        Object aggregate = itemAggregate(node);
+        if (node.left.count != 0) {
+            aggregate = augmentation.combine(node.left.aggregate, aggregate);
+        }
+        if (node.right.count != 0) {
+            aggregate = augmentation.combine(aggregate, node.right.aggregate);
+        }
+        return aggregate;
+    }
+
+    private Object aggregateOf(RBNode node) {
+        return (node.count == 0) ? augmentation.identity() : node.aggregate;
+    }
+
+    private Object itemAggregate(RBNode node) {
+        return augmentation.lift(node.key, node.item);
+    }
+
+    /**
+     * Finds the node with the index-th smallest key, using the subtree sizes
+     * Works at O(logn)
+     * precondition: 0 <= index < size()
+     *
+     * @param index The index of the node in key order
+     * @return The index-th node
+     */
+    private RBNode selectNode(int index) {
+        assert 0 <= index && index < size : "Invalid index " + index;
+        RBNode node = root();
+        while (true) {
+            int leftCount = node.left.count;
+            if (index < leftCount) {
+                node = node.left;
+            } else if (index == leftCount) {
+                return node;
+            } else {
+                index -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Joins this tree, a new item and another tree whose keys are all bigger, into this tree.
+     * The nodes of right are moved into this tree, and right is left empty.
+     * Works at O(logn)
+     * precondition: all the keys in this tree < k < all the keys in right, right != this,
+     * and k and the keys in right are valid keys for this tree (see RBTree(boolean))
+     * postcondition: checkTreeInvariants(), right.empty()
+     *
+     * @param k     The key of the new item
+     * @param v     The value of the new item
+     * @param right The tree with the bigger keys
+     */
+    public void join(int k, String v, RBTree right) {
+        assert right != this : "Can't join a tree with itself";
+        assert right.augmentation == augmentation : "Can't join trees with different augmentations";
+        assert isValidKey(k) : "Invalid key " + k;
+        assert maxNode == null || maxNode.key < k : "Key " + k + " isn't bigger than the keys in this tree";
+        assert right.minNode == null || k < right.minNode.key : "Key " + k + " isn't smaller than the keys in right";
+        assert right.maxNode == null || isValidKey(right.maxNode.key) : "Invalid key in right";
+        RBNode rightRoot = right.detach();
+        RBNode root = detach();
+        RBNode middle = new RBNode(null, nil, nil, Color.Red, k, v);
+        setRoot(joinNodes(root, blackHeight(root), middle, rightRoot, blackHeight(rightRoot)));
+    }
+
+    /**
+     * Splits the tree by a key: this tree keeps the items with keys smaller than k,
+     * and the items with keys bigger than or equal to k are moved to a new tree, which is returned.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: checkTreeInvariants() for both trees
+     *
+     * @param k The key to split by
+     * @return A tree (which takes the same keys, and has the same augmentation, as this one)
+     * with the items whose keys are >= k
+     */
+    public RBTree split(int k) {
+        RBNode root = detach();
+        Split split = new Split();
+        splitNodes(root, blackHeight(root), k, split);
+        RBNode upper = split.upper;
+        if (split.found != null) {
+            upper = joinNodes(nil, 0, split.found, upper, split.upperHeight);
+        }
+        RBTree upperTree = new RBTree(fullKeyRange, augmentation);
+        upperTree.setRoot(upper);
+        setRoot(split.lower);
+        return upperTree;
+    }
+
+    /**
+     * Adds all the items of another tree to this tree. For keys which are in both trees, this tree's value is kept.
+     * The nodes of other are moved into this tree (or dropped), and other is left empty.
+     * Works at O(m*log(n/m + 1)) where m is the size of the smaller tree and n of the bigger one
+     * precondition: other != this, and the keys in other are valid keys for this tree (see RBTree(boolean))
+     * postcondition: checkTreeInvariants(), other.empty()
+     *
+     * @param other The tree whose items to add
+     */
+    public void union(RBTree other) {
+        assert other != this : "Can't merge a tree with itself";
+        assert other.augmentation == augmentation : "Can't merge trees with different augmentations";
+        assert other.maxNode == null || isValidKey(other.maxNode.key) : "Invalid key in other";
+        RBNode otherRoot = other.detach();
+        RBNode root = detach();
+        setRoot(unionNodes(root, blackHeight(root), otherRoot, blackHeight(otherRoot)));
+    }
+
+    /**
+     * Removes from this tree all the items whose keys aren't in another tree, keeping the values of this tree.
+     * other is left empty.
+     * Works at O(m*log(n/m + 1)) where m is the size of the smaller tree and n of the bigger one
+     * precondition: other != this
+     * postcondition: checkTreeInvariants(), other.empty()
+     *
+     * @param other The tree with the keys to keep
+     */
+    public void intersection(RBTree other) {
+        assert other != this : "Can't intersect a tree with itself";
+        RBNode otherRoot = other.detach();
+        RBNode root = detach();
+        setRoot(intersectionNodes(root, blackHeight(root), otherRoot, blackHeight(otherRoot)));
+    }
+
+    /**
+     * Removes from this tree all the items whose keys are in another tree. other is left empty.
+     * Works at O(m*log(n/m + 1)) where m is the size of the smaller tree and n of the bigger one
+     * precondition: other != this
+     * postcondition: checkTreeInvariants(), other.empty()
+     *
+     * @param other The tree with the keys to remove
+     */
+    public void difference(RBTree other) {
+        assert other != this : "Can't subtract a tree from itself";
+        RBNode otherRoot = other.detach();
+        RBNode root = detach();
+        setRoot(differenceNodes(root, blackHeight(root), otherRoot, blackHeight(otherRoot)));
+    }
+
+    /**
+     * Takes the nodes out of the tree, leaving it empty (and clearing the search cache and the finger)
+     * Works at O(1), plus O(capacity) if the tree has a search cache
      *
-     * @param node The head of the sub-tree on which to look for the minimum key
-     * @return The node with the smallest key in the subtree. if node == nil, null is returned.
+     * @return The root of the tree's nodes (which may be nil)
      */
-    private RBNode subtreeMin(RBNode node) {
-        if (node == nil) {
-            return null;
+    private RBNode detach() {
+        RBNode root = root();
+        if (searchCache != null) {
+            searchCache.clear();
         }
-        while (node.hasLeftChild()) {
-            node = node.left;
+        if (finger != null) {
+            finger = rootDummy;
         }
-        return node;
+        rootDummy.left = nil;
+        size = 0;
+        minNode = null;
+        maxNode = null;
+        return root;
     }
 
     /**
-     * Finds the biggest value in the current subtree
-     * Works at O(logn) where n is the number of nodes in the sub-tree
-     * precondition: node != null
+     * Makes a subtree (whose root may be red) the whole tree, replacing the current nodes
+     * Works at O(logn)
      *
-     * @param node The head of the sub-tree on which to look for the maximum key
-     * @return The node with the biggest key in the subtree. if node == nil, null is returned.
+     * @param root The root of the subtree
      */
-    private RBNode subtreeMax(RBNode node) {
-        if (node == nil) {
-            return null;
-        }
-        while (node.hasRightChild()) {
-            node = node.right;
-        }
-        return node;
+    private void setRoot(RBNode root) {
+        rootDummy.setLeft(root);
+        setColor(root, Color.Black);
+        size = root.count;
+        minNode = subtreeMin(root);
+        maxNode = subtreeMax(root);
     }
 
     /**
-     * Returns the actual root of the tree (not the dummy root)
-     * Works at O(1)
+     * Returns the black height of a subtree: the number of black nodes on each path from its root down to
+     * (but not including) nil. A subtree's children have its height, less one if its root is black.
+     * Works at O(logn)
      *
-     * @return The real root node of the tree
+     * @param node The root of the subtree
+     * @return The black height of the subtree
      */
-    private RBNode root() {
-        return rootDummy.left;
+    private static int blackHeight(RBNode node) {
+        int height = 0;
+        for (; node != nil; node = node.left) {
+            if (node.color == Color.Black) {
+                height += 1;
+            }
+        }
+        return height;
     }
 
     /**
-     * Returns the value of the item with the smallest key in the tree,
-     * or null if the tree is empty
-     * Works at O(1)
+     * Joins two subtrees and a node whose key is between them into one subtree, and sets joinedHeight to its
+     * black height. If the heights are equal the node becomes a black root above both subtrees. Otherwise it is
+     * hung (red) on the inner spine of the taller subtree above a black node as high as the shorter subtree,
+     * which becomes its other child, and the insert fixup repairs the red rule from there.
+     * Uses rootDummy as a workspace, so it can only be called when the tree's nodes are detached.
+     * Works at O(|leftHeight - rightHeight| + 1)
      *
-     * @return The value for the node with the minimum key in the tree, or null if the tree is empty
+     * @param left        A subtree with keys smaller than middle's
+     * @param leftHeight  The black height of left
+     * @param middle      A node which isn't in any tree
+     * @param right       A subtree with keys bigger than middle's
+     * @param rightHeight The black height of right
+     * @return The root of the joined subtree
      */
-    public String min() {
-        return minNode == null ? null : minNode.item;
+    private RBNode joinNodes(RBNode left, int leftHeight, RBNode middle, RBNode right, int rightHeight) {
+        // With black roots the heights are the heights of the roots themselves
+        leftHeight += setColor(left, Color.Black);
+        rightHeight += setColor(right, Color.Black);
+        if (leftHeight == rightHeight) {
+            middle.count = left.count + right.count + 1;
+            middle.color = Color.Black;
+            middle.setLeft(left);
+            middle.setRight(right);
+            updateAggregate(middle);
+            joinedHeight = leftHeight + 1;
+            return middle;
+        }
+
+        Direction side = (leftHeight > rightHeight) ? Direction.Right : Direction.Left;
+        RBNode taller = (side == Direction.Right) ? left : right;
+        RBNode shorter = (side == Direction.Right) ? right : left;
+        int shorterHeight = Math.min(leftHeight, rightHeight);
+        int height = Math.max(leftHeight, rightHeight);
+        rootDummy.setLeft(taller);
+
+        // Walk down the spine; nil's parent is never set, so keep track of the parent here
+        RBNode parent = rootDummy;
+        RBNode node = taller;
+        while (node.color == Color.Red || height > shorterHeight) {
+            if (node.color == Color.Black) {
+                height -= 1;
+            }
+            parent = node;
+            node = node.getChild(side);
+        }
+        middle.count = node.count + shorter.count + 1;
+        middle.color = Color.Red;
+        middle.setChild(oppositeDirection(side), node);
+        middle.setChild(side, shorter);
+        parent.setChild(side, middle);
+        for (RBNode ancestor = parent; ancestor != rootDummy; ancestor = ancestor.parent) {
+            ancestor.count += shorter.count + 1;
+        }
+        updateAggregates(middle);
+
+        fixRedRule(middle);
+        joinedHeight = Math.max(leftHeight, rightHeight) + setColor(root(), Color.Black);
+        return root();
     }
 
     /**
-     * Returns the value of the item with the largest key in the tree,
-     * or null if the tree is empty
-     * Works at O(1)
+     * Splits a subtree by a key, into split.lower (keys < k), split.found (the node with key k, or null)
+     * and split.upper (keys > k), rejoining the nodes on the search path with joinNodes.
+     * The heights of the joins along the path add up to O(height), so this works at O(logn).
      *
-     * @return The value for the node with the maximum key in the tree, or null if the tree is empty
+     * @param node   The root of the subtree
+     * @param height The black height of the subtree
+     * @param k      The key to split by
+     * @param split  Gets the result
      */
-    public String max() {
-        return minNode == null ? null : maxNode.item;
+    private void splitNodes(RBNode node, int height, int k, Split split) {
+        if (node == nil) {
+            split.lower = nil;
+            split.lowerHeight = 0;
+            split.found = null;
+            split.upper = nil;
+            split.upperHeight = 0;
+            return;
+        }
+        int childHeight = (node.color == Color.Black) ? height - 1 : height;
+        RBNode left = node.left;
+        RBNode right = node.right;
+        if (k == node.key) {
+            split.lower = left;
+            split.lowerHeight = childHeight;
+            split.found = node;
+            split.upper = right;
+            split.upperHeight = childHeight;
+        } else if (k < node.key) {
+            splitNodes(left, childHeight, k, split);
+            split.upper = joinNodes(split.upper, split.upperHeight, node, right, childHeight);
+            split.upperHeight = joinedHeight;
+        } else {
+            splitNodes(right, childHeight, k, split);
+            split.lower = joinNodes(left, childHeight, node, split.lower, split.lowerHeight);
+            split.lowerHeight = joinedHeight;
+        }
     }
 
     /**
-     * Turns a Consumer<T> into a Consumer<T, Integer> where the int is a running counter
+     * Joins two subtrees, where all the keys of left are smaller than the keys of right, and sets joinedHeight.
+     * The minimum of right is split off to be the middle node.
+     * Works at O(logn)
+     */
+    private RBNode joinNodes(RBNode left, int leftHeight, RBNode right, int rightHeight) {
+        if (right == nil) {
+            joinedHeight = leftHeight;
+            return left;
+        }
+        Split split = new Split();
+        splitNodes(right, rightHeight, subtreeMin(right).key, split);
+        return joinNodes(left, leftHeight, split.found, split.upper, split.upperHeight);
+    }
+
+    /*
+     * The set operations below are the join-based algorithms of Blelloch, Ferizovic and Sun ("Just Join for
+     * Parallel Ordered Sets"): split the first subtree by the root of the second, recurse on both sides,
+     * and join the results. Each returns the root of the result and sets joinedHeight to its black height.
      */
-    private class IndexedConsumer<T> implements Consumer<T> {
 
-        int index;
-        BiConsumer<T, Integer> base;
+    private RBNode unionNodes(RBNode mine, int myHeight, RBNode other, int otherHeight) {
+        if (other == nil) {
+            joinedHeight = myHeight;
+            return mine;
+        }
+        if (mine == nil) {
+            joinedHeight = otherHeight;
+            return other;
+        }
+        int otherChildHeight = (other.color == Color.Black) ? otherHeight - 1 : otherHeight;
+        RBNode otherLeft = other.left;
+        RBNode otherRight = other.right;
+        Split split = new Split();
+        splitNodes(mine, myHeight, other.key, split);
+        RBNode left = unionNodes(split.lower, split.lowerHeight, otherLeft, otherChildHeight);
+        int leftHeight = joinedHeight;
+        RBNode right = unionNodes(split.upper, split.upperHeight, otherRight, otherChildHeight);
+        int rightHeight = joinedHeight;
+        // Keep this tree's node (and value) if the key is in both
+        if (split.found == null) {
+            return joinNodes(left, leftHeight, other, right, rightHeight);
+        }
+        markDeleted(other);
+        return joinNodes(left, leftHeight, split.found, right, rightHeight);
+    }
 
-        /**
-         * Constructor for the class
-         *
-         * @param baseFunction - The function to call each time we are called by the previous Consumer<T>
-         */
-        public IndexedConsumer(BiConsumer<T, Integer> baseFunction) {
-            index = 0;
-            base = baseFunction;
+    private RBNode intersectionNodes(RBNode mine, int myHeight, RBNode other, int otherHeight) {
+        if (mine == nil || other == nil) {
+            dropSubtree(mine);
+            dropSubtree(other);
+            joinedHeight = 0;
+            return nil;
+        }
+        int otherChildHeight = (other.color == Color.Black) ? otherHeight - 1 : otherHeight;
+        RBNode otherLeft = other.left;
+        RBNode otherRight = other.right;
+        markDeleted(other);
+        Split split = new Split();
+        splitNodes(mine, myHeight, other.key, split);
+        RBNode left = intersectionNodes(split.lower, split.lowerHeight, otherLeft, otherChildHeight);
+        int leftHeight = joinedHeight;
+        RBNode right = intersectionNodes(split.upper, split.upperHeight, otherRight, otherChildHeight);
+        int rightHeight = joinedHeight;
+        if (split.found != null) {
+            return joinNodes(left, leftHeight, split.found, right, rightHeight);
         }
+        return joinNodes(left, leftHeight, right, rightHeight);
+    }
 
-        /**
-         * Implements the Consumer<T> interface. Get called each time a new value is ready to be consumed,
-         * passes it to the baseFunction together with the calling index
-         *
-         * @param arg The value to consume
-         */
-        public void accept(T arg) {
-            base.accept(arg, index);
-            index++;
+    private RBNode differenceNodes(RBNode mine, int myHeight, RBNode other, int otherHeight) {
+        if (mine == nil || other == nil) {
+            dropSubtree(other);
+            joinedHeight = myHeight;
+            return mine;
         }
+        int otherChildHeight = (other.color == Color.Black) ? otherHeight - 1 : otherHeight;
+        RBNode otherLeft = other.left;
+        RBNode otherRight = other.right;
+        markDeleted(other);
+        Split split = new Split();
+        splitNodes(mine, myHeight, other.key, split);
+        RBNode left = differenceNodes(split.lower, split.lowerHeight, otherLeft, otherChildHeight);
+        int leftHeight = joinedHeight;
+        RBNode right = differenceNodes(split.upper, split.upperHeight, otherRight, otherChildHeight);
+        int rightHeight = joinedHeight;
+        if (split.found != null) {
+            markDeleted(split.found);
+        }
+        return joinNodes(left, leftHeight, right, rightHeight);
     }
 
     /**
-     * Applies the given function to all the nodes in the tree in pre-order
-     * Works in O(n) where n is the number of nodes in the sub-tree under node
+     * Drops a subtree which a set operation leaves out of its result. Unlinking its root is enough to make all of
+     * its nodes invalid (see RBNode.valid), so this doesn't visit the rest of the subtree.
+     * Works at O(1)
      *
-     * @param node     The node to start the tree-walk from
-     * @param consumer The function to run on each node
+     * @param root The root of the subtree, or nil
      */
-    private void walkPreOrder(RBNode node, Consumer<RBNode> consumer) {
-        walk(node, consumer, dummyConsumer, dummyConsumer);
+    private void dropSubtree(RBNode root) {
+        if (root != nil) {
+            markDeleted(root);
+        }
     }
 
     /**
-     * Applies the given function to all the nodes in the tree in order
-     * Works in O(n) where n is the number of nodes in the sub-tree under node
-     *
-     * @param node     The node to start the tree-walk from
-     * @param consumer The function to run on each node
+     * The result of splitNodes: the subtrees with the smaller and bigger keys, their black heights,
+     * and the node with the key split by (or null)
      */
-    private void walkInOrder(RBNode node, Consumer<RBNode> consumer) {
-        walk(node, dummyConsumer, consumer, dummyConsumer);
+    private static class Split {
+        RBNode lower;
+        int lowerHeight;
+        RBNode found;
+        RBNode upper;
+        int upperHeight;
     }
 
     /**
-     * Applies the given function to all the nodes in the tree in post-order
-     * Works in O(n) where n is the number of nodes in the sub-tree under node
-     *
-     * @param node     The node to start the tree-walk from
-     * @param consumer The function to run on each node
+     * Subtrees smaller than this are walked sequentially by the parallel traversals
      */
-    private void walkPostOrder(RBNode node, Consumer<RBNode> consumer) {
-        walk(node, dummyConsumer, dummyConsumer, consumer);
-    }
+    static final int PARALLEL_THRESHOLD = 1 << 12;
 
     /**
-     * Walks the given subtree and applies the given functions in pre, post and in-order fashions
-     * Works in O(n) where n is the number of nodes in the sub-tree under node
-     *
-     * @param node         The node to start the tree-walk from
-     * @param consumerPre  The function to run on nodes in pre-order
-     * @param consumerIn   The function to run on nodes in-order
-     * @param consumerPost The function to run on nodes in post-order
+     * Fills keys and/or values (either may be null) with the items of a subtree, from offset on
      */
-    private void walk(RBNode node, Consumer<RBNode> consumerPre, Consumer<RBNode> consumerIn, Consumer<RBNode> consumerPost) {
-        if (node == nil) {
-            return;
+    private static class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final RBNode node;
+        final int offset;
+        final int[] keys;
+        final String[] values;
+
+        FillTask(RBNode node, int offset, int[] keys, String[] values) {
+            this.node = node;
+            this.offset = offset;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.count <= PARALLEL_THRESHOLD) {
+                fill(node, offset);
+                return;
+            }
+            int index = offset + node.left.count;
+            invokeAll(new FillTask(node.left, offset, keys, values),
+                    new FillTask(node.right, index + 1, keys, values));
+            set(index, node);
+        }
+
+        /**
+         * @return The index after the subtree's last item
+         */
+        private int fill(RBNode node, int index) {
+            for (; node != nil; node = node.right) {
+                index = fill(node.left, index);
+                set(index++, node);
+            }
+            return index;
+        }
+
+        private void set(int index, RBNode node) {
+            if (keys != null) {
+                keys[index] = node.key;
+            }
+            if (values != null) {
+                values[index] = node.item;
+            }
         }
-        consumerPre.accept(node);
-        walk(node.left, consumerPre, consumerIn, consumerPost);
-        consumerIn.accept(node);
-        walk(node.right, consumerPre, consumerIn, consumerPost);
-        consumerPost.accept(node);
     }
 
     /**
-     * Returns a sorted array which contains all keys in the tree,
-     * or an empty array if the tree is empty.
-     *
-     * @return All the keys for all the nodes in the tree
+     * Maps and reduces the items of a subtree, in key order
      */
-    public int[] keysToArray() {
-        int[] keys = new int[size];
-        walkInOrder(root(), new IndexedConsumer<>((node, index) -> keys[index] = node.key));
-        return keys;
+    private static class ReduceTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        final RBNode node;
+        final long identity;
+        final ItemToLongFunction mapper;
+        final LongBinaryOperator reducer;
+
+        ReduceTask(RBNode node, long identity, ItemToLongFunction mapper, LongBinaryOperator reducer) {
+            this.node = node;
+            this.identity = identity;
+            this.mapper = mapper;
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected Long compute() {
+            if (node.count <= PARALLEL_THRESHOLD) {
+                return reduce(node, identity);
+            }
+            ReduceTask left = new ReduceTask(node.left, identity, mapper, reducer);
+            left.fork();
+            long right = new ReduceTask(node.right, identity, mapper, reducer).compute();
+            long result = reducer.applyAsLong(left.join(), mapper.applyAsLong(node.key, node.item));
+            return reducer.applyAsLong(result, right);
+        }
+
+        private long reduce(RBNode node, long result) {
+            for (; node != nil; node = node.right) {
+                result = reduce(node.left, result);
+                result = reducer.applyAsLong(result, mapper.applyAsLong(node.key, node.item));
+            }
+            return result;
+        }
     }
 
     /**
-     * Returns an array which contains all values in the tree,
-     * sorted by their respective keys,
-     * or an empty array if the tree is empty.
-     *
-     * @return All the values for all the nodes in the tree
+     * A Spliterator over a single node (if not null) followed by a whole subtree. Splitting the subtree at its
+     * root gives two parts of the same shape: the node and the left subtree, then the root and the right subtree.
+     * Once it is advanced it stops splitting, and steps through the rest with successor().
      */
-    public String[] valuesToArray() {
-        String[] items = new String[size];
-        walkInOrder(root(), new IndexedConsumer<>((node, index) -> items[index] = node.item));
-        return items;
+    private class ItemSpliterator implements Spliterator<Map.Entry<Integer, String>> {
+        RBNode first;
+        RBNode subtree;
+        /**
+         * The next node to visit, once advancing started (null before)
+         */
+        RBNode next;
+        int remaining;
+
+        ItemSpliterator(RBNode first, RBNode subtree) {
+            this.first = first;
+            this.subtree = subtree;
+            this.remaining = ((first != null) ? 1 : 0) + subtree.count;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<Integer, String>> trySplit() {
+            if (next != null) {
+                return null;
+            }
+            if (first == null && subtree != nil && subtree.left == nil) {
+                // The prefix would be empty; start with the root instead
+                first = subtree;
+                subtree = subtree.right;
+            }
+            if (subtree == nil) {
+                return null;
+            }
+            ItemSpliterator prefix = new ItemSpliterator(first, subtree.left);
+            first = subtree;
+            subtree = subtree.right;
+            remaining -= prefix.remaining;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<Integer, String>> action) {
+            if (remaining == 0) {
+                return false;
+            }
+            if (next == null) {
+                next = (first != null) ? first : subtreeMin(subtree);
+            }
+            RBNode node = next;
+            remaining -= 1;
+            if (remaining > 0) {
+                next = successor(node);
+            }
+            action.accept(new AbstractMap.SimpleImmutableEntry<>(node.key, node.item));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<Integer, String>> action) {
+            if (next != null) {
+                while (tryAdvance(action)) {
+                }
+                return;
+            }
+            if (first != null) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(first.key, first.item));
+            }
+            forEach(subtree, action);
+            remaining = 0;
+        }
+
+        private void forEach(RBNode node, Consumer<? super Map.Entry<Integer, String>> action) {
+            for (; node != nil; node = node.right) {
+                forEach(node.left, action);
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(node.key, node.item));
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<Integer, String>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
     }
 
     /**
-     * Returns the number of nodes in the tree.
-     * precondition: none
-     * postcondition: none
-     *
-     * @return The number of elements in the tree
+     * A read-only SortedMap view over the items with keys in the range [lo, hi).
+     * Lookups and size work at O(logn), and iterating works at O(logn + m) where m is the number of items in the range.
      */
-    public int size() {
-        return size;
+    private class RangeView extends AbstractMap<Integer, String> implements SortedMap<Integer, String> {
+
+        /**
+         * The lowest key in the range
+         */
+        private final int lo;
+        /**
+         * One past the highest key in the range (a long, so the range can include Integer.MAX_VALUE)
+         */
+        private final long hi;
+
+        /**
+         * A constructor for the view
+         * precondition: lo <= hi <= Integer.MAX_VALUE + 1
+         *
+         * @param lo The lowest key in the range
+         * @param hi One past the highest key in the range
+         */
+        RangeView(int lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        private boolean inRange(Object key) {
+            if (!(key instanceof Integer)) {
+                return false;
+            }
+            int k = (Integer) key;
+            return lo <= k && k < hi;
+        }
+
+        @Override
+        public int size() {
+            return (hi > Integer.MAX_VALUE) ? size - rank(lo) : countInRange(lo, (int) hi);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && searchNode((Integer) key) != null;
+        }
+
+        @Override
+        public String get(Object key) {
+            return inRange(key) ? search((Integer) key) : null;
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return null;
+        }
+
+        /**
+         * Returns a view of a part of this view. Bounds outside of this view's range are clamped to it.
+         */
+        @Override
+        public SortedMap<Integer, String> subMap(Integer fromKey, Integer toKey) {
+            if (fromKey > toKey) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return view(fromKey, toKey);
+        }
+
+        @Override
+        public SortedMap<Integer, String> headMap(Integer toKey) {
+            return view(lo, toKey);
+        }
+
+        @Override
+        public SortedMap<Integer, String> tailMap(Integer fromKey) {
+            return view(fromKey, hi);
+        }
+
+        /**
+         * Returns a view of the range [from, to), clamped to this view's range
+         */
+        private RangeView view(int from, long to) {
+            long clampedTo = Math.min(hi, to);
+            int clampedFrom = (int) Math.min(Math.max(lo, from), clampedTo);
+            return new RangeView(clampedFrom, Math.max(clampedFrom, clampedTo));
+        }
+
+        @Override
+        public Integer firstKey() {
+            RBNode node = ceilingNode(lo);
+            if (node == null || node.key >= hi) {
+                throw new NoSuchElementException();
+            }
+            return node.key;
+        }
+
+        @Override
+        public Integer lastKey() {
+            RBNode node = (hi == Integer.MIN_VALUE) ? null : floorNode((int) (hi - 1));
+            if (node == null || node.key < lo) {
+                throw new NoSuchElementException();
+            }
+            return node.key;
+        }
+
+        @Override
+        public Set<Entry<Integer, String>> entrySet() {
+            return new AbstractSet<Entry<Integer, String>>() {
+                @Override
+                public int size() {
+                    return RangeView.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<Integer, String>> iterator() {
+                    Cursor cursor = cursor();
+                    cursor.seek(lo);
+                    return new Iterator<Entry<Integer, String>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return cursor.valid() && cursor.key() < hi;
+                        }
+
+                        @Override
+                        public Entry<Integer, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Integer, String> entry = new SimpleImmutableEntry<>(cursor.key(), cursor.value());
+                            cursor.next();
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
     }
 
     /**
@@ -712,7 +3230,7 @@ public class RBTree {
      * @param direction The direction to flip
      * @return The opposite direction from the one given
      */
-    private Direction oppositeDirection(Direction direction) {
+    private static Direction oppositeDirection(Direction direction) {
         return (direction == Direction.Left) ? Direction.Right : Direction.Left;
     }
 
@@ -722,18 +3240,6 @@ public class RBTree {
      * document them because they aren't required or needed for any external use
      */
 
-    RBNode select(int index) {
-        RBNode node = minNode;
-        for (int i = 0; i < index; i++) {
-            node = successor(node);
-        }
-        return node;
-    }
-
-    int selectKey(int index) {
-        return select(index).key;
-    }
-
     int minKey() {
         assert minNode != null;
         return minNode.key;
@@ -778,6 +3284,7 @@ public class RBTree {
         assert nil.right == null && nil.left == null : "Invalid child for nil";
         assert nil.key == 0 : "Invalid key nil";
         assert nil.item == null : "Invalid item for nil";
+        assert nil.count == 0 : "Invalid count for nil";
         assert rootDummy.key == Integer.MAX_VALUE : "Invalid key for rootDummy";
         assert rootDummy.item == null : "Invalid item for rootDummy";
 
@@ -785,6 +3292,7 @@ public class RBTree {
 
         TreeMap<Integer, String> map = toTreeMap();
         assert map.size() == size() : "Incorrect size";
+        assert root().count == size() : "Incorrect root count";
         RBNode min = subtreeMin(root());
         RBNode max = subtreeMax(root());
         assert min == minNode : String.format("Incorrect minNode: %s != %s", min, minNode);
@@ -812,6 +3320,11 @@ public class RBTree {
             assert node.right.key > node.key : "Right child key not higher then node key";
         }
 
+        assert node.count == node.left.count + node.right.count + 1 : "Incorrect subtree count";
+        assert augmentation == null || Objects.equals(node.aggregate, computeAggregate(node)) : "Incorrect aggregate";
+        assert !node.hasLeftChild() || node.left.parent == node : "Invalid parent for left child";
+        assert !node.hasRightChild() || node.right.parent == node : "Invalid parent for right child";
+
         int left_black_length = checkSubtreeInvariants(node.left);
         int right_black_length = checkSubtreeInvariants(node.right);
         assert left_black_length == right_black_length : "Black rule violated";
@@ -825,7 +3338,7 @@ public class RBTree {
      * All members and methods in this class aren't marked as either public or private
      * in order to allow them to be freely used in the RBTree methods
      */
-    private class RBNode {
+    private static class RBNode extends Handle {
 
         RBNode parent;
         RBNode left;
@@ -833,6 +3346,15 @@ public class RBTree {
         Color color;
         int key;
         String item;
+        /**
+         * The number of nodes in the subtree rooted at this node (0 for the sentinels)
+         */
+        int count;
+        /**
+         * The augmentation's value for the subtree rooted at this node, if the tree has an augmentation
+         * (nodes whose count is 0 count as the identity)
+         */
+        Object aggregate;
 
         /**
          * RBNode(RBNode parent, RBNode left, RBNode right, Color color, int key, String item) {
@@ -852,6 +3374,38 @@ public class RBTree {
             this.color = color;
             this.key = key;
             this.item = item;
+            this.count = 1;
+        }
+
+        @Override
+        public int key() {
+            return key;
+        }
+
+        @Override
+        public String value() {
+            return item;
+        }
+
+        /**
+         * A deleted node has no links, and neither has the root of a subtree dropped by a set operation, so a node
+         * is in a tree if and only if it leads up to a root dummy (the only other node without a parent)
+         */
+        @Override
+        public boolean valid() {
+            return topmost().left != null;
+        }
+
+        /**
+         * Returns the topmost node above this one (the root dummy, for a node in a tree)
+         * Works in O(logn)
+         */
+        RBNode topmost() {
+            RBNode node = this;
+            while (node.parent != null) {
+                node = node.parent;
+            }
+            return node;
         }
 
         /**
@@ -895,25 +3449,31 @@ public class RBTree {
         }
 
         /**
-         * Sets the left child as the given node
+         * Sets the left child as the given node.
+         * The parent of nil is never written, so nil stays the same for all (possibly concurrent) readers.
          * Works in O(1)
          *
          * @param node The node to set as the left child
          */
         void setLeft(RBNode node) {
             left = node;
-            node.parent = this;
+            if (node != nil) {
+                node.parent = this;
+            }
         }
 
         /**
-         * Sets the right child as the given node
+         * Sets the right child as the given node.
+         * The parent of nil is never written, so nil stays the same for all (possibly concurrent) readers.
          * Works in O(1)
          *
          * @param node The node to set as the right child
          */
         void setRight(RBNode node) {
             right = node;
-            node.parent = this;
+            if (node != nil) {
+                node.parent = this;
+            }
         }
 
         /**
@@ -931,6 +3491,8 @@ public class RBTree {
             transplant(oldRight);
             setRight(oldRight.left);
             oldRight.setLeft(this);
+            oldRight.count = count;
+            updateCount();
         }
 
         void rotateRight() {
@@ -938,6 +3500,16 @@ public class RBTree {
             transplant(oldLeft);
             setLeft(oldLeft.right);
             oldLeft.setRight(this);
+            oldLeft.count = count;
+            updateCount();
+        }
+
+        /**
+         * Recomputes the subtree size of this node from its children
+         * Works in O(1)
+         */
+        void updateCount() {
+            count = left.count + right.count + 1;
         }
 
         /**
@@ -1004,7 +3576,7 @@ public class RBTree {
             if (this == nil) {
                 return "nil";
             }
-            if (this == rootDummy) {
+            if (parent == null) {
                 return "rootDummy";
             }
             return color == Color.Red ? String.format("<%d>", key) : "" + key;
@@ -0,0 +1,406 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * RBTreeFormat
+ * The binary format of RBTree.writeTo and RBTree.readFrom. All the numbers are little-endian.
+ *
+ * header:  magic (8 bytes, "RBTreeS1"), version (4 bytes), flags (1 byte, bit 0: full key range),
+ *          item count (unsigned varint)
+ * items:   in key order, each one is
+ *          key   - the first key as a zigzag varint, every later key as the unsigned varint (key - previous key - 1),
+ *                  so dense keys take a single byte each
+ *          value - 0 for null, otherwise (UTF-8 length + 1) as an unsigned varint, followed by the UTF-8 bytes
+ * trailer: the CRC32 of everything before it (4 bytes)
+ *
+ * Both directions stream through a fixed buffer, so neither holds more than the tree (and, when reading,
+ * the arrays its sorted build takes) in memory.
+ */
+final class RBTreeFormat {
+
+    private static final long MAGIC = 0x3153656572544252L; // "RBTreeS1", little-endian
+    private static final int VERSION = 1;
+    private static final int FLAG_FULL_KEY_RANGE = 1;
+    private static final int BUFFER_BYTES = 1 << 16;
+    /**
+     * The most bytes a varint of a 64-bit value takes
+     */
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private RBTreeFormat() {
+    }
+
+    /**
+     * Writes a tree, in key order
+     * Works at O(n)
+     *
+     * @param tree The tree to write
+     * @param out  The stream to write to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails
+     */
+    static void write(RBTree tree, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeHeader(tree.isFullKeyRange(), tree.size());
+        for (RBTree.Cursor cursor = tree.cursor(); cursor.valid(); cursor.next()) {
+            writer.writeItem(cursor.key(), cursor.value());
+        }
+        writer.finish();
+        out.flush();
+    }
+
+    /**
+     * Writes a tree held in parallel arrays, e.g. a copy taken with keysToArray and valuesToArray
+     * Works at O(n)
+     * precondition: keys are strictly ascending, keys.length == values.length
+     *
+     * @param fullKeyRange Whether the tree accepts Integer.MAX_VALUE as a key
+     * @param keys         The keys of the tree, in key order
+     * @param values       The value for each of the keys
+     * @param out          The stream to write to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails
+     */
+    static void write(boolean fullKeyRange, int[] keys, String[] values, OutputStream out) throws IOException {
+        assert keys.length == values.length;
+        Writer writer = new Writer(out);
+        writer.writeHeader(fullKeyRange, keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            writer.writeItem(keys[i], values[i]);
+        }
+        writer.finish();
+        out.flush();
+    }
+
+    /**
+     * Reads a tree written by write, and builds it with the tree's linear-time sorted build
+     * Works at O(n)
+     *
+     * @param in The stream to read from. It isn't closed, but may be read past the end of the tree.
+     * @return The tree
+     * @throws IOException If reading from the stream fails, or it doesn't hold a valid tree
+     */
+    static RBTree read(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        if (reader.readLong() != MAGIC) {
+            throw new IOException("Not an RBTree stream");
+        }
+        int version = reader.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported RBTree stream version " + version);
+        }
+        boolean fullKeyRange = (reader.readByte() & FLAG_FULL_KEY_RANGE) != 0;
+        long count = reader.readVarint();
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt RBTree stream: " + count + " items");
+        }
+        long maxKey = fullKeyRange ? Integer.MAX_VALUE : Integer.MAX_VALUE - 1;
+
+        // Don't trust the count with the array sizes before the items are actually there
+        int capacity = (int) Math.min(count, BUFFER_BYTES);
+        int[] keys = new int[capacity];
+        String[] values = new String[capacity];
+        long key = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                long zigzag = reader.readVarint();
+                key = (zigzag >>> 1) ^ -(zigzag & 1);
+            } else {
+                key += reader.readVarint() + 1;
+            }
+            if (key < Integer.MIN_VALUE || key > maxKey) {
+                throw new IOException("Corrupt RBTree stream: key out of range");
+            }
+            if (i == keys.length) {
+                int newLength = (int) Math.min(count, 2L * keys.length);
+                keys = Arrays.copyOf(keys, newLength);
+                values = Arrays.copyOf(values, newLength);
+            }
+            keys[i] = (int) key;
+            values[i] = reader.readString();
+        }
+        reader.checkChecksum();
+        return RBTree.fromSorted(fullKeyRange, keys, values, (int) count);
+    }
+
+    /**
+     * Buffers the output and keeps a running checksum of it
+     */
+    private static final class Writer {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private final CRC32 crc = new CRC32();
+        private int position;
+        private long previousKey;
+        private boolean first = true;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeHeader(boolean fullKeyRange, int count) throws IOException {
+            writeLong(MAGIC);
+            writeInt(VERSION);
+            writeByte(fullKeyRange ? FLAG_FULL_KEY_RANGE : 0);
+            writeVarint(count);
+        }
+
+        /**
+         * precondition: key is greater than the key of the previous item
+         */
+        void writeItem(int key, String value) throws IOException {
+            if (first) {
+                writeVarint(((key << 1) ^ (key >> 31)) & 0xFFFFFFFFL);
+                first = false;
+            } else {
+                writeVarint(key - previousKey - 1);
+            }
+            previousKey = key;
+            writeString(value);
+        }
+
+        /**
+         * Makes room for at least bytes more bytes in the buffer
+         */
+        void reserve(int bytes) throws IOException {
+            if (position + bytes > buffer.length) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            crc.update(buffer, 0, position);
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        void writeByte(int b) throws IOException {
+            reserve(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void writeInt(int v) throws IOException {
+            reserve(4);
+            for (int i = 0; i < 4; i++) {
+                buffer[position++] = (byte) (v >>> (8 * i));
+            }
+        }
+
+        void writeLong(long v) throws IOException {
+            reserve(8);
+            for (int i = 0; i < 8; i++) {
+                buffer[position++] = (byte) (v >>> (8 * i));
+            }
+        }
+
+        /**
+         * precondition: v >= 0
+         */
+        void writeVarint(long v) throws IOException {
+            reserve(MAX_VARINT_BYTES);
+            while ((v & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[position++] = (byte) v;
+        }
+
+        /**
+         * Writes a string's UTF-8 length and bytes, encoding it straight into the buffer.
+         * Unpaired surrogates are written as '?', like String.getBytes does.
+         */
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            int length = s.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            writeVarint(utf8Length + 1L);
+            for (int i = 0; i < length; i++) {
+                reserve(4);
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Appends the checksum of everything written so far, and writes out the rest of the buffer
+         */
+        void finish() throws IOException {
+            crc.update(buffer, 0, position);
+            int checksum = (int) crc.getValue();
+            reserve(4);
+            for (int i = 0; i < 4; i++) {
+                buffer[position++] = (byte) (checksum >>> (8 * i));
+            }
+            // The trailer isn't part of the checksum
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Buffers the input and keeps a running checksum of the bytes consumed
+     */
+    private static final class Reader {
+        private final InputStream in;
+        private byte[] buffer = new byte[BUFFER_BYTES];
+        private final CRC32 crc = new CRC32();
+        private int position;
+        private int limit;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Makes sure at least bytes unread bytes are in the buffer
+         *
+         * @throws EOFException If the stream ends first
+         */
+        void require(int bytes) throws IOException {
+            if (limit - position >= bytes) {
+                return;
+            }
+            crc.update(buffer, 0, position);
+            if (bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(bytes, 2 * buffer.length));
+            }
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < bytes) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    throw new EOFException("Truncated RBTree stream");
+                }
+                limit += read;
+            }
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return buffer[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v |= (buffer[position++] & 0xFF) << (8 * i);
+            }
+            return v;
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v |= (buffer[position++] & 0xFFL) << (8 * i);
+            }
+            return v;
+        }
+
+        long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    if (v < 0) {
+                        break;
+                    }
+                    return v;
+                }
+            }
+            throw new IOException("Corrupt RBTree stream: bad varint");
+        }
+
+        String readString() throws IOException {
+            long length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > Integer.MAX_VALUE - 8) {
+                throw new IOException("Corrupt RBTree stream: value too long");
+            }
+            int bytes = (int) length - 1;
+            if (bytes > buffer.length) {
+                return readLongString(bytes);
+            }
+            require(bytes);
+            String s = new String(buffer, position, bytes, StandardCharsets.UTF_8);
+            position += bytes;
+            return s;
+        }
+
+        /**
+         * Reads a string longer than the buffer, a buffer at a time
+         */
+        private String readLongString(int bytes) throws IOException {
+            // Don't trust the length with the array size before the bytes are actually there
+            byte[] data = new byte[buffer.length];
+            int read = 0;
+            while (read < bytes) {
+                require(1);
+                int chunk = Math.min(bytes - read, limit - position);
+                if (read + chunk > data.length) {
+                    // chunk <= buffer.length <= data.length, so doubling is always enough
+                    data = Arrays.copyOf(data, (int) Math.min(bytes, 2L * data.length));
+                }
+                System.arraycopy(buffer, position, data, read, chunk);
+                position += chunk;
+                read += chunk;
+            }
+            return new String(data, 0, bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the trailer and compares it with the checksum of everything read before it
+         */
+        void checkChecksum() throws IOException {
+            crc.update(buffer, 0, position);
+            // Reading the trailer may checksum the same bytes again, but the expected value is already taken
+            int expected = (int) crc.getValue();
+            if (readInt() != expected) {
+                throw new IOException("Corrupt RBTree stream: checksum mismatch");
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * RBTreeMetrics
+ * Counters for the internals of a single RBTree: rotations, fixup loop iterations, and a histogram of the depth
+ * at which searches from the root end.
+ *
+ * Metrics are off unless the JVM is started with -Drbtree.metrics=true. ENABLED is a static final constant,
+ * so when it is false the JIT removes every "if (RBTreeMetrics.ENABLED)" block from the tree's hot paths,
+ * and the disabled metrics cost nothing.
+ *
+ * When metrics are off, a tree only creates its (never updated) metrics if they're asked for, so that trees don't
+ * allocate histograms they never fill.
+ *
+ * The counters are plain fields, updated without synchronization by the threads that use the tree: the writer
+ * updates the rotation and fixup counters, and every search from the root records its depth. A tree may be searched
+ * by several threads at once, so concurrent searches can lose some of their descents, and threads reading the
+ * counters (e.g. JMX) may see slightly stale values. The counters are meant for profiling, not for exact accounting.
+ * Use snapshot() for a copy of all the counters at once.
+ */
+public final class RBTreeMetrics implements RBTreeMetricsMXBean {
+
+    /**
+     * Whether metrics are collected. Read once, when the class is loaded.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("rbtree.metrics");
+
+    long rotations;
+    long insertFixupIterations;
+    long deleteFixupIterations;
+    /**
+     * The number of searches that ended at each depth
+     */
+    final long[] depthHistogram = new long[RBTree.MAX_HEIGHT + 1];
+
+    /**
+     * Package-private: only created by RBTree
+     */
+    RBTreeMetrics() {
+    }
+
+    /**
+     * Records a search from the root which ended at the given depth
+     * Works at O(1)
+     *
+     * @param depth The depth of the node the search ended at (the root is at depth 1, an empty tree at 0)
+     */
+    void recordDescent(int depth) {
+        depthHistogram[Math.min(depth, RBTree.MAX_HEIGHT)]++;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getDescents() {
+        long descents = 0;
+        for (long count : depthHistogram) {
+            descents += count;
+        }
+        return descents;
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public long getInsertFixupIterations() {
+        return insertFixupIterations;
+    }
+
+    @Override
+    public long getDeleteFixupIterations() {
+        return deleteFixupIterations;
+    }
+
+    @Override
+    public long[] getDepthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        for (int depth = depthHistogram.length - 1; depth > 0; depth--) {
+            if (depthHistogram[depth] != 0) {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public double getMeanDepth() {
+        long descents = 0;
+        long total = 0;
+        for (int depth = 0; depth < depthHistogram.length; depth++) {
+            descents += depthHistogram[depth];
+            total += depth * depthHistogram[depth];
+        }
+        return (descents == 0) ? 0 : (double) total / descents;
+    }
+
+    /**
+     * Returns a copy of all the counters
+     * Works at O(MAX_HEIGHT)
+     *
+     * @return A snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Sets all the counters back to 0
+     */
+    public void reset() {
+        rotations = 0;
+        insertFixupIterations = 0;
+        deleteFixupIterations = 0;
+        Arrays.fill(depthHistogram, 0);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as "RBTree:type=RBTreeMetrics,name=<name>"
+     *
+     * @param name A name for the tree, unique among the registered trees
+     * @return The name the metrics were registered under, to pass to unregister
+     * @throws JMException If the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("RBTree:type=RBTreeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregisters metrics registered with register
+     *
+     * @param objectName The name returned by register
+     * @throws JMException If the name isn't registered
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    /**
+     * An immutable copy of the metrics at one point in time
+     */
+    public static final class Snapshot {
+        private final long rotations;
+        private final long insertFixupIterations;
+        private final long deleteFixupIterations;
+        private final long[] depthHistogram;
+        private final int maxDepth;
+        private final double meanDepth;
+
+        private Snapshot(RBTreeMetrics metrics) {
+            rotations = metrics.rotations;
+            insertFixupIterations = metrics.insertFixupIterations;
+            deleteFixupIterations = metrics.deleteFixupIterations;
+            depthHistogram = metrics.getDepthHistogram();
+            maxDepth = metrics.getMaxDepth();
+            meanDepth = metrics.getMeanDepth();
+        }
+
+        public long rotations() {
+            return rotations;
+        }
+
+        public long insertFixupIterations() {
+            return insertFixupIterations;
+        }
+
+        public long deleteFixupIterations() {
+            return deleteFixupIterations;
+        }
+
+        public long descents() {
+            long descents = 0;
+            for (long count : depthHistogram) {
+                descents += count;
+            }
+            return descents;
+        }
+
+        public long[] depthHistogram() {
+            return depthHistogram.clone();
+        }
+
+        public int maxDepth() {
+            return maxDepth;
+        }
+
+        public double meanDepth() {
+            return meanDepth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("descents=%d meanDepth=%.2f maxDepth=%d rotations=%d insertFixupIterations=%d "
+                            + "deleteFixupIterations=%d", descents(), meanDepth, maxDepth, rotations,
+                    insertFixupIterations, deleteFixupIterations);
+        }
+    }
+}
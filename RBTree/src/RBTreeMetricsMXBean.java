@@ -0,0 +1,46 @@
+/**
+ * RBTreeMetricsMXBean
+ * The JMX view of an RBTree's metrics. See RBTreeMetrics.
+ */
+public interface RBTreeMetricsMXBean {
+
+    /**
+     * @return Whether metrics are collected at all (the rbtree.metrics system property)
+     */
+    boolean isEnabled();
+
+    /**
+     * @return The number of searches from the root (by search, insert, delete and the navigation methods)
+     */
+    long getDescents();
+
+    /**
+     * @return The number of single rotations
+     */
+    long getRotations();
+
+    /**
+     * @return The number of iterations of the insert fixup loop
+     */
+    long getInsertFixupIterations();
+
+    /**
+     * @return The number of iterations of the delete fixup loop
+     */
+    long getDeleteFixupIterations();
+
+    /**
+     * @return For each depth d, the number of searches from the root which ended at a node of depth d (the root is at 1)
+     */
+    long[] getDepthHistogram();
+
+    /**
+     * @return The deepest node a search from the root has ended at, or 0 if there were no searches
+     */
+    int getMaxDepth();
+
+    /**
+     * @return The average depth of the node a search from the root ended at, or 0 if there were no searches
+     */
+    double getMeanDepth();
+}
@@ -0,0 +1,119 @@
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Most of these tests only run when the JVM is started with -Drbtree.metrics=true.
+ */
+public class RBTreeMetricsTest {
+
+    @Test
+    public void testDisabled() {
+        assumeFalse(RBTreeMetrics.ENABLED);
+        RBTree tree = new RBTree();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(i, "");
+        }
+        tree.search(500);
+        RBTreeMetrics.Snapshot snapshot = tree.metrics().snapshot();
+        assertEquals(0, snapshot.descents());
+        assertEquals(0, snapshot.rotations());
+        assertEquals(0, snapshot.insertFixupIterations());
+    }
+
+    @Test
+    public void testRotationsAndFixups() {
+        assumeTrue(RBTreeMetrics.ENABLED);
+        RBTree tree = new RBTree();
+        tree.insert(1, "");
+        tree.insert(2, "");
+        assertEquals(0, tree.metrics().getRotations());
+        // 1-2-3 is a right-leaning chain, fixed by a single left rotation
+        tree.insert(3, "");
+        assertEquals(1, tree.metrics().getRotations());
+        assertEquals(1, tree.metrics().getInsertFixupIterations());
+        // 3-1-2 is a zig-zag, fixed by a double rotation
+        tree = new RBTree();
+        tree.insert(3, "");
+        tree.insert(1, "");
+        tree.insert(2, "");
+        assertEquals(2, tree.metrics().getRotations());
+
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(i + 10, "");
+        }
+        for (int i = 0; i < 1000; i++) {
+            tree.delete(i + 10);
+        }
+        RBTreeMetrics.Snapshot snapshot = tree.metrics().snapshot();
+        assertTrue(snapshot.deleteFixupIterations() > 0);
+        assertTrue(snapshot.rotations() > 2);
+
+        tree.metrics().reset();
+        assertEquals(0, tree.metrics().snapshot().rotations());
+        assertEquals(0, tree.metrics().snapshot().descents());
+    }
+
+    @Test
+    public void testDepthHistogram() {
+        assumeTrue(RBTreeMetrics.ENABLED);
+        RBTree tree = new RBTree();
+        tree.search(1);
+        assertEquals(1, tree.metrics().getDepthHistogram()[0]);
+        for (int i = 0; i < 7; i++) {
+            tree.insert(i, "");
+        }
+        tree.metrics().reset();
+        // Searching every key visits each node of the tree once
+        for (int i = 0; i < 7; i++) {
+            tree.search(i);
+        }
+        long[] histogram = tree.metrics().getDepthHistogram();
+        assertEquals(7, tree.metrics().getDescents());
+        assertEquals(1, histogram[1]);
+        assertEquals(2, histogram[2]);
+        long total = 0;
+        for (int depth = 1; depth <= tree.metrics().getMaxDepth(); depth++) {
+            total += histogram[depth];
+        }
+        assertEquals(7, total);
+        assertTrue(tree.metrics().getMaxDepth() <= 4);
+        assertTrue(tree.metrics().getMeanDepth() > 1);
+    }
+
+    @Test
+    public void testSnapshotIsACopy() {
+        assumeTrue(RBTreeMetrics.ENABLED);
+        RBTree tree = new RBTree();
+        tree.insert(1, "");
+        RBTreeMetrics.Snapshot snapshot = tree.metrics().snapshot();
+        long descents = snapshot.descents();
+        tree.search(1);
+        assertEquals(descents, snapshot.descents());
+        assertEquals(descents + 1, tree.metrics().snapshot().descents());
+    }
+
+    @Test
+    public void testRegister() throws JMException {
+        RBTree tree = new RBTree();
+        ObjectName name = tree.metrics().register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertEquals(RBTreeMetrics.ENABLED, server.getAttribute(name, "Enabled"));
+            assertEquals(tree.metrics().getRotations(), server.getAttribute(name, "Rotations"));
+            assertArrayEquals(tree.metrics().getDepthHistogram(), (long[]) server.getAttribute(name, "DepthHistogram"));
+        } finally {
+            RBTreeMetrics.unregister(name);
+        }
+    }
+}
@@ -2,7 +2,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -224,6 +230,257 @@ public class RBTreeTest {
         }
     }
 
+    @Test
+    public void testSortedBuild() throws Exception {
+        for (int n = 0; n <= 300; n++) {
+            int[] keys = new int[n];
+            String[] values = new String[n];
+            SortedMap<Integer, String> map = new TreeMap<>();
+            for (int i = 0; i < n; i++) {
+                keys[i] = 3 * i - 50;
+                values[i] = "" + keys[i];
+                map.put(keys[i], values[i]);
+            }
+            compareAndCheck(map, new RBTree(keys, values));
+            compareAndCheck(map, new RBTree(map));
+            compareAndCheck(map, new RBTree(map.entrySet()));
+        }
+    }
+
+    @Test
+    public void testSortedBuildThenModify() throws Exception {
+        SortedMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(2 * i, "" + i);
+        }
+        RBTree rb = new RBTree(map);
+        for (int i = 0; i < 1000; i++) {
+            int k = rand.nextInt(2000);
+            if (map.containsKey(k)) {
+                map.remove(k);
+                assertThat(rb.delete(k), not(-1));
+            } else {
+                map.put(k, "" + k);
+                assertThat(rb.insert(k, "" + k), not(-1));
+            }
+            compareAndCheck(map, rb);
+        }
+    }
+
+    @Test
+    public void testUnsortedBuild() throws Exception {
+        int[] keys = {5, 1, 9, 1, 3};
+        String[] values = {"5", "1", "9", "one", "3"};
+        SortedMap<Integer, String> map = new TreeMap<>();
+        map.put(1, "1");
+        map.put(3, "3");
+        map.put(5, "5");
+        map.put(9, "9");
+        compareAndCheck(map, new RBTree(keys, values));
+    }
+
+    @Test
+    public void testSortedBuildMaxInt() throws Exception {
+        int[] keys = {1, 2, Integer.MAX_VALUE};
+        String[] values = {"1", "2", "max"};
+        RBTree rb = new RBTree(keys, values);
+        rb.checkTreeInvariants();
+        assertEquals(2, rb.size());
+        assertEquals(null, rb.search(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testFullKeyRange() throws Exception {
+        RBTree rb = new RBTree(true);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        assertNull(rb.search(Integer.MAX_VALUE));
+        assertEquals(-1, rb.delete(Integer.MAX_VALUE));
+        for (int k : new int[]{Integer.MAX_VALUE, 0, Integer.MIN_VALUE, Integer.MAX_VALUE - 1, 5}) {
+            assertTrue(rb.insert(k, "" + k) >= 0);
+            assertEquals(-1, rb.insert(k, "again"));
+            map.put(k, "" + k);
+            rb.checkTreeInvariants();
+        }
+        assertEquals(map, rb.toTreeMap());
+        assertEquals("" + Integer.MAX_VALUE, rb.search(Integer.MAX_VALUE));
+        assertEquals("" + Integer.MAX_VALUE, rb.max());
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), rb.floorKey(Integer.MAX_VALUE));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), rb.higherKey(Integer.MAX_VALUE - 1));
+        assertEquals(map.tailMap(5), rb.tailMap(5));
+        assertEquals(map.tailMap(Integer.MAX_VALUE), rb.tailMap(0).tailMap(Integer.MAX_VALUE));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), rb.tailMap(0).lastKey());
+        assertEquals(map.size(), rb.tailMap(Integer.MIN_VALUE).size());
+
+        assertTrue(rb.delete(Integer.MAX_VALUE) >= 0);
+        map.remove(Integer.MAX_VALUE);
+        rb.checkTreeInvariants();
+        assertEquals(map, rb.toTreeMap());
+
+        int[] results = rb.insertAll(new int[]{Integer.MAX_VALUE, 7}, new String[]{"max", "7"});
+        assertTrue(results[0] >= 0 && results[1] >= 0);
+        map.put(Integer.MAX_VALUE, "max");
+        map.put(7, "7");
+        results = rb.deleteAll(new int[]{Integer.MAX_VALUE, 6});
+        assertTrue(results[0] >= 0);
+        assertEquals(-1, results[1]);
+        map.remove(Integer.MAX_VALUE);
+        rb.checkTreeInvariants();
+        assertEquals(map, rb.toTreeMap());
+
+        // A batch as large as the tree rebuilds it, and must keep the key too
+        RBTree empty = new RBTree(true);
+        empty.insertAll(new int[]{Integer.MAX_VALUE, 1}, new String[]{"max", "1"});
+        empty.checkTreeInvariants();
+        assertEquals("max", empty.search(Integer.MAX_VALUE));
+
+        // The default tree still rejects Integer.MAX_VALUE
+        assertEquals(-1, new RBTree().insert(Integer.MAX_VALUE, "max"));
+    }
+
+    @Test
+    public void testSelectRank() throws Exception {
+        SortedMap<Integer, String> map = map0;
+        RBTree rb = rb0;
+        for (int i = 0; i < 2000; i++) {
+            int k = rand.nextInt(1000);
+            if (map.containsKey(k)) {
+                map.remove(k);
+                rb.delete(k);
+            } else {
+                map.put(k, "" + k);
+                rb.insert(k, "" + k);
+            }
+            rb.checkTreeInvariants();
+        }
+
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            int k = keys.get(i);
+            assertEquals(k, rb.selectKey(i));
+            assertEquals(map.get(k), rb.select(i));
+            assertEquals(i, rb.rank(k));
+            assertEquals(i, rb.rank(k - 1) + (map.containsKey(k - 1) ? 1 : 0));
+        }
+        for (int j = 0; j < 100; j++) {
+            int lo = rand.nextInt(1100) - 50;
+            int hi = rand.nextInt(1100) - 50;
+            int expected = lo < hi ? map.subMap(lo, hi).size() : 0;
+            assertEquals(expected, rb.countInRange(lo, hi));
+        }
+        assertEquals(0, rb.rank(Integer.MIN_VALUE));
+        assertEquals(map.size(), rb.rank(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            int k = 2 * rand.nextInt(1000);
+            map0.put(k, "" + k);
+            rb0.insert(k, "" + k);
+        }
+        for (MapPair pair : maps) {
+            NavigableMap<Integer, String> map = (NavigableMap<Integer, String>) pair.map;
+
+            List<Integer> forward = new ArrayList<>();
+            for (RBTree.Cursor cursor = pair.rb.cursor(); cursor.valid(); cursor.next()) {
+                forward.add(cursor.key());
+                assertEquals(map.get(cursor.key()), cursor.value());
+            }
+            assertEquals(new ArrayList<>(map.keySet()), forward);
+
+            List<Integer> backward = new ArrayList<>();
+            RBTree.Cursor cursor = pair.rb.cursor();
+            for (boolean valid = cursor.last(); valid; valid = cursor.prev()) {
+                backward.add(cursor.key());
+            }
+            assertEquals(new ArrayList<>(map.descendingKeySet()), backward);
+
+            for (int k = -3; k < 2003; k++) {
+                Integer ceiling = map.ceilingKey(k);
+                assertEquals(ceiling != null, cursor.seek(k));
+                if (ceiling != null) {
+                    assertEquals((int) ceiling, cursor.key());
+                }
+            }
+            assertFalse(cursor.seek(Integer.MAX_VALUE));
+        }
+        assertFalse(new RBTree().cursor().valid());
+        assertFalse(new RBTree().cursor().seek(0));
+    }
+
+    @Test
+    public void testNavigation() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            int k = 3 * rand.nextInt(300);
+            map0.put(k, "" + k);
+            rb0.insert(k, "" + k);
+        }
+        for (MapPair pair : maps) {
+            NavigableMap<Integer, String> map = (NavigableMap<Integer, String>) pair.map;
+            for (int k = -5; k < 1000; k++) {
+                assertEquals(map.floorKey(k), pair.rb.floorKey(k));
+                assertEquals(map.ceilingKey(k), pair.rb.ceilingKey(k));
+                assertEquals(map.lowerKey(k), pair.rb.lowerKey(k));
+                assertEquals(map.higherKey(k), pair.rb.higherKey(k));
+            }
+            assertEquals(map.isEmpty() ? null : map.lastKey(), pair.rb.floorKey(Integer.MAX_VALUE));
+            assertEquals(map.isEmpty() ? null : map.lastKey(), pair.rb.lowerKey(Integer.MAX_VALUE));
+            assertEquals(null, pair.rb.higherKey(Integer.MAX_VALUE));
+            assertEquals(null, pair.rb.lowerKey(Integer.MIN_VALUE));
+        }
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            int k = 3 * rand.nextInt(300);
+            map0.put(k, "" + k);
+            rb0.insert(k, "" + k);
+        }
+        for (MapPair pair : maps) {
+            TreeMap<Integer, String> map = (TreeMap<Integer, String>) pair.map;
+            for (int j = 0; j < 200; j++) {
+                int lo = rand.nextInt(1000) - 50;
+                int hi = lo + 1 + rand.nextInt(200);
+                SortedMap<Integer, String> expected = map.subMap(lo, hi);
+
+                int[] expectedKeys = new int[expected.size()];
+                int index = 0;
+                for (int k : expected.keySet()) {
+                    expectedKeys[index++] = k;
+                }
+                assertArrayEquals(expectedKeys, pair.rb.keysInRange(lo, hi));
+                assertArrayEquals(expected.values().toArray(new String[0]), pair.rb.valuesInRange(lo, hi));
+
+                SortedMap<Integer, String> view = pair.rb.subMap(lo, hi);
+                assertEquals(expected, view);
+                assertEquals(expected.size(), view.size());
+                assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(view.keySet()));
+                if (!expected.isEmpty()) {
+                    assertEquals(expected.firstKey(), view.firstKey());
+                    assertEquals(expected.lastKey(), view.lastKey());
+                    int k = expected.firstKey();
+                    assertEquals(expected.get(k), view.get(k));
+                    assertTrue(view.containsKey(k));
+                }
+                assertFalse(view.containsKey(hi));
+                assertEquals(map.headMap(hi), pair.rb.headMap(hi));
+                assertEquals(map.tailMap(lo), pair.rb.tailMap(lo));
+                int mid = lo + (hi - lo) / 2;
+                assertEquals(expected.headMap(mid), view.headMap(mid));
+                assertEquals(expected.tailMap(mid), view.tailMap(mid));
+            }
+            assertEquals(map, pair.rb.tailMap(Integer.MIN_VALUE));
+        }
+
+        // views reflect later changes
+        SortedMap<Integer, String> view = rb1.subMap(3, 6);
+        assertEquals(3, view.size());
+        rb1.delete(4);
+        assertEquals(2, view.size());
+        assertEquals(Arrays.asList(3, 5), new ArrayList<>(view.keySet()));
+    }
+
     @Test
     public void testInsertAndDeleteMaxInt() throws Exception {
         for (MapPair pair : maps) {
@@ -337,6 +594,768 @@ public class RBTreeTest {
         }
     }
 
+    @Test
+    public void testInsertAll() throws Exception {
+        RBTree tree = new RBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        // Batches smaller than the tree (finger inserts) and larger than it (rebuilds), with duplicates
+        for (int batchSize : new int[]{1, 50, 10, 2000, 100, 3, 5000, 0}) {
+            int[] keys = new int[batchSize];
+            String[] values = new String[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                keys[i] = rand.nextInt(20000) - 10000;
+                values[i] = "v" + rand.nextInt();
+            }
+            if (batchSize > 2) {
+                keys[batchSize - 1] = Integer.MAX_VALUE;
+                keys[batchSize - 2] = Integer.MIN_VALUE;
+            }
+            int[] results = tree.insertAll(keys, values);
+            for (int i = 0; i < batchSize; i++) {
+                boolean inserted = keys[i] != Integer.MAX_VALUE && !map.containsKey(keys[i]);
+                assertEquals(inserted, results[i] >= 0);
+                if (inserted) {
+                    map.put(keys[i], values[i]);
+                }
+            }
+            tree.checkTreeInvariants();
+            assertEquals(map, tree.toTreeMap());
+            assertEquals(map.size(), tree.size());
+            assertEquals(map.firstEntry().getValue(), tree.min());
+            assertEquals(map.lastEntry().getValue(), tree.max());
+        }
+    }
+
+    @Test
+    public void testDeleteAll() throws Exception {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int k = rand.nextInt(40000);
+            map.put(k, "" + k);
+        }
+        RBTree tree = new RBTree(map);
+        for (int batchSize : new int[]{1, 50, 10, 500, 100, 3, 20000}) {
+            int[] keys = new int[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                keys[i] = rand.nextInt(40000);
+            }
+            if (batchSize > 2) {
+                keys[batchSize - 1] = Integer.MAX_VALUE;
+                keys[batchSize - 2] = keys[0];
+            }
+            int[] results = tree.deleteAll(keys);
+            for (int i = 0; i < batchSize; i++) {
+                assertEquals(map.containsKey(keys[i]), results[i] >= 0);
+                map.remove(keys[i]);
+            }
+            tree.checkTreeInvariants();
+            assertEquals(map, tree.toTreeMap());
+            assertEquals(map.size(), tree.size());
+            assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+            assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+        }
+    }
+
+    private static byte[] write(RBTree tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        for (int size : new int[]{0, 1, 2, 100, 50000}) {
+            TreeMap<Integer, String> map = new TreeMap<>();
+            while (map.size() < size) {
+                int k = (size > 1000) ? rand.nextInt(size * 4) : rand.nextInt() >>> 1;
+                String v;
+                switch (rand.nextInt(4)) {
+                    case 0:
+                        v = null;
+                        break;
+                    case 1:
+                        v = "";
+                        break;
+                    case 2:
+                        v = "\u00e9\u4e2d\ud83d\ude00 " + k;
+                        break;
+                    default:
+                        v = "" + k;
+                }
+                map.put(k, v);
+            }
+            RBTree tree = new RBTree(map);
+            byte[] bytes = write(tree);
+            RBTree read = RBTree.readFrom(new ByteArrayInputStream(bytes));
+            read.checkTreeInvariants();
+            assertEquals(map, read.toTreeMap());
+            assertTrue(read.insert(Integer.MAX_VALUE, "") < 0);
+
+            // Through channels
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            tree.writeTo(Channels.newChannel(out));
+            assertArrayEquals(bytes, out.toByteArray());
+            read = RBTree.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            assertEquals(map, read.toTreeMap());
+        }
+        // Values longer than the reader's buffer
+        RBTree longValues = new RBTree();
+        char[] chars = new char[200000];
+        Arrays.fill(chars, '\u00e9');
+        longValues.insert(1, new String(chars));
+        longValues.insert(2, "short");
+        longValues.insert(3, new String(chars, 0, 70000));
+        assertEquals(longValues.toTreeMap(), RBTree.readFrom(new ByteArrayInputStream(write(longValues))).toTreeMap());
+        // Dense keys take a byte each, plus a byte for each short value's length
+        RBTree dense = new RBTree();
+        for (int k = 0; k < 10000; k++) {
+            dense.insert(k, "");
+        }
+        assertTrue(write(dense).length < 2 * 10000 + 64);
+    }
+
+    @Test
+    public void testWriteAndReadFullKeyRange() throws Exception {
+        RBTree tree = new RBTree(true);
+        for (int k : new int[]{Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE - 1, Integer.MAX_VALUE}) {
+            tree.insert(k, "v" + k);
+        }
+        RBTree read = RBTree.readFrom(new ByteArrayInputStream(write(tree)));
+        read.checkTreeInvariants();
+        assertEquals(tree.toTreeMap(), read.toTreeMap());
+        assertTrue(read.delete(Integer.MAX_VALUE) >= 0);
+    }
+
+    @Test
+    public void testReadCorrupt() throws Exception {
+        RBTree tree = new RBTree();
+        for (int k = 0; k < 1000; k++) {
+            tree.insert(k * 3, "value " + k);
+        }
+        byte[] bytes = write(tree);
+        for (int i = 0; i < 50; i++) {
+            byte[] corrupt = bytes.clone();
+            corrupt[rand.nextInt(corrupt.length)] ^= 1 << rand.nextInt(8);
+            try {
+                RBTree.readFrom(new ByteArrayInputStream(corrupt));
+                fail();
+            } catch (IOException expected) {
+            }
+        }
+        try {
+            RBTree.readFrom(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+            fail();
+        } catch (EOFException expected) {
+        }
+
+        // A value's length that the stream doesn't hold the bytes for mustn't be allocated up front
+        RBTree single = new RBTree();
+        single.insert(0, "x");
+        byte[] header = write(single);
+        // The header, the count and the key take 15 bytes; then a varint of the value's length + 1 (2GB)
+        byte[] huge = Arrays.copyOf(header, 15 + 5 + 100);
+        huge[15] = (byte) 0xF0;
+        huge[16] = huge[17] = huge[18] = (byte) 0xFF;
+        huge[19] = 0x07;
+        try {
+            RBTree.readFrom(new ByteArrayInputStream(huge));
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    private TreeMap<Integer, String> randomMap(int size, int lo, int hi) {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        while (map.size() < size) {
+            int k = lo + rand.nextInt(hi - lo);
+            map.put(k, "" + k);
+        }
+        return map;
+    }
+
+    private RBTree randomTree(Map<Integer, String> map) {
+        if (rand.nextBoolean()) {
+            return new RBTree(map);
+        }
+        // Inserted one by one, in random order, for less regular shapes than the sorted build's
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        Collections.shuffle(keys, rand);
+        RBTree tree = new RBTree();
+        for (int k : keys) {
+            tree.insert(k, map.get(k));
+        }
+        return tree;
+    }
+
+    private void checkTree(SortedMap<Integer, String> map, RBTree tree) {
+        compareAndCheck(map, tree);
+        assertEquals(map.size(), tree.size());
+        assertEquals(map.isEmpty() ? null : map.get(map.firstKey()), tree.min());
+        assertEquals(map.isEmpty() ? null : map.get(map.lastKey()), tree.max());
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        int[] sizes = {0, 1, 2, 10, 1000, 20000};
+        for (int leftSize : sizes) {
+            for (int rightSize : sizes) {
+                TreeMap<Integer, String> leftMap = randomMap(leftSize, 0, 100000);
+                TreeMap<Integer, String> rightMap = randomMap(rightSize, 100001, 200000);
+                RBTree left = randomTree(leftMap);
+                RBTree right = randomTree(rightMap);
+                left.join(100000, "middle", right);
+                leftMap.put(100000, "middle");
+                leftMap.putAll(rightMap);
+                checkTree(leftMap, left);
+                checkTree(new TreeMap<>(), right);
+
+                // Both trees are still usable
+                assertTrue(left.delete(100000) >= 0);
+                leftMap.remove(100000);
+                right.insert(5, "5");
+                checkTree(leftMap, left);
+                checkTree(new TreeMap<>(Collections.singletonMap(5, "5")), right);
+            }
+        }
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        for (int size : new int[]{0, 1, 2, 10, 1000, 20000}) {
+            TreeMap<Integer, String> map = randomMap(size, 0, 4 * size + 1);
+            for (int i = 0; i < 20; i++) {
+                int k = (i == 0) ? -1 : (i == 1) ? 4 * size + 1 : rand.nextInt(4 * size + 1);
+                RBTree tree = randomTree(map);
+                RBTree upper = tree.split(k);
+                checkTree(map.headMap(k), tree);
+                checkTree(map.tailMap(k), upper);
+
+                // Joining the halves back gives the original tree
+                if (!upper.empty()) {
+                    int first = upper.selectKey(0);
+                    String value = upper.min();
+                    upper.delete(first);
+                    tree.join(first, value, upper);
+                }
+                checkTree(map, tree);
+            }
+        }
+        RBTree tree = new RBTree(true);
+        tree.insert(Integer.MAX_VALUE, "max");
+        RBTree upper = tree.split(Integer.MAX_VALUE);
+        assertTrue(tree.empty());
+        assertEquals("max", upper.search(Integer.MAX_VALUE));
+        upper.checkTreeInvariants();
+    }
+
+    @Test
+    public void testSetOperations() throws Exception {
+        int[][] sizes = {{0, 0}, {0, 100}, {100, 0}, {1, 1}, {1000, 1000}, {20000, 10}, {10, 20000}, {5000, 20000}};
+        for (int[] size : sizes) {
+            for (int operation = 0; operation < 3; operation++) {
+                TreeMap<Integer, String> mine = randomMap(size[0], 0, 50000);
+                TreeMap<Integer, String> other = new TreeMap<>();
+                for (int k : randomMap(size[1], 0, 50000).keySet()) {
+                    other.put(k, "other " + k);
+                }
+                RBTree tree = randomTree(mine);
+                RBTree otherTree = randomTree(other);
+                TreeMap<Integer, String> expected = new TreeMap<>(mine);
+                switch (operation) {
+                    case 0:
+                        for (Map.Entry<Integer, String> entry : other.entrySet()) {
+                            expected.putIfAbsent(entry.getKey(), entry.getValue());
+                        }
+                        tree.union(otherTree);
+                        break;
+                    case 1:
+                        expected.keySet().retainAll(other.keySet());
+                        tree.intersection(otherTree);
+                        break;
+                    default:
+                        expected.keySet().removeAll(other.keySet());
+                        tree.difference(otherTree);
+                }
+                checkTree(expected, tree);
+                checkTree(new TreeMap<>(), otherTree);
+                for (int i = 0; i < 100; i++) {
+                    int k = rand.nextInt(50000);
+                    tree.insert(k, "" + k);
+                    expected.putIfAbsent(k, "" + k);
+                }
+                checkTree(expected, tree);
+            }
+        }
+    }
+
+    @Test
+    public void testSpliterator() throws Exception {
+        for (int size : new int[]{0, 1, 2, 100, 50000}) {
+            TreeMap<Integer, String> map = randomMap(size, 0, 4 * size + 1);
+            RBTree tree = randomTree(map);
+            assertEquals(new ArrayList<>(map.entrySet()), tree.stream().collect(Collectors.toList()));
+            assertEquals(new ArrayList<>(map.entrySet()), tree.parallelStream().collect(Collectors.toList()));
+            assertEquals(map.keySet().stream().mapToLong(Integer::longValue).sum(),
+                    tree.parallelStream().mapToLong(Map.Entry::getKey).sum());
+
+            // Split recursively, mixing splitting and advancing, and check the parts cover the tree exactly
+            List<Integer> keys = new ArrayList<>();
+            Deque<Spliterator<Map.Entry<Integer, String>>> parts = new ArrayDeque<>();
+            parts.push(tree.spliterator());
+            while (!parts.isEmpty()) {
+                Spliterator<Map.Entry<Integer, String>> part = parts.pop();
+                assertTrue(part.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.SORTED));
+                long partSize = part.getExactSizeIfKnown();
+                Spliterator<Map.Entry<Integer, String>> prefix = (partSize > 1000) ? part.trySplit() : null;
+                if (prefix != null) {
+                    assertTrue(prefix.estimateSize() > 0 && part.estimateSize() > 0);
+                    assertEquals(partSize, prefix.estimateSize() + part.estimateSize());
+                    parts.push(part);
+                    parts.push(prefix);
+                    continue;
+                }
+                int before = keys.size();
+                if (rand.nextBoolean() && part.tryAdvance(entry -> keys.add(entry.getKey()))) {
+                    assertNull(part.trySplit());
+                }
+                part.forEachRemaining(entry -> keys.add(entry.getKey()));
+                assertEquals(partSize, keys.size() - before);
+                assertEquals(0, part.estimateSize());
+            }
+            assertEquals(new ArrayList<>(map.keySet()), keys);
+        }
+    }
+
+    @Test
+    public void testParallelToArray() throws Exception {
+        for (int size : new int[]{0, 1, 100, 200000}) {
+            TreeMap<Integer, String> map = randomMap(size, 0, 4 * size + 1);
+            RBTree tree = randomTree(map);
+            assertArrayEquals(tree.keysToArray(), tree.parallelKeysToArray());
+            assertArrayEquals(tree.valuesToArray(), tree.parallelValuesToArray());
+
+            assertEquals(map.keySet().stream().mapToLong(Integer::longValue).sum(),
+                    tree.parallelReduce(0, (k, v) -> k, Long::sum));
+            assertEquals(map.keySet().stream().filter(k -> k % 3 == 0).count(),
+                    tree.parallelReduce(0, (k, v) -> (k % 3 == 0) ? 1 : 0, Long::sum));
+            // The results are reduced in key order
+            assertEquals(map.isEmpty() ? -1 : map.lastKey(), tree.parallelReduce(-1, (k, v) -> k, (a, b) -> (b == -1) ? a : b));
+        }
+    }
+
+    /**
+     * A polynomial hash of the keys in order, which (unlike a sum) depends on the order the values are combined in
+     */
+    private static final RBTree.Augmentation<Map.Entry<Long, Long>> KEY_SEQUENCE_HASH = RBTree.Augmentation.of(
+            new AbstractMap.SimpleImmutableEntry<>(0L, 1L),
+            (k, v) -> new AbstractMap.SimpleImmutableEntry<>((long) k, 31L),
+            (a, b) -> new AbstractMap.SimpleImmutableEntry<>(a.getKey() * b.getValue() + b.getKey(),
+                    a.getValue() * b.getValue()));
+
+    private static Map.Entry<Long, Long> keySequenceHash(Collection<Integer> keys) {
+        Map.Entry<Long, Long> hash = KEY_SEQUENCE_HASH.identity();
+        for (int k : keys) {
+            hash = KEY_SEQUENCE_HASH.combine(hash, KEY_SEQUENCE_HASH.lift(k, null));
+        }
+        return hash;
+    }
+
+    @Test
+    public void testAugmentation() throws Exception {
+        RBTree.Augmentation<Long> sum = RBTree.Augmentation.of(0L, (k, v) -> (long) k, Long::sum);
+        RBTree sums = new RBTree(false, sum);
+        RBTree hashes = new RBTree(false, KEY_SEQUENCE_HASH);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int k = rand.nextInt(5000);
+            if (rand.nextBoolean()) {
+                sums.insert(k, "" + k);
+                hashes.insert(k, "" + k);
+                map.put(k, "" + k);
+            } else {
+                sums.delete(k);
+                hashes.delete(k);
+                map.remove(k);
+            }
+            int lo = rand.nextInt(5200) - 100;
+            int hi = lo + rand.nextInt(1000);
+            SortedMap<Integer, String> range = map.subMap(lo, Math.max(lo, hi));
+            assertEquals(range.keySet().stream().mapToLong(Integer::longValue).sum(), (long) sums.aggregate(lo, hi));
+            assertEquals(keySequenceHash(range.keySet()), hashes.aggregate(lo, hi));
+            if (i % 2000 == 0) {
+                sums.checkTreeInvariants();
+                hashes.checkTreeInvariants();
+            }
+        }
+        assertEquals(keySequenceHash(map.keySet()), hashes.aggregate());
+        assertEquals(KEY_SEQUENCE_HASH.identity(), hashes.aggregate(10, 10));
+
+        // The aggregates survive bulk operations, and moving nodes between trees
+        int[] batch = getRandomNumbers(3000);
+        for (int k : batch) {
+            map.putIfAbsent(k, "" + k);
+        }
+        hashes.insertAll(batch, new String[batch.length]);
+        hashes.checkTreeInvariants();
+        assertEquals(keySequenceHash(map.keySet()), hashes.aggregate());
+
+        RBTree upper = hashes.split(2500);
+        upper.checkTreeInvariants();
+        hashes.checkTreeInvariants();
+        assertEquals(keySequenceHash(map.headMap(2500).keySet()), hashes.aggregate());
+        assertEquals(keySequenceHash(map.tailMap(2500).keySet()), upper.aggregate());
+        assertEquals(keySequenceHash(map.subMap(2500, 3000).keySet()), upper.aggregate(2000, 3000));
+
+        RBTree other = new RBTree(false, KEY_SEQUENCE_HASH);
+        for (int k = 2500; k < 10000; k += 7) {
+            other.insert(k, "" + k);
+            map.putIfAbsent(k, "" + k);
+        }
+        hashes.union(upper);
+        hashes.union(other);
+        hashes.checkTreeInvariants();
+        assertEquals(keySequenceHash(map.keySet()), hashes.aggregate());
+    }
+
+    @Test
+    public void testPutAndCompute() throws Exception {
+        RBTree tree = new RBTree(false, KEY_SEQUENCE_HASH);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 30000; i++) {
+            int k = rand.nextInt(2000);
+            String v = "v" + rand.nextInt(10);
+            switch (rand.nextInt(7)) {
+                case 0:
+                    assertEquals(map.put(k, v), tree.put(k, v));
+                    break;
+                case 1:
+                    assertEquals(map.putIfAbsent(k, v), tree.putIfAbsent(k, v));
+                    break;
+                case 2:
+                    assertEquals(map.replace(k, v), tree.replace(k, v));
+                    break;
+                case 3:
+                    assertEquals(map.replace(k, "v0", v), tree.replace(k, "v0", v));
+                    break;
+                case 4:
+                    // Appends to the value, or deletes values that got long
+                    assertEquals(map.compute(k, (key, old) -> (old != null && old.length() > 6) ? null : old + key),
+                            tree.compute(k, (key, old) -> (old != null && old.length() > 6) ? null : old + key));
+                    break;
+                case 5:
+                    assertEquals(map.merge(k, v, (old, value) -> old.equals(value) ? null : value),
+                            tree.merge(k, v, (old, value) -> old.equals(value) ? null : value));
+                    break;
+                default:
+                    assertEquals(map.containsKey(k), tree.delete(k) >= 0);
+                    map.remove(k);
+            }
+            assertEquals(map.get(k), tree.search(k));
+            if (i % 3000 == 0) {
+                checkTree(map, tree);
+            }
+        }
+        checkTree(map, tree);
+
+        // Updating existing items doesn't change the shape of the tree
+        int rootKey = tree.rootKey();
+        for (int k : map.keySet()) {
+            tree.put(k, "new");
+            tree.compute(k, (key, old) -> old + key);
+            tree.merge(k, "!", String::concat);
+            map.put(k, "new" + k + "!");
+        }
+        assertEquals(rootKey, tree.rootKey());
+        checkTree(map, tree);
+
+        try {
+            tree.put(Integer.MAX_VALUE, "max");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(tree.replace(Integer.MAX_VALUE, "max"));
+        RBTree full = new RBTree(true);
+        assertNull(full.put(Integer.MAX_VALUE, "max"));
+        assertEquals("max", full.put(Integer.MAX_VALUE, "other"));
+        assertEquals("other", full.search(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        RBTree tree = new RBTree(false, KEY_SEQUENCE_HASH);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        Map<Integer, RBTree.Handle> handles = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int k = rand.nextInt(3000);
+            if (rand.nextInt(3) > 0) {
+                if (tree.insert(k, "v" + k) >= 0) {
+                    map.put(k, "v" + k);
+                    handles.put(k, tree.findEntry(k));
+                }
+            } else if (rand.nextBoolean()) {
+                // Deletes through a handle taken before other deletes (which mostly moved nodes with two children)
+                RBTree.Handle handle = handles.remove(k);
+                assertEquals(map.remove(k) != null, handle != null && tree.deleteEntry(handle) >= 0);
+                if (handle != null) {
+                    assertFalse(handle.valid());
+                    assertEquals(-1, tree.deleteEntry(handle));
+                }
+            } else {
+                assertEquals(map.remove(k) != null, tree.delete(k) >= 0);
+                RBTree.Handle handle = handles.remove(k);
+                assertTrue(handle == null || !handle.valid());
+            }
+            if (i % 2000 == 0) {
+                checkTree(map, tree);
+                checkHandles(map, handles);
+            }
+        }
+        checkTree(map, tree);
+        checkHandles(map, handles);
+        assertNull(tree.findEntry(-1));
+
+        // Batches that rebuild the tree reuse its nodes
+        int[] keys = new int[4000];
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 3000 + i;
+            values[i] = "v" + keys[i];
+            map.put(keys[i], values[i]);
+        }
+        tree.insertAll(keys, values);
+        checkTree(map, tree);
+        for (int i = 0; i < keys.length; i++) {
+            handles.put(keys[i], tree.findEntry(keys[i]));
+        }
+        checkHandles(map, handles);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 2 * i;
+        }
+        tree.deleteAll(keys);
+        for (int k : keys) {
+            map.remove(k);
+            RBTree.Handle handle = handles.remove(k);
+            assertTrue(handle == null || !handle.valid());
+        }
+        checkTree(map, tree);
+        checkHandles(map, handles);
+
+        // Updates go through the same node, and cursors keep their place while other items are deleted
+        tree.put(3001, "new");
+        assertEquals("new", handles.get(3001).value());
+        RBTree.Cursor cursor = tree.cursor();
+        assertTrue(cursor.seek(3001));
+        assertSame(handles.get(3001), cursor.entry());
+        tree.delete(3003);
+        tree.delete(3005);
+        assertTrue(cursor.next());
+        assertEquals(3007, cursor.key());
+
+        // The set operations invalidate the handles of the items they drop, and of no others
+        for (int operation = 0; operation < 3; operation++) {
+            TreeMap<Integer, String> mine = randomMap(300, 0, 1000);
+            TreeMap<Integer, String> others = randomMap(300, 0, 1000);
+            RBTree x = randomTree(mine);
+            RBTree y = randomTree(others);
+            Map<Integer, RBTree.Handle> xHandles = new HashMap<>();
+            Map<Integer, RBTree.Handle> yHandles = new HashMap<>();
+            for (int key : mine.keySet()) {
+                xHandles.put(key, x.findEntry(key));
+            }
+            for (int key : others.keySet()) {
+                yHandles.put(key, y.findEntry(key));
+            }
+            if (operation == 0) {
+                x.union(y);
+                for (int key : others.keySet()) {
+                    assertEquals(!mine.containsKey(key), yHandles.get(key).valid());
+                }
+                for (int key : mine.keySet()) {
+                    assertTrue(xHandles.get(key).valid());
+                }
+                // This tree's values win
+                for (Map.Entry<Integer, String> entry : others.entrySet()) {
+                    mine.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            } else if (operation == 1) {
+                x.intersection(y);
+                for (int key : others.keySet()) {
+                    assertFalse(yHandles.get(key).valid());
+                }
+                for (int key : new ArrayList<>(mine.keySet())) {
+                    assertEquals(others.containsKey(key), xHandles.get(key).valid());
+                    if (!others.containsKey(key)) {
+                        mine.remove(key);
+                    }
+                }
+            } else {
+                x.difference(y);
+                for (int key : others.keySet()) {
+                    assertFalse(yHandles.get(key).valid());
+                }
+                for (int key : new ArrayList<>(mine.keySet())) {
+                    assertEquals(!others.containsKey(key), xHandles.get(key).valid());
+                    if (others.containsKey(key)) {
+                        mine.remove(key);
+                    }
+                }
+            }
+            // Deleting through a dropped handle, or a handle of another tree, changes nothing
+            for (RBTree.Handle handle : yHandles.values()) {
+                if (!handle.valid()) {
+                    assertEquals(-1, x.deleteEntry(handle));
+                }
+            }
+            for (RBTree.Handle handle : xHandles.values()) {
+                if (handle.valid()) {
+                    assertEquals(-1, y.deleteEntry(handle));
+                }
+            }
+            checkTree(mine, x);
+            checkTree(new TreeMap<>(), y);
+        }
+    }
+
+    @Test
+    public void testSearchCache() throws Exception {
+        RBTree tree = new RBTree();
+        tree.setSearchCache(64);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        long searches = 0;
+        for (int i = 0; i < 50000; i++) {
+            // Most operations go to a few hot keys
+            int k = rand.nextBoolean() ? rand.nextInt(16) : rand.nextInt(2000);
+            switch (rand.nextInt(6)) {
+                case 0:
+                    assertEquals(map.containsKey(k), tree.delete(k) >= 0);
+                    map.remove(k);
+                    break;
+                case 1:
+                    assertEquals(map.put(k, "v" + i), tree.put(k, "v" + i));
+                    break;
+                case 2:
+                    assertEquals(!map.containsKey(k), tree.insert(k, "v" + k) >= 0);
+                    map.putIfAbsent(k, "v" + k);
+                    break;
+                default:
+                    assertEquals(map.get(k), tree.search(k));
+                    searches++;
+            }
+            if (i % 10000 == 0) {
+                // Batches which rebuild the tree, and a split and a union which move all the nodes
+                int[] keys = new int[1000];
+                for (int j = 0; j < keys.length; j++) {
+                    keys[j] = 2 * j;
+                }
+                tree.deleteAll(keys);
+                map.keySet().removeIf(key -> key < 2000 && key % 2 == 0);
+                RBTree upper = tree.split(1000);
+                assertEquals(map.get(0), tree.search(0));
+                assertNull(tree.search(1001));
+                tree.union(upper);
+                searches += 2;
+                checkTree(map, tree);
+            }
+        }
+        assertEquals(searches, tree.searchCacheHits() + tree.searchCacheMisses());
+        assertTrue(tree.searchCacheHits() > searches / 8);
+
+        tree.setSearchCache(0);
+        assertEquals(0, tree.searchCacheHits());
+        for (int k = 0; k < 2000; k++) {
+            assertEquals(map.get(k), tree.search(k));
+        }
+    }
+
+    @Test
+    public void testFingerSearch() throws Exception {
+        RBTree tree = new RBTree();
+        tree.setFingerSearch(true);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        // Sorted ingest, in both directions
+        for (int k = 0; k < 5000; k++) {
+            assertTrue(tree.insert(k, "v" + k) >= 0);
+            assertTrue(tree.insert(-k - 1, "v" + (-k - 1)) >= 0);
+            map.put(k, "v" + k);
+            map.put(-k - 1, "v" + (-k - 1));
+        }
+        checkTree(map, tree);
+
+        // Clustered operations: a random walk over the keys, with the occasional jump
+        int k = 0;
+        for (int i = 0; i < 50000; i++) {
+            k = (rand.nextInt(100) == 0) ? rand.nextInt(12000) - 6000 : k + rand.nextInt(21) - 10;
+            switch (rand.nextInt(5)) {
+                case 0:
+                    assertEquals(!map.containsKey(k), tree.insert(k, "v" + k) >= 0);
+                    map.putIfAbsent(k, "v" + k);
+                    break;
+                case 1:
+                    assertEquals(map.containsKey(k), tree.delete(k) >= 0);
+                    map.remove(k);
+                    break;
+                case 2:
+                    assertEquals(map.put(k, "w" + k), tree.put(k, "w" + k));
+                    break;
+                case 3:
+                    assertEquals(map.ceilingKey(k), tree.ceilingKey(k));
+                    break;
+                default:
+                    assertEquals(map.get(k), tree.search(k));
+            }
+            if (i % 10000 == 0) {
+                checkTree(map, tree);
+                // Batches and splits move the nodes around the finger
+                int[] keys = new int[500];
+                for (int j = 0; j < keys.length; j++) {
+                    keys[j] = k + 2 * j;
+                }
+                tree.deleteAll(keys);
+                for (int key : keys) {
+                    map.remove(key);
+                }
+                RBTree upper = tree.split(k);
+                assertEquals(map.get(k - 1), tree.search(k - 1));
+                assertNull(tree.search(k));
+                tree.union(upper);
+            }
+        }
+        checkTree(map, tree);
+
+        // A cursor seeks from its own position, in either direction
+        RBTree.Cursor cursor = tree.cursor();
+        for (int i = 0; i < 2000; i++) {
+            int key = rand.nextBoolean() ? rand.nextInt(12000) - 6000 : (cursor.valid() ? cursor.key() : 0)
+                    + rand.nextInt(41) - 20;
+            Integer expected = map.ceilingKey(key);
+            assertEquals(expected != null, cursor.seek(key));
+            if (expected != null) {
+                assertEquals((int) expected, cursor.key());
+                assertEquals(map.get(expected), cursor.value());
+            }
+        }
+        assertTrue(cursor.first());
+        int deleted = cursor.key();
+        tree.delete(deleted);
+        map.remove(deleted);
+        // The cursor's item is gone, so it seeks from the root
+        assertTrue(cursor.seek(deleted));
+        assertEquals((int) map.firstKey(), cursor.key());
+
+        tree.setFingerSearch(false);
+        checkTree(map, tree);
+    }
+
+    public void checkHandles(TreeMap<Integer, String> map, Map<Integer, RBTree.Handle> handles) {
+        assertEquals(map.keySet(), handles.keySet());
+        for (Map.Entry<Integer, RBTree.Handle> entry : handles.entrySet()) {
+            RBTree.Handle handle = entry.getValue();
+            assertTrue(handle.valid());
+            assertEquals((int) entry.getKey(), handle.key());
+            assertEquals(map.get(entry.getKey()), handle.value());
+        }
+    }
+
     public int getRandomKey(RBTree rb) {
         int index = rand.nextInt(rb.size());
         return rb.selectKey(index);
@@ -0,0 +1,501 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ShardedRBTree
+ * A thread-safe ordered map which splits the int key space into a fixed number of consecutive key ranges (shards).
+ * Every shard is a separate RBTree with its own lock, so writers to different shards never contend.
+ * Point reads within a shard are optimistic, like in ConcurrentRBTree.
+ *
+ * The shards still give a global ordered view: they hold disjoint, increasing key ranges, so the sorted
+ * key array of the whole map is just the concatenation of the shards' arrays.
+ * Operations that read more than one shard (min, max, size, scans) lock one shard at a time, so they are weakly
+ * consistent, like in java.util.concurrent.ConcurrentSkipListMap: every shard is read atomically, but writes to other
+ * shards may happen in between.
+ *
+ * The shard boundaries start out evenly spread over the int range. When a shard grows beyond twice its fair share
+ * of the items, the boundaries are moved to split all the items evenly between the shards again.
+ * Rebalancing works at O(n), but happens at most once per O(n / shards) inserts.
+ */
+public class ShardedRBTree {
+
+    /**
+     * The default number of shards
+     */
+    static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * The smallest fair share of items per shard used to compute the rebalance limit,
+     * so small maps don't keep rebalancing
+     */
+    static final int MIN_SHARD_SIZE = 1024;
+
+    /**
+     * A single key range of the map
+     */
+    private static final class Shard {
+        final RBTree tree;
+        final StampedLock lock = new StampedLock();
+        /**
+         * The size above which the map is rebalanced
+         */
+        final int limit;
+        /**
+         * Set (under the write lock) once the shard is replaced by a rebalance. A retired shard is never written again,
+         * and operations that find it retired start over with the current layout.
+         */
+        boolean retired;
+
+        Shard(RBTree tree, int limit) {
+            this.tree = tree;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * An immutable assignment of key ranges to shards.
+     * Shard i holds the keys k such that bounds[i] <= k < bounds[i + 1] (the last shard has no upper bound).
+     */
+    private static final class Layout {
+        final int[] bounds;
+        final Shard[] shards;
+
+        Layout(int[] bounds, Shard[] shards) {
+            this.bounds = bounds;
+            this.shards = shards;
+        }
+
+        /**
+         * Returns the index of the shard which holds the key k
+         * Works at O(log(shards))
+         */
+        int indexOf(int k) {
+            int index = Arrays.binarySearch(bounds, k);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    /**
+     * Reads a value from a single shard's tree, under the shard's read lock
+     */
+    private interface ShardReader<T> {
+        T read(RBTree tree);
+    }
+
+    private volatile Layout layout;
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+
+    /**
+     * A default constructor for the ShardedRBTree class, with DEFAULT_SHARDS shards
+     * Works at O(1).
+     */
+    public ShardedRBTree() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * A constructor for a map with the given number of shards, which evenly split the int range
+     * Works at O(shards).
+     * precondition: shards > 0
+     *
+     * @param shards The number of shards
+     */
+    public ShardedRBTree(int shards) {
+        assert shards > 0;
+        int[] bounds = new int[shards];
+        Shard[] newShards = new Shard[shards];
+        long width = (1L << 32) / shards;
+        for (int i = 0; i < shards; i++) {
+            bounds[i] = (int) (Integer.MIN_VALUE + i * width);
+            newShards[i] = new Shard(new RBTree(), 2 * MIN_SHARD_SIZE);
+        }
+        layout = new Layout(bounds, newShards);
+    }
+
+    /**
+     * Returns the number of shards
+     * Works at O(1)
+     *
+     * @return The number of shards
+     */
+    public int shardCount() {
+        return layout.shards.length;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the map. See RBTree.insert.
+     * Only locks the shard that holds k.
+     * Works at O(logn), plus an amortized O(shards) for rebalancing
+     *
+     * @param k The key of the new node to insert into the map
+     * @param v The new value to insert into the map
+     * @return The number of node-color changes that happened during the insert, or -1 if an error occurs
+     */
+    public int insert(int k, String v) {
+        while (true) {
+            Layout current = layout;
+            Shard shard = current.shards[current.indexOf(k)];
+            long stamp = shard.lock.writeLock();
+            if (shard.retired) {
+                shard.lock.unlockWrite(stamp);
+                continue;
+            }
+            int result;
+            boolean full;
+            try {
+                result = shard.tree.insert(k, v);
+                full = shard.tree.size() > shard.limit;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+            if (full) {
+                rebalance();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Deletes an item with key k from the map, if it is there. See RBTree.delete.
+     * Only locks the shard that holds k.
+     * Works at O(logn)
+     *
+     * @param k The key who's node we want to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if an error occurs
+     */
+    public int delete(int k) {
+        while (true) {
+            Layout current = layout;
+            Shard shard = current.shards[current.indexOf(k)];
+            long stamp = shard.lock.writeLock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.delete(k);
+                }
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the map, otherwise returns null.
+     * Doesn't take a lock unless the read overlaps a write to the same shard.
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return A string if the matching key is found, or null otherwise
+     */
+    public String search(int k) {
+        while (true) {
+            Layout current = layout;
+            Shard shard = current.shards[current.indexOf(k)];
+            long stamp = shard.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                String value = shard.tree.optimisticSearch(k);
+                boolean retired = shard.retired;
+                if (shard.lock.validate(stamp)) {
+                    if (!retired) {
+                        return value;
+                    }
+                    continue;
+                }
+            }
+            stamp = shard.lock.readLock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.search(k);
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the map, or null if the map is empty
+     * Works at O(shards)
+     *
+     * @return The value for the item with the minimum key in the map, or null if the map is empty
+     */
+    public String min() {
+        for (String value : readAll(RBTree::min)) {
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the map, or null if the map is empty
+     * Works at O(shards)
+     *
+     * @return The value for the item with the maximum key in the map, or null if the map is empty
+     */
+    public String max() {
+        List<String> values = readAll(RBTree::max);
+        for (int i = values.size() - 1; i >= 0; i--) {
+            if (values.get(i) != null) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of items in the map
+     * Works at O(shards)
+     *
+     * @return The number of elements in the map
+     */
+    public int size() {
+        int size = 0;
+        for (int shardSize : readAll(RBTree::size)) {
+            size += shardSize;
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if and only if the map is empty
+     *
+     * @return Says whether the map is empty or not
+     */
+    public boolean empty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the map, as the concatenation of the shards' keys
+     * Works at O(n + shards)
+     *
+     * @return All the keys in the map
+     */
+    public int[] keysToArray() {
+        return concatKeys(readAll(RBTree::keysToArray));
+    }
+
+    /**
+     * Returns all the values in the map, sorted by their keys
+     * Works at O(n + shards)
+     *
+     * @return All the values in the map
+     */
+    public String[] valuesToArray() {
+        return concatValues(readAll(RBTree::valuesToArray));
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi), which may cross shards
+     * Works at O(logn + m + shards) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the map such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        if (hi <= lo) {
+            return new int[0];
+        }
+        return concatKeys(readRange(lo, hi - 1, tree -> tree.keysInRange(lo, hi)));
+    }
+
+    /**
+     * Returns the values of all the keys in the range [lo, hi), sorted by their keys
+     * Works at O(logn + m + shards) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The values of the keys k in the map such that lo <= k < hi
+     */
+    public String[] valuesInRange(int lo, int hi) {
+        if (hi <= lo) {
+            return new String[0];
+        }
+        return concatValues(readRange(lo, hi - 1, tree -> tree.valuesInRange(lo, hi)));
+    }
+
+    /**
+     * Returns a copy of the map as a native java TreeMap
+     * Works at O(nlogn)
+     *
+     * @return A TreeMap that holds all the key-value pairs from the map
+     */
+    public TreeMap<Integer, String> toTreeMap() {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (TreeMap<Integer, String> part : readAll(RBTree::toTreeMap)) {
+            map.putAll(part);
+        }
+        return map;
+    }
+
+    /**
+     * Reads every shard in key order. See readRange.
+     */
+    private <T> List<T> readAll(ShardReader<T> reader) {
+        return readRange(Integer.MIN_VALUE, Integer.MAX_VALUE, reader);
+    }
+
+    /**
+     * Reads every shard that may hold keys in the range [lo, hi], in key order, one shard at a time.
+     * If a rebalance retires one of the shards, starts over with the new layout.
+     * Works at O(shards) plus the cost of the reads
+     *
+     * @param lo     The lowest key in the range
+     * @param hi     The highest key in the range
+     * @param reader The read to do on each shard
+     * @return The result of the read for each shard, in key order
+     */
+    private <T> List<T> readRange(int lo, int hi, ShardReader<T> reader) {
+        retry:
+        while (true) {
+            Layout current = layout;
+            int from = current.indexOf(lo);
+            int to = current.indexOf(hi);
+            List<T> results = new ArrayList<>(to - from + 1);
+            for (int i = from; i <= to; i++) {
+                Shard shard = current.shards[i];
+                long stamp = shard.lock.readLock();
+                try {
+                    if (shard.retired) {
+                        continue retry;
+                    }
+                    results.add(reader.read(shard.tree));
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+            return results;
+        }
+    }
+
+    private static int[] concatKeys(List<int[]> parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] keys = new int[length];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, keys, offset, part.length);
+            offset += part.length;
+        }
+        return keys;
+    }
+
+    private static String[] concatValues(List<String[]> parts) {
+        int length = 0;
+        for (String[] part : parts) {
+            length += part.length;
+        }
+        String[] values = new String[length];
+        int offset = 0;
+        for (String[] part : parts) {
+            System.arraycopy(part, 0, values, offset, part.length);
+            offset += part.length;
+        }
+        return values;
+    }
+
+    /**
+     * Moves the shard boundaries so all the items are split evenly between the shards.
+     * Locks every shard while it runs, and replaces all of them with new shards built from the sorted items.
+     * Does nothing if another thread is already rebalancing, or if no shard is over its limit anymore.
+     * Works at O(n)
+     */
+    private void rebalance() {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            Layout current = layout;
+            Shard[] shards = current.shards;
+            long[] stamps = new long[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                stamps[i] = shards[i].lock.writeLock();
+            }
+            try {
+                boolean full = false;
+                List<int[]> keyParts = new ArrayList<>(shards.length);
+                List<String[]> valueParts = new ArrayList<>(shards.length);
+                for (Shard shard : shards) {
+                    full |= shard.tree.size() > shard.limit;
+                    keyParts.add(shard.tree.keysToArray());
+                    valueParts.add(shard.tree.valuesToArray());
+                }
+                int[] keys = concatKeys(keyParts);
+                if (!full || keys.length < shards.length) {
+                    return;
+                }
+                layout = split(keys, concatValues(valueParts), shards.length);
+                for (Shard shard : shards) {
+                    shard.retired = true;
+                }
+            } finally {
+                for (int i = 0; i < shards.length; i++) {
+                    shards[i].lock.unlockWrite(stamps[i]);
+                }
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * Builds a layout that splits the sorted items evenly between the given number of shards
+     * Works at O(n)
+     * precondition: keys are sorted in ascending order, keys.length >= count
+     */
+    private static Layout split(int[] keys, String[] values, int count) {
+        int n = keys.length;
+        int limit = 2 * Math.max(n / count, MIN_SHARD_SIZE);
+        int[] bounds = new int[count];
+        Shard[] shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            int from = (int) ((long) i * n / count);
+            int to = (int) ((long) (i + 1) * n / count);
+            bounds[i] = (i == 0) ? Integer.MIN_VALUE : keys[from];
+            RBTree tree = new RBTree(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(values, from, to));
+            shards[i] = new Shard(tree, limit);
+        }
+        return new Layout(bounds, shards);
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    /**
+     * Returns the number of items in each shard, in key order
+     */
+    int[] shardSizes() {
+        List<Integer> sizes = readAll(RBTree::size);
+        int[] result = new int[sizes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the shards are valid trees, and that every key is in the right shard.
+     * Must not run concurrently with writes.
+     */
+    void checkTreeInvariants() {
+        Layout current = layout;
+        for (int i = 0; i < current.shards.length; i++) {
+            assert i == 0 || current.bounds[i - 1] < current.bounds[i];
+            Shard shard = current.shards[i];
+            assert !shard.retired;
+            shard.tree.checkTreeInvariants();
+            for (int key : shard.tree.keysToArray()) {
+                assert current.indexOf(key) == i;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ShardedRBTreeTest {
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    public void compareAndCheck(TreeMap<Integer, String> map, ShardedRBTree tree) {
+        tree.checkTreeInvariants();
+        assertEquals(map, tree.toTreeMap());
+        assertEquals(map.size(), tree.size());
+        assertEquals(map.isEmpty(), tree.empty());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+        int[] keys = tree.keysToArray();
+        assertEquals(map.size(), keys.length);
+        int index = 0;
+        for (int key : map.keySet()) {
+            assertEquals(key, keys[index++]);
+        }
+        assertArrayEquals(map.values().toArray(new String[0]), tree.valuesToArray());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ShardedRBTree tree = new ShardedRBTree();
+        compareAndCheck(new TreeMap<>(), tree);
+        assertNull(tree.search(0));
+        assertEquals(-1, tree.delete(0));
+        assertArrayEquals(new int[0], tree.keysInRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        ShardedRBTree tree = new ShardedRBTree(8);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = rand.nextInt();
+            if (rand.nextInt(3) > 0) {
+                assertEquals(map.containsKey(key), tree.insert(key, "v" + key) == -1);
+                map.putIfAbsent(key, "v" + key);
+            } else {
+                key = map.isEmpty() ? key : map.ceilingKey(key) == null ? map.firstKey() : map.ceilingKey(key);
+                assertEquals(!map.containsKey(key), tree.delete(key) == -1);
+                map.remove(key);
+            }
+            assertEquals(map.get(key), tree.search(key));
+        }
+        compareAndCheck(map, tree);
+    }
+
+    @Test
+    public void testRangesAcrossShards() throws Exception {
+        ShardedRBTree tree = new ShardedRBTree(4);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            int key = rand.nextInt();
+            tree.insert(key, "v" + key);
+            map.put(key, "v" + key);
+        }
+        for (int i = 0; i < 100; i++) {
+            int lo = rand.nextInt();
+            int hi = lo + rand.nextInt(Integer.MAX_VALUE - Math.max(lo, 0));
+            SortedMap<Integer, String> range = map.subMap(lo, hi);
+            int[] keys = tree.keysInRange(lo, hi);
+            assertEquals(range.size(), keys.length);
+            int index = 0;
+            for (int key : range.keySet()) {
+                assertEquals(key, keys[index++]);
+            }
+            assertArrayEquals(range.values().toArray(new String[0]), tree.valuesInRange(lo, hi));
+        }
+        assertArrayEquals(new int[0], tree.keysInRange(10, 10));
+        assertArrayEquals(new String[0], tree.valuesInRange(10, 5));
+    }
+
+    @Test
+    public void testRebalance() throws Exception {
+        ShardedRBTree tree = new ShardedRBTree(4);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        // All the keys fall into a single one of the initial shards
+        for (int i = 0; i < 100000; i++) {
+            tree.insert(i, "v" + i);
+            map.put(i, "v" + i);
+        }
+        compareAndCheck(map, tree);
+        int[] sizes = tree.shardSizes();
+        assertEquals(4, sizes.length);
+        for (int size : sizes) {
+            assertTrue(Arrays.toString(sizes), size > 0 && size <= 2 * Math.max(map.size() / 4, ShardedRBTree.MIN_SHARD_SIZE));
+        }
+    }
+
+    /**
+     * Several writers, each in its own key range, race with readers and with the rebalancing their inserts cause
+     */
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        ShardedRBTree tree = new ShardedRBTree(4);
+        int writers = 4;
+        int perWriter = 30000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int base = w * perWriter;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perWriter; i++) {
+                        assertEquals(0, Math.min(tree.insert(base + i, "v" + (base + i)), 0));
+                        assertEquals("v" + (base + i), tree.search(base + i));
+                        if (i % 3 == 0) {
+                            assertTrue(tree.delete(base + i) >= 0);
+                            assertNull(tree.search(base + i));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    int[] keys = tree.keysToArray();
+                    for (int j = 1; j < keys.length; j++) {
+                        assertTrue(keys[j - 1] < keys[j]);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < writers * perWriter; i++) {
+            if (i % perWriter % 3 != 0) {
+                map.put(i, "v" + i);
+            }
+        }
+        compareAndCheck(map, tree);
+    }
+}
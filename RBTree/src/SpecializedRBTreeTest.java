@@ -0,0 +1,407 @@
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the specializations of AbstractRBTree (IntIntRBTree, IntLongRBTree, IntObjectRBTree and LongObjectRBTree)
+ * through one adapter per tree, with long keys and values, and checks that each is up to date with its template.
+ */
+@RunWith(Parameterized.class)
+public class SpecializedRBTreeTest {
+
+    /**
+     * What search returns for a missing key, in the trees with primitive values. The tests never store it.
+     */
+    static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /**
+     * A specialized tree, with its keys and values widened to long
+     */
+    abstract static class Subject {
+        final long minKey;
+        final long maxKey;
+
+        Subject(long minKey, long maxKey) {
+            this.minKey = minKey;
+            this.maxKey = maxKey;
+        }
+
+        abstract AbstractRBTree<?> tree();
+
+        abstract int insert(long k, long v);
+
+        abstract int delete(long k);
+
+        abstract boolean contains(long k);
+
+        /**
+         * @return The value of k, or null if k isn't in the tree
+         */
+        abstract Long search(long k);
+
+        abstract long minKey();
+
+        abstract long maxKey();
+
+        /**
+         * @return The value of the minimum key, or null if the tree is empty
+         */
+        abstract Long min();
+
+        /**
+         * @return The value of the maximum key, or null if the tree is empty
+         */
+        abstract Long max();
+
+        abstract long[] keys();
+
+        abstract long[] values();
+    }
+
+    static final class IntIntSubject extends Subject {
+        final IntIntRBTree tree = new IntIntRBTree();
+
+        IntIntSubject() {
+            super(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        AbstractRBTree<?> tree() {
+            return tree;
+        }
+
+        int insert(long k, long v) {
+            return tree.insert((int) k, (int) v);
+        }
+
+        int delete(long k) {
+            return tree.delete((int) k);
+        }
+
+        boolean contains(long k) {
+            return tree.contains((int) k);
+        }
+
+        Long search(long k) {
+            int value = tree.search((int) k, NOT_FOUND);
+            return (value == NOT_FOUND) ? null : (long) value;
+        }
+
+        long minKey() {
+            return tree.minKey();
+        }
+
+        long maxKey() {
+            return tree.maxKey();
+        }
+
+        Long min() {
+            return tree.empty() ? null : (long) tree.min();
+        }
+
+        Long max() {
+            return tree.empty() ? null : (long) tree.max();
+        }
+
+        long[] keys() {
+            return Arrays.stream(tree.keysToArray()).asLongStream().toArray();
+        }
+
+        long[] values() {
+            return Arrays.stream(tree.valuesToArray()).asLongStream().toArray();
+        }
+    }
+
+    static final class IntLongSubject extends Subject {
+        final IntLongRBTree tree = new IntLongRBTree();
+
+        IntLongSubject() {
+            super(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        AbstractRBTree<?> tree() {
+            return tree;
+        }
+
+        int insert(long k, long v) {
+            return tree.insert((int) k, v);
+        }
+
+        int delete(long k) {
+            return tree.delete((int) k);
+        }
+
+        boolean contains(long k) {
+            return tree.contains((int) k);
+        }
+
+        Long search(long k) {
+            long value = tree.search((int) k, NOT_FOUND);
+            return (value == NOT_FOUND) ? null : value;
+        }
+
+        long minKey() {
+            return tree.minKey();
+        }
+
+        long maxKey() {
+            return tree.maxKey();
+        }
+
+        Long min() {
+            return tree.empty() ? null : tree.min();
+        }
+
+        Long max() {
+            return tree.empty() ? null : tree.max();
+        }
+
+        long[] keys() {
+            return Arrays.stream(tree.keysToArray()).asLongStream().toArray();
+        }
+
+        long[] values() {
+            return tree.valuesToArray();
+        }
+    }
+
+    static final class IntObjectSubject extends Subject {
+        final IntObjectRBTree<Long> tree = new IntObjectRBTree<>();
+
+        IntObjectSubject() {
+            super(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        AbstractRBTree<?> tree() {
+            return tree;
+        }
+
+        int insert(long k, long v) {
+            return tree.insert((int) k, v);
+        }
+
+        int delete(long k) {
+            return tree.delete((int) k);
+        }
+
+        boolean contains(long k) {
+            return tree.contains((int) k);
+        }
+
+        Long search(long k) {
+            return tree.search((int) k);
+        }
+
+        long minKey() {
+            return tree.minKey();
+        }
+
+        long maxKey() {
+            return tree.maxKey();
+        }
+
+        Long min() {
+            return tree.min();
+        }
+
+        Long max() {
+            return tree.max();
+        }
+
+        long[] keys() {
+            return Arrays.stream(tree.keysToArray()).asLongStream().toArray();
+        }
+
+        long[] values() {
+            return Arrays.stream(tree.valuesToArray()).mapToLong(value -> (Long) value).toArray();
+        }
+    }
+
+    static final class LongObjectSubject extends Subject {
+        final LongObjectRBTree<Long> tree = new LongObjectRBTree<>();
+
+        LongObjectSubject() {
+            super(Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        AbstractRBTree<?> tree() {
+            return tree;
+        }
+
+        int insert(long k, long v) {
+            return tree.insert(k, v);
+        }
+
+        int delete(long k) {
+            return tree.delete(k);
+        }
+
+        boolean contains(long k) {
+            return tree.contains(k);
+        }
+
+        Long search(long k) {
+            return tree.search(k);
+        }
+
+        long minKey() {
+            return tree.minKey();
+        }
+
+        long maxKey() {
+            return tree.maxKey();
+        }
+
+        Long min() {
+            return tree.min();
+        }
+
+        Long max() {
+            return tree.max();
+        }
+
+        long[] keys() {
+            return tree.keysToArray();
+        }
+
+        long[] values() {
+            return Arrays.stream(tree.valuesToArray()).mapToLong(value -> (Long) value).toArray();
+        }
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> trees() {
+        return Arrays.asList(new Object[][]{
+                {"IntInt", "PrimitiveValueRBTree", "int", "int", (Supplier<Subject>) IntIntSubject::new},
+                {"IntLong", "PrimitiveValueRBTree", "int", "long", (Supplier<Subject>) IntLongSubject::new},
+                {"IntObject", "ObjectValueRBTree", "int", "", (Supplier<Subject>) IntObjectSubject::new},
+                {"LongObject", "ObjectValueRBTree", "long", "", (Supplier<Subject>) LongObjectSubject::new},
+        });
+    }
+
+    @Parameterized.Parameter(0)
+    public String name;
+    @Parameterized.Parameter(1)
+    public String template;
+    @Parameterized.Parameter(2)
+    public String keyType;
+    @Parameterized.Parameter(3)
+    public String valueType;
+    @Parameterized.Parameter(4)
+    public Supplier<Subject> factory;
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    public void compareAndCheck(TreeMap<Long, Long> map, Subject subject) {
+        subject.tree().checkTreeInvariants();
+        assertEquals(map.size(), subject.tree().size());
+        assertEquals(map.isEmpty(), subject.tree().empty());
+        assertArrayEquals(map.keySet().stream().mapToLong(Long::longValue).toArray(), subject.keys());
+        assertArrayEquals(map.values().stream().mapToLong(Long::longValue).toArray(), subject.values());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), subject.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), subject.max());
+        if (!map.isEmpty()) {
+            assertEquals((long) map.firstKey(), subject.minKey());
+            assertEquals((long) map.lastKey(), subject.maxKey());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Subject subject = factory.get();
+        compareAndCheck(new TreeMap<>(), subject);
+        assertFalse(subject.contains(0));
+        assertNull(subject.search(0));
+        assertEquals(-1, subject.delete(0));
+        try {
+            subject.minKey();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testFullKeyRange() throws Exception {
+        Subject subject = factory.get();
+        TreeMap<Long, Long> map = new TreeMap<>();
+        long value = 0;
+        for (long key : new long[]{subject.maxKey, subject.minKey, Integer.MAX_VALUE, 0, -1, 1}) {
+            if (map.containsKey(key)) {
+                continue;
+            }
+            assertTrue(subject.insert(key, value) >= 0);
+            map.put(key, value++);
+            assertEquals(-1, subject.insert(key, value));
+        }
+        compareAndCheck(map, subject);
+        assertEquals(map.get(subject.maxKey), subject.search(subject.maxKey));
+        assertTrue(subject.delete(subject.maxKey) >= 0);
+        map.remove(subject.maxKey);
+        compareAndCheck(map, subject);
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        Subject subject = factory.get();
+        TreeMap<Long, Long> map = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = rand.nextInt(2000) - 1000;
+            if (rand.nextInt(3) > 0) {
+                long value = rand.nextInt(Integer.MAX_VALUE);
+                assertEquals(map.containsKey(key), subject.insert(key, value) == -1);
+                map.putIfAbsent(key, value);
+            } else {
+                assertEquals(map.containsKey(key), subject.delete(key) != -1);
+                map.remove(key);
+            }
+            assertEquals(map.containsKey(key), subject.contains(key));
+            if (i % 1000 == 0) {
+                compareAndCheck(map, subject);
+            }
+        }
+        for (long key : map.keySet()) {
+            assertEquals(map.get(key), subject.search(key));
+        }
+        compareAndCheck(map, subject);
+        for (long key : new ArrayList<>(map.keySet())) {
+            assertTrue(subject.delete(key) >= 0);
+            map.remove(key);
+        }
+        compareAndCheck(map, subject);
+    }
+
+    /**
+     * The same substitution as templates/generate.sh. Skipped when the tests don't run from the project's directory
+     * (or the repository's), where the sources can be found.
+     */
+    @Test
+    public void testGeneratedFromTemplate() throws Exception {
+        Path project = Paths.get("").toAbsolutePath();
+        if (!Files.isDirectory(project.resolve("templates"))) {
+            project = project.resolve("RBTree");
+        }
+        Path templateFile = project.resolve("templates").resolve(template + ".java.template");
+        assumeTrue(Files.isRegularFile(templateFile));
+        String generated = new String(Files.readAllBytes(templateFile), StandardCharsets.UTF_8)
+                .replace("${Name}", name).replace("${key}", keyType).replace("${value}", valueType);
+        String source = new String(Files.readAllBytes(project.resolve("src").resolve(name + "RBTree.java")),
+                StandardCharsets.UTF_8);
+        assertEquals(name + "RBTree.java is out of date with its template; run templates/generate.sh",
+                generated, source);
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * TopDownRBTree
+ * A red-black tree whose insert and delete rebalance on the way down, in a single pass from the root,
+ * so its nodes need no parent pointers.
+ *
+ * RBTree's insert descends to the insertion point, then insertFixup climbs back up through the parent pointers,
+ * re-deriving at each step which side of its parent a node is on. Here the descent itself keeps the tree valid:
+ * insert splits any node with two red children (a color flip) before passing it, and fixes the red-red
+ * violation this may create with at most two rotations just above the current node. Delete makes sure the node
+ * it is about to step into is red (borrowing from or merging with the sibling), so the leaf it finally removes
+ * is red and nothing has to be fixed afterwards. The cost is extra color flips and rotations on the way down,
+ * done even when the bottom-up fixup would not have needed them; see RBTreeBenchmark with impl=TopDownRBTree.
+ *
+ * Without parent pointers there is no O(1) successor, so this tree doesn't have RBTree's cursors, subtree counts
+ * and views; it is the parent-free core for workloads that only need the point operations.
+ * Any int can be used as a key.
+ */
+public class TopDownRBTree {
+
+    /**
+     * A node of the tree, without a parent pointer
+     */
+    static final class Node {
+        int key;
+        String item;
+        boolean red;
+        Node left;
+        Node right;
+
+        Node(int key, String item, boolean red) {
+            this.key = key;
+            this.item = item;
+            this.red = red;
+        }
+    }
+
+    /**
+     * A black node above the root, whose right child is the root. It lets the rotations at the top of the tree
+     * replace the root like any other child, without a special case.
+     */
+    private final Node head = new Node(0, null, false);
+    private int size;
+    /**
+     * The number of colors changed by the current insert or delete
+     */
+    private int colorChanges;
+
+    /**
+     * A default constructor for the TopDownRBTree class
+     * Works at O(1).
+     */
+    public TopDownRBTree() {
+    }
+
+    /**
+     * Returns true if and only if the tree is empty
+     * Works at O(1)
+     *
+     * @return Whether the tree is empty
+     */
+    public boolean empty() {
+        return head.right == null;
+    }
+
+    /**
+     * Returns the number of nodes in the tree
+     * Works at O(1)
+     *
+     * @return The number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of an item with key k if it exists in the tree, otherwise returns null
+     * Works in O(logn)
+     *
+     * @param k The key by which to look up the value
+     * @return The value of the key, or null
+     */
+    public String search(int k) {
+        Node node = head.right;
+        while (node != null && node.key != k) {
+            node = (k < node.key) ? node.left : node.right;
+        }
+        return (node == null) ? null : node.item;
+    }
+
+    /**
+     * Inserts an item with key k and value v to the tree, rebalancing on the way down.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: checkTreeInvariants()
+     *
+     * @param k The key of the new item
+     * @param v The value of the new item
+     * @return The number of node-color changes that happened during the insert (usually more than RBTree's,
+     * since the colors are flipped on the way down), or -1 if the key is already in the tree
+     */
+    public int insert(int k, String v) {
+        colorChanges = 0;
+        if (head.right == null) {
+            head.right = new Node(k, v, false);
+            size++;
+            return 0;
+        }
+        boolean inserted = false;
+        // The great-grandparent, grandparent, parent and current node on the way down
+        Node greatGrandparent = head;
+        Node grandparent = null;
+        Node parent = null;
+        Node node = head.right;
+        boolean direction = false;
+        boolean lastDirection = false;
+        while (true) {
+            if (node == null) {
+                node = new Node(k, v, true);
+                setChild(parent, direction, node);
+                inserted = true;
+            } else if (isRed(node.left) && isRed(node.right)) {
+                // Split a 4-node on the way down, so that there is room for the new node at the bottom
+                setColor(node, true);
+                setColor(node.left, false);
+                setColor(node.right, false);
+            }
+            if (isRed(node) && isRed(parent)) {
+                // The split (or the new node) made two reds in a row: rotate them under the great-grandparent
+                boolean grandparentDirection = greatGrandparent.right == grandparent;
+                if (node == child(parent, lastDirection)) {
+                    setChild(greatGrandparent, grandparentDirection, rotate(grandparent, !lastDirection));
+                } else {
+                    setChild(greatGrandparent, grandparentDirection, rotateTwice(grandparent, !lastDirection));
+                }
+            }
+            if (node.key == k) {
+                break;
+            }
+            lastDirection = direction;
+            direction = node.key < k;
+            if (grandparent != null) {
+                greatGrandparent = grandparent;
+            }
+            grandparent = parent;
+            parent = node;
+            node = child(node, direction);
+        }
+        setColor(head.right, false);
+        if (!inserted) {
+            return -1;
+        }
+        size++;
+        return colorChanges;
+    }
+
+    /**
+     * Deletes the item with key k from the tree, if it is there, rebalancing on the way down.
+     * Works at O(logn)
+     * precondition: none
+     * postcondition: checkTreeInvariants()
+     *
+     * @param k The key of the item to delete
+     * @return The number of node-color changes that happened during the delete, or -1 if the key isn't in the tree
+     */
+    public int delete(int k) {
+        colorChanges = 0;
+        if (head.right == null) {
+            return -1;
+        }
+        Node grandparent = null;
+        Node parent = null;
+        Node node = head;
+        Node found = null;
+        boolean direction = true;
+        while (child(node, direction) != null) {
+            boolean lastDirection = direction;
+            grandparent = parent;
+            parent = node;
+            node = child(node, direction);
+            // Past the key, keep going to its predecessor, which is the node that is actually removed
+            direction = node.key < k;
+            if (node.key == k) {
+                found = node;
+            }
+
+            // Make sure node or its next child is red, so the node removed at the bottom is red
+            if (!isRed(node) && !isRed(child(node, direction))) {
+                if (isRed(child(node, !direction))) {
+                    Node rotated = rotate(node, direction);
+                    setChild(parent, lastDirection, rotated);
+                    parent = rotated;
+                } else {
+                    Node sibling = child(parent, !lastDirection);
+                    if (sibling != null) {
+                        if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                            // Merge node, its parent and its sibling into a 4-node
+                            setColor(parent, false);
+                            setColor(sibling, true);
+                            setColor(node, true);
+                        } else {
+                            // Borrow from the sibling
+                            boolean parentDirection = grandparent.right == parent;
+                            if (isRed(child(sibling, lastDirection))) {
+                                setChild(grandparent, parentDirection, rotateTwice(parent, lastDirection));
+                            } else {
+                                setChild(grandparent, parentDirection, rotate(parent, lastDirection));
+                            }
+                            Node top = child(grandparent, parentDirection);
+                            setColor(node, true);
+                            setColor(top, true);
+                            setColor(top.left, false);
+                            setColor(top.right, false);
+                        }
+                    }
+                }
+            }
+        }
+        if (found == null) {
+            setColor(head.right, false);
+            return -1;
+        }
+        found.key = node.key;
+        found.item = node.item;
+        setChild(parent, parent.right == node, (node.left == null) ? node.right : node.left);
+        size--;
+        if (head.right != null) {
+            setColor(head.right, false);
+        }
+        return colorChanges;
+    }
+
+    /**
+     * Returns the value of the item with the smallest key in the tree, or null if the tree is empty
+     * Works at O(logn)
+     *
+     * @return The value of the minimum key
+     */
+    public String min() {
+        Node node = head.right;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.item;
+    }
+
+    /**
+     * Returns the value of the item with the largest key in the tree, or null if the tree is empty
+     * Works at O(logn)
+     *
+     * @return The value of the maximum key
+     */
+    public String max() {
+        Node node = head.right;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.item;
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the keys in the tree
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        fillKeys(head.right, keys, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return keys;
+    }
+
+    /**
+     * Returns all the values in the tree, sorted by their keys, or an empty array if the tree is empty
+     * Works at O(n)
+     *
+     * @return All the values in the tree
+     */
+    public String[] valuesToArray() {
+        String[] values = new String[size];
+        fillValues(head.right, values, 0);
+        return values;
+    }
+
+    /**
+     * Returns a sorted array of all the keys in the range [lo, hi)
+     * Works at O(logn + m) where m is the number of keys in the range
+     *
+     * @param lo The lowest key in the range
+     * @param hi One past the highest key in the range
+     * @return The keys k in the tree such that lo <= k < hi
+     */
+    public int[] keysInRange(int lo, int hi) {
+        if (lo >= hi) {
+            return new int[0];
+        }
+        int count = countInRange(head.right, lo, hi - 1);
+        int[] keys = new int[count];
+        fillKeys(head.right, keys, 0, lo, hi - 1);
+        return keys;
+    }
+
+    /**
+     * Counts the keys of a subtree in [lo, hi], visiting only the nodes on the range's boundaries and in it
+     */
+    private static int countInRange(Node node, int lo, int hi) {
+        int count = 0;
+        for (; node != null; ) {
+            if (node.key < lo) {
+                node = node.right;
+            } else if (node.key > hi) {
+                node = node.left;
+            } else {
+                count += 1 + countInRange(node.left, lo, hi);
+                node = node.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills keys, from index on, with the keys of a subtree in [lo, hi], in order
+     *
+     * @return The index after the last key filled in
+     */
+    private static int fillKeys(Node node, int[] keys, int index, int lo, int hi) {
+        for (; node != null; ) {
+            if (node.key < lo) {
+                node = node.right;
+            } else if (node.key > hi) {
+                node = node.left;
+            } else {
+                index = fillKeys(node.left, keys, index, lo, hi);
+                keys[index++] = node.key;
+                node = node.right;
+            }
+        }
+        return index;
+    }
+
+    private static int fillValues(Node node, String[] values, int index) {
+        for (; node != null; node = node.right) {
+            index = fillValues(node.left, values, index);
+            values[index++] = node.item;
+        }
+        return index;
+    }
+
+    /**
+     * Rotates a subtree so that its child on the other side of direction becomes its root, and recolors the old
+     * root red and the new root black.
+     * Works at O(1)
+     *
+     * @param node      The root of the subtree
+     * @param direction The side the old root moves down to (true for right)
+     * @return The new root of the subtree
+     */
+    private Node rotate(Node node, boolean direction) {
+        Node top = child(node, !direction);
+        setChild(node, !direction, child(top, direction));
+        setChild(top, direction, node);
+        setColor(node, true);
+        setColor(top, false);
+        return top;
+    }
+
+    /**
+     * Rotates the inner grandchild of a subtree up to its root, with two rotations
+     * Works at O(1)
+     */
+    private Node rotateTwice(Node node, boolean direction) {
+        setChild(node, !direction, rotate(child(node, !direction), !direction));
+        return rotate(node, direction);
+    }
+
+    private void setColor(Node node, boolean red) {
+        if (node.red != red) {
+            node.red = red;
+            colorChanges++;
+        }
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.red;
+    }
+
+    private static Node child(Node node, boolean right) {
+        return right ? node.right : node.left;
+    }
+
+    private static void setChild(Node node, boolean right, Node child) {
+        if (right) {
+            node.right = child;
+        } else {
+            node.left = child;
+        }
+    }
+
+    /*
+     * All the function from here on down are just for debugging or testing purpose
+     */
+
+    /**
+     * Checks that the tree is a valid red-black tree, and that size is right. Used for testing.
+     * Works at O(n)
+     */
+    void checkTreeInvariants() {
+        assert !isRed(head.right) : "root is red";
+        int[] count = new int[1];
+        checkSubtree(head.right, Long.MIN_VALUE, Long.MAX_VALUE, count);
+        assert count[0] == size : "size is " + size + " but the tree has " + count[0] + " nodes";
+    }
+
+    /**
+     * @return The black height of the subtree
+     */
+    private static int checkSubtree(Node node, long lo, long hi, int[] count) {
+        if (node == null) {
+            return 1;
+        }
+        count[0]++;
+        assert lo <= node.key && node.key <= hi : "key out of order " + node.key;
+        assert !(node.red && (isRed(node.left) || isRed(node.right))) : "two reds in a row at " + node.key;
+        int leftHeight = checkSubtree(node.left, lo, node.key - 1L, count);
+        int rightHeight = checkSubtree(node.right, node.key + 1L, hi, count);
+        assert leftHeight == rightHeight : "unequal black heights under " + node.key;
+        return leftHeight + (node.red ? 0 : 1);
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TopDownRBTreeTest {
+
+    Random rand;
+
+    @Before
+    public void setUp() throws Throwable {
+        rand = new Random();
+    }
+
+    public void compareAndCheck(TreeMap<Integer, String> map, TopDownRBTree tree) {
+        tree.checkTreeInvariants();
+        assertEquals(map.size(), tree.size());
+        assertEquals(map.isEmpty(), tree.empty());
+        int[] keys = new int[map.size()];
+        int index = 0;
+        for (int key : map.keySet()) {
+            keys[index++] = key;
+        }
+        assertArrayEquals(keys, tree.keysToArray());
+        assertArrayEquals(map.values().toArray(new String[0]), tree.valuesToArray());
+        assertEquals(map.isEmpty() ? null : map.firstEntry().getValue(), tree.min());
+        assertEquals(map.isEmpty() ? null : map.lastEntry().getValue(), tree.max());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        TopDownRBTree tree = new TopDownRBTree();
+        compareAndCheck(new TreeMap<>(), tree);
+        assertNull(tree.search(0));
+        assertEquals(-1, tree.delete(0));
+        assertEquals(0, tree.keysInRange(0, 10).length);
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        TopDownRBTree tree = new TopDownRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int k = 0; k < 5000; k++) {
+            assertTrue(tree.insert(k, "" + k) >= 0);
+            map.put(k, "" + k);
+        }
+        compareAndCheck(map, tree);
+        for (int k = 0; k < 5000; k += 2) {
+            assertTrue(tree.delete(k) >= 0);
+            map.remove(k);
+            if (k % 500 == 0) {
+                tree.checkTreeInvariants();
+            }
+        }
+        compareAndCheck(map, tree);
+        for (int k = 4999; k >= 0; k--) {
+            assertEquals(map.containsKey(k), tree.delete(k) >= 0);
+            map.remove(k);
+        }
+        compareAndCheck(map, tree);
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        TopDownRBTree tree = new TopDownRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < 50000; i++) {
+            int key = rand.nextInt(3000) - 1500;
+            if (rand.nextBoolean()) {
+                assertEquals(!map.containsKey(key), tree.insert(key, "v" + key) >= 0);
+                map.put(key, "v" + key);
+            } else {
+                assertEquals(map.containsKey(key), tree.delete(key) >= 0);
+                map.remove(key);
+            }
+            assertEquals(map.get(key), tree.search(key));
+            if (i % 1000 == 0) {
+                compareAndCheck(map, tree);
+            }
+        }
+        compareAndCheck(map, tree);
+    }
+
+    @Test
+    public void testFullKeyRange() throws Exception {
+        TopDownRBTree tree = new TopDownRBTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int key : new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, 1}) {
+            assertTrue(tree.insert(key, "v" + key) >= 0);
+            map.put(key, "v" + key);
+            assertEquals(-1, tree.insert(key, "other"));
+        }
+        compareAndCheck(map, tree);
+        assertTrue(tree.delete(Integer.MIN_VALUE) >= 0);
+        map.remove(Integer.MIN_VALUE);
+        compareAndCheck(map, tree);
+    }
+
+    @Test
+    public void testKeysInRange() throws Exception {
+        TopDownRBTree tree = new TopDownRBTree();
+        TreeSet<Integer> keys = new TreeSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int key = rand.nextInt(5000);
+            tree.insert(key, "");
+            keys.add(key);
+        }
+        for (int i = 0; i < 200; i++) {
+            int lo = rand.nextInt(5200) - 100;
+            int hi = lo + rand.nextInt(600);
+            int[] expected = keys.subSet(lo, hi).stream().mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(expected, tree.keysInRange(lo, hi));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Generates the specialized trees in ../src from the templates in this directory.
+#   ./generate.sh          rewrites the generated classes
+#   ./generate.sh --check  only checks that they are up to date with the templates, and fails if one isn't
+# A template uses ${Name} for the class name's prefix, ${key} for the key type and ${value} for the value type.
+set -e
+cd "$(dirname "$0")"
+check=false
+if [ "$1" = "--check" ]; then
+    check=true
+fi
+stale=0
+
+# generate <template> <name> <key type> [<value type>]
+generate() {
+    output="../src/$2RBTree.java"
+    sed -e 's/\${Name}/'"$2"'/g' -e 's/\${key}/'"$3"'/g' -e 's/\${value}/'"$4"'/g' "$1.java.template" > "$output.tmp"
+    if $check; then
+        if ! cmp -s "$output.tmp" "$output"; then
+            echo "$output is out of date with templates/$1.java.template"
+            stale=1
+        fi
+        rm "$output.tmp"
+    else
+        mv "$output.tmp" "$output"
+    fi
+}
+
+generate PrimitiveValueRBTree IntInt int int
+generate PrimitiveValueRBTree IntLong int long
+generate ObjectValueRBTree IntObject int
+generate ObjectValueRBTree LongObject long
+
+exit $stale